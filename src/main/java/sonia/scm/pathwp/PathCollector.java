@@ -16,54 +16,289 @@
 
 package sonia.scm.pathwp;
 
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.apache.shiro.SecurityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import sonia.scm.pathwp.service.FileTreeWalker;
+import sonia.scm.pathwp.service.PathWritePermissionPhaseEvent;
+import sonia.scm.repository.Branch;
 import sonia.scm.repository.Changeset;
 import sonia.scm.repository.Modifications;
+import sonia.scm.repository.api.Command;
+import sonia.scm.repository.api.DiffFile;
+import sonia.scm.repository.api.DiffResult;
 import sonia.scm.repository.api.RepositoryService;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
+/**
+ * Collects the paths modified by changesets. If a prefetch is configured, the paths of the fetched changesets are
+ * verified by a separate thread, while the modifications of the next changesets are fetched. The changesets are
+ * iterated and the repository service is used only by the calling thread, because the changesets of a hook may be
+ * bound to it (e.g. the pending changesets of Mercurial). The number of fetched changesets waiting for their
+ * verification is limited, so that the memory stays bounded, even if the verification is slower than the
+ * repository. The verification is stopped cooperatively and never interrupted, and the collection does not return
+ * before the verification has terminated. If no thread is available for the verification, the paths are collected
+ * and verified by the calling thread.
+ * <p>
+ * Long linear histories of new branches, e.g. a branch with an imported history, are collected with a single diff
+ * between the newest changeset and the existing parent of the oldest one, if the repository supports diffs. So the
+ * costs depend on the changes of the resulting tree and not on the number of changesets. If the history has no
+ * existing parent, the files of the newest changeset are collected instead, which equals a diff with the empty tree.
+ * The changesets of existing branches are always collected one by one, because a single diff would hide
+ * modifications, which are reverted within the same push.
+ * <p>
+ * The collected paths are only kept to find duplicates. Above a threshold they are moved to temporary files (see
+ * {@link PathStore}), which are deleted when the collector is closed.
+ */
 class PathCollector implements Closeable {
 
   private static final Logger LOG = LoggerFactory.getLogger(PathCollector.class);
+  private static final String DEV_NULL = "/dev/null";
+  private static final int DIFF_BATCH_SIZE = 4096;
 
   private final RepositoryService repositoryService;
-  private final Set<String> paths = new HashSet<>();
+  private final ExecutorService executor;
+  private final int prefetch;
+  private final int diffThreshold;
+  private final PathStore paths;
+  private final String repositoryName;
+  private boolean complete = true;
+  private int changesetCount;
 
   PathCollector(RepositoryService repositoryService) {
+    this(repositoryService, null, 0, 0, 0);
+  }
+
+  /**
+   * @param executor executor for the verification of prefetched modifications
+   * @param prefetch maximum number of changesets fetched ahead, {@code 0} disables the prefetch
+   * @param diffThreshold minimum number of changesets to collect the paths with a single diff, {@code 0} disables
+   *                      the diff
+   * @param spillThreshold number of paths kept in memory before they are written to disk, {@code 0} keeps all paths
+   *                       in memory
+   */
+  PathCollector(RepositoryService repositoryService, ExecutorService executor, int prefetch, int diffThreshold, int spillThreshold) {
     this.repositoryService = repositoryService;
+    this.executor = executor;
+    this.prefetch = prefetch;
+    this.diffThreshold = diffThreshold;
+    this.paths = new PathStore(spillThreshold, null);
+    this.repositoryName = String.valueOf(repositoryService.getRepository().getNamespaceAndName());
+  }
+
+  /**
+   * Collects the paths of the changesets until the budget is exceeded and passes the paths, which have not been seen
+   * before, to the given consumer after each changeset. Exceptions thrown by the consumer stop the collection. Use
+   * {@link #isComplete()} to find out, whether the paths of all changesets have been collected.
+   *
+   * @param branches branches updated by the changesets, the paths are only collected with a single diff, if none of
+   *                 them exists yet
+   */
+  void collect(Iterable<Changeset> changesets, Collection<String> branches, PushBudget budget, Consumer<Set<String>> consumer) throws IOException {
+    Iterable<Changeset> remaining = changesets;
+    if (diffThreshold > 0 && repositoryService.isSupported(Command.DIFF_RESULT) && areNew(branches)) {
+      List<Changeset> list = new ArrayList<>();
+      changesets.forEach(list::add);
+      if (list.size() >= diffThreshold && collectWithDiff(list, budget, consumer)) {
+        return;
+      }
+      remaining = list;
+    }
+    if (prefetch > 0 && executor != null) {
+      collectPipelined(remaining, budget, consumer);
+    } else {
+      collectSequentially(remaining, budget, consumer);
+    }
   }
 
-  Set<String> collect(Iterable<Changeset> changesets) throws IOException {
+  private void collectSequentially(Iterable<Changeset> changesets, PushBudget budget, Consumer<Set<String>> consumer) throws IOException {
     for (Changeset c : changesets) {
-      collect(c);
+      if (isExceeded(budget)) {
+        break;
+      }
+      changesetCount++;
+      consume(fetch(c), consumer);
     }
-    return paths;
   }
 
-  private void collect(Changeset changeset) throws IOException {
+  private void collectPipelined(Iterable<Changeset> changesets, PushBudget budget, Consumer<Set<String>> consumer) throws IOException {
+    BlockingQueue<Fetched> queue = new ArrayBlockingQueue<>(prefetch);
+    Verifier verifier = new Verifier(queue, budget, consumer);
+    try {
+      executor.execute(SecurityUtils.getSubject().associateWith(verifier));
+    } catch (RejectedExecutionException e) {
+      LOG.debug("no thread available to verify prefetched paths, collecting paths without prefetch");
+      collectSequentially(changesets, budget, consumer);
+      return;
+    }
+    boolean interrupted = false;
+    try {
+      for (Changeset changeset : changesets) {
+        if (verifier.isStopped()) {
+          break;
+        }
+        if (Thread.currentThread().isInterrupted()) {
+          interrupted = true;
+          break;
+        }
+        Uninterruptibles.putUninterruptibly(queue, new Fetched(fetch(changeset), null));
+      }
+    } catch (IOException | RuntimeException e) {
+      Uninterruptibles.putUninterruptibly(queue, new Fetched(null, e));
+    } finally {
+      Uninterruptibles.putUninterruptibly(queue, Fetched.END);
+      verifier.awaitTermination();
+    }
+    verifier.rethrowFailure();
+    if (interrupted) {
+      throw new InterruptedIOException("interrupted while collecting paths");
+    }
+  }
+
+  private boolean areNew(Collection<String> branches) throws IOException {
+    if (branches == null || branches.isEmpty() || !repositoryService.isSupported(Command.BRANCHES)) {
+      return false;
+    }
+    for (Branch branch : repositoryService.getBranchesCommand().setDisableCache(true).getBranches().getBranches()) {
+      if (branches.contains(branch.getName())) {
+        LOG.debug("branch {} exists already, collecting paths of every changeset", branch.getName());
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Collects the paths with a single diff, if the changesets form a range with a single newest changeset and at most
+   * one existing parent. Without an existing parent the files of the newest changeset are collected. Returns
+   * {@code false} if the paths could not be collected this way.
+   */
+  private boolean collectWithDiff(List<Changeset> changesets, PushBudget budget, Consumer<Set<String>> consumer) throws IOException {
+    Set<String> ids = new HashSet<>();
+    Set<String> parents = new HashSet<>();
+    for (Changeset changeset : changesets) {
+      ids.add(changeset.getId());
+      if (changeset.getParents() != null) {
+        parents.addAll(changeset.getParents());
+      }
+    }
+    String head = null;
+    for (Changeset changeset : changesets) {
+      if (!parents.contains(changeset.getId())) {
+        if (head != null) {
+          LOG.debug("changesets have more than one head, collecting paths of every changeset");
+          return false;
+        }
+        head = changeset.getId();
+      }
+    }
+    parents.removeAll(ids);
+    if (head == null || parents.size() > 1) {
+      LOG.debug("changesets have no single existing parent, collecting paths of every changeset");
+      return false;
+    }
+    if (parents.isEmpty() && !repositoryService.isSupported(Command.BROWSE)) {
+      LOG.debug("changesets have no existing parent, collecting paths of every changeset");
+      return false;
+    }
+    if (isExceeded(budget)) {
+      return true;
+    }
+    PathWritePermissionPhaseEvent event = PathWritePermissionPhaseEvent.start("diff", repositoryName);
+    DiffPaths diffPaths = new DiffPaths(budget, consumer);
+    try {
+      if (parents.isEmpty()) {
+        LOG.debug("collecting paths of {} changesets with the files of {}", changesets.size(), head);
+        new FileTreeWalker(repositoryService).walk(head, diffPaths::add);
+      } else {
+        String base = parents.iterator().next();
+        LOG.debug("collecting paths of {} changesets with diff from {} to {}", changesets.size(), base, head);
+        DiffResult diff = repositoryService.getDiffResultCommand()
+          .setRevision(head)
+          .setAncestorChangeset(base)
+          .getDiffResult();
+        for (DiffFile file : diff) {
+          if (!diffPaths.add(file.getOldPath()) || !diffPaths.add(file.getNewPath())) {
+            break;
+          }
+        }
+      }
+      diffPaths.flush();
+    } finally {
+      event.end(diffPaths.count);
+    }
+    if (complete) {
+      changesetCount = changesets.size();
+    }
+    return true;
+  }
+
+  private boolean isExceeded(PushBudget budget) {
+    return isExceeded(budget, 0);
+  }
+
+  private boolean isExceeded(PushBudget budget, int pending) {
+    if (budget.isExceeded(paths.size() + pending)) {
+      LOG.debug("stopped collecting paths after {} paths, the budget is exceeded", paths.size() + pending);
+      complete = false;
+      return true;
+    }
+    return false;
+  }
+
+  boolean isComplete() {
+    return complete;
+  }
+
+  /**
+   * Returns the number of changesets, whose paths have been collected.
+   */
+  int getChangesetCount() {
+    return changesetCount;
+  }
+
+  private Collection<String> fetch(Changeset changeset) throws IOException {
+    PathWritePermissionPhaseEvent event = PathWritePermissionPhaseEvent.start("fetch", repositoryName);
     Modifications modifications = repositoryService.getModificationsCommand()
       .revision(changeset.getId())
       .getModifications();
 
     if (modifications != null) {
-      collect(modifications);
-    } else {
-      LOG.warn("there is no modifications for the changeset {}", changeset.getId());
+      List<String> modifiedPaths = modifications.effectedPathsStream().collect(Collectors.toList());
+      event.end(modifiedPaths.size());
+      return modifiedPaths;
     }
+    LOG.warn("there is no modifications for the changeset {}", changeset.getId());
+    event.end(0);
+    return new ArrayList<>();
   }
 
-  private void collect(Modifications modifications) {
-    append(modifications.getEffectedPaths());
-  }
-
-  private void append(Iterable<String> modifiedPaths) {
+  private void consume(Collection<String> modifiedPaths, Consumer<Set<String>> consumer) throws IOException {
+    Set<String> added = new HashSet<>();
     for (String path : modifiedPaths) {
-      paths.add(normalizePath(path));
+      String normalized = normalizePath(path);
+      if (paths.add(normalized)) {
+        added.add(normalized);
+      }
+    }
+    if (!added.isEmpty()) {
+      consumer.accept(added);
     }
   }
 
@@ -76,6 +311,152 @@ class PathCollector implements Closeable {
 
   @Override
   public void close() {
-    repositoryService.close();
+    try {
+      paths.close();
+    } finally {
+      repositoryService.close();
+    }
+  }
+
+  /**
+   * Verifies the paths of the fetched changesets in the order they have been fetched. Once the verification has been
+   * stopped, because the budget is exceeded or the verification failed, the remaining changesets are only taken from
+   * the queue, so that the fetching thread never blocks on the queue. The verifier terminates, when it takes the end
+   * of the queue.
+   */
+  private final class Verifier implements Runnable {
+
+    private final BlockingQueue<Fetched> queue;
+    private final PushBudget budget;
+    private final Consumer<Set<String>> consumer;
+    private final CountDownLatch terminated = new CountDownLatch(1);
+    private volatile boolean stopped;
+    private Exception failure;
+
+    private Verifier(BlockingQueue<Fetched> queue, PushBudget budget, Consumer<Set<String>> consumer) {
+      this.queue = queue;
+      this.budget = budget;
+      this.consumer = consumer;
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          Fetched fetched = Uninterruptibles.takeUninterruptibly(queue);
+          if (fetched.isEnd()) {
+            return;
+          }
+          if (!stopped) {
+            verify(fetched);
+          }
+        }
+      } finally {
+        terminated.countDown();
+      }
+    }
+
+    private void verify(Fetched fetched) {
+      try {
+        if (isExceeded(budget)) {
+          stopped = true;
+          return;
+        }
+        changesetCount++;
+        consume(fetched.get(), consumer);
+      } catch (IOException | RuntimeException e) {
+        failure = e;
+        stopped = true;
+      }
+    }
+
+    boolean isStopped() {
+      return stopped;
+    }
+
+    void awaitTermination() {
+      Uninterruptibles.awaitUninterruptibly(terminated);
+    }
+
+    /**
+     * Throws the failure of the verification, if there is one. Must only be called after the termination.
+     */
+    void rethrowFailure() throws IOException {
+      if (failure instanceof IOException) {
+        throw (IOException) failure;
+      }
+      if (failure != null) {
+        throw (RuntimeException) failure;
+      }
+    }
+  }
+
+  /**
+   * Passes the paths of a diff in batches to the consumer and charges them to the budget, so that a huge diff is
+   * neither held in memory nor collected beyond the budget.
+   */
+  private final class DiffPaths {
+
+    private final PushBudget budget;
+    private final Consumer<Set<String>> consumer;
+    private final List<String> batch = new ArrayList<>();
+    private long count;
+
+    private DiffPaths(PushBudget budget, Consumer<Set<String>> consumer) {
+      this.budget = budget;
+      this.consumer = consumer;
+    }
+
+    /**
+     * Adds the path and returns {@code false} if the budget is exceeded.
+     */
+    boolean add(String path) throws IOException {
+      if (path == null || path.isEmpty() || DEV_NULL.equals(path)) {
+        return true;
+      }
+      batch.add(path);
+      count++;
+      if (batch.size() == DIFF_BATCH_SIZE) {
+        flush();
+      }
+      return !isExceeded(budget, batch.size());
+    }
+
+    void flush() throws IOException {
+      if (!batch.isEmpty()) {
+        consume(batch, consumer);
+        batch.clear();
+      }
+    }
+  }
+
+  /**
+   * The modified paths of a prefetched changeset or the failure of the prefetch.
+   */
+  private static final class Fetched {
+
+    private static final Fetched END = new Fetched(new ArrayList<>(), null);
+
+    private final Collection<String> paths;
+    private final Exception failure;
+
+    private Fetched(Collection<String> paths, Exception failure) {
+      this.paths = paths;
+      this.failure = failure;
+    }
+
+    boolean isEnd() {
+      return this == END;
+    }
+
+    Collection<String> get() throws IOException {
+      if (failure instanceof IOException) {
+        throw (IOException) failure;
+      }
+      if (failure != null) {
+        throw (RuntimeException) failure;
+      }
+      return paths;
+    }
   }
 }
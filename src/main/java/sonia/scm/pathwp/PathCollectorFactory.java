@@ -16,14 +16,58 @@
 
 package sonia.scm.pathwp;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import sonia.scm.repository.Repository;
 import sonia.scm.repository.api.RepositoryServiceFactory;
 
 import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+@Singleton
 public class PathCollectorFactory {
 
+  /**
+   * Maximum number of changesets, whose modifications are fetched ahead, {@code 0} disables the prefetch.
+   */
+  static final String PREFETCH_PROPERTY = "scm.pathwp.prefetch";
+
+  /**
+   * Minimum number of changesets of a push, which are collected with a single diff if possible, {@code 0} disables
+   * the diff.
+   */
+  static final String DIFF_THRESHOLD_PROPERTY = "scm.pathwp.diffThreshold";
+
+  /**
+   * Number of collected paths kept in memory, before they are written to temporary files, {@code 0} keeps all paths
+   * in memory.
+   */
+  static final String SPILL_THRESHOLD_PROPERTY = "scm.pathwp.spillThreshold";
+
+  /**
+   * Maximum number of threads verifying prefetched paths. Pushes arriving while all threads are busy are collected
+   * without prefetch.
+   */
+  static final String PREFETCH_THREADS_PROPERTY = "scm.pathwp.prefetchThreads";
+
+  private static final int DEFAULT_PREFETCH = 16;
+  private static final int DEFAULT_DIFF_THRESHOLD = 100;
+  private static final int DEFAULT_SPILL_THRESHOLD = 500_000;
+
   private final RepositoryServiceFactory repositoryServiceFactory;
+  private final int prefetch = Integer.getInteger(PREFETCH_PROPERTY, DEFAULT_PREFETCH);
+  private final int diffThreshold = Integer.getInteger(DIFF_THRESHOLD_PROPERTY, DEFAULT_DIFF_THRESHOLD);
+  private final int spillThreshold = Integer.getInteger(SPILL_THRESHOLD_PROPERTY, DEFAULT_SPILL_THRESHOLD);
+  private final ExecutorService executor = new ThreadPoolExecutor(
+    0,
+    Math.max(1, Integer.getInteger(PREFETCH_THREADS_PROPERTY, Runtime.getRuntime().availableProcessors())),
+    60, TimeUnit.SECONDS,
+    new SynchronousQueue<>(),
+    new ThreadFactoryBuilder().setNameFormat("pathwp-prefetch-%d").setDaemon(true).build()
+  );
 
   @Inject
   public PathCollectorFactory(RepositoryServiceFactory repositoryServiceFactory) {
@@ -31,6 +75,6 @@ public class PathCollectorFactory {
   }
 
   PathCollector create(Repository repository) {
-    return new PathCollector(repositoryServiceFactory.create(repository));
+    return new PathCollector(repositoryServiceFactory.create(repository), executor, prefetch, diffThreshold, spillThreshold);
   }
 }
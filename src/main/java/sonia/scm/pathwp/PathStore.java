@@ -0,0 +1,295 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Deduplicating store for the collected paths. The paths are kept in memory, until their number reaches the
+ * threshold. Then they are written sorted to a temporary file, which is memory mapped for the lookup of duplicates.
+ * If there are too many of these files, they are merged into a single one. The temporary files are deleted on
+ * {@link #close()}, including those of failed writes. The mapped buffers are released by the garbage collector, after
+ * the store has dropped its references to them on close.
+ */
+final class PathStore implements Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(PathStore.class);
+
+  private static final int MAX_RUNS = 8;
+
+  private final int threshold;
+  private final Path parent;
+  private final Set<String> buffer = new HashSet<>();
+  private final List<Run> runs = new ArrayList<>();
+  private Path directory;
+  private long size;
+  private int fileCounter;
+
+  /**
+   * @param threshold number of paths kept in memory, {@code 0} means that the paths are never written to disk
+   * @param parent the directory for the temporary files or {@code null} for the default temporary directory
+   */
+  PathStore(int threshold, Path parent) {
+    this.threshold = threshold;
+    this.parent = parent;
+  }
+
+  /**
+   * Adds the given path and returns {@code true}, if it has not been added before.
+   */
+  boolean add(String path) throws IOException {
+    if (buffer.contains(path)) {
+      return false;
+    }
+    if (!runs.isEmpty()) {
+      byte[] key = path.getBytes(StandardCharsets.UTF_8);
+      for (Run run : runs) {
+        if (run.contains(key)) {
+          return false;
+        }
+      }
+    }
+    buffer.add(path);
+    size++;
+    if (threshold > 0 && buffer.size() >= threshold) {
+      spill();
+    }
+    return true;
+  }
+
+  long size() {
+    return size;
+  }
+
+  int getRunCount() {
+    return runs.size();
+  }
+
+  private void spill() throws IOException {
+    byte[][] sorted = new byte[buffer.size()][];
+    int i = 0;
+    for (String path : buffer) {
+      sorted[i++] = path.getBytes(StandardCharsets.UTF_8);
+    }
+    Arrays.sort(sorted, Arrays::compareUnsigned);
+    LOG.debug("writing {} paths to disk, {} paths collected", sorted.length, size);
+    RunWriter writer = new RunWriter(createFile());
+    for (byte[] path : sorted) {
+      writer.write(path);
+    }
+    runs.add(writer.finish());
+    buffer.clear();
+    if (runs.size() >= MAX_RUNS) {
+      merge();
+    }
+  }
+
+  private void merge() throws IOException {
+    LOG.debug("merging {} files with collected paths", runs.size());
+    PriorityQueue<Cursor> queue = new PriorityQueue<>((a, b) -> Arrays.compareUnsigned(a.current, b.current));
+    for (Run run : runs) {
+      Cursor cursor = new Cursor(run);
+      if (cursor.next()) {
+        queue.add(cursor);
+      }
+    }
+    RunWriter writer = new RunWriter(createFile());
+    while (!queue.isEmpty()) {
+      Cursor cursor = queue.poll();
+      writer.write(cursor.current);
+      if (cursor.next()) {
+        queue.add(cursor);
+      }
+    }
+    Run merged = writer.finish();
+    for (Run run : runs) {
+      delete(run.file);
+    }
+    runs.clear();
+    runs.add(merged);
+  }
+
+  private Path createFile() throws IOException {
+    if (directory == null) {
+      directory = parent == null ? Files.createTempDirectory("scm-pathwp") : Files.createTempDirectory(parent, "scm-pathwp");
+    }
+    return directory.resolve("paths-" + (fileCounter++));
+  }
+
+  @Override
+  public void close() {
+    buffer.clear();
+    runs.clear();
+    if (directory != null) {
+      try (Stream<Path> files = Files.list(directory)) {
+        files.forEach(PathStore::delete);
+      } catch (IOException e) {
+        LOG.warn("could not list temporary files in {}", directory, e);
+      }
+      delete(directory);
+      directory = null;
+    }
+  }
+
+  private static void delete(Path path) {
+    try {
+      Files.deleteIfExists(path);
+    } catch (IOException e) {
+      LOG.warn("could not delete temporary file {}, trying again on exit", path, e);
+      path.toFile().deleteOnExit();
+    }
+  }
+
+  /**
+   * Writes a sorted run. The file contains the length and bytes of every path followed by the offsets of the paths
+   * and the number of paths, so that the paths can be searched binary.
+   */
+  private static final class RunWriter {
+
+    private final Path file;
+    private final DataOutputStream output;
+    private int[] offsets = new int[1024];
+    private int count;
+    private long position;
+
+    RunWriter(Path file) throws IOException {
+      this.file = file;
+      this.output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)));
+    }
+
+    void write(byte[] path) throws IOException {
+      if (position + Integer.BYTES + path.length > Integer.MAX_VALUE) {
+        output.close();
+        throw new IOException("too many paths for a single file of collected paths");
+      }
+      if (count == offsets.length) {
+        offsets = Arrays.copyOf(offsets, offsets.length * 2);
+      }
+      offsets[count++] = (int) position;
+      output.writeInt(path.length);
+      output.write(path);
+      position += Integer.BYTES + path.length;
+    }
+
+    Run finish() throws IOException {
+      try (DataOutputStream out = output) {
+        for (int i = 0; i < count; i++) {
+          out.writeInt(offsets[i]);
+        }
+        out.writeInt(count);
+      }
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+        return new Run(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), count);
+      }
+    }
+  }
+
+  private static final class Run {
+
+    private final Path file;
+    private final MappedByteBuffer buffer;
+    private final int count;
+    private final int offsetsStart;
+
+    private Run(Path file, MappedByteBuffer buffer, int count) {
+      this.file = file;
+      this.buffer = buffer;
+      this.count = count;
+      this.offsetsStart = buffer.capacity() - Integer.BYTES - count * Integer.BYTES;
+    }
+
+    boolean contains(byte[] key) {
+      int low = 0;
+      int high = count - 1;
+      while (low <= high) {
+        int middle = (low + high) >>> 1;
+        int comparison = compare(middle, key);
+        if (comparison < 0) {
+          low = middle + 1;
+        } else if (comparison > 0) {
+          high = middle - 1;
+        } else {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private int compare(int index, byte[] key) {
+      int offset = buffer.getInt(offsetsStart + index * Integer.BYTES);
+      int length = buffer.getInt(offset);
+      int start = offset + Integer.BYTES;
+      int common = Math.min(length, key.length);
+      for (int i = 0; i < common; i++) {
+        int comparison = Integer.compare(buffer.get(start + i) & 0xff, key[i] & 0xff);
+        if (comparison != 0) {
+          return comparison;
+        }
+      }
+      return Integer.compare(length, key.length);
+    }
+
+    byte[] get(int index) {
+      int offset = buffer.getInt(offsetsStart + index * Integer.BYTES);
+      byte[] path = new byte[buffer.getInt(offset)];
+      ByteBuffer view = buffer.duplicate();
+      view.position(offset + Integer.BYTES);
+      view.get(path);
+      return path;
+    }
+  }
+
+  private static final class Cursor {
+
+    private final Run run;
+    private int index = -1;
+    private byte[] current;
+
+    private Cursor(Run run) {
+      this.run = run;
+    }
+
+    boolean next() {
+      index++;
+      if (index >= run.count) {
+        return false;
+      }
+      current = run.get(index);
+      return true;
+    }
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time and path budget of the verification of a single push. The limits are configured with the system properties
+ * {@value #TIME_PROPERTY} and {@value #PATHS_PROPERTY}, {@code 0} means unlimited. The budget records the duration
+ * of every phase of the verification, so that the limits can be tuned.
+ */
+final class PushBudget {
+
+  static final String TIME_PROPERTY = "scm.pathwp.budget.millis";
+  static final String PATHS_PROPERTY = "scm.pathwp.budget.paths";
+
+  private final long maxNanos;
+  private final long maxPaths;
+  private final long start;
+  private final Map<String, Long> phases = new LinkedHashMap<>();
+  private long phaseStart;
+
+  PushBudget(long maxMillis, long maxPaths) {
+    this.maxNanos = TimeUnit.MILLISECONDS.toNanos(maxMillis);
+    this.maxPaths = maxPaths;
+    this.start = System.nanoTime();
+    this.phaseStart = start;
+  }
+
+  /**
+   * Returns {@code true} if the time is up or if the given number of paths exceeds the limit.
+   */
+  boolean isExceeded(long paths) {
+    return (maxPaths > 0 && paths > maxPaths) || (maxNanos > 0 && System.nanoTime() - start > maxNanos);
+  }
+
+  /**
+   * Marks the end of the given phase. The next phase starts immediately.
+   */
+  void phaseCompleted(String phase) {
+    long now = System.nanoTime();
+    phases.merge(phase, now - phaseStart, Long::sum);
+    phaseStart = now;
+  }
+
+  long getElapsedMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    builder.append(getElapsedMillis()).append("ms");
+    String separator = " (";
+    for (Map.Entry<String, Long> phase : phases.entrySet()) {
+      builder.append(separator).append(phase.getKey()).append(": ").append(TimeUnit.NANOSECONDS.toMillis(phase.getValue())).append("ms");
+      separator = ", ";
+    }
+    if (!phases.isEmpty()) {
+      builder.append(')');
+    }
+    return builder.toString();
+  }
+}
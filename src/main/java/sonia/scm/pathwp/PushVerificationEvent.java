@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder event for the verification of a whole push by the {@link RepositoryHook}. The phases of the
+ * verification are recorded as {@link sonia.scm.pathwp.service.PathWritePermissionPhaseEvent}s.
+ */
+@Name("sonia.scm.pathwp.PushVerification")
+@Label("Path Write Permission Push Verification")
+@Description("Verification of the path write permissions of a push")
+@Category({"SCM-Manager", "Path Write Permissions"})
+@StackTrace(false)
+final class PushVerificationEvent extends Event {
+
+  enum Verdict {
+    ALLOWED, DENIED, OVERLOADED, FAILED
+  }
+
+  @Label("Repository")
+  String repository;
+
+  @Label("Branches")
+  long branches;
+
+  @Label("Changesets")
+  long changesets;
+
+  @Label("Paths")
+  @Description("Number of evaluated paths")
+  long paths;
+
+  @Label("Rules")
+  @Description("Number of rules which are evaluated for every path")
+  long rules;
+
+  @Label("Verdict")
+  String verdict;
+}
@@ -19,11 +19,15 @@ package sonia.scm.pathwp;
 import com.github.legman.Subscribe;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.shiro.SecurityUtils;
-import org.apache.shiro.subject.PrincipalCollection;
-import org.apache.shiro.subject.Subject;
 import sonia.scm.ContextEntry;
 import sonia.scm.EagerSingleton;
+import sonia.scm.pathwp.audit.AuditRecord;
+import sonia.scm.pathwp.audit.PathWritePermissionAuditLog;
+import sonia.scm.pathwp.service.PathWritePermissionPhaseEvent;
 import sonia.scm.pathwp.service.PathWritePermissionService;
+import sonia.scm.pathwp.service.PathWritePermissionStatistics;
+import sonia.scm.pathwp.service.PathWritePermissions;
+import sonia.scm.pathwp.service.PathWritePrivileges;
 import sonia.scm.plugin.Extension;
 import sonia.scm.repository.PreReceiveRepositoryHookEvent;
 import sonia.scm.repository.Repository;
@@ -33,9 +37,13 @@ import sonia.scm.user.User;
 
 import jakarta.inject.Inject;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.function.Function;
 import java.util.function.UnaryOperator;
@@ -45,6 +53,10 @@ import static sonia.scm.ContextEntry.ContextBuilder.entity;
 
 /**
  * Receive repository events and Verify the write permission on every path found in the event.
+ * <p>
+ * The verification of a single push is limited by a time and a path budget (see {@link PushBudget}). If a push
+ * exceeds the budget, the {@link PathWritePermissions.OverloadPolicy} of the repository decides, whether the push is
+ * rejected or whether the remaining paths are verified on directory level.
  *
  * @author Mohamed Karray
  */
@@ -55,11 +67,23 @@ public class RepositoryHook {
 
   private final PathWritePermissionService service;
   private final PathCollectorFactory pathCollectorFactory;
+  private final PathWritePermissionAuditLog auditLog;
+  private final PathWritePermissionStatistics statistics;
+  private final long budgetMillis;
+  private final long budgetPaths;
 
   @Inject
-  public RepositoryHook(PathWritePermissionService service, PathCollectorFactory pathCollectorFactory) {
+  public RepositoryHook(PathWritePermissionService service, PathCollectorFactory pathCollectorFactory, PathWritePermissionAuditLog auditLog, PathWritePermissionStatistics statistics) {
+    this(service, pathCollectorFactory, auditLog, statistics, Long.getLong(PushBudget.TIME_PROPERTY, 0), Long.getLong(PushBudget.PATHS_PROPERTY, 0));
+  }
+
+  RepositoryHook(PathWritePermissionService service, PathCollectorFactory pathCollectorFactory, PathWritePermissionAuditLog auditLog, PathWritePermissionStatistics statistics, long budgetMillis, long budgetPaths) {
     this.service = service;
     this.pathCollectorFactory = pathCollectorFactory;
+    this.auditLog = auditLog;
+    this.statistics = statistics;
+    this.budgetMillis = budgetMillis;
+    this.budgetPaths = budgetPaths;
   }
 
   @Subscribe(async = false)
@@ -81,75 +105,254 @@ public class RepositoryHook {
     }
 
     log.trace("received hook for repository {}", repository.getName());
-    Set<String> paths = collectPath(context, repository);
-
-    Subject subject = SecurityUtils.getSubject();
-    PrincipalCollection principals = subject.getPrincipals();
+    long start = System.nanoTime();
+    PushVerificationEvent verificationEvent = new PushVerificationEvent();
+    verificationEvent.begin();
+    PushBudget budget = new PushBudget(budgetMillis, budgetPaths);
+    User user = SecurityUtils.getSubject().getPrincipals().oneByType(User.class);
+    PushVerification verification = new PushVerification(repository, service.getPrivileges(user, repository), budget);
+    if (auditLog.isEnabled()) {
+      verification.audit(new AuditRecord("push", verification.repositoryName, user.getName()), auditLog.isAuditingAllowed());
+    }
+    budget.phaseCompleted("resolve");
 
-    User user = principals.oneByType(User.class);
+    PushVerificationEvent.Verdict verdict = PushVerificationEvent.Verdict.FAILED;
+    try {
+      if (context.isFeatureSupported(HookFeature.BRANCH_PROVIDER)) {
+        List<String> createdOrModified = context.getBranchProvider().getCreatedOrModified();
+        Set<String> branches = new HashSet<>(createdOrModified);
+        branches.addAll(context.getBranchProvider().getDeletedOrClosed());
+        verification.branchCount = branches.size();
+        checkIfUserIsPrivileged(context, verification, branches, createdOrModified);
+      } else {
+        Target target = new Target(
+          "*",
+          path -> entity("Path", path).in(repository).build(),
+          path -> "Permission denied for the path " + path
+        );
+        verification.branchCount = 1;
+        checkCollectedPaths(context, verification, Collections.singletonList(target), Collections.emptyList());
+      }
+      budget.phaseCompleted("verify");
+      verdict = PushVerificationEvent.Verdict.ALLOWED;
+    } catch (PathWritePermissionException e) {
+      verdict = verification.isOverloaded() ? PushVerificationEvent.Verdict.OVERLOADED : PushVerificationEvent.Verdict.DENIED;
+      throw e;
+    } finally {
+      if (verification.isOverloaded()) {
+        log.warn("verification of push to repository {} exceeded the budget after {} paths: {}", repository, verification.getEvaluated(), budget);
+      } else {
+        log.debug("verified push to repository {} with {} paths in {}", repository, verification.getEvaluated(), budget);
+      }
+      verification.commit(verificationEvent, verdict);
+      verification.recordAudit(auditLog, verdict);
+      statistics.recordPush(repository, System.nanoTime() - start,
+        verdict == PushVerificationEvent.Verdict.DENIED || verdict == PushVerificationEvent.Verdict.OVERLOADED);
+    }
+  }
 
-    if (context.isFeatureSupported(HookFeature.BRANCH_PROVIDER)) {
-      Set<String> branches = new HashSet<>();
-      branches.addAll(context.getBranchProvider().getCreatedOrModified());
-      branches.addAll(context.getBranchProvider().getDeletedOrClosed());
-      checkIfUserIsPrivileged(context, repository, user, branches, paths);
+  private void checkIfUserIsPrivileged(HookContext context, PushVerification verification, Set<String> branches, List<String> createdOrModified) throws IOException {
+    Repository repository = verification.repository;
+    if (context.isFeatureSupported(HookFeature.MODIFICATIONS_PROVIDER)) {
+      for (String branch : branches) {
+        verification.verify(
+          createBranchTarget(repository, branch),
+          context.getModificationsProvider().getModifications(branch).effectedPathsStream(),
+          true
+        );
+      }
     } else {
-      checkIfUserIsPrivileged(repository, user, paths);
+      // every branch has to be checked against all paths, so it is sufficient to check one branch of each group of
+      // branches to which the same rules apply
+      List<List<String>> groups = verification.privileges.groupBranches(branches);
+      log.debug("verifying {} branches of repository {} as {} groups", branches.size(), repository, groups.size());
+      List<Target> targets = new ArrayList<>(groups.size());
+      for (List<String> group : groups) {
+        targets.add(createBranchTarget(repository, group.get(0)));
+      }
+      checkCollectedPaths(context, verification, targets, createdOrModified);
     }
   }
 
-  private void checkIfUserIsPrivileged(Repository repository, User user, Set<String> paths) {
-    checkIfUserIsPrivileged(
-      repository,
-      user,
-      paths.stream(),
-      "*",
-      path -> entity("Path", path).in(repository).build(),
-      path -> "Permission denied for the path " + path
+  private Target createBranchTarget(Repository repository, String branch) {
+    return new Target(
+      branch,
+      path -> entity("Path", path).in("Branch", branch).in(repository).build(),
+      path -> "Permission denied for the path " + path + " on branch " + branch
     );
   }
 
-  private void checkIfUserIsPrivileged(HookContext context, Repository repository, User user, Set<String> branches, Set<String> allPaths) {
-    for (String branch : branches) {
-      Stream<String> paths = collectPaths(context, branch, allPaths);
-      checkIfUserIsPrivileged(
-        repository,
-        user,
-        paths,
-        branch,
-        path -> entity("Path", path).in("Branch", branch).in(repository).build(),
-        path -> "Permission denied for the path " + path + " on branch " + branch
-      );
+  /**
+   * Verifies the paths of every changeset as soon as they are collected, while the modifications of the next
+   * changesets are fetched. The updated branches decide, whether the changesets may be collected with a single diff.
+   */
+  private void checkCollectedPaths(HookContext context, PushVerification verification, List<Target> targets, List<String> updatedBranches) throws IOException {
+    if (!context.isFeatureSupported(HookFeature.CHANGESET_PROVIDER)) {
+      return;
+    }
+    try (PathCollector collector = pathCollectorFactory.create(verification.repository)) {
+      try {
+        collector.collect(
+          context.getChangesetProvider().getChangesets(),
+          updatedBranches,
+          verification.budget,
+          paths -> targets.forEach(target -> verification.verify(target, paths.stream(), true))
+        );
+      } finally {
+        verification.changesetCount = collector.getChangesetCount();
+      }
+      if (!collector.isComplete()) {
+        targets.forEach(target -> verification.verify(target, Stream.empty(), false));
+      }
     }
   }
 
-  private Stream<String> collectPaths(HookContext context, String branch, Set<String> allPaths) {
-    if (context.isFeatureSupported(HookFeature.MODIFICATIONS_PROVIDER)) {
-      return context
-        .getModificationsProvider()
-        .getModifications(branch)
-        .effectedPathsStream();
-    } else {
-      return allPaths.stream();
-    }
+  private static final class Target {
 
+    private final String branch;
+    private final Function<String, List<ContextEntry>> context;
+    private final UnaryOperator<String> errorMessage;
+
+    private Target(String branch, Function<String, List<ContextEntry>> context, UnaryOperator<String> errorMessage) {
+      this.branch = branch;
+      this.context = context;
+      this.errorMessage = errorMessage;
+    }
   }
 
-  private void checkIfUserIsPrivileged(Repository repository, User user, Stream<String> paths, String branch, Function<String, List<ContextEntry>> context, UnaryOperator<String> errorMessage) {
-    paths.forEach(path -> {
-      if (!service.isPrivileged(user, repository, branch, path)) {
-        throw new PathWritePermissionException(context.apply(path), errorMessage.apply(path));
+  /**
+   * Verifies the paths of a single push against the privileges of the pushing user within the budget.
+   */
+  private static final class PushVerification {
+
+    private static final String OVERLOAD_MESSAGE = "The push exceeds the budget for the verification of path write permissions, please split it into smaller pushes";
+
+    private final Repository repository;
+    private final String repositoryName;
+    private final PathWritePrivileges privileges;
+    private final PushBudget budget;
+    private long evaluated;
+    private boolean overloaded;
+    private int branchCount;
+    private int changesetCount;
+    private int ruleCount = -1;
+    private AuditRecord auditRecord;
+    private boolean auditAllowed;
+
+    private PushVerification(Repository repository, PathWritePrivileges privileges, PushBudget budget) {
+      this.repository = repository;
+      this.repositoryName = String.valueOf(repository.getNamespaceAndName());
+      this.privileges = privileges;
+      this.budget = budget;
+    }
+
+    void verify(Target target, Stream<String> paths, boolean complete) {
+      PathWritePermissionPhaseEvent event = PathWritePermissionPhaseEvent.start("evaluate", repositoryName).branch(target.branch);
+      if (event.isEnabled()) {
+        event.rules(getRuleCount());
       }
-    });
-  }
+      long evaluatedBefore = evaluated;
+      try {
+        verify(target, paths.iterator(), complete);
+      } finally {
+        event.end(evaluated - evaluatedBefore);
+      }
+    }
 
-  private Set<String> collectPath(HookContext eventContext, Repository repository) throws IOException {
-    if (eventContext.isFeatureSupported(HookFeature.CHANGESET_PROVIDER)) {
-      try (PathCollector collector = pathCollectorFactory.create(repository)) {
-        return collector.collect(eventContext.getChangesetProvider().getChangesets());
+    private void verify(Target target, Iterator<String> iterator, boolean complete) {
+      String branch = target.branch;
+      if (!complete) {
+        overloaded(branch);
+        if (!privileges.isPrivilegedForEverythingBelow(branch, "")) {
+          throw new PathWritePermissionException(entity("Branch", branch).in(repository).build(), OVERLOAD_MESSAGE);
+        }
+        return;
+      }
+      Map<String, Boolean> directories = new HashMap<>();
+      while (iterator.hasNext()) {
+        String path = iterator.next();
+        evaluated++;
+        if (!overloaded && budget.isExceeded(evaluated)) {
+          overloaded(branch);
+        }
+        if (overloaded) {
+          String directory = getDirectory(path);
+          if (!directories.computeIfAbsent(directory, dir -> privileges.isPrivilegedForEverythingBelow(branch, dir))) {
+            denied(branch, path);
+            throw new PathWritePermissionException(target.context.apply(path), target.errorMessage.apply(path) + " (verified on directory level, because the push exceeds the budget)");
+          }
+        } else if (!privileges.isPrivileged(branch, path)) {
+          denied(branch, path);
+          throw new PathWritePermissionException(target.context.apply(path), target.errorMessage.apply(path));
+        }
+        if (auditAllowed) {
+          auditRecord.allowed(branch, path);
+        }
+      }
+    }
+
+    private void overloaded(String branch) {
+      overloaded = true;
+      if (privileges.getOverloadPolicy() == PathWritePermissions.OverloadPolicy.REJECT) {
+        throw new PathWritePermissionException(entity("Branch", branch).in(repository).build(), OVERLOAD_MESSAGE);
+      }
+    }
+
+    private static String getDirectory(String path) {
+      int separator = path.lastIndexOf('/');
+      return separator < 0 ? "" : path.substring(0, separator);
+    }
+
+    boolean isOverloaded() {
+      return overloaded;
+    }
+
+    void audit(AuditRecord auditRecord, boolean auditAllowed) {
+      this.auditRecord = auditRecord;
+      this.auditAllowed = auditAllowed;
+    }
+
+    private void denied(String branch, String path) {
+      if (auditRecord != null) {
+        auditRecord.denied(branch, path);
       }
     }
-    return Collections.emptySet();
-  }
 
+    /**
+     * Hands the aggregated decisions of the push over to the audit log. Allowed pushes are only recorded, if the
+     * audit log records allowed decisions.
+     */
+    void recordAudit(PathWritePermissionAuditLog auditLog, PushVerificationEvent.Verdict verdict) {
+      if (auditRecord == null || verdict == PushVerificationEvent.Verdict.FAILED
+        || (verdict == PushVerificationEvent.Verdict.ALLOWED && !auditAllowed)) {
+        return;
+      }
+      auditRecord.verdict(AuditRecord.Verdict.valueOf(verdict.name())).branches(branchCount).paths(evaluated);
+      auditLog.record(auditRecord);
+    }
+
+    private int getRuleCount() {
+      if (ruleCount < 0) {
+        ruleCount = privileges.getRuleCount();
+      }
+      return ruleCount;
+    }
+
+    void commit(PushVerificationEvent event, PushVerificationEvent.Verdict verdict) {
+      event.end();
+      if (event.shouldCommit()) {
+        event.repository = repositoryName;
+        event.branches = branchCount;
+        event.changesets = changesetCount;
+        event.paths = evaluated;
+        event.rules = getRuleCount();
+        event.verdict = verdict.name();
+        event.commit();
+      }
+    }
+
+    long getEvaluated() {
+      return evaluated;
+    }
+  }
 }
@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp.api;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import sonia.scm.pathwp.service.PathWritePermissions;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Single changes to the path write permissions of a repository. A rule is updated by removing the old and adding
+ * the new version of the rule. Settings which are not set are kept.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+public class PathWritePermissionChangesDto {
+  private Boolean enabled;
+  private Boolean inheritTemplates;
+  private PathWritePermissions.OverloadPolicy overloadPolicy;
+  private List<PathWritePermissionDto> remove = new ArrayList<>();
+  private List<PathWritePermissionDto> add = new ArrayList<>();
+}
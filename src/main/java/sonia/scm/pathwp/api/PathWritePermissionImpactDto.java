@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp.api;
+
+import de.otto.edison.hal.HalRepresentation;
+import de.otto.edison.hal.Links;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@EqualsAndHashCode(callSuper = true)
+@Getter
+@Setter
+@NoArgsConstructor
+public class PathWritePermissionImpactDto extends HalRepresentation {
+  private boolean complete;
+  private List<BranchDto> branches = new ArrayList<>();
+
+  PathWritePermissionImpactDto(Links links) {
+    super(links);
+  }
+
+  @Getter
+  @Setter
+  @NoArgsConstructor
+  public static class BranchDto {
+    private String name;
+    private long files;
+    private boolean complete;
+    private long limit;
+    private List<PrincipalDto> principals = new ArrayList<>();
+  }
+
+  @Getter
+  @Setter
+  @NoArgsConstructor
+  public static class PrincipalDto {
+    private String name;
+    private boolean group;
+    private long becomingReadOnly;
+    private long becomingWritable;
+    private List<String> readOnlySamples = new ArrayList<>();
+    private List<String> writableSamples = new ArrayList<>();
+  }
+}
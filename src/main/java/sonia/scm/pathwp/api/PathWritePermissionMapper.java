@@ -28,6 +28,7 @@ import sonia.scm.repository.NamespaceAndName;
 
 import jakarta.ws.rs.core.Context;
 import jakarta.ws.rs.core.UriInfo;
+import java.util.List;
 
 import static de.otto.edison.hal.Link.link;
 
@@ -38,6 +39,8 @@ public abstract class PathWritePermissionMapper {
 
   public abstract PathWritePermission map(PathWritePermissionDto dto);
 
+  public abstract List<PathWritePermission> map(List<PathWritePermissionDto> dtos);
+
   @Mapping(target = "attributes", ignore = true)
   public abstract PathWritePermissionDto map(PathWritePermission pathWritePermission);
 
@@ -57,6 +60,8 @@ public abstract class PathWritePermissionMapper {
     Links.Builder links = Links.linkingTo();
     links.self(linkBuilder.method("get").parameters(namespaceAndName.getNamespace(), namespaceAndName.getName()).href());
     links.single(link("update", linkBuilder.method("put").parameters(namespaceAndName.getNamespace(), namespaceAndName.getName()).href()));
+    links.single(link("permissions", linkBuilder.method("find").parameters(namespaceAndName.getNamespace(), namespaceAndName.getName()).href()));
+    links.single(link("modify", linkBuilder.method("patch").parameters(namespaceAndName.getNamespace(), namespaceAndName.getName()).href()));
     dto.add(links.build());
   }
 
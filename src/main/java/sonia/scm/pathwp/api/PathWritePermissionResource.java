@@ -16,27 +16,56 @@
 
 package sonia.scm.pathwp.api;
 
+import de.otto.edison.hal.Links;
+import com.google.common.base.Strings;
 import io.swagger.v3.oas.annotations.OpenAPIDefinition;
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import sonia.scm.api.v2.resources.ErrorDto;
+import sonia.scm.pathwp.service.Explanation;
+import sonia.scm.pathwp.service.PathWritePermission;
+import sonia.scm.pathwp.service.PathWritePermissionImpact;
+import sonia.scm.pathwp.service.PathWritePermissionImpactService;
 import sonia.scm.pathwp.service.PathWritePermissionService;
+import sonia.scm.pathwp.service.PathWritePermissionSnapshot;
+import sonia.scm.pathwp.service.PathWritePermissionWriterService;
+import sonia.scm.pathwp.service.PathWritePermissionWriters;
+import sonia.scm.pathwp.service.PathWritePermissions;
+import sonia.scm.pathwp.service.RuleFilter;
+import sonia.scm.pathwp.service.RuleSet;
 import sonia.scm.repository.NamespaceAndName;
 import sonia.scm.web.VndMediaType;
 
 import jakarta.inject.Inject;
+import jakarta.ws.rs.BadRequestException;
 import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.DefaultValue;
 import jakarta.ws.rs.GET;
+import jakarta.ws.rs.HeaderParam;
+import jakarta.ws.rs.PATCH;
+import jakarta.ws.rs.POST;
 import jakarta.ws.rs.PUT;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.PathParam;
 import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
 import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.EntityTag;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Request;
+import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.core.UriInfo;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
 
 @OpenAPIDefinition(tags = {
   @Tag(name = "PathWP Plugin", description = "PathWP plugin provided endpoints")
@@ -44,20 +73,25 @@ import jakarta.ws.rs.core.UriInfo;
 @Path(PathWritePermissionResource.PATH)
 public class PathWritePermissionResource {
   public static final String PATH = "v2/plugins/pathwp";
+  private static final int MAX_PAGE_SIZE = 1000;
 
   private PathWritePermissionService service;
+  private PathWritePermissionImpactService impactService;
+  private PathWritePermissionWriterService writerService;
   private PathWritePermissionMapper mapper;
 
   @Inject
-  public PathWritePermissionResource(PathWritePermissionService service, PathWritePermissionMapper mapper) {
+  public PathWritePermissionResource(PathWritePermissionService service, PathWritePermissionImpactService impactService, PathWritePermissionWriterService writerService, PathWritePermissionMapper mapper) {
     this.service = service;
+    this.impactService = impactService;
+    this.writerService = writerService;
     this.mapper = mapper;
   }
 
   @GET
   @Path("/{namespace}/{name}")
   @Produces(MediaType.APPLICATION_JSON)
-  @Operation(summary = "Get pathWP configuration", description = "Returns the pathwp configuration.", tags = "PathWP Plugin", operationId = "pathwp_get")
+  @Operation(summary = "Get pathWP configuration", description = "Returns the pathwp configuration. The response carries the configuration version as ETag, which can be used with If-None-Match. The rules can be omitted and fetched page by page from the permissions link instead.", tags = "PathWP Plugin", operationId = "pathwp_get")
   @ApiResponse(
     responseCode = "200",
     description = "success",
@@ -66,6 +100,7 @@ public class PathWritePermissionResource {
       schema = @Schema(implementation = PathWritePermissionsDto.class)
     )
   )
+  @ApiResponse(responseCode = "304", description = "not modified, the configuration matches the given ETag")
   @ApiResponse(responseCode = "401", description = "not authenticated / invalid credentials")
   @ApiResponse(responseCode = "403", description = "not authorized /  the current user does not have the right privilege")
   @ApiResponse(
@@ -76,16 +111,285 @@ public class PathWritePermissionResource {
       schema = @Schema(implementation = ErrorDto.class)
     )
   )
-  public PathWritePermissionsDto get(@Context UriInfo uriInfo, @PathParam("namespace") String namespace, @PathParam("name") String name) {
-    return mapper.using(uriInfo).map(service.getPermissions(namespace, name), new NamespaceAndName(namespace, name));
+  public Response get(@Context UriInfo uriInfo,
+                      @Context Request request,
+                      @PathParam("namespace") String namespace,
+                      @PathParam("name") String name,
+                      @Parameter(description = "false, if only the settings without the rules should be returned") @DefaultValue("true") @QueryParam("withPermissions") boolean withPermissions) {
+    RuleSet ruleSet = service.getRuleSet(namespace, name);
+    EntityTag etag = new EntityTag(ruleSet.getVersion());
+    Response.ResponseBuilder builder = request.evaluatePreconditions(etag);
+    if (builder == null) {
+      PathWritePermissions permissions = withPermissions ? ruleSet.getPermissions() : ruleSet.getSettings();
+      builder = Response.ok(mapper.using(uriInfo).map(permissions, new NamespaceAndName(namespace, name)));
+    }
+    return builder.tag(etag).build();
   }
 
 
+  @GET
+  @Path("/{namespace}/{name}/permissions")
+  @Produces(MediaType.APPLICATION_JSON)
+  @Operation(summary = "Find pathwp rules", description = "Returns one page of the pathwp rules matching the given filter.", tags = "PathWP Plugin", operationId = "pathwp_find")
+  @ApiResponse(
+    responseCode = "200",
+    description = "success",
+    content = @Content(
+      mediaType = MediaType.APPLICATION_JSON,
+      schema = @Schema(implementation = PathWritePermissionPageDto.class)
+    )
+  )
+  @ApiResponse(responseCode = "304", description = "not modified, the configuration matches the given ETag")
+  @ApiResponse(responseCode = "401", description = "not authenticated / invalid credentials")
+  @ApiResponse(responseCode = "403", description = "not authorized /  the current user does not have the right privilege")
+  @ApiResponse(
+    responseCode = "500",
+    description = "internal server error",
+    content = @Content(
+      mediaType = VndMediaType.ERROR_TYPE,
+      schema = @Schema(implementation = ErrorDto.class)
+    )
+  )
+  @SuppressWarnings("java:S107") // every filter criterion is a query parameter
+  public Response find(@Context UriInfo uriInfo,
+                       @Context Request request,
+                       @PathParam("namespace") String namespace,
+                       @PathParam("name") String name,
+                       @Parameter(description = "name of the user or group") @QueryParam("principal") String principal,
+                       @Parameter(description = "true, if the principal is a group") @QueryParam("group") boolean group,
+                       @Parameter(description = "prefix of the path pattern") @QueryParam("path") String pathPrefix,
+                       @Parameter(description = "branch the rules have to apply to") @QueryParam("branch") String branch,
+                       @Parameter(description = "ALLOW or DENY") @QueryParam("type") PathWritePermission.Type type,
+                       @Parameter(description = "one of path, name, branch or type; configuration order if omitted") @QueryParam("sortBy") String sortBy,
+                       @QueryParam("desc") boolean desc,
+                       @DefaultValue("0") @QueryParam("page") int page,
+                       @DefaultValue("50") @QueryParam("pageSize") int pageSize) {
+    RuleSet ruleSet = service.getRuleSet(namespace, name);
+    EntityTag etag = new EntityTag(ruleSet.getVersion());
+    Response.ResponseBuilder builder = request.evaluatePreconditions(etag);
+    if (builder != null) {
+      return builder.tag(etag).build();
+    }
+
+    RuleFilter filter = new RuleFilter();
+    filter.setPrincipal(principal);
+    filter.setGroup(group);
+    filter.setPathPrefix(pathPrefix);
+    filter.setBranch(branch);
+    filter.setType(type);
+    List<PathWritePermission> permissions = ruleSet.find(filter);
+    sort(permissions, sortBy, desc);
+
+    int size = Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE));
+    int from = Math.max(0, page) * size;
+    PathWritePermissionPageDto dto = new PathWritePermissionPageDto(
+      Links.linkingTo().self(uriInfo.getRequestUri().toString()).build()
+    );
+    dto.setPage(Math.max(0, page));
+    dto.setPageTotal((permissions.size() + size - 1) / size);
+    dto.setTotal(permissions.size());
+    if (from < permissions.size()) {
+      for (PathWritePermission permission : permissions.subList(from, Math.min(from + size, permissions.size()))) {
+        dto.getPermissions().add(mapper.map(permission));
+      }
+    }
+    return Response.ok(dto).tag(etag).build();
+  }
+
+  private void sort(List<PathWritePermission> permissions, String sortBy, boolean desc) {
+    if (sortBy == null) {
+      if (desc) {
+        Collections.reverse(permissions);
+      }
+      return;
+    }
+    Comparator<PathWritePermission> comparator;
+    switch (sortBy) {
+      case "path":
+        comparator = comparing(PathWritePermission::getPath);
+        break;
+      case "name":
+        comparator = comparing(PathWritePermission::getName);
+        break;
+      case "branch":
+        comparator = comparing(PathWritePermission::getBranch);
+        break;
+      case "type":
+        comparator = comparing(permission -> permission.getType() == null ? null : permission.getType().name());
+        break;
+      default:
+        return;
+    }
+    permissions.sort(desc ? comparator.reversed() : comparator);
+  }
+
+  private Comparator<PathWritePermission> comparing(Function<PathWritePermission, String> property) {
+    return Comparator.comparing(property, Comparator.nullsFirst(Comparator.naturalOrder()));
+  }
+
+  @GET
+  @Path("/{namespace}/{name}/explain")
+  @Produces(MediaType.APPLICATION_JSON)
+  @Operation(summary = "Explain pathwp verdict", description = "Explains whether a user may write a path on a branch. Returns the matching rules including inherited templates and the work done by the evaluator.", tags = "PathWP Plugin", operationId = "pathwp_explain")
+  @ApiResponse(
+    responseCode = "200",
+    description = "success",
+    content = @Content(
+      mediaType = MediaType.APPLICATION_JSON,
+      schema = @Schema(implementation = PathWritePermissionExplanationDto.class)
+    )
+  )
+  @ApiResponse(responseCode = "400", description = "bad request, user or path is missing")
+  @ApiResponse(responseCode = "401", description = "not authenticated / invalid credentials")
+  @ApiResponse(responseCode = "403", description = "not authorized /  the current user does not have the right privilege")
+  @ApiResponse(
+    responseCode = "500",
+    description = "internal server error",
+    content = @Content(
+      mediaType = VndMediaType.ERROR_TYPE,
+      schema = @Schema(implementation = ErrorDto.class)
+    )
+  )
+  public PathWritePermissionExplanationDto explain(@Context UriInfo uriInfo,
+                                                   @PathParam("namespace") String namespace,
+                                                   @PathParam("name") String name,
+                                                   @Parameter(description = "name of the user") @QueryParam("user") String user,
+                                                   @Parameter(description = "name of the branch; * if the repository has no branches") @DefaultValue("*") @QueryParam("branch") String branch,
+                                                   @Parameter(description = "path of the file") @QueryParam("path") String path) {
+    if (Strings.isNullOrEmpty(user) || path == null) {
+      throw new BadRequestException("user and path are required");
+    }
+    Explanation explanation = service.explain(namespace, name, user, branch, path);
+    PathWritePermissionExplanationDto dto = new PathWritePermissionExplanationDto(
+      Links.linkingTo().self(uriInfo.getRequestUri().toString()).build()
+    );
+    dto.setUser(explanation.getUser());
+    dto.getGroups().addAll(explanation.getGroups());
+    dto.setBranch(explanation.getBranch());
+    dto.setPath(explanation.getPath());
+    dto.setEnabled(explanation.isEnabled());
+    dto.setPrivileged(explanation.isPrivileged());
+    for (Explanation.MatchingRule matchingRule : explanation.getMatchingRules()) {
+      PathWritePermissionExplanationDto.MatchingRuleDto ruleDto = new PathWritePermissionExplanationDto.MatchingRuleDto();
+      ruleDto.setRule(mapper.map(matchingRule.getRule()));
+      ruleDto.setInherited(matchingRule.isInherited());
+      ruleDto.setPruned(matchingRule.isPruned());
+      dto.getMatchingRules().add(ruleDto);
+    }
+    dto.setCandidatesInspected(explanation.getCandidatesInspected());
+    dto.setGlobMatches(explanation.getGlobMatches());
+    dto.setEvaluationNanos(explanation.getEvaluationNanos());
+    return dto;
+  }
+
+  @GET
+  @Path("/{namespace}/{name}/writers")
+  @Produces(MediaType.APPLICATION_JSON)
+  @Operation(summary = "Find pathwp writers", description = "Returns the users and groups, which may write a path on a branch. Members of groups, which cannot be resolved, are not listed as users.", tags = "PathWP Plugin", operationId = "pathwp_writers")
+  @ApiResponse(
+    responseCode = "200",
+    description = "success",
+    content = @Content(
+      mediaType = MediaType.APPLICATION_JSON,
+      schema = @Schema(implementation = PathWritePermissionWritersDto.class)
+    )
+  )
+  @ApiResponse(responseCode = "400", description = "bad request, path is missing")
+  @ApiResponse(responseCode = "401", description = "not authenticated / invalid credentials")
+  @ApiResponse(responseCode = "403", description = "not authorized /  the current user does not have the right privilege")
+  @ApiResponse(
+    responseCode = "500",
+    description = "internal server error",
+    content = @Content(
+      mediaType = VndMediaType.ERROR_TYPE,
+      schema = @Schema(implementation = ErrorDto.class)
+    )
+  )
+  public PathWritePermissionWritersDto writers(@Context UriInfo uriInfo,
+                                               @PathParam("namespace") String namespace,
+                                               @PathParam("name") String name,
+                                               @Parameter(description = "name of the branch; * if the repository has no branches") @DefaultValue("*") @QueryParam("branch") String branch,
+                                               @Parameter(description = "path of the file") @QueryParam("path") String path) {
+    if (path == null) {
+      throw new BadRequestException("path is required");
+    }
+    PathWritePermissionWriters writers = writerService.getWriters(namespace, name, branch, path);
+    PathWritePermissionWritersDto dto = new PathWritePermissionWritersDto(
+      Links.linkingTo().self(uriInfo.getRequestUri().toString()).build()
+    );
+    dto.setBranch(branch);
+    dto.setPath(path);
+    dto.setEnabled(writers.isEnabled());
+    dto.getUsers().addAll(writers.getUsers());
+    dto.getGroups().addAll(writers.getGroups());
+    dto.getUnexpandedGroups().addAll(writers.getUnexpandedGroups());
+    dto.getDeniedUsers().addAll(writers.getDeniedUsers());
+    dto.getDeniedGroups().addAll(writers.getDeniedGroups());
+    return dto;
+  }
+
+  @GET
+  @Path("/{namespace}/{name}/snapshot")
+  @Produces(MediaType.APPLICATION_JSON)
+  @Operation(summary = "Get pathwp snapshot", description = "Returns the patterns of the rules, which apply to the current user on the given branch. A path may be written, if no deny and at least one allow pattern matches. The response carries the version of the snapshot as ETag, which can be used with If-None-Match.", tags = "PathWP Plugin", operationId = "pathwp_snapshot")
+  @ApiResponse(
+    responseCode = "200",
+    description = "success",
+    content = @Content(
+      mediaType = MediaType.APPLICATION_JSON,
+      schema = @Schema(implementation = PathWritePermissionSnapshotDto.class)
+    )
+  )
+  @ApiResponse(responseCode = "304", description = "not modified, the snapshot matches the given ETag")
+  @ApiResponse(responseCode = "401", description = "not authenticated / invalid credentials")
+  @ApiResponse(responseCode = "403", description = "not authorized /  the current user does not have the right privilege")
+  @ApiResponse(
+    responseCode = "500",
+    description = "internal server error",
+    content = @Content(
+      mediaType = VndMediaType.ERROR_TYPE,
+      schema = @Schema(implementation = ErrorDto.class)
+    )
+  )
+  public Response snapshot(@Context UriInfo uriInfo,
+                           @Context Request request,
+                           @PathParam("namespace") String namespace,
+                           @PathParam("name") String name,
+                           @Parameter(description = "name of the branch; * if the repository has no branches") @DefaultValue("*") @QueryParam("branch") String branch) {
+    PathWritePermissionSnapshot snapshot = service.getSnapshot(namespace, name, branch);
+    EntityTag etag = new EntityTag(snapshot.getVersion());
+    Response.ResponseBuilder builder = request.evaluatePreconditions(etag);
+    if (builder != null) {
+      return builder.tag(etag).build();
+    }
+    PathWritePermissionSnapshotDto dto = new PathWritePermissionSnapshotDto(
+      Links.linkingTo().self(uriInfo.getRequestUri().toString()).build()
+    );
+    dto.setVersion(snapshot.getVersion());
+    dto.setEnabled(snapshot.isEnabled());
+    dto.setBranch(snapshot.getBranch());
+    dto.setAllow(mapGlobs(snapshot.getAllow()));
+    dto.setDeny(mapGlobs(snapshot.getDeny()));
+    return Response.ok(dto).tag(etag).build();
+  }
+
+  private List<PathWritePermissionSnapshotDto.GlobDto> mapGlobs(List<PathWritePermissionSnapshot.Glob> globs) {
+    List<PathWritePermissionSnapshotDto.GlobDto> dtos = new ArrayList<>(globs.size());
+    for (PathWritePermissionSnapshot.Glob glob : globs) {
+      PathWritePermissionSnapshotDto.GlobDto dto = new PathWritePermissionSnapshotDto.GlobDto();
+      dto.setPattern(glob.getPattern());
+      dto.setExclude(glob.isExclude());
+      dtos.add(dto);
+    }
+    return dtos;
+  }
+
   @PUT
   @Path("/{namespace}/{name}")
   @Consumes(MediaType.APPLICATION_JSON)
   @Operation(summary = "Update pathwp configuration", description = "Modifies the pathwp configuration.", tags = "PathWP Plugin", operationId = "pathwp_put")
   @ApiResponse(responseCode = "204", description = "update success")
+  @ApiResponse(responseCode = "400", description = "bad request, one of the rules is not valid")
   @ApiResponse(responseCode = "401", description = "not authenticated / invalid credentials")
   @ApiResponse(responseCode = "403", description = "not authorized /  the current user does not have the right privilege")
   @ApiResponse(
@@ -100,4 +404,102 @@ public class PathWritePermissionResource {
     service.setPermissions(namespace, name, mapper.using(uriInfo).map(permissions));
   }
 
+  @POST
+  @Path("/{namespace}/{name}/preview")
+  @Consumes(MediaType.APPLICATION_JSON)
+  @Produces(MediaType.APPLICATION_JSON)
+  @Operation(summary = "Preview pathwp configuration", description = "Compares the given configuration with the current one for every file in the head of each affected branch, without storing it. Returns per branch the users and groups, for which files would become read-only or writable. Branches with more files than the limit of the system property scm.pathwp.preview.maxFiles are marked as incomplete.", tags = "PathWP Plugin", operationId = "pathwp_preview")
+  @ApiResponse(
+    responseCode = "200",
+    description = "success",
+    content = @Content(
+      mediaType = MediaType.APPLICATION_JSON,
+      schema = @Schema(implementation = PathWritePermissionImpactDto.class)
+    )
+  )
+  @ApiResponse(responseCode = "400", description = "bad request, one of the rules is not valid")
+  @ApiResponse(responseCode = "401", description = "not authenticated / invalid credentials")
+  @ApiResponse(responseCode = "403", description = "not authorized /  the current user does not have the right privilege")
+  @ApiResponse(
+    responseCode = "500",
+    description = "internal server error",
+    content = @Content(
+      mediaType = VndMediaType.ERROR_TYPE,
+      schema = @Schema(implementation = ErrorDto.class)
+    )
+  )
+  public PathWritePermissionImpactDto preview(@Context UriInfo uriInfo, @PathParam("namespace") String namespace, @PathParam("name") String name, PathWritePermissionsDto permissions) throws IOException {
+    PathWritePermissionImpact impact = impactService.preview(namespace, name, mapper.using(uriInfo).map(permissions));
+    PathWritePermissionImpactDto dto = new PathWritePermissionImpactDto(
+      Links.linkingTo().self(uriInfo.getRequestUri().toString()).build()
+    );
+    dto.setComplete(impact.isComplete());
+    for (PathWritePermissionImpact.Branch branch : impact.getBranches()) {
+      PathWritePermissionImpactDto.BranchDto branchDto = new PathWritePermissionImpactDto.BranchDto();
+      branchDto.setName(branch.getName());
+      branchDto.setFiles(branch.getFiles());
+      branchDto.setComplete(branch.isComplete());
+      branchDto.setLimit(branch.getLimit());
+      for (PathWritePermissionImpact.Principal principal : branch.getPrincipals()) {
+        PathWritePermissionImpactDto.PrincipalDto principalDto = new PathWritePermissionImpactDto.PrincipalDto();
+        principalDto.setName(principal.getName());
+        principalDto.setGroup(principal.isGroup());
+        principalDto.setBecomingReadOnly(principal.getBecomingReadOnly());
+        principalDto.setBecomingWritable(principal.getBecomingWritable());
+        principalDto.getReadOnlySamples().addAll(principal.getReadOnlySamples());
+        principalDto.getWritableSamples().addAll(principal.getWritableSamples());
+        branchDto.getPrincipals().add(principalDto);
+      }
+      dto.getBranches().add(branchDto);
+    }
+    return dto;
+  }
+
+  @PATCH
+  @Path("/{namespace}/{name}")
+  @Consumes(MediaType.APPLICATION_JSON)
+  @Operation(summary = "Modify single pathwp rules", description = "Removes and adds single rules and changes single settings without replacing the whole pathwp configuration. If an If-Match header is given, the changes are only applied to the matching configuration version.", tags = "PathWP Plugin", operationId = "pathwp_patch")
+  @ApiResponse(responseCode = "204", description = "update success, the new configuration version is returned as ETag")
+  @ApiResponse(responseCode = "400", description = "bad request, the changes are missing or one of the rules is not valid")
+  @ApiResponse(responseCode = "401", description = "not authenticated / invalid credentials")
+  @ApiResponse(responseCode = "403", description = "not authorized /  the current user does not have the right privilege")
+  @ApiResponse(responseCode = "409", description = "conflict, the configuration has been modified concurrently")
+  @ApiResponse(responseCode = "412", description = "precondition failed, the configuration does not match the given If-Match header")
+  @ApiResponse(
+    responseCode = "500",
+    description = "internal server error",
+    content = @Content(
+      mediaType = VndMediaType.ERROR_TYPE,
+      schema = @Schema(implementation = ErrorDto.class)
+    )
+  )
+  public Response patch(@Context Request request, @HeaderParam(HttpHeaders.IF_MATCH) String ifMatch, @PathParam("namespace") String namespace, @PathParam("name") String name, PathWritePermissionChangesDto changes) {
+    if (changes == null) {
+      throw new BadRequestException("changes are required");
+    }
+    RuleSet current = service.getRuleSet(namespace, name);
+    Response.ResponseBuilder failed = request.evaluatePreconditions(new EntityTag(current.getVersion()));
+    if (failed != null) {
+      return failed.build();
+    }
+    RuleSet modified = service.modifyPermissions(
+      namespace,
+      name,
+      ifMatch == null ? null : current.getVersion(),
+      changes.getEnabled(),
+      changes.getInheritTemplates(),
+      changes.getOverloadPolicy(),
+      map(changes.getRemove()),
+      map(changes.getAdd())
+    );
+    return Response.noContent().tag(new EntityTag(modified.getVersion())).build();
+  }
+
+  private List<PathWritePermission> map(List<PathWritePermissionDto> permissions) {
+    if (permissions == null) {
+      return Collections.emptyList();
+    }
+    return mapper.map(permissions);
+  }
+
 }
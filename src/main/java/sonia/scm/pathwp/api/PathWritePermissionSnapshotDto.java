@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp.api;
+
+import de.otto.edison.hal.HalRepresentation;
+import de.otto.edison.hal.Links;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@EqualsAndHashCode(callSuper = true)
+@Getter
+@Setter
+@NoArgsConstructor
+public class PathWritePermissionSnapshotDto extends HalRepresentation {
+  private String version;
+  private boolean enabled;
+  private String branch;
+  private List<GlobDto> allow = new ArrayList<>();
+  private List<GlobDto> deny = new ArrayList<>();
+
+  PathWritePermissionSnapshotDto(Links links) {
+    super(links);
+  }
+
+  @Getter
+  @Setter
+  @NoArgsConstructor
+  public static class GlobDto {
+    private String pattern;
+    private boolean exclude;
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp.api;
+
+import de.otto.edison.hal.HalRepresentation;
+import de.otto.edison.hal.Links;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+@EqualsAndHashCode(callSuper = true)
+@Getter
+@Setter
+@NoArgsConstructor
+public class PathWritePermissionStatisticsDto extends HalRepresentation {
+  private SummaryDto summary;
+  private List<RepositoryDto> repositories = new ArrayList<>();
+
+  PathWritePermissionStatisticsDto(Links links) {
+    super(links);
+  }
+
+  @Getter
+  @Setter
+  @NoArgsConstructor
+  public static class UsageDto {
+    private Instant since;
+    private long evaluations;
+    private double evaluationsPerSecond;
+    private long denials;
+    private double cacheHitRate;
+    private long pushes;
+    private long deniedPushes;
+    private long latencyP50Nanos;
+    private long latencyP90Nanos;
+    private long latencyP99Nanos;
+    private long latencyMaxNanos;
+  }
+
+  @Getter
+  @Setter
+  @NoArgsConstructor
+  public static class RepositoryDto {
+    private String namespace;
+    private String name;
+    private boolean rulesLoaded;
+    private boolean enabled;
+    private int userAllowRules;
+    private int userDenyRules;
+    private int groupAllowRules;
+    private int groupDenyRules;
+    private int inheritedRules;
+    private int prunedRules;
+    private long indexSize;
+    private UsageDto usage;
+  }
+
+  @Getter
+  @Setter
+  @NoArgsConstructor
+  public static class SummaryDto {
+    private int repositories;
+    private long rules;
+    private long indexSize;
+    private long internedRuleSets;
+    private long decisionCacheSize;
+    private double decisionCacheHitRate;
+    private long decisionCacheEvictions;
+    private long auditRecordsWritten;
+    private long auditRecordsDropped;
+    private UsageDto usage;
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp.api;
+
+import de.otto.edison.hal.Links;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import sonia.scm.api.v2.resources.ErrorDto;
+import sonia.scm.pathwp.audit.PathWritePermissionAuditLog;
+import sonia.scm.pathwp.service.PathWritePermissionStatisticsReport;
+import sonia.scm.pathwp.service.PathWritePermissionStatisticsService;
+import sonia.scm.web.VndMediaType;
+
+import jakarta.inject.Inject;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.UriInfo;
+
+@Path(PathWritePermissionStatisticsResource.PATH)
+public class PathWritePermissionStatisticsResource {
+  public static final String PATH = "v2/plugins/pathwp-statistics";
+
+  private final PathWritePermissionStatisticsService service;
+  private final PathWritePermissionAuditLog auditLog;
+
+  @Inject
+  public PathWritePermissionStatisticsResource(PathWritePermissionStatisticsService service, PathWritePermissionAuditLog auditLog) {
+    this.service = service;
+    this.auditLog = auditLog;
+  }
+
+  @GET
+  @Produces(MediaType.APPLICATION_JSON)
+  @Operation(summary = "Get pathwp statistics", description = "Returns per repository the number of rules, the estimated size of the compiled rules, the decision cache hit rate, the evaluations and denials and the latency percentiles of the most recent pushes, together with a global summary. Only repositories the user may read are contained. The rules are only counted for repositories, whose rules are loaded.", tags = "PathWP Plugin", operationId = "pathwp_statistics")
+  @ApiResponse(
+    responseCode = "200",
+    description = "success",
+    content = @Content(
+      mediaType = MediaType.APPLICATION_JSON,
+      schema = @Schema(implementation = PathWritePermissionStatisticsDto.class)
+    )
+  )
+  @ApiResponse(responseCode = "401", description = "not authenticated / invalid credentials")
+  @ApiResponse(responseCode = "403", description = "not authorized /  the current user does not have the right privilege")
+  @ApiResponse(
+    responseCode = "500",
+    description = "internal server error",
+    content = @Content(
+      mediaType = VndMediaType.ERROR_TYPE,
+      schema = @Schema(implementation = ErrorDto.class)
+    )
+  )
+  public PathWritePermissionStatisticsDto get(@Context UriInfo uriInfo) {
+    PathWritePermissionStatisticsReport report = service.getReport();
+    PathWritePermissionStatisticsDto dto = new PathWritePermissionStatisticsDto(
+      Links.linkingTo().self(uriInfo.getRequestUri().toString()).build()
+    );
+    PathWritePermissionStatisticsReport.Summary summary = report.getSummary();
+    PathWritePermissionStatisticsDto.SummaryDto summaryDto = new PathWritePermissionStatisticsDto.SummaryDto();
+    summaryDto.setRepositories(summary.getRepositories());
+    summaryDto.setRules(summary.getRules());
+    summaryDto.setIndexSize(summary.getIndexSize());
+    summaryDto.setInternedRuleSets(summary.getInternedRuleSets());
+    summaryDto.setDecisionCacheSize(summary.getDecisionCacheSize());
+    summaryDto.setDecisionCacheHitRate(summary.getDecisionCacheHitRate());
+    summaryDto.setDecisionCacheEvictions(summary.getDecisionCacheEvictions());
+    summaryDto.setAuditRecordsWritten(auditLog.getWrittenCount());
+    summaryDto.setAuditRecordsDropped(auditLog.getDroppedCount());
+    summaryDto.setUsage(mapUsage(summary.getUsage()));
+    dto.setSummary(summaryDto);
+    for (PathWritePermissionStatisticsReport.RepositoryStatistics repository : report.getRepositories()) {
+      PathWritePermissionStatisticsDto.RepositoryDto repositoryDto = new PathWritePermissionStatisticsDto.RepositoryDto();
+      repositoryDto.setNamespace(repository.getNamespace());
+      repositoryDto.setName(repository.getName());
+      repositoryDto.setRulesLoaded(repository.isRulesLoaded());
+      repositoryDto.setEnabled(repository.isEnabled());
+      repositoryDto.setUserAllowRules(repository.getUserAllowRules());
+      repositoryDto.setUserDenyRules(repository.getUserDenyRules());
+      repositoryDto.setGroupAllowRules(repository.getGroupAllowRules());
+      repositoryDto.setGroupDenyRules(repository.getGroupDenyRules());
+      repositoryDto.setInheritedRules(repository.getInheritedRules());
+      repositoryDto.setPrunedRules(repository.getPrunedRules());
+      repositoryDto.setIndexSize(repository.getIndexSize());
+      repositoryDto.setUsage(mapUsage(repository.getUsage()));
+      dto.getRepositories().add(repositoryDto);
+    }
+    return dto;
+  }
+
+  private static PathWritePermissionStatisticsDto.UsageDto mapUsage(PathWritePermissionStatisticsReport.Usage usage) {
+    PathWritePermissionStatisticsDto.UsageDto dto = new PathWritePermissionStatisticsDto.UsageDto();
+    dto.setSince(usage.getSince());
+    dto.setEvaluations(usage.getEvaluations());
+    dto.setEvaluationsPerSecond(usage.getEvaluationsPerSecond());
+    dto.setDenials(usage.getDenials());
+    dto.setCacheHitRate(usage.getCacheHitRate());
+    dto.setPushes(usage.getPushes());
+    dto.setDeniedPushes(usage.getDeniedPushes());
+    dto.setLatencyP50Nanos(usage.getLatencyPercentile(50));
+    dto.setLatencyP90Nanos(usage.getLatencyPercentile(90));
+    dto.setLatencyP99Nanos(usage.getLatencyPercentile(99));
+    dto.setLatencyMaxNanos(usage.getLatencyPercentile(100));
+    return dto;
+  }
+}
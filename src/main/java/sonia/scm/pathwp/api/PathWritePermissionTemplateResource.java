@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp.api;
+
+import de.otto.edison.hal.Links;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import sonia.scm.api.v2.resources.ErrorDto;
+import sonia.scm.api.v2.resources.LinkBuilder;
+import sonia.scm.pathwp.service.PathWritePermission;
+import sonia.scm.pathwp.service.PathWritePermissionTemplateService;
+import sonia.scm.web.VndMediaType;
+
+import jakarta.inject.Inject;
+import jakarta.ws.rs.BadRequestException;
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.PUT;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.UriInfo;
+import java.util.List;
+
+import static de.otto.edison.hal.Link.link;
+
+@Path(PathWritePermissionTemplateResource.PATH)
+public class PathWritePermissionTemplateResource {
+  public static final String PATH = "v2/plugins/pathwp-templates";
+
+  private final PathWritePermissionTemplateService service;
+  private final PathWritePermissionMapper mapper;
+
+  @Inject
+  public PathWritePermissionTemplateResource(PathWritePermissionTemplateService service, PathWritePermissionMapper mapper) {
+    this.service = service;
+    this.mapper = mapper;
+  }
+
+  @GET
+  @Path("/global")
+  @Produces(MediaType.APPLICATION_JSON)
+  @Operation(summary = "Get global pathwp template", description = "Returns the rules inherited by all repositories.", tags = "PathWP Plugin", operationId = "pathwp_get_global_template")
+  @ApiResponse(
+    responseCode = "200",
+    description = "success",
+    content = @Content(
+      mediaType = MediaType.APPLICATION_JSON,
+      schema = @Schema(implementation = PathWritePermissionTemplateDto.class)
+    )
+  )
+  @ApiResponse(responseCode = "401", description = "not authenticated / invalid credentials")
+  @ApiResponse(responseCode = "403", description = "not authorized /  the current user does not have the right privilege")
+  @ApiResponse(
+    responseCode = "500",
+    description = "internal server error",
+    content = @Content(
+      mediaType = VndMediaType.ERROR_TYPE,
+      schema = @Schema(implementation = ErrorDto.class)
+    )
+  )
+  public PathWritePermissionTemplateDto getGlobal(@Context UriInfo uriInfo) {
+    LinkBuilder linkBuilder = new LinkBuilder(uriInfo::getBaseUri, PathWritePermissionTemplateResource.class);
+    return createDto(
+      service.getTemplate(null),
+      linkBuilder.method("getGlobal").parameters().href(),
+      linkBuilder.method("putGlobal").parameters().href()
+    );
+  }
+
+  @PUT
+  @Path("/global")
+  @Consumes(MediaType.APPLICATION_JSON)
+  @Operation(summary = "Update global pathwp template", description = "Replaces the rules inherited by all repositories.", tags = "PathWP Plugin", operationId = "pathwp_put_global_template")
+  @ApiResponse(responseCode = "204", description = "update success")
+  @ApiResponse(responseCode = "400", description = "bad request, the template is missing or one of the rules is not valid")
+  @ApiResponse(responseCode = "401", description = "not authenticated / invalid credentials")
+  @ApiResponse(responseCode = "403", description = "not authorized /  the current user does not have the right privilege")
+  @ApiResponse(
+    responseCode = "500",
+    description = "internal server error",
+    content = @Content(
+      mediaType = VndMediaType.ERROR_TYPE,
+      schema = @Schema(implementation = ErrorDto.class)
+    )
+  )
+  public void putGlobal(PathWritePermissionTemplateDto template) {
+    service.setTemplate(null, map(template));
+  }
+
+  @GET
+  @Path("/namespaces/{namespace}")
+  @Produces(MediaType.APPLICATION_JSON)
+  @Operation(summary = "Get namespace pathwp template", description = "Returns the rules inherited by the repositories of the namespace.", tags = "PathWP Plugin", operationId = "pathwp_get_namespace_template")
+  @ApiResponse(
+    responseCode = "200",
+    description = "success",
+    content = @Content(
+      mediaType = MediaType.APPLICATION_JSON,
+      schema = @Schema(implementation = PathWritePermissionTemplateDto.class)
+    )
+  )
+  @ApiResponse(responseCode = "401", description = "not authenticated / invalid credentials")
+  @ApiResponse(responseCode = "403", description = "not authorized /  the current user does not have the right privilege")
+  @ApiResponse(
+    responseCode = "500",
+    description = "internal server error",
+    content = @Content(
+      mediaType = VndMediaType.ERROR_TYPE,
+      schema = @Schema(implementation = ErrorDto.class)
+    )
+  )
+  public PathWritePermissionTemplateDto getNamespace(@Context UriInfo uriInfo, @PathParam("namespace") String namespace) {
+    LinkBuilder linkBuilder = new LinkBuilder(uriInfo::getBaseUri, PathWritePermissionTemplateResource.class);
+    return createDto(
+      service.getTemplate(namespace),
+      linkBuilder.method("getNamespace").parameters(namespace).href(),
+      linkBuilder.method("putNamespace").parameters(namespace).href()
+    );
+  }
+
+  @PUT
+  @Path("/namespaces/{namespace}")
+  @Consumes(MediaType.APPLICATION_JSON)
+  @Operation(summary = "Update namespace pathwp template", description = "Replaces the rules inherited by the repositories of the namespace.", tags = "PathWP Plugin", operationId = "pathwp_put_namespace_template")
+  @ApiResponse(responseCode = "204", description = "update success")
+  @ApiResponse(responseCode = "400", description = "bad request, the template is missing or one of the rules is not valid")
+  @ApiResponse(responseCode = "401", description = "not authenticated / invalid credentials")
+  @ApiResponse(responseCode = "403", description = "not authorized /  the current user does not have the right privilege")
+  @ApiResponse(
+    responseCode = "500",
+    description = "internal server error",
+    content = @Content(
+      mediaType = VndMediaType.ERROR_TYPE,
+      schema = @Schema(implementation = ErrorDto.class)
+    )
+  )
+  public void putNamespace(@PathParam("namespace") String namespace, PathWritePermissionTemplateDto template) {
+    service.setTemplate(namespace, map(template));
+  }
+
+  private List<PathWritePermission> map(PathWritePermissionTemplateDto template) {
+    if (template == null || template.getPermissions() == null) {
+      throw new BadRequestException("template is required");
+    }
+    return mapper.map(template.getPermissions());
+  }
+
+  private PathWritePermissionTemplateDto createDto(List<PathWritePermission> permissions, String self, String update) {
+    PathWritePermissionTemplateDto dto = new PathWritePermissionTemplateDto(
+      Links.linkingTo().self(self).single(link("update", update)).build()
+    );
+    for (PathWritePermission permission : permissions) {
+      dto.getPermissions().add(mapper.map(permission));
+    }
+    return dto;
+  }
+}
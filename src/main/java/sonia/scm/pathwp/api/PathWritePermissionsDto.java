@@ -22,6 +22,7 @@ import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
+import sonia.scm.pathwp.service.PathWritePermissions;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -33,6 +34,8 @@ import java.util.List;
 public class PathWritePermissionsDto extends HalRepresentation {
   private boolean isEnabled = true;
   private List<PathWritePermissionDto> permissions = new ArrayList<>();
+  private boolean inheritTemplates = false;
+  private PathWritePermissions.OverloadPolicy overloadPolicy = PathWritePermissions.OverloadPolicy.REJECT;
 
   @Override
   @SuppressWarnings("squid:S1185") // We want to have this method available in this package
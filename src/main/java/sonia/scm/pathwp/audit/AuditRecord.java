@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp.audit;
+
+import lombok.Getter;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Aggregated audit record of the path write permission decisions of a single push or change of the editor. Only the
+ * first {@value #MAX_PATHS} paths are recorded, the counts always cover all paths.
+ */
+@Getter
+public final class AuditRecord {
+
+  public static final int MAX_PATHS = 100;
+
+  public enum Verdict {
+    ALLOWED, DENIED, OVERLOADED
+  }
+
+  private final String time = Instant.now().toString();
+  private final String source;
+  private final String repository;
+  private final String user;
+  private Verdict verdict;
+  private final List<Decision> denied = new ArrayList<>();
+  private final List<Decision> allowed = new ArrayList<>();
+  private int branches;
+  private long paths;
+  private long deniedCount;
+  private long allowedCount;
+
+  public AuditRecord(String source, String repository, String user) {
+    this.source = source;
+    this.repository = repository;
+    this.user = user;
+  }
+
+  public AuditRecord verdict(Verdict verdict) {
+    this.verdict = verdict;
+    return this;
+  }
+
+  public AuditRecord branches(int branches) {
+    this.branches = branches;
+    return this;
+  }
+
+  public AuditRecord paths(long paths) {
+    this.paths = paths;
+    return this;
+  }
+
+  public AuditRecord denied(String branch, String path) {
+    deniedCount++;
+    if (denied.size() < MAX_PATHS) {
+      denied.add(new Decision(branch, path));
+    }
+    return this;
+  }
+
+  public AuditRecord allowed(String branch, String path) {
+    allowedCount++;
+    if (allowed.size() < MAX_PATHS) {
+      allowed.add(new Decision(branch, path));
+    }
+    return this;
+  }
+
+  @Getter
+  public static final class Decision {
+
+    private final String branch;
+    private final String path;
+
+    Decision(String branch, String path) {
+      this.branch = branch;
+      this.path = path;
+    }
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp.audit;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Bounded lock-free ring buffer for many producers and a single consumer. Producers never block, if the buffer is
+ * full {@link #offer(Object)} returns {@code false}. Every slot carries a sequence number, which tells producers and
+ * the consumer whether the slot is free or filled.
+ */
+final class AuditRingBuffer<T> {
+
+  private final int capacity;
+  private final int mask;
+  private final AtomicReferenceArray<T> slots;
+  private final AtomicLongArray sequences;
+  private final AtomicLong head = new AtomicLong();
+  private long tail;
+
+  /**
+   * @param minimumCapacity the capacity is rounded up to the next power of two
+   */
+  AuditRingBuffer(int minimumCapacity) {
+    int size = Integer.highestOneBit(Math.max(2, minimumCapacity) - 1) << 1;
+    this.capacity = size;
+    this.mask = size - 1;
+    this.slots = new AtomicReferenceArray<>(size);
+    this.sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      sequences.set(i, i);
+    }
+  }
+
+  int capacity() {
+    return capacity;
+  }
+
+  /**
+   * Adds the item, if there is a free slot. May be called by any thread.
+   */
+  boolean offer(T item) {
+    long position = head.get();
+    int index;
+    while (true) {
+      index = (int) (position & mask);
+      long difference = sequences.get(index) - position;
+      if (difference == 0) {
+        if (head.compareAndSet(position, position + 1)) {
+          break;
+        }
+        position = head.get();
+      } else if (difference < 0) {
+        return false;
+      } else {
+        position = head.get();
+      }
+    }
+    slots.set(index, item);
+    sequences.set(index, position + 1);
+    return true;
+  }
+
+  /**
+   * Passes up to {@code max} items to the consumer and returns the number of drained items. Must only be called by
+   * a single thread.
+   */
+  int drain(Consumer<T> consumer, int max) {
+    int drained = 0;
+    while (drained < max) {
+      int index = (int) (tail & mask);
+      if (sequences.get(index) != tail + 1) {
+        break;
+      }
+      T item = slots.get(index);
+      slots.set(index, null);
+      sequences.set(index, tail + capacity);
+      tail++;
+      consumer.accept(item);
+      drained++;
+    }
+    return drained;
+  }
+}
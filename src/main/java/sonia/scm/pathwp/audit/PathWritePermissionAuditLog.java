@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp.audit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.io.CountingOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sonia.scm.SCMContextProvider;
+
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Asynchronous audit log of path write permission decisions. Records are handed over to a lock-free ring buffer
+ * without blocking the verification and are written in batches by a background thread to gzip compressed files with
+ * one json record per line. The files are rotated by size and only the newest files are kept. If the buffer is full,
+ * records are dropped and counted.
+ * <p>
+ * The audit log is disabled by default and has to be enabled with the system property {@value #ENABLED_PROPERTY}.
+ * The files are written to {@code pathwp/audit} in the home directory of SCM-Manager. The audit log is closed by
+ * {@link PathWritePermissionAuditLogShutdown}, when SCM-Manager is stopped.
+ */
+@Singleton
+public class PathWritePermissionAuditLog implements Closeable {
+
+  static final String ENABLED_PROPERTY = "scm.pathwp.audit";
+  static final String ALLOWED_PROPERTY = "scm.pathwp.audit.allowed";
+  static final String BUFFER_SIZE_PROPERTY = "scm.pathwp.audit.bufferSize";
+  static final String MAX_FILE_SIZE_PROPERTY = "scm.pathwp.audit.maxFileSize";
+  static final String MAX_FILES_PROPERTY = "scm.pathwp.audit.maxFiles";
+
+  private static final Logger LOG = LoggerFactory.getLogger(PathWritePermissionAuditLog.class);
+
+  private static final int BATCH_SIZE = 256;
+  private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+  private static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS");
+  private static final String FILE_PREFIX = "audit-";
+  private static final String FILE_SUFFIX = ".jsonl.gz";
+
+  private final Path directory;
+  private final boolean enabled;
+  private final boolean auditAllowed;
+  private final long maxFileSize;
+  private final int maxFiles;
+  private final AuditRingBuffer<AuditRecord> buffer;
+  private final ObjectMapper mapper = new ObjectMapper();
+  private final AtomicLong dropped = new AtomicLong();
+  private final AtomicLong written = new AtomicLong();
+  private final AtomicBoolean started = new AtomicBoolean();
+  private final List<AuditRecord> batch = new ArrayList<>(BATCH_SIZE);
+
+  private volatile boolean closed;
+  private volatile Thread writer;
+  private CountingOutputStream counter;
+  private OutputStream output;
+  private int fileCounter;
+  private long reportedDrops;
+
+  @Inject
+  public PathWritePermissionAuditLog(SCMContextProvider contextProvider) {
+    this(
+      contextProvider.getBaseDirectory().toPath().resolve("pathwp").resolve("audit"),
+      Boolean.getBoolean(ENABLED_PROPERTY),
+      Boolean.getBoolean(ALLOWED_PROPERTY),
+      Integer.getInteger(BUFFER_SIZE_PROPERTY, 4096),
+      Long.getLong(MAX_FILE_SIZE_PROPERTY, 10L * 1024 * 1024),
+      Integer.getInteger(MAX_FILES_PROPERTY, 20)
+    );
+  }
+
+  PathWritePermissionAuditLog(Path directory, boolean enabled, boolean auditAllowed, int bufferSize, long maxFileSize, int maxFiles) {
+    this.directory = directory;
+    this.enabled = enabled;
+    this.auditAllowed = auditAllowed;
+    this.buffer = new AuditRingBuffer<>(bufferSize);
+    this.maxFileSize = maxFileSize;
+    this.maxFiles = maxFiles;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Returns {@code true} if allowed decisions should be recorded, too. Denied decisions are always recorded, if the
+   * audit log is enabled.
+   */
+  public boolean isAuditingAllowed() {
+    return enabled && auditAllowed;
+  }
+
+  /**
+   * Hands the record over to the background writer. This never blocks, if the buffer is full the record is dropped.
+   */
+  public void record(AuditRecord auditRecord) {
+    if (!enabled || closed) {
+      return;
+    }
+    startWriter();
+    if (!buffer.offer(auditRecord)) {
+      dropped.incrementAndGet();
+    }
+  }
+
+  /**
+   * Returns the number of records, which have been dropped, because the buffer was full.
+   */
+  public long getDroppedCount() {
+    return dropped.get();
+  }
+
+  /**
+   * Returns the number of records, which have been written.
+   */
+  public long getWrittenCount() {
+    return written.get();
+  }
+
+  private void startWriter() {
+    if (!started.get() && started.compareAndSet(false, true)) {
+      Thread thread = new Thread(this::write, "pathwp-audit-writer");
+      thread.setDaemon(true);
+      writer = thread;
+      thread.start();
+    }
+  }
+
+  private void write() {
+    while (!closed) {
+      if (writeBatch() == 0) {
+        LockSupport.parkNanos(this, IDLE_NANOS);
+      }
+    }
+  }
+
+  private int writeBatch() {
+    buffer.drain(batch::add, BATCH_SIZE);
+    int size = batch.size();
+    if (size > 0) {
+      try {
+        for (AuditRecord auditRecord : batch) {
+          writeRecord(auditRecord);
+        }
+        output.flush();
+        written.addAndGet(size);
+      } catch (IOException e) {
+        LOG.error("failed to write {} path write permission audit records", size, e);
+        closeFile();
+      }
+      batch.clear();
+    }
+    reportDrops();
+    return size;
+  }
+
+  private void writeRecord(AuditRecord auditRecord) throws IOException {
+    if (output == null || counter.getCount() >= maxFileSize) {
+      rotate();
+    }
+    output.write(mapper.writeValueAsBytes(auditRecord));
+    output.write('\n');
+  }
+
+  private void rotate() throws IOException {
+    closeFile();
+    Files.createDirectories(directory);
+    Path file = directory.resolve(FILE_PREFIX + LocalDateTime.now().format(FILE_TIME) + String.format("-%04d", fileCounter++) + FILE_SUFFIX);
+    counter = new CountingOutputStream(Files.newOutputStream(file));
+    output = new BufferedOutputStream(new GZIPOutputStream(counter, true));
+    deleteOldFiles();
+  }
+
+  private void deleteOldFiles() throws IOException {
+    List<Path> files;
+    try (Stream<Path> stream = Files.list(directory)) {
+      files = stream
+        .filter(path -> path.getFileName().toString().startsWith(FILE_PREFIX))
+        .sorted()
+        .collect(Collectors.toList());
+    }
+    for (int i = 0; i < files.size() - maxFiles; i++) {
+      Files.deleteIfExists(files.get(i));
+    }
+  }
+
+  private void reportDrops() {
+    long current = dropped.get();
+    if (current > reportedDrops) {
+      LOG.warn("dropped {} path write permission audit records, because the buffer was full", current - reportedDrops);
+      reportedDrops = current;
+    }
+  }
+
+  private void closeFile() {
+    if (output != null) {
+      try {
+        output.close();
+      } catch (IOException e) {
+        LOG.warn("failed to close path write permission audit file", e);
+      }
+      output = null;
+      counter = null;
+    }
+  }
+
+  /**
+   * Stops the background writer, after all buffered records have been written.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    Thread thread = writer;
+    if (thread != null) {
+      LockSupport.unpark(thread);
+      try {
+        thread.join(TimeUnit.SECONDS.toMillis(10));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      if (thread.isAlive()) {
+        LOG.warn("path write permission audit writer did not stop in time");
+        return;
+      }
+      while (writeBatch() > 0) {
+        // write remaining records
+      }
+      closeFile();
+    }
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp.audit;
+
+import jakarta.inject.Inject;
+import jakarta.servlet.ServletContextEvent;
+import jakarta.servlet.ServletContextListener;
+import sonia.scm.plugin.Extension;
+
+/**
+ * Closes the {@link PathWritePermissionAuditLog} when SCM-Manager is stopped, so that the buffered records are
+ * written and the current gzip file is finished. Without it, the last file would end without its gzip trailer.
+ */
+@Extension
+public class PathWritePermissionAuditLogShutdown implements ServletContextListener {
+
+  private final PathWritePermissionAuditLog auditLog;
+
+  @Inject
+  public PathWritePermissionAuditLogShutdown(PathWritePermissionAuditLog auditLog) {
+    this.auditLog = auditLog;
+  }
+
+  @Override
+  public void contextInitialized(ServletContextEvent sce) {
+    // nothing to do, the writer is started with the first record
+  }
+
+  @Override
+  public void contextDestroyed(ServletContextEvent sce) {
+    auditLog.close();
+  }
+}
@@ -19,7 +19,10 @@ package sonia.scm.pathwp.guards;
 import com.cloudogu.scm.editor.ChangeGuard;
 import com.cloudogu.scm.editor.ChangeObstacle;
 import org.apache.shiro.SecurityUtils;
+import sonia.scm.pathwp.audit.AuditRecord;
+import sonia.scm.pathwp.audit.PathWritePermissionAuditLog;
 import sonia.scm.pathwp.service.PathWritePermissionService;
+import sonia.scm.pathwp.service.PathWritePrivileges;
 import sonia.scm.plugin.Extension;
 import sonia.scm.plugin.Requires;
 import sonia.scm.repository.NamespaceAndName;
@@ -28,14 +31,12 @@ import sonia.scm.repository.RepositoryManager;
 import sonia.scm.user.User;
 
 import jakarta.inject.Inject;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Optional;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
-
-import static java.util.Optional.empty;
-import static java.util.Optional.of;
-import static java.util.stream.Stream.concat;
+import java.util.Set;
 
 @Extension
 @Requires("scm-editor-plugin")
@@ -43,47 +44,72 @@ public class PathWritePermissionChangeGuard implements ChangeGuard {
 
   private final PathWritePermissionService service;
   private final RepositoryManager repositoryManager;
+  private final PathWritePermissionAuditLog auditLog;
 
   @Inject
-  public PathWritePermissionChangeGuard(PathWritePermissionService service, RepositoryManager repositoryManager) {
+  public PathWritePermissionChangeGuard(PathWritePermissionService service, RepositoryManager repositoryManager, PathWritePermissionAuditLog auditLog) {
     this.service = service;
     this.repositoryManager = repositoryManager;
+    this.auditLog = auditLog;
   }
 
   @Override
   public Collection<ChangeObstacle> getObstacles(NamespaceAndName namespaceAndName, String branch, Changes changes) {
     User user = SecurityUtils.getSubject().getPrincipals().oneByType(User.class);
     Repository repository = repositoryManager.get(namespaceAndName);
-    return concat(
-      changes.getFilesToCreate().stream(),
-      concat(
-        changes.getFilesToDelete().stream(),
-        concat(
-          changes.getFilesToModify().stream(),
-          changes.getPathForCreate().map(path -> path + "/something").map(Stream::of).orElse(Stream.empty())
-        )
-      )
-    ).map(path -> getObstacles(repository, user, branch, path))
-      .filter(Optional::isPresent)
-      .map(Optional::get)
-      .collect(Collectors.toList());
-  }
+    PathWritePrivileges privileges = service.getPrivileges(user, repository);
 
-  private Optional<ChangeObstacle> getObstacles(Repository repository, User user, String branch, String path) {
-    if (service.isPrivileged(user, repository, branch, path)) {
-      return empty();
-    } else {
-      return of(new ChangeObstacle() {
-        @Override
-        public String getMessage() {
-          return "The user has no privileges to write path " + path + " on branch " + branch;
-        }
+    List<String> paths = new ArrayList<>(changes.getFilesToCreate());
+    paths.addAll(changes.getFilesToDelete());
+    paths.addAll(changes.getFilesToModify());
 
-        @Override
-        public String getKey() {
-          return "scm-pathwp-plugin.obstacle";
+    List<String> deniedPaths = new ArrayList<>(privileges.getDeniedPaths(branch, paths));
+    Optional<String> pathForCreate = changes.getPathForCreate();
+    if (pathForCreate.isPresent() && !privileges.isPrivilegedForAnythingBelow(branch, pathForCreate.get())) {
+      deniedPaths.add(pathForCreate.get());
+    }
+
+    List<ChangeObstacle> obstacles = new ArrayList<>();
+    for (String path : deniedPaths) {
+      obstacles.add(createObstacle(branch, path));
+    }
+    audit(repository, user, branch, paths, deniedPaths);
+    return obstacles;
+  }
+
+  private void audit(Repository repository, User user, String branch, List<String> paths, List<String> deniedPaths) {
+    if (!auditLog.isEnabled() || (deniedPaths.isEmpty() && !auditLog.isAuditingAllowed())) {
+      return;
+    }
+    AuditRecord auditRecord = new AuditRecord("editor", String.valueOf(repository.getNamespaceAndName()), user.getName())
+      .verdict(deniedPaths.isEmpty() ? AuditRecord.Verdict.ALLOWED : AuditRecord.Verdict.DENIED)
+      .branches(1)
+      .paths(paths.size());
+    for (String path : deniedPaths) {
+      auditRecord.denied(branch, path);
+    }
+    if (auditLog.isAuditingAllowed()) {
+      Set<String> denied = new HashSet<>(deniedPaths);
+      for (String path : paths) {
+        if (!denied.contains(path)) {
+          auditRecord.allowed(branch, path);
         }
-      });
+      }
     }
+    auditLog.record(auditRecord);
+  }
+
+  private ChangeObstacle createObstacle(String branch, String path) {
+    return new ChangeObstacle() {
+      @Override
+      public String getMessage() {
+        return "The user has no privileges to write path " + path + " on branch " + branch;
+      }
+
+      @Override
+      public String getKey() {
+        return "scm-pathwp-plugin.obstacle";
+      }
+    };
   }
 }
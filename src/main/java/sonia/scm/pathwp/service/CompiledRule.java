@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp.service;
+
+import java.util.Map;
+
+/**
+ * A single {@link PathWritePermission} with precompiled patterns.
+ */
+final class CompiledRule {
+
+  private final PathWritePermission permission;
+  private final RuleKey key;
+  private final GlobPattern path;
+  private final GlobPattern branch;
+  private final boolean excludeBranch;
+
+  private CompiledRule(PathWritePermission permission, GlobPattern path, GlobPattern branch) {
+    this.permission = permission;
+    this.key = RuleKey.of(permission);
+    // a rule with an invalid pattern is treated like a rule without path, which never matches
+    this.path = path == null || path.isInvalid() || branch.isInvalid() ? null : path;
+    this.branch = branch;
+    this.excludeBranch = permission.getBranchScope() == PathWritePermission.BranchScope.EXCLUDE;
+  }
+
+  /**
+   * Compiles the given permission. Equal patterns are shared using the given map. The permission is not copied and
+   * must not be modified afterwards.
+   */
+  static CompiledRule compile(PathWritePermission permission, Map<String, GlobPattern> patterns) {
+    GlobPattern path = permission.getPath() == null ? null : patterns.computeIfAbsent(permission.getPath(), GlobPattern::compile);
+    GlobPattern branch = patterns.computeIfAbsent(permission.getBranch(), GlobPattern::compile);
+    return new CompiledRule(permission, path, branch);
+  }
+
+  static PathWritePermission copy(PathWritePermission permission) {
+    return new PathWritePermission(
+      permission.getPath(),
+      permission.getBranch(),
+      permission.getBranchScope(),
+      permission.getName(),
+      permission.isGroup(),
+      permission.getType()
+    );
+  }
+
+  RuleKey getKey() {
+    return key;
+  }
+
+  GlobPattern getPathPattern() {
+    return path;
+  }
+
+  GlobPattern getBranchPattern() {
+    return branch;
+  }
+
+  boolean isExcludeBranch() {
+    return excludeBranch;
+  }
+
+  PathWritePermission getPermission() {
+    return permission;
+  }
+
+  String getName() {
+    return permission.getName();
+  }
+
+  boolean isGroup() {
+    return permission.isGroup();
+  }
+
+  PathWritePermission.Type getType() {
+    return permission.getType();
+  }
+
+  /**
+   * Checks whether this rule applies to the given branch and path. Group rules of type DENY are evaluated with
+   * branch and path swapped, exactly like it has always been done by {@link PathWritePermissionService}.
+   */
+  boolean matches(String branch, String path) {
+    if (isSwapped()) {
+      return matchesPath(branch) && matchesBranch(path);
+    }
+    return matchesPath(path) && matchesBranch(branch);
+  }
+
+  /**
+   * Like {@link #matches(String, String)}, but counts the inspection and the glob matches in the given explanation,
+   * if there is one.
+   */
+  boolean matches(String branch, String path, Explanation explanation) {
+    if (explanation == null) {
+      return matches(branch, path);
+    }
+    explanation.candidateInspected();
+    if (this.path == null) {
+      return false;
+    }
+    String pathValue = isSwapped() ? branch : path;
+    String branchValue = isSwapped() ? path : branch;
+    explanation.globMatched();
+    if (!this.path.matches(pathValue)) {
+      return false;
+    }
+    explanation.globMatched();
+    return matchesBranch(branchValue);
+  }
+
+  /**
+   * Returns {@code true} if the part of this rule which depends on the branch matches the given branch. For swapped
+   * rules this is the path pattern. Two branches lead to the same verdicts of this rule for every path, if this
+   * method returns the same value for both of them.
+   */
+  boolean appliesToBranch(String branch) {
+    if (isSwapped()) {
+      return matchesPath(branch);
+    }
+    return path != null && matchesBranch(branch);
+  }
+
+  /**
+   * Returns which paths below the given directory on the given branch are matched by this rule.
+   *
+   * @param directoryPrefix the directory with a trailing slash or an empty string for the root directory
+   */
+  Coverage coverageBelow(String branch, String directoryPrefix) {
+    if (isSwapped()) {
+      if (!matchesPath(branch)) {
+        return Coverage.NONE;
+      }
+      Coverage coverage = this.branch.coverageBelow(directoryPrefix);
+      return excludeBranch ? coverage.invert() : coverage;
+    }
+    if (path == null || !matchesBranch(branch)) {
+      return Coverage.NONE;
+    }
+    return path.coverageBelow(directoryPrefix);
+  }
+
+  /**
+   * Returns {@code true} if it is certain, that this rule matches every branch and path matched by the other rule.
+   * Both rules have to be of the same kind, that is both or none have to be swapped.
+   */
+  boolean covers(CompiledRule other) {
+    if (isSwapped() != other.isSwapped() || excludeBranch != other.excludeBranch) {
+      return false;
+    }
+    if (path == null || other.path == null || !path.covers(other.path)) {
+      return false;
+    }
+    return excludeBranch ? other.branch.covers(branch) : branch.covers(other.branch);
+  }
+
+  /**
+   * Returns {@code true} if it is certain, that this rule can never match, because it has no path, because one of
+   * its patterns is not valid or because it excludes all branches. Branch names never contain line terminators.
+   */
+  boolean isNeverMatching() {
+    return path == null || (!isSwapped() && excludeBranch && branch.isMatchAll());
+  }
+
+  boolean isSwapped() {
+    return permission.isGroup() && permission.getType() == PathWritePermission.Type.DENY;
+  }
+
+  private boolean matchesPath(String value) {
+    return path != null && path.matches(value);
+  }
+
+  private boolean matchesBranch(String value) {
+    return branch.matches(value) != excludeBranch;
+  }
+
+  @Override
+  public String toString() {
+    return key.toString();
+  }
+}
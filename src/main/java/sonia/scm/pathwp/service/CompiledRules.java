@@ -0,0 +1,449 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable and precompiled form of a list of {@link PathWritePermission}s. The rules are indexed by user and group
+ * name, so that only the rules of the principals in question have to be matched. Rules which cannot change any
+ * verdict are removed from the index by the {@link RuleOptimizer}, but they are kept in the list of all rules.
+ * <p>
+ * Rules created by {@link #of(Collection)} are compiled and indexed only when they are evaluated for the first time,
+ * so that the rules of disabled configurations are never compiled.
+ */
+final class CompiledRules {
+
+  private static final long REFERENCE_SIZE = 4;
+  private static final long LIST_SIZE = 56;
+  private static final long PERMISSION_SIZE = 40;
+  private static final long RULE_SIZE = 72;
+  private static final long ENTRY_SIZE = 48;
+  private static final long PRINCIPAL_RULES_SIZE = 120;
+
+  private final List<PathWritePermission> permissions;
+  private volatile Index index;
+  private volatile String version;
+
+  private CompiledRules(List<PathWritePermission> permissions, Index index) {
+    this.permissions = Collections.unmodifiableList(permissions);
+    this.index = index;
+  }
+
+  /**
+   * Compiles and indexes the given permissions at once.
+   */
+  static CompiledRules compile(Collection<PathWritePermission> permissions) {
+    CompiledRules rules = of(permissions);
+    rules.getIndex();
+    return rules;
+  }
+
+  /**
+   * Creates the rules without compiling them. They are compiled, when they are evaluated for the first time.
+   */
+  static CompiledRules of(Collection<PathWritePermission> permissions) {
+    List<PathWritePermission> copies = new ArrayList<>(permissions.size());
+    for (PathWritePermission permission : permissions) {
+      copies.add(CompiledRule.copy(permission));
+    }
+    return new CompiledRules(copies, null);
+  }
+
+  private Index getIndex() {
+    Index current = index;
+    if (current == null) {
+      synchronized (this) {
+        current = index;
+        if (current == null) {
+          Map<String, GlobPattern> patterns = new HashMap<>();
+          List<CompiledRule> rules = new ArrayList<>(permissions.size());
+          for (PathWritePermission permission : permissions) {
+            rules.add(CompiledRule.compile(permission, patterns));
+          }
+          current = new Index(rules);
+          index = current;
+        }
+      }
+    }
+    return current;
+  }
+
+  /**
+   * Creates new compiled rules without the rules to remove and with the rules to add. Rules which are added but
+   * already exist are ignored. If these rules have already been compiled, the compiled rules which are kept are not
+   * compiled again and only the patterns of the new rules have to be compiled. The index entries of users and groups
+   * whose rules are not changed are shared, so only the rules of the changed principals are optimized again.
+   * Otherwise, the new rules are compiled only if requested.
+   *
+   * @param compile {@code true} if the new rules should be compiled at once
+   */
+  CompiledRules modify(Collection<PathWritePermission> toRemove, Collection<PathWritePermission> toAdd, boolean compile) {
+    Set<RuleKey> removed = new HashSet<>();
+    for (PathWritePermission permission : toRemove) {
+      removed.add(RuleKey.of(permission));
+    }
+
+    Set<RuleKey> keys = new HashSet<>();
+    List<PathWritePermission> modified = new ArrayList<>(permissions.size() + toAdd.size());
+    for (PathWritePermission permission : permissions) {
+      RuleKey key = RuleKey.of(permission);
+      if (!removed.contains(key)) {
+        modified.add(permission);
+        keys.add(key);
+      }
+    }
+    List<PathWritePermission> added = new ArrayList<>(toAdd.size());
+    for (PathWritePermission permission : toAdd) {
+      if (keys.add(RuleKey.of(permission))) {
+        added.add(CompiledRule.copy(permission));
+      }
+    }
+    modified.addAll(added);
+
+    Index current = index;
+    if (current == null) {
+      CompiledRules rules = new CompiledRules(modified, null);
+      if (compile) {
+        rules.getIndex();
+      }
+      return rules;
+    }
+    Map<String, GlobPattern> patterns = new HashMap<>();
+    Set<String> changedUsers = new HashSet<>();
+    Set<String> changedGroups = new HashSet<>();
+    List<CompiledRule> rules = new ArrayList<>(modified.size());
+    for (CompiledRule rule : current.rules) {
+      if (removed.contains(rule.getKey())) {
+        (rule.isGroup() ? changedGroups : changedUsers).add(rule.getName());
+      } else {
+        rules.add(rule);
+        if (rule.getPathPattern() != null) {
+          patterns.put(rule.getPathPattern().getGlob(), rule.getPathPattern());
+        }
+        patterns.put(rule.getBranchPattern().getGlob(), rule.getBranchPattern());
+      }
+    }
+    for (PathWritePermission permission : added) {
+      rules.add(CompiledRule.compile(permission, patterns));
+      (permission.isGroup() ? changedGroups : changedUsers).add(permission.getName());
+    }
+    return new CompiledRules(modified, new Index(rules, current, changedUsers, changedGroups));
+  }
+
+  /**
+   * Indexes the rules of users or groups. If there is a previous index, only the rules of the changed principals are
+   * indexed again and the entries of all other principals are taken from the previous index.
+   */
+  private static Map<String, PrincipalRules> index(List<CompiledRule> rules, boolean group, Map<String, PrincipalRules> previous, Set<String> changed) {
+    Map<String, PrincipalRules.Builder> builders = new HashMap<>();
+    for (CompiledRule rule : rules) {
+      if (rule.isGroup() == group && rule.getName() != null && (previous == null || changed.contains(rule.getName()))) {
+        builders.computeIfAbsent(rule.getName(), name -> new PrincipalRules.Builder()).add(rule);
+      }
+    }
+    Map<String, PrincipalRules> index = new HashMap<>();
+    if (previous != null) {
+      previous.forEach((name, principalRules) -> {
+        if (!changed.contains(name)) {
+          index.put(name, principalRules);
+        }
+      });
+    }
+    builders.forEach((name, builder) -> index.put(name, builder.build()));
+    return index;
+  }
+
+  /**
+   * Returns the permissions in the order of the configuration without compiling them. The permissions must not be
+   * modified.
+   */
+  List<PathWritePermission> getPermissions() {
+    return permissions;
+  }
+
+  List<CompiledRule> getRules() {
+    return getIndex().rules;
+  }
+
+  /**
+   * Returns the fingerprint of the rules. Compiled rules with the same version lead to the same verdicts.
+   */
+  String getVersion() {
+    String current = version;
+    if (current == null) {
+      PathWritePermissions fingerprinted = new PathWritePermissions();
+      fingerprinted.getPermissions().addAll(permissions);
+      current = PathWritePermissionsFingerprint.of(fingerprinted);
+      version = current;
+    }
+    return current;
+  }
+
+  /**
+   * Returns a rough estimate of the heap occupied by the rules and their index in bytes. Patterns shared by several
+   * rules are counted only once. Rules which have not been compiled yet are not compiled by the estimate.
+   */
+  long estimateSize() {
+    long size = LIST_SIZE + REFERENCE_SIZE * permissions.size();
+    for (PathWritePermission permission : permissions) {
+      size += PERMISSION_SIZE + GlobPattern.stringSize(permission.getName());
+    }
+    Index current = index;
+    if (current == null) {
+      for (PathWritePermission permission : permissions) {
+        size += GlobPattern.stringSize(permission.getPath()) + GlobPattern.stringSize(permission.getBranch());
+      }
+      return size;
+    }
+    Set<GlobPattern> patterns = Collections.newSetFromMap(new IdentityHashMap<>());
+    size += LIST_SIZE + REFERENCE_SIZE * current.rules.size();
+    for (CompiledRule rule : current.rules) {
+      size += RULE_SIZE;
+      if (rule.getPathPattern() != null && patterns.add(rule.getPathPattern())) {
+        size += rule.getPathPattern().estimateSize();
+      }
+      if (patterns.add(rule.getBranchPattern())) {
+        size += rule.getBranchPattern().estimateSize();
+      }
+    }
+    for (Map<String, PrincipalRules> principals : List.of(current.users, current.groups)) {
+      for (Map.Entry<String, PrincipalRules> entry : principals.entrySet()) {
+        size += ENTRY_SIZE + PRINCIPAL_RULES_SIZE + REFERENCE_SIZE * entry.getValue().size();
+      }
+    }
+    return size;
+  }
+
+  Set<String> getUserNames() {
+    return Collections.unmodifiableSet(getIndex().users.keySet());
+  }
+
+  Set<String> getGroupNames() {
+    return Collections.unmodifiableSet(getIndex().groups.keySet());
+  }
+
+  boolean hasRulesForUser(String name) {
+    return getIndex().users.containsKey(name);
+  }
+
+  boolean hasRulesForGroup(String name) {
+    return getIndex().groups.containsKey(name);
+  }
+
+  /**
+   * Returns the rules which are not evaluated, because they cannot change any verdict.
+   */
+  List<PrunedRule> getPrunedRules() {
+    return getIndex().prunedRules;
+  }
+
+  /**
+   * Returns the rules of the given user or group in the order of the configuration.
+   */
+  List<CompiledRule> getRules(String name, boolean group) {
+    PrincipalRules principalRules = getIndex().get(name, group);
+    if (principalRules == null) {
+      return Collections.emptyList();
+    }
+    return principalRules.all;
+  }
+
+  boolean isDenied(String user, Collection<String> userGroups, String branch, String path, Explanation explanation) {
+    return matches(user, userGroups, branch, path, PathWritePermission.Type.DENY, explanation);
+  }
+
+  boolean isAllowed(String user, Collection<String> userGroups, String branch, String path, Explanation explanation) {
+    return matches(user, userGroups, branch, path, PathWritePermission.Type.ALLOW, explanation);
+  }
+
+  /**
+   * Returns {@code true}, if the given rule is part of the index and therefore evaluated.
+   */
+  boolean isEvaluated(CompiledRule rule) {
+    PrincipalRules principalRules = getIndex().get(rule.getName(), rule.isGroup());
+    return principalRules != null && principalRules.contains(rule);
+  }
+
+  /**
+   * Returns all rules of the given type for the user and his groups.
+   */
+  List<CompiledRule> getRules(String user, Collection<String> userGroups, PathWritePermission.Type type) {
+    Index current = getIndex();
+    List<CompiledRule> result = new ArrayList<>();
+    PrincipalRules userRules = current.users.get(user);
+    if (userRules != null) {
+      userRules.collect(type, result);
+    }
+    for (String group : userGroups) {
+      PrincipalRules groupRules = current.groups.get(group);
+      if (groupRules != null) {
+        groupRules.collect(type, result);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Adds the names of all users or groups with a matching rule of the given type to the result.
+   */
+  void collectMatchingPrincipals(boolean group, PathWritePermission.Type type, String branch, String path, Set<String> result) {
+    for (Map.Entry<String, PrincipalRules> entry : getIndex().getAll(group).entrySet()) {
+      if (entry.getValue().matches(branch, path, type, null)) {
+        result.add(entry.getKey());
+      }
+    }
+  }
+
+  private boolean matches(String user, Collection<String> userGroups, String branch, String path, PathWritePermission.Type type, Explanation explanation) {
+    Index current = getIndex();
+    Map<String, PrincipalRules> groups = current.groups;
+    PrincipalRules userRules = current.users.get(user);
+    if (userRules != null && userRules.matches(branch, path, type, explanation)) {
+      return true;
+    }
+    if (groups.isEmpty()) {
+      return false;
+    }
+    if (userGroups.size() <= groups.size()) {
+      for (String group : userGroups) {
+        PrincipalRules groupRules = groups.get(group);
+        if (groupRules != null && groupRules.matches(branch, path, type, explanation)) {
+          return true;
+        }
+      }
+    } else {
+      for (Map.Entry<String, PrincipalRules> entry : groups.entrySet()) {
+        if (userGroups.contains(entry.getKey()) && entry.getValue().matches(branch, path, type, explanation)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private static final class Index {
+
+    private final List<CompiledRule> rules;
+    private final Map<String, PrincipalRules> users;
+    private final Map<String, PrincipalRules> groups;
+    private final List<PrunedRule> prunedRules;
+
+    private Index(List<CompiledRule> rules) {
+      this(rules, null, Collections.emptySet(), Collections.emptySet());
+    }
+
+    private Index(List<CompiledRule> rules, Index previous, Set<String> changedUsers, Set<String> changedGroups) {
+      this.rules = Collections.unmodifiableList(rules);
+      this.users = index(rules, false, previous == null ? null : previous.users, changedUsers);
+      this.groups = index(rules, true, previous == null ? null : previous.groups, changedGroups);
+      List<PrunedRule> pruned = new ArrayList<>();
+      for (Map<String, PrincipalRules> principals : List.of(users, groups)) {
+        for (PrincipalRules principalRules : principals.values()) {
+          pruned.addAll(principalRules.pruned);
+        }
+      }
+      this.prunedRules = Collections.unmodifiableList(pruned);
+    }
+
+    PrincipalRules get(String name, boolean group) {
+      return getAll(group).get(name);
+    }
+
+    Map<String, PrincipalRules> getAll(boolean group) {
+      return group ? groups : users;
+    }
+  }
+
+  private static final class PrincipalRules {
+
+    private final List<CompiledRule> all;
+    private final CompiledRule[] allow;
+    private final CompiledRule[] deny;
+    private final List<PrunedRule> pruned;
+
+    private PrincipalRules(List<CompiledRule> all, CompiledRule[] allow, CompiledRule[] deny, List<PrunedRule> pruned) {
+      this.all = all;
+      this.allow = allow;
+      this.deny = deny;
+      this.pruned = pruned;
+    }
+
+    boolean matches(String branch, String path, PathWritePermission.Type type, Explanation explanation) {
+      for (CompiledRule rule : type == PathWritePermission.Type.ALLOW ? allow : deny) {
+        if (rule.matches(branch, path, explanation)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Returns the number of references held by this entry of the index.
+     */
+    int size() {
+      return all.size() + allow.length + deny.length;
+    }
+
+    boolean contains(CompiledRule rule) {
+      for (CompiledRule candidate : rule.getType() == PathWritePermission.Type.ALLOW ? allow : deny) {
+        if (candidate == rule) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    void collect(PathWritePermission.Type type, List<CompiledRule> result) {
+      Collections.addAll(result, type == PathWritePermission.Type.ALLOW ? allow : deny);
+    }
+
+    private static final class Builder {
+
+      private final List<CompiledRule> all = new ArrayList<>();
+      private final List<CompiledRule> allow = new ArrayList<>();
+      private final List<CompiledRule> deny = new ArrayList<>();
+
+      void add(CompiledRule rule) {
+        all.add(rule);
+        if (rule.getType() == PathWritePermission.Type.ALLOW) {
+          allow.add(rule);
+        } else if (rule.getType() == PathWritePermission.Type.DENY) {
+          deny.add(rule);
+        }
+      }
+
+      PrincipalRules build() {
+        List<PrunedRule> pruned = new ArrayList<>();
+        return new PrincipalRules(
+          Collections.unmodifiableList(all),
+          RuleOptimizer.optimize(allow, pruned).toArray(new CompiledRule[0]),
+          RuleOptimizer.optimize(deny, pruned).toArray(new CompiledRule[0]),
+          pruned.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList(pruned)
+        );
+      }
+    }
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp.service;
+
+/**
+ * Describes which paths below a directory are matched by a rule.
+ */
+enum Coverage {
+
+  /**
+   * No path below the directory is matched.
+   */
+  NONE,
+  /**
+   * Some paths below the directory may be matched.
+   */
+  SOME,
+  /**
+   * Every path below the directory is matched.
+   */
+  ALL;
+
+  Coverage invert() {
+    switch (this) {
+      case NONE:
+        return ALL;
+      case ALL:
+        return NONE;
+      default:
+        return SOME;
+    }
+  }
+}
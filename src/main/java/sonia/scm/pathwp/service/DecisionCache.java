@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import java.util.Objects;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Caches verdicts across pushes. CI systems and bots push the same paths to the same branches over and over, so
+ * their verdicts can be reused as long as the rules do not change. The verdicts are keyed by the effective version
+ * of the rule set, so that verdicts of outdated rule sets are never used again and are evicted over time.
+ * <p>
+ * The maximum number of cached verdicts can be configured with the system property {@value #SIZE_PROPERTY},
+ * {@code 0} disables the cache.
+ */
+@Singleton
+public class DecisionCache {
+
+  static final String SIZE_PROPERTY = "scm.pathwp.decisionCacheSize";
+  private static final int DEFAULT_SIZE = 100_000;
+
+  private final Cache<Decision, Boolean> verdicts;
+
+  @Inject
+  public DecisionCache() {
+    this(Integer.getInteger(SIZE_PROPERTY, DEFAULT_SIZE));
+  }
+
+  DecisionCache(int maximumSize) {
+    if (maximumSize > 0) {
+      this.verdicts = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+    } else {
+      this.verdicts = null;
+    }
+  }
+
+  boolean isPrivileged(String ruleSetVersion, String principals, String branch, String path, BooleanSupplier evaluation) {
+    if (verdicts == null) {
+      return evaluation.getAsBoolean();
+    }
+    Decision decision = new Decision(ruleSetVersion, principals, branch, path);
+    Boolean verdict = verdicts.getIfPresent(decision);
+    if (verdict == null) {
+      verdict = evaluation.getAsBoolean();
+      verdicts.put(decision, verdict);
+    }
+    return verdict;
+  }
+
+  /**
+   * Returns hit and eviction counts of the cache.
+   */
+  public CacheStats getStats() {
+    return verdicts == null ? new CacheStats(0, 0, 0, 0, 0, 0) : verdicts.stats();
+  }
+
+  public long size() {
+    return verdicts == null ? 0 : verdicts.size();
+  }
+
+  private static final class Decision {
+
+    private final String ruleSetVersion;
+    private final String principals;
+    private final String branch;
+    private final String path;
+    private final int hashCode;
+
+    private Decision(String ruleSetVersion, String principals, String branch, String path) {
+      this.ruleSetVersion = ruleSetVersion;
+      this.principals = principals;
+      this.branch = branch;
+      this.path = path;
+      this.hashCode = Objects.hash(ruleSetVersion, principals, branch, path);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      Decision other = (Decision) o;
+      return hashCode == other.hashCode
+        && ruleSetVersion.equals(other.ruleSetVersion)
+        && principals.equals(other.principals)
+        && Objects.equals(branch, other.branch)
+        && Objects.equals(path, other.path);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Explains a single verdict of a {@link RuleSet}: which rules match the given user, branch and path and how much
+ * work the compiled evaluator has done to come to the verdict.
+ */
+public final class Explanation {
+
+  private final String user;
+  private final Set<String> groups;
+  private final String branch;
+  private final String path;
+  private final boolean enabled;
+  private final List<MatchingRule> matchingRules = new ArrayList<>();
+  private boolean privileged;
+  private long candidatesInspected;
+  private long globMatches;
+  private long evaluationNanos;
+
+  Explanation(String user, Set<String> groups, String branch, String path, boolean enabled) {
+    this.user = user;
+    this.groups = Collections.unmodifiableSet(groups);
+    this.branch = branch;
+    this.path = path;
+    this.enabled = enabled;
+  }
+
+  public String getUser() {
+    return user;
+  }
+
+  /**
+   * Returns the groups of the user, which have at least one rule.
+   */
+  public Set<String> getGroups() {
+    return groups;
+  }
+
+  public String getBranch() {
+    return branch;
+  }
+
+  public String getPath() {
+    return path;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public boolean isPrivileged() {
+    return privileged;
+  }
+
+  /**
+   * Returns all rules of the user and his groups, which match the branch and the path, including inherited and
+   * pruned rules.
+   */
+  public List<MatchingRule> getMatchingRules() {
+    return Collections.unmodifiableList(matchingRules);
+  }
+
+  /**
+   * Returns the number of indexed rules the evaluator has inspected to come to the verdict.
+   */
+  public long getCandidatesInspected() {
+    return candidatesInspected;
+  }
+
+  /**
+   * Returns the number of glob patterns the evaluator has matched to come to the verdict.
+   */
+  public long getGlobMatches() {
+    return globMatches;
+  }
+
+  /**
+   * Returns the average time in nanoseconds a single evaluation takes, measured without the decision cache.
+   */
+  public long getEvaluationNanos() {
+    return evaluationNanos;
+  }
+
+  void setPrivileged(boolean privileged) {
+    this.privileged = privileged;
+  }
+
+  void setEvaluationNanos(long evaluationNanos) {
+    this.evaluationNanos = evaluationNanos;
+  }
+
+  void addMatchingRule(MatchingRule rule) {
+    matchingRules.add(rule);
+  }
+
+  void candidateInspected() {
+    candidatesInspected++;
+  }
+
+  void globMatched() {
+    globMatches++;
+  }
+
+  /**
+   * A rule matching the explained branch and path.
+   */
+  public static final class MatchingRule {
+
+    private final PathWritePermission rule;
+    private final boolean inherited;
+    private final boolean pruned;
+
+    MatchingRule(PathWritePermission rule, boolean inherited, boolean pruned) {
+      this.rule = rule;
+      this.inherited = inherited;
+      this.pruned = pruned;
+    }
+
+    public PathWritePermission getRule() {
+      return CompiledRule.copy(rule);
+    }
+
+    /**
+     * Returns {@code true}, if the rule is inherited from a template.
+     */
+    public boolean isInherited() {
+      return inherited;
+    }
+
+    /**
+     * Returns {@code true}, if the rule is not evaluated, because it cannot change any verdict.
+     */
+    public boolean isPruned() {
+      return pruned;
+    }
+  }
+}
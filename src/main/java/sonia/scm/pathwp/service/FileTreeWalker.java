@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp.service;
+
+import sonia.scm.repository.BrowserResult;
+import sonia.scm.repository.FileObject;
+import sonia.scm.repository.api.BrowseCommandBuilder;
+import sonia.scm.repository.api.RepositoryService;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+
+/**
+ * Walks the files of a revision directory by directory. Every directory is browsed on its own and in pages, so only
+ * a single page of a directory and the paths of the directories, which have not been browsed yet, are held in
+ * memory, regardless of the size of the tree.
+ */
+public final class FileTreeWalker {
+
+  private static final int DEFAULT_PAGE_SIZE = 1000;
+
+  /**
+   * Receives the path of every file of the tree.
+   */
+  @FunctionalInterface
+  public interface Visitor {
+
+    /**
+     * Visits the file with the given path and returns {@code false} to stop the walk.
+     */
+    boolean visit(String path) throws IOException;
+  }
+
+  private final RepositoryService repositoryService;
+  private final int pageSize;
+
+  public FileTreeWalker(RepositoryService repositoryService) {
+    this(repositoryService, DEFAULT_PAGE_SIZE);
+  }
+
+  FileTreeWalker(RepositoryService repositoryService, int pageSize) {
+    this.repositoryService = repositoryService;
+    this.pageSize = Math.max(1, pageSize);
+  }
+
+  /**
+   * Passes the path of every file of the given revision to the visitor, the default branch is walked if the revision
+   * is {@code null}. Returns {@code false} if the visitor stopped the walk.
+   */
+  public boolean walk(String revision, Visitor visitor) throws IOException {
+    Deque<String> directories = new ArrayDeque<>();
+    directories.push("");
+    while (!directories.isEmpty()) {
+      String directory = directories.pop();
+      int offset = 0;
+      boolean truncated = true;
+      while (truncated) {
+        FileObject page = browse(revision, directory, offset);
+        if (page == null || page.getChildren() == null) {
+          break;
+        }
+        Collection<FileObject> children = page.getChildren();
+        for (FileObject child : children) {
+          if (child.isDirectory()) {
+            directories.push(child.getPath());
+          } else if (!visitor.visit(child.getPath())) {
+            return false;
+          }
+        }
+        offset += children.size();
+        truncated = page.isTruncated() && !children.isEmpty();
+      }
+    }
+    return true;
+  }
+
+  private FileObject browse(String revision, String directory, int offset) throws IOException {
+    BrowseCommandBuilder browse = repositoryService.getBrowseCommand()
+      .setPath(directory)
+      .setOffset(offset)
+      .setLimit(pageSize)
+      .setDisableLastCommit(true)
+      .setDisableSubRepositoryDetection(true)
+      .setDisableCache(true);
+    if (revision != null) {
+      browse.setRevision(revision);
+    }
+    BrowserResult result = browse.getBrowserResult();
+    return result != null ? result.getFile() : null;
+  }
+}
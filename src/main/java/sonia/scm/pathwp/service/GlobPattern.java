@@ -0,0 +1,299 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sonia.scm.util.GlobUtil;
+
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Glob pattern which is converted to a regular expression only once. The verdicts are the same as those of
+ * {@link GlobUtil#matches(String, String)}, but literal patterns, simple prefix patterns like {@code docs/*} and
+ * patterns using only {@code *} and {@code ?} are matched without the regular expression engine. The latter avoids
+ * the catastrophic backtracking of the engine for patterns like {@code *a*a*a*b}.
+ * <p>
+ * Patterns which cannot be converted to a regular expression, e.g. {@code src/[main} stored before rules were
+ * validated, never match anything, so that reading such a configuration does not fail.
+ */
+final class GlobPattern {
+
+  private static final Logger LOG = LoggerFactory.getLogger(GlobPattern.class);
+
+  private static final long PATTERN_SIZE = 128;
+  private static final long STRING_SIZE = 40;
+  private static final long REGEX_CHAR_SIZE = 32;
+
+  private final String glob;
+  private final String trimmed;
+  private final Pattern pattern;
+  private final String literal;
+  private final Kind kind;
+
+  private GlobPattern(String glob, String trimmed, Pattern pattern, String literal, Kind kind) {
+    this.glob = glob;
+    this.trimmed = trimmed;
+    this.pattern = pattern;
+    this.literal = literal;
+    this.kind = kind;
+  }
+
+  static GlobPattern compile(String glob) {
+    String trimmed = glob.trim();
+    Pattern pattern;
+    try {
+      pattern = Pattern.compile(GlobUtil.convertGlobToRegEx(trimmed));
+    } catch (PatternSyntaxException e) {
+      LOG.warn("glob pattern '{}' is not valid and never matches: {}", glob, e.getDescription());
+      return new GlobPattern(glob, trimmed, null, trimmed, Kind.INVALID);
+    }
+    int special = indexOfSpecial(trimmed);
+    if (special < 0) {
+      return new GlobPattern(glob, trimmed, pattern, trimmed, Kind.LITERAL);
+    }
+    String literal = trimmed.substring(0, special);
+    if (containsOnlyStars(trimmed, special)) {
+      return new GlobPattern(glob, trimmed, pattern, literal, Kind.PREFIX);
+    }
+    if (isWildcardOnly(trimmed)) {
+      return new GlobPattern(glob, trimmed, pattern, literal, Kind.WILDCARD);
+    }
+    return new GlobPattern(glob, trimmed, pattern, literal, Kind.GENERIC);
+  }
+
+  String getGlob() {
+    return glob;
+  }
+
+  /**
+   * Returns the part of the pattern in front of the first wildcard. Every value matching this pattern starts
+   * with this prefix.
+   */
+  String getLiteralPrefix() {
+    return literal;
+  }
+
+  boolean isLiteral() {
+    return kind == Kind.LITERAL;
+  }
+
+  /**
+   * Returns {@code true} if the pattern is a literal prefix followed only by stars, e.g. {@code src/*}.
+   */
+  boolean isPrefix() {
+    return kind == Kind.PREFIX;
+  }
+
+  /**
+   * Returns {@code true} if the glob is not valid, so that the pattern never matches.
+   */
+  boolean isInvalid() {
+    return kind == Kind.INVALID;
+  }
+
+  boolean matches(String value) {
+    switch (kind) {
+      case LITERAL:
+        return literal.equals(value);
+      case PREFIX:
+        return value.startsWith(literal) && !containsLineTerminator(value, literal.length());
+      case WILDCARD:
+        return matchesWildcards(value);
+      case INVALID:
+        return false;
+      default:
+        return pattern.matcher(value).matches();
+    }
+  }
+
+  /**
+   * Returns {@code true} if it is certain, that this pattern matches every value matched by the other pattern.
+   * This is the case for patterns resulting in the same regular expression and for prefix patterns, whose literal
+   * prefix is a prefix of the literal or prefix pattern in question.
+   */
+  boolean covers(GlobPattern other) {
+    if (kind == Kind.INVALID || other.kind == Kind.INVALID) {
+      return false;
+    }
+    if (pattern.pattern().equals(other.pattern.pattern())) {
+      return true;
+    }
+    if (kind != Kind.PREFIX || !(other.kind == Kind.LITERAL || other.kind == Kind.PREFIX)) {
+      return false;
+    }
+    return other.literal.startsWith(literal) && !containsLineTerminator(other.literal, literal.length());
+  }
+
+  /**
+   * Returns {@code true} if the pattern matches every value without line terminators, e.g. {@code *}.
+   */
+  boolean isMatchAll() {
+    return kind == Kind.PREFIX && literal.isEmpty();
+  }
+
+  /**
+   * Returns which paths below the given directory are matched by this pattern. The answer is derived from the
+   * literal prefix of the pattern, without enumerating any path. Paths containing line terminators are not
+   * considered.
+   *
+   * @param directoryPrefix the directory with a trailing slash or an empty string for the root directory
+   */
+  Coverage coverageBelow(String directoryPrefix) {
+    switch (kind) {
+      case LITERAL:
+        return literal.length() > directoryPrefix.length() && literal.startsWith(directoryPrefix) ? Coverage.SOME : Coverage.NONE;
+      case PREFIX:
+        if (directoryPrefix.startsWith(literal)) {
+          return Coverage.ALL;
+        }
+        return literal.startsWith(directoryPrefix) ? Coverage.SOME : Coverage.NONE;
+      case INVALID:
+        return Coverage.NONE;
+      default:
+        return directoryPrefix.startsWith(literal) || literal.startsWith(directoryPrefix) ? Coverage.SOME : Coverage.NONE;
+    }
+  }
+
+  /**
+   * Returns {@code true} if the glob has no other special characters than {@code *} and {@code ?}, so that every
+   * other character is matched literally. Patterns with line terminators are left to the regular expression engine.
+   */
+  static boolean isWildcardOnly(String glob) {
+    for (int i = 0; i < glob.length(); i++) {
+      char c = glob.charAt(i);
+      if (c == '\\' || c == '{' || c == '[' || isLineTerminator(c)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Matches the value from left to right. Whenever a literal part does not match, only the last star is extended by
+   * one character. Earlier stars never have to be revisited, because each literal part is matched at its leftmost
+   * possible position. Hence, the costs are bound by the product of the lengths of pattern and value instead of
+   * growing with the power of the stars. As neither star nor question mark match line terminators and the pattern
+   * contains none, values with line terminators never match.
+   */
+  private boolean matchesWildcards(String value) {
+    if (containsLineTerminator(value, 0)) {
+      return false;
+    }
+    int g = 0;
+    int v = 0;
+    int star = -1;
+    int starValue = 0;
+    while (v < value.length()) {
+      if (g < trimmed.length() && trimmed.charAt(g) == '*') {
+        star = g++;
+        starValue = v;
+      } else if (g < trimmed.length() && trimmed.charAt(g) == '?') {
+        g++;
+        v += Character.charCount(value.codePointAt(v));
+      } else if (g < trimmed.length() && trimmed.charAt(g) == value.charAt(v)) {
+        g++;
+        v++;
+      } else if (star >= 0) {
+        g = star + 1;
+        starValue += Character.charCount(value.codePointAt(starValue));
+        v = starValue;
+      } else {
+        return false;
+      }
+    }
+    while (g < trimmed.length() && trimmed.charAt(g) == '*') {
+      g++;
+    }
+    return g == trimmed.length();
+  }
+
+  private static int indexOfSpecial(String glob) {
+    for (int i = 0; i < glob.length(); i++) {
+      switch (glob.charAt(i)) {
+        case '*':
+        case '?':
+        case '\\':
+        case '{':
+        case '[':
+          return i;
+        default:
+          // literal character
+      }
+    }
+    return -1;
+  }
+
+  private static boolean containsOnlyStars(String glob, int from) {
+    for (int i = from; i < glob.length(); i++) {
+      if (glob.charAt(i) != '*') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * The star is translated to {@code .*}, which does not match line terminators.
+   */
+  private static boolean containsLineTerminator(String value, int from) {
+    for (int i = from; i < value.length(); i++) {
+      if (isLineTerminator(value.charAt(i))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isLineTerminator(char c) {
+    switch (c) {
+      case '\n':
+      case '\r':
+      case '\u0085':
+      case '\u2028':
+      case '\u2029':
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Returns a rough estimate of the heap occupied by this pattern in bytes. The compiled regular expression is
+   * estimated by the length of its source.
+   */
+  long estimateSize() {
+    return PATTERN_SIZE + stringSize(glob) + stringSize(literal) + (pattern == null ? 0 : REGEX_CHAR_SIZE * pattern.pattern().length());
+  }
+
+  /**
+   * Returns a rough estimate of the heap occupied by the given string in bytes, assuming compact strings.
+   */
+  static long stringSize(String value) {
+    return value == null ? 0 : STRING_SIZE + value.length();
+  }
+
+  @Override
+  public String toString() {
+    return glob;
+  }
+
+  private enum Kind {
+    LITERAL, PREFIX, WILDCARD, GENERIC, INVALID
+  }
+}
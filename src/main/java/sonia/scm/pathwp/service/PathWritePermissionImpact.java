@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp.service;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Summarizes how a new configuration would change the write permissions on the files in the head of each affected
+ * branch, compared to the current configuration.
+ */
+public final class PathWritePermissionImpact {
+
+  private final List<Branch> branches;
+
+  PathWritePermissionImpact(List<Branch> branches) {
+    this.branches = Collections.unmodifiableList(branches);
+  }
+
+  /**
+   * Returns the branches to which at least one added or removed rule applies.
+   */
+  public List<Branch> getBranches() {
+    return branches;
+  }
+
+  /**
+   * Returns {@code false} if at least one branch has more files than could be evaluated.
+   */
+  public boolean isComplete() {
+    return branches.stream().allMatch(Branch::isComplete);
+  }
+
+  /**
+   * The changes on the files in the head of one branch.
+   */
+  public static final class Branch {
+
+    private final String name;
+    private final long files;
+    private final boolean complete;
+    private final long limit;
+    private final List<Principal> principals;
+
+    Branch(String name, long files, boolean complete, long limit, List<Principal> principals) {
+      this.name = name;
+      this.files = files;
+      this.complete = complete;
+      this.limit = limit;
+      this.principals = Collections.unmodifiableList(principals);
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * Returns the number of files, which have been evaluated.
+     */
+    public long getFiles() {
+      return files;
+    }
+
+    /**
+     * Returns {@code false} if the branch has more files than could be evaluated, so that some changes may be missing.
+     */
+    public boolean isComplete() {
+      return complete;
+    }
+
+    /**
+     * Returns the maximum number of files, at which the evaluation of an incomplete branch has been stopped, or
+     * {@code 0} if the branch is complete.
+     */
+    public long getLimit() {
+      return limit;
+    }
+
+    /**
+     * Returns the principals, for which at least one file changes.
+     */
+    public List<Principal> getPrincipals() {
+      return principals;
+    }
+  }
+
+  /**
+   * The changes for a single user or group. Users are evaluated together with their groups. Groups are only listed,
+   * if their members are not known, e.g. for external groups, and are evaluated for a member without own rules and
+   * without other groups.
+   */
+  public static final class Principal {
+
+    private final String name;
+    private final boolean group;
+    private final long becomingReadOnly;
+    private final long becomingWritable;
+    private final List<String> readOnlySamples;
+    private final List<String> writableSamples;
+
+    Principal(String name, boolean group, long becomingReadOnly, long becomingWritable, List<String> readOnlySamples, List<String> writableSamples) {
+      this.name = name;
+      this.group = group;
+      this.becomingReadOnly = becomingReadOnly;
+      this.becomingWritable = becomingWritable;
+      this.readOnlySamples = Collections.unmodifiableList(readOnlySamples);
+      this.writableSamples = Collections.unmodifiableList(writableSamples);
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public boolean isGroup() {
+      return group;
+    }
+
+    /**
+     * Returns the number of files, which are writable now, but would be read-only with the new configuration.
+     */
+    public long getBecomingReadOnly() {
+      return becomingReadOnly;
+    }
+
+    /**
+     * Returns the number of files, which are read-only now, but would be writable with the new configuration.
+     */
+    public long getBecomingWritable() {
+      return becomingWritable;
+    }
+
+    /**
+     * Returns some of the files becoming read-only.
+     */
+    public List<String> getReadOnlySamples() {
+      return readOnlySamples;
+    }
+
+    /**
+     * Returns some of the files becoming writable.
+     */
+    public List<String> getWritableSamples() {
+      return writableSamples;
+    }
+  }
+}
@@ -0,0 +1,434 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp.service;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.shiro.authz.AuthorizationException;
+import sonia.scm.group.Group;
+import sonia.scm.group.GroupCollector;
+import sonia.scm.group.GroupManager;
+import sonia.scm.repository.Branch;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.api.Command;
+import sonia.scm.repository.api.RepositoryService;
+import sonia.scm.repository.api.RepositoryServiceFactory;
+
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Previews the impact of a new configuration on the files in the head of each branch, before the configuration is
+ * stored. The tree is walked directory by directory and the files are evaluated in batches in parallel against the
+ * current and the new rule set, while the walk goes on. Only a limited number of batches is pending at any time, so
+ * the memory stays bounded for huge repositories.
+ * <p>
+ * Users are evaluated together with their groups. Groups are expanded to their members, only external groups and
+ * groups, whose members may not be read, are evaluated on their own. Users without own rules, who share the same
+ * relevant groups, are evaluated only once.
+ */
+@Slf4j
+@Singleton
+public class PathWritePermissionImpactService {
+
+  /**
+   * Number of threads evaluating the files, defaults to the number of available processors.
+   */
+  static final String THREADS_PROPERTY = "scm.pathwp.preview.threads";
+  /**
+   * Maximum number of files evaluated per branch, {@code 0} evaluates all files.
+   */
+  static final String MAX_FILES_PROPERTY = "scm.pathwp.preview.maxFiles";
+
+  private static final int DEFAULT_MAX_FILES = 1_000_000;
+
+  private static final int BATCH_SIZE = 4096;
+  private static final int MAX_PENDING_BATCHES = 16;
+  private static final int MAX_SAMPLES = 10;
+  private static final String NO_USER = "";
+
+  private final PathWritePermissionService service;
+  private final RepositoryServiceFactory repositoryServiceFactory;
+  private final GroupCollector groupCollector;
+  private final GroupManager groupManager;
+  private final ExecutorService executor;
+  private final int maxFiles;
+
+  @Inject
+  public PathWritePermissionImpactService(PathWritePermissionService service, RepositoryServiceFactory repositoryServiceFactory, GroupCollector groupCollector, GroupManager groupManager) {
+    this(service, repositoryServiceFactory, groupCollector, groupManager, Executors.newFixedThreadPool(
+      Integer.getInteger(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors()),
+      new ThreadFactoryBuilder().setNameFormat("pathwp-preview-%d").setDaemon(true).build()
+    ), Integer.getInteger(MAX_FILES_PROPERTY, DEFAULT_MAX_FILES));
+  }
+
+  PathWritePermissionImpactService(PathWritePermissionService service, RepositoryServiceFactory repositoryServiceFactory, GroupCollector groupCollector, GroupManager groupManager, ExecutorService executor, int maxFiles) {
+    this.service = service;
+    this.repositoryServiceFactory = repositoryServiceFactory;
+    this.groupCollector = groupCollector;
+    this.groupManager = groupManager;
+    this.executor = executor;
+    this.maxFiles = Math.max(0, maxFiles);
+  }
+
+  /**
+   * Compares the given configuration with the current configuration of the repository for every file in the head
+   * of every branch, to which an added or removed rule applies.
+   *
+   * @throws sonia.scm.ScmConstraintViolationException if one of the rules is not valid
+   */
+  public PathWritePermissionImpact preview(String namespace, String name, PathWritePermissions permissions) throws IOException {
+    Repository repository = service.getRepository(namespace, name);
+    service.checkPermission(repository);
+    RuleValidator.validate(permissions.getPermissions());
+    RuleSet current = service.getEffectiveRuleSet(repository);
+    RuleSet modified = service.inheritTemplates(repository, RuleSet.compile(permissions));
+    if (current.getEffectiveVersion().equals(modified.getEffectiveVersion())) {
+      return new PathWritePermissionImpact(Collections.emptyList());
+    }
+
+    Principals principals = collectPrincipals(current, modified);
+    List<CompiledRule> changedRules = getChangedRules(current, modified);
+
+    List<PathWritePermissionImpact.Branch> branches = new ArrayList<>();
+    try (RepositoryService repositoryService = repositoryServiceFactory.create(repository)) {
+      if (repositoryService.isSupported(Command.BRANCHES)) {
+        for (Branch branch : repositoryService.getBranchesCommand().getBranches().getBranches()) {
+          if (isAffected(current, modified, changedRules, branch.getName())) {
+            branches.add(preview(repositoryService, branch.getName(), branch.getName(), current, modified, principals));
+          }
+        }
+      } else {
+        branches.add(preview(repositoryService, null, "*", current, modified, principals));
+      }
+    }
+    return new PathWritePermissionImpact(branches);
+  }
+
+  private Principals collectPrincipals(RuleSet current, RuleSet modified) {
+    Set<String> ruleUsers = current.getPrincipalNames(false);
+    ruleUsers.addAll(modified.getPrincipalNames(false));
+    Set<String> ruleGroups = current.getPrincipalNames(true);
+    ruleGroups.addAll(modified.getPrincipalNames(true));
+
+    Principals principals = new Principals();
+    Set<String> users = new TreeSet<>(ruleUsers);
+    for (String group : ruleGroups) {
+      Collection<String> members = getMembers(group);
+      if (members == null) {
+        principals.add(group, true, new Evaluation(NO_USER, Collections.singleton(group)));
+      } else {
+        users.addAll(members);
+      }
+    }
+    for (String user : users) {
+      Set<String> groups = new TreeSet<>(groupCollector.collect(user));
+      // only groups with rules influence the result, so that users without own rules can share their evaluation
+      groups.retainAll(ruleGroups);
+      principals.add(user, false, new Evaluation(ruleUsers.contains(user) ? user : NO_USER, groups));
+    }
+    return principals;
+  }
+
+  /**
+   * Returns the members of the group or {@code null}, if they are not known.
+   */
+  private Collection<String> getMembers(String name) {
+    try {
+      Group group = groupManager.get(name);
+      if (group == null || group.isExternal()) {
+        return null;
+      }
+      return group.getMembers();
+    } catch (AuthorizationException e) {
+      log.debug("not permitted to read members of group {}", name, e);
+      return null;
+    }
+  }
+
+  private List<CompiledRule> getChangedRules(RuleSet current, RuleSet modified) {
+    Set<RuleKey> currentKeys = new HashSet<>();
+    current.getEffectiveRules().forEach(rule -> currentKeys.add(rule.getKey()));
+    Set<RuleKey> modifiedKeys = new HashSet<>();
+    modified.getEffectiveRules().forEach(rule -> modifiedKeys.add(rule.getKey()));
+
+    List<CompiledRule> changed = new ArrayList<>();
+    for (CompiledRule rule : current.getEffectiveRules()) {
+      if (!modifiedKeys.contains(rule.getKey())) {
+        changed.add(rule);
+      }
+    }
+    for (CompiledRule rule : modified.getEffectiveRules()) {
+      if (!currentKeys.contains(rule.getKey())) {
+        changed.add(rule);
+      }
+    }
+    return changed;
+  }
+
+  private boolean isAffected(RuleSet current, RuleSet modified, List<CompiledRule> changedRules, String branch) {
+    if (current.isEnabled() != modified.isEnabled()) {
+      return true;
+    }
+    if (!current.isEnabled()) {
+      return false;
+    }
+    for (CompiledRule rule : changedRules) {
+      if (rule.appliesToBranch(branch)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private PathWritePermissionImpact.Branch preview(RepositoryService repositoryService, String revision, String branch, RuleSet current, RuleSet modified, Principals principals) throws IOException {
+    Walk walk = new Walk(branch, current, modified, principals);
+    boolean complete = new FileTreeWalker(repositoryService).walk(revision, walk::add);
+    Tally total = walk.finish();
+    if (!complete) {
+      log.warn("preview of branch {} is limited to {} files, see system property {}", branch, maxFiles, MAX_FILES_PROPERTY);
+    }
+    log.debug("previewed {} files in {} batches on branch {}", total.files, walk.batches, branch);
+    return total.toBranch(branch, complete, complete ? 0 : maxFiles, principals);
+  }
+
+  private Future<Tally> submit(String[] paths, int size, String branch, RuleSet current, RuleSet modified, List<Evaluation> evaluations) {
+    return executor.submit(() -> {
+      Tally tally = new Tally(evaluations.size());
+      tally.files = size;
+      for (int e = 0; e < evaluations.size(); e++) {
+        Evaluation evaluation = evaluations.get(e);
+        for (int i = 0; i < size; i++) {
+          boolean before = current.isPrivileged(evaluation.user, evaluation.groups, branch, paths[i]);
+          boolean after = modified.isPrivileged(evaluation.user, evaluation.groups, branch, paths[i]);
+          if (before && !after) {
+            tally.readOnly[e]++;
+            addSample(tally.readOnlySamples.get(e), paths[i]);
+          } else if (!before && after) {
+            tally.writable[e]++;
+            addSample(tally.writableSamples.get(e), paths[i]);
+          }
+        }
+      }
+      return tally;
+    });
+  }
+
+  private static Tally join(Future<Tally> batch) throws IOException {
+    try {
+      return batch.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted while previewing the impact", e);
+    } catch (ExecutionException e) {
+      throw new IOException("failed to preview the impact", e.getCause());
+    }
+  }
+
+  private static void addSample(List<String> samples, String path) {
+    if (samples.size() < MAX_SAMPLES) {
+      samples.add(path);
+    }
+  }
+
+  /**
+   * Collects the files of a branch in batches and submits them for evaluation. If too many batches are pending, the
+   * oldest one is awaited, before the walk goes on.
+   */
+  private final class Walk {
+
+    private final String branch;
+    private final RuleSet current;
+    private final RuleSet modified;
+    private final List<Evaluation> evaluations;
+    private final Deque<Future<Tally>> pending = new ArrayDeque<>();
+    private final Tally total;
+    private String[] batch = new String[BATCH_SIZE];
+    private int size;
+    private long files;
+    private int batches;
+
+    private Walk(String branch, RuleSet current, RuleSet modified, Principals principals) {
+      this.branch = branch;
+      this.current = current;
+      this.modified = modified;
+      this.evaluations = principals.evaluations;
+      this.total = new Tally(evaluations.size());
+    }
+
+    /**
+     * Adds the file and returns {@code false} if the limit of files is reached.
+     */
+    boolean add(String path) throws IOException {
+      if (maxFiles > 0 && files == maxFiles) {
+        return false;
+      }
+      files++;
+      batch[size++] = path;
+      if (size == BATCH_SIZE) {
+        submitBatch();
+      }
+      return true;
+    }
+
+    private void submitBatch() throws IOException {
+      pending.add(submit(batch, size, branch, current, modified, evaluations));
+      batches++;
+      batch = new String[BATCH_SIZE];
+      size = 0;
+      if (pending.size() > MAX_PENDING_BATCHES) {
+        total.add(join(pending.remove()));
+      }
+    }
+
+    Tally finish() throws IOException {
+      if (size > 0) {
+        submitBatch();
+      }
+      while (!pending.isEmpty()) {
+        total.add(join(pending.remove()));
+      }
+      return total;
+    }
+  }
+
+  /**
+   * The users and groups of the preview and the distinct evaluations, which are needed for them.
+   */
+  private static final class Principals {
+
+    private final List<Principal> principals = new ArrayList<>();
+    private final List<Evaluation> evaluations = new ArrayList<>();
+    private final Map<Evaluation, Integer> indices = new HashMap<>();
+
+    private void add(String name, boolean group, Evaluation evaluation) {
+      Integer index = indices.get(evaluation);
+      if (index == null) {
+        index = evaluations.size();
+        evaluations.add(evaluation);
+        indices.put(evaluation, index);
+      }
+      principals.add(new Principal(name, group, index));
+    }
+  }
+
+  private static final class Principal {
+
+    private final String name;
+    private final boolean group;
+    private final int evaluation;
+
+    private Principal(String name, boolean group, int evaluation) {
+      this.name = name;
+      this.group = group;
+      this.evaluation = evaluation;
+    }
+  }
+
+  /**
+   * A user with the groups, that are evaluated together.
+   */
+  private static final class Evaluation {
+
+    private final String user;
+    private final Set<String> groups;
+
+    private Evaluation(String user, Set<String> groups) {
+      this.user = user;
+      this.groups = groups;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      Evaluation that = (Evaluation) o;
+      return user.equals(that.user) && groups.equals(that.groups);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(user, groups);
+    }
+  }
+
+  private static final class Tally {
+
+    private long files;
+    private final long[] readOnly;
+    private final long[] writable;
+    private final List<List<String>> readOnlySamples = new ArrayList<>();
+    private final List<List<String>> writableSamples = new ArrayList<>();
+
+    private Tally(int evaluations) {
+      readOnly = new long[evaluations];
+      writable = new long[evaluations];
+      for (int i = 0; i < evaluations; i++) {
+        readOnlySamples.add(new ArrayList<>());
+        writableSamples.add(new ArrayList<>());
+      }
+    }
+
+    private void add(Tally other) {
+      files += other.files;
+      for (int i = 0; i < readOnly.length; i++) {
+        readOnly[i] += other.readOnly[i];
+        writable[i] += other.writable[i];
+        for (String path : other.readOnlySamples.get(i)) {
+          addSample(readOnlySamples.get(i), path);
+        }
+        for (String path : other.writableSamples.get(i)) {
+          addSample(writableSamples.get(i), path);
+        }
+      }
+    }
+
+    private PathWritePermissionImpact.Branch toBranch(String branch, boolean complete, long limit, Principals principals) {
+      List<PathWritePermissionImpact.Principal> changed = new ArrayList<>();
+      for (Principal principal : principals.principals) {
+        int i = principal.evaluation;
+        if (readOnly[i] > 0 || writable[i] > 0) {
+          changed.add(new PathWritePermissionImpact.Principal(
+            principal.name, principal.group, readOnly[i], writable[i], readOnlySamples.get(i), writableSamples.get(i)
+          ));
+        }
+      }
+      return new PathWritePermissionImpact.Branch(branch, files, complete, limit, changed);
+    }
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp.service;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder event for a single phase of the verification of path write permissions, like loading the
+ * rules, collecting the groups of the user, fetching the modifications of a changeset or evaluating paths. The
+ * event costs next to nothing, if it is not recorded.
+ */
+@Name("sonia.scm.pathwp.Phase")
+@Label("Path Write Permission Phase")
+@Description("A phase of the verification of path write permissions")
+@Category({"SCM-Manager", "Path Write Permissions"})
+@StackTrace(false)
+public final class PathWritePermissionPhaseEvent extends Event {
+
+  @Label("Phase")
+  private String phase;
+
+  @Label("Repository")
+  private String repository;
+
+  @Label("Branch")
+  private String branch;
+
+  @Label("Paths")
+  private long paths;
+
+  @Label("Rules")
+  @Description("Number of rules which are evaluated for every path")
+  private long rules;
+
+  /**
+   * Creates and begins the event for the given phase.
+   */
+  public static PathWritePermissionPhaseEvent start(String phase, String repository) {
+    PathWritePermissionPhaseEvent event = new PathWritePermissionPhaseEvent();
+    event.phase = phase;
+    event.repository = repository;
+    event.begin();
+    return event;
+  }
+
+  public PathWritePermissionPhaseEvent branch(String branch) {
+    this.branch = branch;
+    return this;
+  }
+
+  public PathWritePermissionPhaseEvent rules(long rules) {
+    this.rules = rules;
+    return this;
+  }
+
+  /**
+   * Ends the phase and commits the event, if it is recorded.
+   */
+  public void end(long paths) {
+    end();
+    if (shouldCommit()) {
+      this.paths = paths;
+      commit();
+    }
+  }
+}
@@ -17,6 +17,7 @@
 package sonia.scm.pathwp.service;
 
 import org.apache.shiro.SecurityUtils;
+import sonia.scm.ConcurrentModificationException;
 import sonia.scm.group.GroupCollector;
 import sonia.scm.repository.NamespaceAndName;
 import sonia.scm.repository.Repository;
@@ -26,30 +27,41 @@ import sonia.scm.store.ConfigurationStore;
 import sonia.scm.store.ConfigurationStoreFactory;
 import sonia.scm.user.User;
 import sonia.scm.util.AssertUtil;
-import sonia.scm.util.GlobUtil;
 
 import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Set;
-import java.util.function.BooleanSupplier;
+import java.util.concurrent.locks.Lock;
 
 /**
  * Store the path write permissions in the repository store.
  *
  * @author Mohamed Karray
  */
+@Singleton
 public class PathWritePermissionService {
 
   public static final String PERMISSION_VERB = "pathwp";
   private final ConfigurationStoreFactory storeFactory;
   private final RepositoryManager repositoryManager;
   private final GroupCollector groupCollector;
+  private final RuleSetCache ruleSetCache;
+  private final PathWritePermissionTemplateService templateService;
+  private final DecisionCache decisionCache;
+  private final PathWritePermissionStatistics statistics;
   private static final String STORE_NAME = "pathWritePermission";
 
   @Inject
-  public PathWritePermissionService(ConfigurationStoreFactory storeFactory, RepositoryManager repositoryManager, GroupCollector groupCollector) {
+  public PathWritePermissionService(ConfigurationStoreFactory storeFactory, RepositoryManager repositoryManager, GroupCollector groupCollector, RuleSetCache ruleSetCache, PathWritePermissionTemplateService templateService, DecisionCache decisionCache, PathWritePermissionStatistics statistics) {
     this.storeFactory = storeFactory;
     this.repositoryManager = repositoryManager;
     this.groupCollector = groupCollector;
+    this.ruleSetCache = ruleSetCache;
+    this.templateService = templateService;
+    this.decisionCache = decisionCache;
+    this.statistics = statistics;
   }
 
   /**
@@ -67,30 +79,47 @@ public class PathWritePermissionService {
    * @return true if the user is permitted to write the path
    */
   public boolean isPrivileged(User user, Repository repository, String branch, String path) {
+    return getPrivileges(user, repository).isPrivileged(branch, path);
+  }
+
+  /**
+   * Resolves the write privileges of the given user for the repository. Use the returned privileges to check
+   * many paths at once.
+   *
+   * @param user the user whose privileges should be resolved
+   * @param repository the repository
+   * @return the write privileges
+   */
+  public PathWritePrivileges getPrivileges(User user, Repository repository) {
     AssertUtil.assertIsNotNull(user);
 
-    PathWritePermissions permissions = getPermissions(repository);
-    if (!isPluginEnabled(permissions)) {
-      return true;
+    String repositoryName = repository.getNamespaceAndName().toString();
+    PathWritePermissionPhaseEvent loadEvent = PathWritePermissionPhaseEvent.start("load", repositoryName);
+    RuleSet ruleSet = getEffectiveRuleSet(repository);
+    loadEvent.end(0);
+    if (!ruleSet.isEnabled()) {
+      return new PathWritePrivileges(ruleSet, user.getName(), Collections.emptySet(), decisionCache, statistics.getNone());
     }
 
+    PathWritePermissionPhaseEvent groupsEvent = PathWritePermissionPhaseEvent.start("groups", repositoryName);
     Set<String> userGroups = groupCollector.collect(SecurityUtils.getSubject().getPrincipal().toString());
-
-    BooleanSupplier userAllowed = () -> hasUserPermission(user, branch, path, permissions, PathWritePermission.Type.ALLOW);
-    BooleanSupplier anyUserGroupsAllowed = () -> hasAnyGroupPermission(userGroups, branch, path, permissions, PathWritePermission.Type.ALLOW);
-    BooleanSupplier userDenied = () -> hasUserPermission(user, branch, path, permissions, PathWritePermission.Type.DENY);
-    BooleanSupplier anyUserGroupsDenied = () -> hasAnyGroupPermission(userGroups, path, branch, permissions, PathWritePermission.Type.DENY);
-
-    return !userDenied.getAsBoolean() && !anyUserGroupsDenied.getAsBoolean() && (userAllowed.getAsBoolean() || anyUserGroupsAllowed.getAsBoolean());
+    groupsEvent.end(0);
+    return new PathWritePrivileges(ruleSet, user.getName(), userGroups, decisionCache, statistics.getCounters(repository));
   }
 
-  private boolean isPluginEnabled(PathWritePermissions permissions) {
-    return permissions.isEnabled();
+  /**
+   * Returns the snapshot of the write permissions of the current user for the given branch. Every user who may
+   * read the repository may fetch the snapshot of his own permissions.
+   */
+  public PathWritePermissionSnapshot getSnapshot(String namespace, String name, String branch) {
+    Repository repository = getRepository(namespace, name);
+    RepositoryPermissions.read(repository).check();
+    User user = SecurityUtils.getSubject().getPrincipals().oneByType(User.class);
+    return getPrivileges(user, repository).getSnapshot(branch);
   }
 
   public boolean isPluginEnabled(Repository repository) {
-    PathWritePermissions permissions = getPermissions(repository);
-    return isPluginEnabled(permissions);
+    return getRuleSet(repository).isEnabled();
   }
 
   public static boolean isPermitted(Repository repository) {
@@ -101,58 +130,62 @@ public class PathWritePermissionService {
     RepositoryPermissions.custom(PERMISSION_VERB, repository).check();
   }
 
-  private boolean hasAnyGroupPermission(Set<String> userGroups, String branch, String path, PathWritePermissions permissions, PathWritePermission.Type type) {
-    return permissions.getPermissions().stream()
-      .filter(pathWritePermission -> matchPath(path, pathWritePermission))
-      .filter(pathWritePermission -> matchBranch(branch, pathWritePermission))
-      .filter(PathWritePermission::isGroup)
-      .filter(pathWritePermission -> userGroups.contains(pathWritePermission.getName()))
-      .anyMatch(pathWritePermission -> pathWritePermission.getType().equals(type));
+  private ConfigurationStore<PathWritePermissions> getStore(Repository repository) {
+    return storeFactory.withType(PathWritePermissions.class).withName(STORE_NAME).forRepository(repository).build();
   }
 
-  private boolean hasUserPermission(User user, String branch, String path, PathWritePermissions permissions, PathWritePermission.Type type) {
-    return permissions.getPermissions().stream()
-      .filter(pathWritePermission -> matchPath(path, pathWritePermission))
-      .filter(pathWritePermission -> matchBranch(branch, pathWritePermission))
-      .filter(pathWritePermission -> !pathWritePermission.isGroup())
-      .filter(pathWritePermission -> user.getName().equals(pathWritePermission.getName()))
-      .anyMatch(pathWritePermission -> pathWritePermission.getType().equals(type));
+  Repository getRepository(String namespace, String name) {
+    return repositoryManager.get(new NamespaceAndName(namespace, name));
   }
 
-  private boolean matchBranch(String branch, PathWritePermission pathWritePermission) {
-    if (pathWritePermission.getBranchScope().equals(PathWritePermission.BranchScope.INCLUDE)) {
-      return GlobUtil.matches(pathWritePermission.getBranch(), branch);
-    }
-    return !GlobUtil.matches(pathWritePermission.getBranch(), branch);
+  public PathWritePermissions getPermissions(String namespace, String name) {
+    return getRuleSet(namespace, name).getPermissions();
   }
 
-  private boolean matchPath(String path, PathWritePermission pathWritePermission) {
-    String pathPattern = pathWritePermission.getPath();
-    return GlobUtil.matches(pathPattern, path);
+  /**
+   * Returns the currently published rule set of the repository.
+   */
+  public RuleSet getRuleSet(String namespace, String name) {
+    Repository repository = getRepository(namespace, name);
+    checkPermission(repository);
+    return getRuleSet(repository);
   }
 
-  private ConfigurationStore<PathWritePermissions> getStore(Repository repository) {
-    return storeFactory.withType(PathWritePermissions.class).withName(STORE_NAME).forRepository(repository).build();
+  RuleSet getRuleSet(Repository repository) {
+    return ruleSetCache.get(repository.getId(), () -> ruleSetCache.intern(loadPermissions(repository)));
   }
 
-  private Repository getRepository(String namespace, String name) {
-    return repositoryManager.get(new NamespaceAndName(namespace, name));
+  /**
+   * Returns the rule set of the repository combined with the templates it inherits.
+   */
+  RuleSet getEffectiveRuleSet(Repository repository) {
+    return inheritTemplates(repository, getRuleSet(repository));
   }
 
-  public PathWritePermissions getPermissions(String namespace, String name) {
+  /**
+   * Combines the given rule set with the templates for the repository, if the rule set inherits templates.
+   */
+  RuleSet inheritTemplates(Repository repository, RuleSet ruleSet) {
+    if (ruleSet.isEnabled() && ruleSet.isInheritTemplates()) {
+      return ruleSet.inherit(templateService.getTemplatesFor(repository.getNamespace()));
+    }
+    return ruleSet;
+  }
+
+  /**
+   * Explains whether the given user is privileged to write the path on the branch, using the effective rule set of
+   * the repository including inherited templates. The decision cache is bypassed.
+   */
+  public Explanation explain(String namespace, String name, String user, String branch, String path) {
     Repository repository = getRepository(namespace, name);
     checkPermission(repository);
-    return getPermissions(repository);
+    RuleSet ruleSet = getEffectiveRuleSet(repository);
+    Set<String> userGroups = ruleSet.isEnabled() ? groupCollector.collect(user) : Collections.emptySet();
+    return ruleSet.explain(user, userGroups, branch, path);
   }
 
-  private PathWritePermissions getPermissions(Repository repository) {
-    ConfigurationStore<PathWritePermissions> store = getStore(repository);
-    PathWritePermissions permissions = store.get();
-    if (permissions == null) {
-      permissions = new PathWritePermissions();
-      store.set(permissions);
-    }
-    return permissions;
+  private PathWritePermissions loadPermissions(Repository repository) {
+    return getStore(repository).getOptional().orElseGet(PathWritePermissions::new);
   }
 
   public void setPermissions(String namespace, String name, PathWritePermissions permissions) {
@@ -160,9 +193,62 @@ public class PathWritePermissionService {
 
   }
 
+  @SuppressWarnings("java:S107") // every setting can be changed on its own
+  public RuleSet modifyPermissions(String namespace, String name, String expectedVersion, Boolean enabled, Boolean inheritTemplates, PathWritePermissions.OverloadPolicy overloadPolicy, Collection<PathWritePermission> toRemove, Collection<PathWritePermission> toAdd) {
+    return modifyPermissions(getRepository(namespace, name), expectedVersion, enabled, inheritTemplates, overloadPolicy, toRemove, toAdd);
+  }
+
+  /**
+   * Applies single changes to the permissions of the repository, without replacing the whole configuration.
+   *
+   * @param repository the repository to modify
+   * @param expectedVersion the version the changes are based on or {@code null}, if the changes should be applied
+   *                        to whatever version is current
+   * @param enabled the new enabled flag or {@code null} to keep the current one
+   * @param inheritTemplates the new inherit templates flag or {@code null} to keep the current one
+   * @param overloadPolicy the new overload policy or {@code null} to keep the current one
+   * @param toRemove rules which should be removed
+   * @param toAdd rules which should be added
+   * @return the new rule set
+   * @throws ConcurrentModificationException if the current version does not match the expected version
+   * @throws sonia.scm.ScmConstraintViolationException if one of the added rules is not valid
+   */
+  public RuleSet modifyPermissions(Repository repository, String expectedVersion, Boolean enabled, Boolean inheritTemplates, PathWritePermissions.OverloadPolicy overloadPolicy, Collection<PathWritePermission> toRemove, Collection<PathWritePermission> toAdd) {
+    checkPermission(repository);
+    RuleValidator.validate(toAdd);
+    Lock lock = ruleSetCache.getWriteLock(repository.getId());
+    lock.lock();
+    try {
+      RuleSet current = getRuleSet(repository);
+      if (expectedVersion != null && !expectedVersion.equals(current.getVersion())) {
+        throw new ConcurrentModificationException(PathWritePermissions.class, repository.getId());
+      }
+      RuleSet modified = ruleSetCache.intern(current.modify(enabled, inheritTemplates, overloadPolicy, toRemove, toAdd));
+      getStore(repository).set(modified.getPermissions());
+      ruleSetCache.publish(repository.getId(), modified);
+      return modified;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Validates and compiles the permissions, stores them and publishes the compiled rule set, so that the next push
+   * does not have to compile them.
+   *
+   * @throws sonia.scm.ScmConstraintViolationException if one of the rules is not valid
+   */
   public void setPermissions(Repository repository, PathWritePermissions permissions) {
     checkPermission(repository);
-    ConfigurationStore<PathWritePermissions> store = getStore(repository);
-    store.set(permissions);
+    RuleValidator.validate(permissions.getPermissions());
+    RuleSet ruleSet = ruleSetCache.intern(permissions);
+    Lock lock = ruleSetCache.getWriteLock(repository.getId());
+    lock.lock();
+    try {
+      getStore(repository).set(permissions);
+      ruleSetCache.publish(repository.getId(), ruleSet);
+    } finally {
+      lock.unlock();
+    }
   }
 }
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp.service;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The effective write permissions of one user on one branch, reduced to the patterns which have to be matched
+ * against a path. A path may be written, if no DENY pattern and at least one ALLOW pattern matches it. A pattern
+ * with the exclude flag matches every path, which is not matched by the glob. Everything may be written, if the
+ * snapshot is disabled.
+ * <p>
+ * Clients can evaluate the snapshot locally and have to fetch it again only if the version changes.
+ */
+public final class PathWritePermissionSnapshot {
+
+  private final String version;
+  private final boolean enabled;
+  private final String branch;
+  private final List<Glob> allow;
+  private final List<Glob> deny;
+
+  PathWritePermissionSnapshot(String version, boolean enabled, String branch, List<Glob> allow, List<Glob> deny) {
+    this.version = version;
+    this.enabled = enabled;
+    this.branch = branch;
+    this.allow = Collections.unmodifiableList(allow);
+    this.deny = Collections.unmodifiableList(deny);
+  }
+
+  /**
+   * Returns the version of the snapshot, which changes if the rules, the relevant groups of the user or the branch
+   * change.
+   */
+  public String getVersion() {
+    return version;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public String getBranch() {
+    return branch;
+  }
+
+  public List<Glob> getAllow() {
+    return allow;
+  }
+
+  public List<Glob> getDeny() {
+    return deny;
+  }
+
+  /**
+   * Evaluates the snapshot for the given path, exactly like clients are supposed to do it.
+   */
+  public boolean isPrivileged(String path) {
+    if (!enabled) {
+      return true;
+    }
+    for (Glob glob : deny) {
+      if (glob.matches(path)) {
+        return false;
+      }
+    }
+    for (Glob glob : allow) {
+      if (glob.matches(path)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * A glob pattern for paths, with the same syntax as the patterns of the rules.
+   */
+  public static final class Glob {
+
+    private final GlobPattern pattern;
+    private final boolean exclude;
+
+    Glob(GlobPattern pattern, boolean exclude) {
+      this.pattern = pattern;
+      this.exclude = exclude;
+    }
+
+    public String getPattern() {
+      return pattern.getGlob();
+    }
+
+    /**
+     * Returns {@code true}, if the glob matches all paths, which are not matched by the pattern.
+     */
+    public boolean isExclude() {
+      return exclude;
+    }
+
+    boolean matches(String path) {
+      return pattern.matches(path) != exclude;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      Glob other = (Glob) o;
+      return exclude == other.exclude && getPattern().equals(other.getPattern());
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(getPattern(), exclude);
+    }
+  }
+}
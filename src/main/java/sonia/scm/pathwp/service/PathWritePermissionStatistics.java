@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp.service;
+
+import com.github.legman.Subscribe;
+import sonia.scm.EagerSingleton;
+import sonia.scm.HandlerEventType;
+import sonia.scm.plugin.Extension;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryEvent;
+
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts evaluations, denials and pushes per repository since the start of the server. The counters are striped
+ * ({@link LongAdder}), so that concurrent pushes do not contend on them. The latencies of the hook are kept in a
+ * ring of the most recent pushes, whose size can be configured with the system property
+ * {@value #LATENCY_SAMPLES_PROPERTY}. The ring is allocated with the first push, so that repositories which are
+ * only evaluated by the editor do not occupy it. Counters are created only for repositories with enabled rules.
+ */
+@Singleton
+@Extension
+@EagerSingleton
+public class PathWritePermissionStatistics {
+
+  static final String LATENCY_SAMPLES_PROPERTY = "scm.pathwp.statistics.latencySamples";
+  private static final int DEFAULT_LATENCY_SAMPLES = 1024;
+
+  private final ConcurrentMap<String, Counters> repositories = new ConcurrentHashMap<>();
+  private final Clock clock;
+  private final int latencySamples;
+  private final Counters total;
+  private final Counters none;
+
+  @Inject
+  public PathWritePermissionStatistics() {
+    this(Clock.systemUTC(), Integer.getInteger(LATENCY_SAMPLES_PROPERTY, DEFAULT_LATENCY_SAMPLES));
+  }
+
+  PathWritePermissionStatistics(Clock clock, int latencySamples) {
+    this.clock = clock;
+    this.latencySamples = Math.max(1, latencySamples);
+    Instant start = clock.instant();
+    this.total = new Counters(null, start, this.latencySamples);
+    this.none = new Counters(null, start, this.latencySamples);
+  }
+
+  /**
+   * Returns the counters of the repository, which are created on first use.
+   */
+  Counters getCounters(Repository repository) {
+    return repositories.computeIfAbsent(repository.getId(), id -> new Counters(total, clock.instant(), latencySamples));
+  }
+
+  /**
+   * Returns the counters of the repository with the given id or {@link #getNone()}, if the repository has not been
+   * evaluated yet. No counters are created.
+   */
+  Counters findCounters(String repositoryId) {
+    return repositories.getOrDefault(repositoryId, none);
+  }
+
+  /**
+   * Returns counters without any counts, which are shared by all repositories without counters, e.g. repositories
+   * with disabled rules. They must never be updated.
+   */
+  Counters getNone() {
+    return none;
+  }
+
+  /**
+   * Records the verification of a push to the repository.
+   *
+   * @param repository the repository
+   * @param nanos the time it took to verify the push
+   * @param denied {@code true} if the push has been rejected
+   */
+  public void recordPush(Repository repository, long nanos, boolean denied) {
+    getCounters(repository).pushed(nanos, denied);
+  }
+
+  /**
+   * Returns the counters of all repositories, which have been evaluated since the start, by repository id.
+   */
+  Map<String, Counters> getRepositories() {
+    return Collections.unmodifiableMap(repositories);
+  }
+
+  /**
+   * Returns the sum of the counters of all repositories.
+   */
+  Counters getTotal() {
+    return total;
+  }
+
+  Instant now() {
+    return clock.instant();
+  }
+
+  @Subscribe(async = false)
+  public void onEvent(RepositoryEvent event) {
+    if (event.getEventType() == HandlerEventType.DELETE) {
+      repositories.remove(event.getItem().getId());
+    }
+  }
+
+  /**
+   * The counters of one repository or of all repositories. Updates of the counters of a repository are added to the
+   * total as well.
+   */
+  public static final class Counters {
+
+    private final Counters total;
+    private final Instant since;
+    private final LongAdder evaluations = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LongAdder denials = new LongAdder();
+    private final LongAdder pushes = new LongAdder();
+    private final LongAdder deniedPushes = new LongAdder();
+    private final int latencySamples;
+    private final AtomicLong latencyCount = new AtomicLong();
+    private volatile AtomicLongArray latencies;
+
+    Counters(Counters total, Instant since, int latencySamples) {
+      this.total = total;
+      this.since = since;
+      this.latencySamples = latencySamples;
+    }
+
+    /**
+     * Records a single verdict, whether it has been cached or not.
+     */
+    void evaluated(boolean denied) {
+      evaluations.increment();
+      if (denied) {
+        denials.increment();
+      }
+      if (total != null) {
+        total.evaluated(denied);
+      }
+    }
+
+    /**
+     * Records an evaluation by the rule set, because the verdict has not been cached.
+     */
+    void cacheMissed() {
+      cacheMisses.increment();
+      if (total != null) {
+        total.cacheMissed();
+      }
+    }
+
+    void pushed(long nanos, boolean denied) {
+      pushes.increment();
+      if (denied) {
+        deniedPushes.increment();
+      }
+      AtomicLongArray ring = getLatencyRing();
+      ring.set((int) (latencyCount.getAndIncrement() % ring.length()), nanos);
+      if (total != null) {
+        total.pushed(nanos, denied);
+      }
+    }
+
+    private AtomicLongArray getLatencyRing() {
+      AtomicLongArray ring = latencies;
+      if (ring == null) {
+        synchronized (this) {
+          ring = latencies;
+          if (ring == null) {
+            ring = new AtomicLongArray(latencySamples);
+            latencies = ring;
+          }
+        }
+      }
+      return ring;
+    }
+
+    /**
+     * Returns the start of the counting.
+     */
+    public Instant getSince() {
+      return since;
+    }
+
+    public long getEvaluations() {
+      return evaluations.sum();
+    }
+
+    /**
+     * Returns the number of verdicts, which have been taken from the decision cache.
+     */
+    public long getCacheHits() {
+      return Math.max(0, evaluations.sum() - cacheMisses.sum());
+    }
+
+    /**
+     * Returns the number of paths, which the pushing users were not permitted to write.
+     */
+    public long getDenials() {
+      return denials.sum();
+    }
+
+    public long getPushes() {
+      return pushes.sum();
+    }
+
+    public long getDeniedPushes() {
+      return deniedPushes.sum();
+    }
+
+    /**
+     * Returns the latencies of the most recent pushes in nanoseconds in ascending order.
+     */
+    public long[] getLatencies() {
+      AtomicLongArray ring = latencies;
+      if (ring == null) {
+        return new long[0];
+      }
+      int count = (int) Math.min(latencyCount.get(), ring.length());
+      long[] result = new long[count];
+      for (int i = 0; i < count; i++) {
+        result[i] = ring.get(i);
+      }
+      Arrays.sort(result);
+      return result;
+    }
+  }
+}
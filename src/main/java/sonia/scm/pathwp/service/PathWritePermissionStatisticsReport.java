@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp.service;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Statistics of the path write permissions of all repositories, which have been evaluated or loaded since the start
+ * of the server, together with a global summary.
+ */
+public final class PathWritePermissionStatisticsReport {
+
+  private final List<RepositoryStatistics> repositories;
+  private final Summary summary;
+
+  PathWritePermissionStatisticsReport(List<RepositoryStatistics> repositories, Summary summary) {
+    this.repositories = Collections.unmodifiableList(repositories);
+    this.summary = summary;
+  }
+
+  public List<RepositoryStatistics> getRepositories() {
+    return repositories;
+  }
+
+  public Summary getSummary() {
+    return summary;
+  }
+
+  /**
+   * The evaluations and pushes counted since a point in time.
+   */
+  public static final class Usage {
+
+    private final Instant since;
+    private final long evaluations;
+    private final double evaluationsPerSecond;
+    private final long denials;
+    private final double cacheHitRate;
+    private final long pushes;
+    private final long deniedPushes;
+    private final long[] latencies;
+
+    Usage(PathWritePermissionStatistics.Counters counters, Instant now) {
+      this.since = counters.getSince();
+      this.evaluations = counters.getEvaluations();
+      long millis = Math.max(1, now.toEpochMilli() - since.toEpochMilli());
+      this.evaluationsPerSecond = evaluations * 1000.0 / millis;
+      this.denials = counters.getDenials();
+      this.cacheHitRate = evaluations == 0 ? 0 : (double) counters.getCacheHits() / evaluations;
+      this.pushes = counters.getPushes();
+      this.deniedPushes = counters.getDeniedPushes();
+      this.latencies = counters.getLatencies();
+    }
+
+    public Instant getSince() {
+      return since;
+    }
+
+    public long getEvaluations() {
+      return evaluations;
+    }
+
+    /**
+     * Returns the average number of evaluated paths per second since the start of the counting.
+     */
+    public double getEvaluationsPerSecond() {
+      return evaluationsPerSecond;
+    }
+
+    public long getDenials() {
+      return denials;
+    }
+
+    /**
+     * Returns the share of the verdicts, which have been taken from the decision cache.
+     */
+    public double getCacheHitRate() {
+      return cacheHitRate;
+    }
+
+    public long getPushes() {
+      return pushes;
+    }
+
+    public long getDeniedPushes() {
+      return deniedPushes;
+    }
+
+    /**
+     * Returns the given percentile of the latencies of the most recent pushes in nanoseconds or {@code 0}, if
+     * there has been no push yet.
+     *
+     * @param percentile the percentile between {@code 0} (exclusive) and {@code 100} (inclusive)
+     */
+    public long getLatencyPercentile(double percentile) {
+      if (latencies.length == 0) {
+        return 0;
+      }
+      int rank = (int) Math.ceil(percentile / 100 * latencies.length);
+      return latencies[Math.min(latencies.length, Math.max(1, rank)) - 1];
+    }
+  }
+
+  /**
+   * The rules and the usage of a single repository.
+   */
+  public static final class RepositoryStatistics {
+
+    private final String namespace;
+    private final String name;
+    private final boolean rulesLoaded;
+    private final boolean enabled;
+    private final int userAllowRules;
+    private final int userDenyRules;
+    private final int groupAllowRules;
+    private final int groupDenyRules;
+    private final int inheritedRules;
+    private final int prunedRules;
+    private final long indexSize;
+    private final Usage usage;
+
+    /**
+     * @param ruleSet the loaded rule set or {@code null}, if the rules are not loaded
+     */
+    RepositoryStatistics(String namespace, String name, RuleSet ruleSet, Usage usage) {
+      this.namespace = namespace;
+      this.name = name;
+      this.rulesLoaded = ruleSet != null;
+      this.enabled = rulesLoaded && ruleSet.isEnabled();
+      this.userAllowRules = rulesLoaded ? ruleSet.countRules(false, PathWritePermission.Type.ALLOW) : 0;
+      this.userDenyRules = rulesLoaded ? ruleSet.countRules(false, PathWritePermission.Type.DENY) : 0;
+      this.groupAllowRules = rulesLoaded ? ruleSet.countRules(true, PathWritePermission.Type.ALLOW) : 0;
+      this.groupDenyRules = rulesLoaded ? ruleSet.countRules(true, PathWritePermission.Type.DENY) : 0;
+      this.inheritedRules = rulesLoaded ? ruleSet.countInheritedRules() : 0;
+      // disabled rule sets are not compiled, so that their rules are not pruned either
+      this.prunedRules = enabled ? ruleSet.getPrunedRules().size() : 0;
+      this.indexSize = rulesLoaded ? ruleSet.estimateIndexSize() : 0;
+      this.usage = usage;
+    }
+
+    public String getNamespace() {
+      return namespace;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * Returns {@code false} if the rules of the repository are not loaded, e.g. because they have been changed or
+     * could not be loaded. The rules are not counted then.
+     */
+    public boolean isRulesLoaded() {
+      return rulesLoaded;
+    }
+
+    public boolean isEnabled() {
+      return enabled;
+    }
+
+    public int getUserAllowRules() {
+      return userAllowRules;
+    }
+
+    public int getUserDenyRules() {
+      return userDenyRules;
+    }
+
+    public int getGroupAllowRules() {
+      return groupAllowRules;
+    }
+
+    public int getGroupDenyRules() {
+      return groupDenyRules;
+    }
+
+    /**
+     * Returns the number of rules inherited from templates.
+     */
+    public int getInheritedRules() {
+      return inheritedRules;
+    }
+
+    /**
+     * Returns the number of own rules, which are not evaluated, because they cannot change any verdict.
+     */
+    public int getPrunedRules() {
+      return prunedRules;
+    }
+
+    /**
+     * Returns a rough estimate of the heap occupied by the compiled own rules and their index in bytes.
+     */
+    public long getIndexSize() {
+      return indexSize;
+    }
+
+    public Usage getUsage() {
+      return usage;
+    }
+  }
+
+  /**
+   * The totals of all repositories and the state of the shared caches.
+   */
+  public static final class Summary {
+
+    private final int repositories;
+    private final long rules;
+    private final long indexSize;
+    private final long internedRuleSets;
+    private final long decisionCacheSize;
+    private final double decisionCacheHitRate;
+    private final long decisionCacheEvictions;
+    private final Usage usage;
+
+    @SuppressWarnings("java:S107") // all parts of the summary
+    Summary(int repositories, long rules, long indexSize, long internedRuleSets, long decisionCacheSize, double decisionCacheHitRate, long decisionCacheEvictions, Usage usage) {
+      this.repositories = repositories;
+      this.rules = rules;
+      this.indexSize = indexSize;
+      this.internedRuleSets = internedRuleSets;
+      this.decisionCacheSize = decisionCacheSize;
+      this.decisionCacheHitRate = decisionCacheHitRate;
+      this.decisionCacheEvictions = decisionCacheEvictions;
+      this.usage = usage;
+    }
+
+    public int getRepositories() {
+      return repositories;
+    }
+
+    /**
+     * Returns the number of own rules of all repositories.
+     */
+    public long getRules() {
+      return rules;
+    }
+
+    public long getIndexSize() {
+      return indexSize;
+    }
+
+    /**
+     * Returns the number of distinct compiled rule sets, which are shared by repositories with identical rules.
+     */
+    public long getInternedRuleSets() {
+      return internedRuleSets;
+    }
+
+    public long getDecisionCacheSize() {
+      return decisionCacheSize;
+    }
+
+    public double getDecisionCacheHitRate() {
+      return decisionCacheHitRate;
+    }
+
+    public long getDecisionCacheEvictions() {
+      return decisionCacheEvictions;
+    }
+
+    public Usage getUsage() {
+      return usage;
+    }
+  }
+}
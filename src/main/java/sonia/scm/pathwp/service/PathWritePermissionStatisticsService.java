@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp.service;
+
+import com.google.common.cache.CacheStats;
+import lombok.extern.slf4j.Slf4j;
+import sonia.scm.config.ConfigurationPermissions;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryManager;
+import sonia.scm.repository.RepositoryPermissions;
+
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Reports the rules and the usage of the path write permissions of every repository, which has been evaluated or
+ * whose rules have been loaded since the start of the server. The statistics require the dedicated permission
+ * {@code configuration:read:pathwpStatistics} and contain only repositories, which the caller may read. The global
+ * summary of the usage is not filtered.
+ * <p>
+ * The rules are only reported from the rule sets, which are already loaded. The report never loads or compiles
+ * rules, repositories without a loaded rule set are reported with their usage only.
+ */
+@Slf4j
+@Singleton
+public class PathWritePermissionStatisticsService {
+
+  public static final String PERMISSION_NAME = "pathwpStatistics";
+
+  private final PathWritePermissionService service;
+  private final RepositoryManager repositoryManager;
+  private final RuleSetCache ruleSetCache;
+  private final DecisionCache decisionCache;
+  private final PathWritePermissionStatistics statistics;
+
+  @Inject
+  public PathWritePermissionStatisticsService(PathWritePermissionService service, RepositoryManager repositoryManager, RuleSetCache ruleSetCache, DecisionCache decisionCache, PathWritePermissionStatistics statistics) {
+    this.service = service;
+    this.repositoryManager = repositoryManager;
+    this.ruleSetCache = ruleSetCache;
+    this.decisionCache = decisionCache;
+    this.statistics = statistics;
+  }
+
+  public static boolean isPermitted() {
+    return ConfigurationPermissions.read(PERMISSION_NAME).isPermitted();
+  }
+
+  public PathWritePermissionStatisticsReport getReport() {
+    ConfigurationPermissions.read(PERMISSION_NAME).check();
+    Instant now = statistics.now();
+    Set<String> ids = ruleSetCache.getRepositoryIds();
+    ids.addAll(statistics.getRepositories().keySet());
+
+    List<PathWritePermissionStatisticsReport.RepositoryStatistics> repositories = new ArrayList<>(ids.size());
+    long rules = 0;
+    long indexSize = 0;
+    for (String id : ids) {
+      Repository repository = repositoryManager.get(id);
+      if (repository == null || !RepositoryPermissions.read(repository).isPermitted()) {
+        continue;
+      }
+      PathWritePermissionStatisticsReport.RepositoryStatistics repositoryStatistics = new PathWritePermissionStatisticsReport.RepositoryStatistics(
+        repository.getNamespace(),
+        repository.getName(),
+        getLoadedRuleSet(repository),
+        new PathWritePermissionStatisticsReport.Usage(statistics.findCounters(id), now)
+      );
+      rules += repositoryStatistics.getUserAllowRules() + repositoryStatistics.getUserDenyRules()
+        + repositoryStatistics.getGroupAllowRules() + repositoryStatistics.getGroupDenyRules();
+      indexSize += repositoryStatistics.getIndexSize();
+      repositories.add(repositoryStatistics);
+    }
+    repositories.sort(Comparator
+      .comparing(PathWritePermissionStatisticsReport.RepositoryStatistics::getNamespace)
+      .thenComparing(PathWritePermissionStatisticsReport.RepositoryStatistics::getName));
+
+    CacheStats cacheStats = decisionCache.getStats();
+    return new PathWritePermissionStatisticsReport(repositories, new PathWritePermissionStatisticsReport.Summary(
+      repositories.size(),
+      rules,
+      indexSize,
+      ruleSetCache.getInternedCount(),
+      decisionCache.size(),
+      cacheStats.requestCount() == 0 ? 0 : cacheStats.hitRate(),
+      cacheStats.evictionCount(),
+      new PathWritePermissionStatisticsReport.Usage(statistics.getTotal(), now)
+    ));
+  }
+
+  /**
+   * Returns the loaded rule set of the repository combined with its templates or {@code null}, if the rule set is
+   * not loaded or the templates cannot be compiled.
+   */
+  private RuleSet getLoadedRuleSet(Repository repository) {
+    RuleSet ruleSet = ruleSetCache.getIfLoaded(repository.getId());
+    if (ruleSet == null) {
+      return null;
+    }
+    try {
+      return service.inheritTemplates(repository, ruleSet);
+    } catch (RuntimeException e) {
+      log.warn("failed to combine the rules of repository {} with its templates", repository, e);
+      return null;
+    }
+  }
+}
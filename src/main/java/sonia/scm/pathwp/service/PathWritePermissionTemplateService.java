@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp.service;
+
+import sonia.scm.config.ConfigurationPermissions;
+import sonia.scm.store.ConfigurationStore;
+import sonia.scm.store.ConfigurationStoreFactory;
+
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Manages the global and the namespace templates. Every template is compiled only once and the compiled rules are
+ * shared by all repositories inheriting the template.
+ */
+@Singleton
+public class PathWritePermissionTemplateService {
+
+  public static final String PERMISSION_NAME = "pathwp";
+  private static final String STORE_NAME = "pathWritePermissionTemplates";
+
+  private final ConfigurationStoreFactory storeFactory;
+  private final Object writeLock = new Object();
+  private volatile CompiledTemplates compiledTemplates;
+
+  @Inject
+  public PathWritePermissionTemplateService(ConfigurationStoreFactory storeFactory) {
+    this.storeFactory = storeFactory;
+  }
+
+  public static boolean isPermitted() {
+    return ConfigurationPermissions.read(PERMISSION_NAME).isPermitted();
+  }
+
+  /**
+   * Returns copies of the rules of the template.
+   *
+   * @param namespace the namespace of the template or {@code null} for the global template
+   */
+  public List<PathWritePermission> getTemplate(String namespace) {
+    ConfigurationPermissions.read(PERMISSION_NAME).check();
+    CompiledRules rules = getCompiledTemplates().get(namespace);
+    List<PathWritePermission> permissions = new ArrayList<>();
+    if (rules != null) {
+      for (CompiledRule rule : rules.getRules()) {
+        permissions.add(CompiledRule.copy(rule.getPermission()));
+      }
+    }
+    return permissions;
+  }
+
+  /**
+   * Replaces the rules of the template. A template without rules is removed.
+   *
+   * @param namespace the namespace of the template or {@code null} for the global template
+   * @param permissions the new rules of the template
+   * @throws sonia.scm.ScmConstraintViolationException if one of the rules is not valid
+   */
+  public void setTemplate(String namespace, Collection<PathWritePermission> permissions) {
+    ConfigurationPermissions.write(PERMISSION_NAME).check();
+    RuleValidator.validate(permissions);
+    synchronized (writeLock) {
+      ConfigurationStore<PathWritePermissionTemplates> store = getStore();
+      PathWritePermissionTemplates templates = store.getOptional().orElseGet(PathWritePermissionTemplates::new);
+      templates.getTemplates().removeIf(template -> Objects.equals(template.getNamespace(), namespace));
+      if (!permissions.isEmpty()) {
+        PathWritePermissionTemplate template = new PathWritePermissionTemplate();
+        template.setNamespace(namespace);
+        template.setPermissions(new ArrayList<>(permissions));
+        templates.getTemplates().add(template);
+      }
+      store.set(templates);
+      compiledTemplates = CompiledTemplates.compile(templates);
+    }
+  }
+
+  /**
+   * Returns the compiled templates which apply to repositories of the given namespace, the namespace template first.
+   */
+  List<CompiledRules> getTemplatesFor(String namespace) {
+    return getCompiledTemplates().getTemplatesFor(namespace);
+  }
+
+  private CompiledTemplates getCompiledTemplates() {
+    CompiledTemplates templates = compiledTemplates;
+    if (templates == null) {
+      synchronized (writeLock) {
+        templates = compiledTemplates;
+        if (templates == null) {
+          templates = CompiledTemplates.compile(getStore().getOptional().orElseGet(PathWritePermissionTemplates::new));
+          compiledTemplates = templates;
+        }
+      }
+    }
+    return templates;
+  }
+
+  private ConfigurationStore<PathWritePermissionTemplates> getStore() {
+    return storeFactory.withType(PathWritePermissionTemplates.class).withName(STORE_NAME).build();
+  }
+
+  private static final class CompiledTemplates {
+
+    private final CompiledRules global;
+    private final Map<String, CompiledRules> namespaces;
+    private final Map<String, List<CompiledRules>> inherited;
+    private final List<CompiledRules> globalOnly;
+
+    private CompiledTemplates(CompiledRules global, Map<String, CompiledRules> namespaces) {
+      this.global = global;
+      this.namespaces = namespaces;
+      this.globalOnly = global == null ? Collections.emptyList() : Collections.singletonList(global);
+      this.inherited = new HashMap<>();
+      for (Map.Entry<String, CompiledRules> entry : namespaces.entrySet()) {
+        List<CompiledRules> layers = new ArrayList<>(2);
+        layers.add(entry.getValue());
+        layers.addAll(globalOnly);
+        inherited.put(entry.getKey(), Collections.unmodifiableList(layers));
+      }
+    }
+
+    static CompiledTemplates compile(PathWritePermissionTemplates templates) {
+      CompiledRules global = null;
+      Map<String, CompiledRules> namespaces = new HashMap<>();
+      for (PathWritePermissionTemplate template : templates.getTemplates()) {
+        CompiledRules rules = CompiledRules.compile(template.getPermissions());
+        if (template.getNamespace() == null) {
+          global = rules;
+        } else {
+          namespaces.put(template.getNamespace(), rules);
+        }
+      }
+      return new CompiledTemplates(global, namespaces);
+    }
+
+    CompiledRules get(String namespace) {
+      return namespace == null ? global : namespaces.get(namespace);
+    }
+
+    List<CompiledRules> getTemplatesFor(String namespace) {
+      return inherited.getOrDefault(namespace, globalOnly);
+    }
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.shiro.authz.AuthorizationException;
+import sonia.scm.group.Group;
+import sonia.scm.group.GroupCollector;
+import sonia.scm.group.GroupManager;
+import sonia.scm.repository.Repository;
+
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Answers which users and groups may write a path on a branch. The candidates are taken from the index of the
+ * compiled rules and from the members of the allowed groups, so that not all users have to be evaluated.
+ */
+@Slf4j
+@Singleton
+public class PathWritePermissionWriterService {
+
+  private final PathWritePermissionService service;
+  private final GroupCollector groupCollector;
+  private final GroupManager groupManager;
+
+  @Inject
+  public PathWritePermissionWriterService(PathWritePermissionService service, GroupCollector groupCollector, GroupManager groupManager) {
+    this.service = service;
+    this.groupCollector = groupCollector;
+    this.groupManager = groupManager;
+  }
+
+  public PathWritePermissionWriters getWriters(String namespace, String name, String branch, String path) {
+    Repository repository = service.getRepository(namespace, name);
+    service.checkPermission(repository);
+    RuleSet ruleSet = service.getEffectiveRuleSet(repository);
+    if (!ruleSet.isEnabled()) {
+      Set<String> none = Collections.emptySet();
+      return new PathWritePermissionWriters(false, none, none, none, none, none);
+    }
+
+    Set<String> deniedUsers = ruleSet.getMatchingPrincipals(false, PathWritePermission.Type.DENY, branch, path);
+    Set<String> deniedGroups = ruleSet.getMatchingPrincipals(true, PathWritePermission.Type.DENY, branch, path);
+    Set<String> groups = ruleSet.getMatchingPrincipals(true, PathWritePermission.Type.ALLOW, branch, path);
+    groups.removeAll(deniedGroups);
+
+    Set<String> candidates = ruleSet.getMatchingPrincipals(false, PathWritePermission.Type.ALLOW, branch, path);
+    Set<String> unexpandedGroups = new TreeSet<>();
+    for (String group : groups) {
+      Collection<String> members = getMembers(group);
+      if (members == null) {
+        unexpandedGroups.add(group);
+      } else {
+        candidates.addAll(members);
+      }
+    }
+    candidates.removeAll(deniedUsers);
+
+    Set<String> users = new TreeSet<>();
+    for (String user : candidates) {
+      if (ruleSet.isPrivileged(user, groupCollector.collect(user), branch, path)) {
+        users.add(user);
+      }
+    }
+    return new PathWritePermissionWriters(true, users, groups, unexpandedGroups, deniedUsers, deniedGroups);
+  }
+
+  /**
+   * Returns the members of the group or {@code null}, if they are not known.
+   */
+  private Collection<String> getMembers(String name) {
+    try {
+      Group group = groupManager.get(name);
+      if (group == null || group.isExternal()) {
+        return null;
+      }
+      return group.getMembers();
+    } catch (AuthorizationException e) {
+      log.debug("not permitted to read members of group {}", name, e);
+      return null;
+    }
+  }
+}
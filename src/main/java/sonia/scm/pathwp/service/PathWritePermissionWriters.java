@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The users and groups, which may write a path on a branch. If the configuration is disabled, everybody may write
+ * and all lists are empty.
+ */
+public final class PathWritePermissionWriters {
+
+  private final boolean enabled;
+  private final List<String> users;
+  private final List<String> groups;
+  private final List<String> unexpandedGroups;
+  private final List<String> deniedUsers;
+  private final List<String> deniedGroups;
+
+  PathWritePermissionWriters(boolean enabled, Collection<String> users, Collection<String> groups, Collection<String> unexpandedGroups, Collection<String> deniedUsers, Collection<String> deniedGroups) {
+    this.enabled = enabled;
+    this.users = copy(users);
+    this.groups = copy(groups);
+    this.unexpandedGroups = copy(unexpandedGroups);
+    this.deniedUsers = copy(deniedUsers);
+    this.deniedGroups = copy(deniedGroups);
+  }
+
+  private static List<String> copy(Collection<String> names) {
+    return Collections.unmodifiableList(new ArrayList<>(names));
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Returns the users, which may write the path. These are the users with an own ALLOW rule and the members of the
+   * allowed groups, which are not denied by one of their groups.
+   */
+  public List<String> getUsers() {
+    return users;
+  }
+
+  /**
+   * Returns the groups with an ALLOW rule and without a DENY rule for the path. Their members may write the path,
+   * unless they are denied by an own rule or by another group.
+   */
+  public List<String> getGroups() {
+    return groups;
+  }
+
+  /**
+   * Returns the allowed groups, whose members are not known, e.g. external groups. Their members are not part of
+   * the users.
+   */
+  public List<String> getUnexpandedGroups() {
+    return unexpandedGroups;
+  }
+
+  /**
+   * Returns the users with a DENY rule for the path.
+   */
+  public List<String> getDeniedUsers() {
+    return deniedUsers;
+  }
+
+  /**
+   * Returns the groups with a DENY rule for the path. None of their members may write the path.
+   */
+  public List<String> getDeniedGroups() {
+    return deniedGroups;
+  }
+}
@@ -37,7 +37,33 @@ public class PathWritePermissions {
 
   private boolean isEnabled = false;
 
+  /**
+   * If set, the global template and the template of the namespace apply to the repository in addition to the
+   * own permissions.
+   */
+  private boolean inheritTemplates = false;
+
+  /**
+   * Decides what happens to a push, which exceeds the time or path budget of the verification.
+   */
+  private OverloadPolicy overloadPolicy = OverloadPolicy.REJECT;
+
   @XmlElement(name = "permission")
   private List<PathWritePermission> permissions = new ArrayList<>();
 
+  public OverloadPolicy getOverloadPolicy() {
+    return overloadPolicy == null ? OverloadPolicy.REJECT : overloadPolicy;
+  }
+
+  public enum OverloadPolicy {
+    /**
+     * Pushes exceeding the budget are rejected.
+     */
+    REJECT,
+    /**
+     * Pushes exceeding the budget are evaluated on directory level. Paths are only accepted, if the user may write
+     * everything below their directory.
+     */
+    COARSE
+  }
 }
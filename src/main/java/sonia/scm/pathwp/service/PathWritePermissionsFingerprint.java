@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp.service;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Computes a stable fingerprint of a path write permission configuration. Two configurations with the same
+ * fingerprint lead to the same verdicts, so the fingerprint can be used as configuration version.
+ */
+public final class PathWritePermissionsFingerprint {
+
+  private PathWritePermissionsFingerprint() {
+  }
+
+  public static String of(PathWritePermissions permissions) {
+    Hasher hasher = Hashing.sha256().newHasher();
+    hasher.putBoolean(permissions.isEnabled());
+    hasher.putBoolean(permissions.isInheritTemplates());
+    putString(hasher, permissions.getOverloadPolicy().name());
+    hasher.putInt(permissions.getPermissions().size());
+    for (PathWritePermission permission : permissions.getPermissions()) {
+      putString(hasher, permission.getPath());
+      putString(hasher, permission.getBranch());
+      putString(hasher, permission.getBranchScope().name());
+      putString(hasher, permission.getName());
+      hasher.putBoolean(permission.isGroup());
+      putString(hasher, permission.getType() == null ? null : permission.getType().name());
+    }
+    return hasher.hash().toString();
+  }
+
+  private static void putString(Hasher hasher, String value) {
+    if (value == null) {
+      hasher.putInt(-1);
+    } else {
+      hasher.putInt(value.length());
+      hasher.putString(value, StandardCharsets.UTF_8);
+    }
+  }
+}
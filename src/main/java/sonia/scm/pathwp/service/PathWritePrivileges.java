@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The write privileges of one user for one repository. The rule set and the groups of the user are resolved only
+ * once, so that many paths can be checked cheaply.
+ */
+public final class PathWritePrivileges {
+
+  private final RuleSet ruleSet;
+  private final String user;
+  private final Set<String> userGroups;
+  private final DecisionCache decisionCache;
+  private final PathWritePermissionStatistics.Counters counters;
+  private final String principalKey;
+
+  PathWritePrivileges(RuleSet ruleSet, String user, Set<String> userGroups, DecisionCache decisionCache, PathWritePermissionStatistics.Counters counters) {
+    this.ruleSet = ruleSet;
+    this.user = user;
+    this.userGroups = userGroups;
+    this.decisionCache = decisionCache;
+    this.counters = counters;
+    this.principalKey = ruleSet.isEnabled() ? ruleSet.getPrincipalKey(user, userGroups) : null;
+  }
+
+  public boolean isEnabled() {
+    return ruleSet.isEnabled();
+  }
+
+  public PathWritePermissions.OverloadPolicy getOverloadPolicy() {
+    return ruleSet.getOverloadPolicy();
+  }
+
+  /**
+   * Returns the number of rules, which are evaluated for every path.
+   */
+  public int getRuleCount() {
+    return ruleSet.getRuleCount(user, userGroups);
+  }
+
+  /**
+   * Returns a snapshot of the rules of the user, which apply to the given branch.
+   */
+  public PathWritePermissionSnapshot getSnapshot(String branch) {
+    return ruleSet.createSnapshot(user, userGroups, branch);
+  }
+
+  /**
+   * Returns {@code true} if the user is permitted to write the given path on the given branch.
+   */
+  public boolean isPrivileged(String branch, String path) {
+    if (!ruleSet.isEnabled()) {
+      return true;
+    }
+    boolean privileged = decisionCache.isPrivileged(
+      ruleSet.getEffectiveVersion(),
+      principalKey,
+      branch,
+      path,
+      () -> {
+        counters.cacheMissed();
+        return ruleSet.isPrivileged(user, userGroups, branch, path);
+      }
+    );
+    counters.evaluated(!privileged);
+    return privileged;
+  }
+
+  /**
+   * Returns all of the given paths, the user is not permitted to write on the given branch.
+   */
+  public List<String> getDeniedPaths(String branch, Collection<String> paths) {
+    List<String> denied = new ArrayList<>();
+    if (!ruleSet.isEnabled()) {
+      return denied;
+    }
+    for (String path : paths) {
+      if (!isPrivileged(branch, path)) {
+        denied.add(path);
+      }
+    }
+    return denied;
+  }
+
+  /**
+   * Returns {@code false} if the user is not permitted to write any path below the given directory. A return value
+   * of {@code true} means, that there may be paths the user can write.
+   */
+  public boolean isPrivilegedForAnythingBelow(String branch, String directory) {
+    return ruleSet.isPrivilegedForAnythingBelow(user, userGroups, branch, directory);
+  }
+
+  /**
+   * Returns {@code true} if the user is permitted to write every path below the given directory. A return value of
+   * {@code false} means, that there may be paths the user is not permitted to write.
+   */
+  public boolean isPrivilegedForEverythingBelow(String branch, String directory) {
+    return ruleSet.isPrivilegedForEverythingBelow(user, userGroups, branch, directory);
+  }
+
+  /**
+   * Groups the given branches, so that all branches of a group lead to the same verdicts for every path. It is
+   * sufficient to check the paths for the first branch of each group.
+   */
+  public List<List<String>> groupBranches(Collection<String> branches) {
+    return ruleSet.groupBranches(user, userGroups, branches);
+  }
+}
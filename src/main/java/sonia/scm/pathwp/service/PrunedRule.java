@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp.service;
+
+/**
+ * A rule which has been removed from the evaluation, because it cannot change any verdict. The rule is still part
+ * of the configuration.
+ */
+public final class PrunedRule {
+
+  public enum Reason {
+    /**
+     * The rule can never match, e.g. because it excludes all branches.
+     */
+    NEVER_MATCHES,
+    /**
+     * Another rule of the same principal and type matches everything this rule matches.
+     */
+    SHADOWED
+  }
+
+  private final PathWritePermission rule;
+  private final Reason reason;
+  private final PathWritePermission shadowedBy;
+
+  PrunedRule(PathWritePermission rule, Reason reason, PathWritePermission shadowedBy) {
+    this.rule = rule;
+    this.reason = reason;
+    this.shadowedBy = shadowedBy;
+  }
+
+  public PathWritePermission getRule() {
+    return CompiledRule.copy(rule);
+  }
+
+  public Reason getReason() {
+    return reason;
+  }
+
+  /**
+   * Returns the rule which shadows the pruned rule or {@code null}, if the rule never matches.
+   */
+  public PathWritePermission getShadowedBy() {
+    return shadowedBy == null ? null : CompiledRule.copy(shadowedBy);
+  }
+
+  @Override
+  public String toString() {
+    if (reason == Reason.SHADOWED) {
+      return RuleKey.of(rule) + " is shadowed by " + RuleKey.of(shadowedBy);
+    }
+    return RuleKey.of(rule) + " never matches";
+  }
+}
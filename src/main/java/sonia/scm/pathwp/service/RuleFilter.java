@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp.service;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Filter to find rules of a {@link RuleSet}. Criteria which are not set, are ignored.
+ */
+@Getter
+@Setter
+public class RuleFilter {
+
+  /**
+   * Name of the user or group (see {@link #group}) of the rules.
+   */
+  private String principal;
+  private boolean group;
+  /**
+   * The path pattern of the rules has to start with this prefix.
+   */
+  private String pathPrefix;
+  /**
+   * The rules have to apply to this branch.
+   */
+  private String branch;
+  private PathWritePermission.Type type;
+
+  boolean matches(CompiledRule rule) {
+    PathWritePermission permission = rule.getPermission();
+    if (principal != null && (permission.isGroup() != group || !principal.equals(permission.getName()))) {
+      return false;
+    }
+    if (pathPrefix != null && (permission.getPath() == null || !permission.getPath().startsWith(pathPrefix))) {
+      return false;
+    }
+    if (type != null && permission.getType() != type) {
+      return false;
+    }
+    return branch == null || rule.getBranchPattern().matches(branch) != rule.isExcludeBranch();
+  }
+}
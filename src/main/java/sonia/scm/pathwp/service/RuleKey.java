@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp.service;
+
+import java.util.Objects;
+
+/**
+ * Identity of a {@link PathWritePermission}. Two permissions with the same key are interchangeable.
+ */
+final class RuleKey {
+
+  private final String path;
+  private final String branch;
+  private final PathWritePermission.BranchScope branchScope;
+  private final String name;
+  private final boolean group;
+  private final PathWritePermission.Type type;
+
+  private RuleKey(PathWritePermission permission) {
+    this.path = permission.getPath();
+    this.branch = permission.getBranch();
+    this.branchScope = permission.getBranchScope();
+    this.name = permission.getName();
+    this.group = permission.isGroup();
+    this.type = permission.getType();
+  }
+
+  static RuleKey of(PathWritePermission permission) {
+    return new RuleKey(permission);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    RuleKey that = (RuleKey) o;
+    return group == that.group
+      && Objects.equals(path, that.path)
+      && Objects.equals(branch, that.branch)
+      && branchScope == that.branchScope
+      && Objects.equals(name, that.name)
+      && type == that.type;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(path, branch, branchScope, name, group, type);
+  }
+
+  @Override
+  public String toString() {
+    return (group ? "@" : "") + name + " " + type + " " + path + " on " + branchScope + " " + branch;
+  }
+}
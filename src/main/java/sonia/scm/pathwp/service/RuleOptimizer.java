@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp.service;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Removes rules which cannot change any verdict. A user is privileged, if no DENY rule and any ALLOW rule matches.
+ * So of all rules of the same principal and type, only those have to be evaluated which are not covered by another
+ * rule of the list.
+ */
+final class RuleOptimizer {
+
+  private RuleOptimizer() {
+  }
+
+  /**
+   * Returns the rules which have to be evaluated, in the order of the configuration.
+   *
+   * @param rules rules of the same principal and type
+   * @param pruned collects the removed rules
+   */
+  static List<CompiledRule> optimize(List<CompiledRule> rules, List<PrunedRule> pruned) {
+    List<CompiledRule> kept = new ArrayList<>(rules.size());
+    for (CompiledRule rule : rules) {
+      if (rule.isNeverMatching()) {
+        pruned.add(new PrunedRule(rule.getPermission(), PrunedRule.Reason.NEVER_MATCHES, null));
+      } else {
+        CompiledRule shadowing = findCovering(kept, rule);
+        if (shadowing != null) {
+          pruned.add(new PrunedRule(rule.getPermission(), PrunedRule.Reason.SHADOWED, shadowing.getPermission()));
+        } else {
+          removeCovered(kept, rule, pruned);
+          kept.add(rule);
+        }
+      }
+    }
+    return kept;
+  }
+
+  private static CompiledRule findCovering(List<CompiledRule> kept, CompiledRule rule) {
+    for (CompiledRule candidate : kept) {
+      if (candidate.covers(rule)) {
+        return candidate;
+      }
+    }
+    return null;
+  }
+
+  private static void removeCovered(List<CompiledRule> kept, CompiledRule rule, List<PrunedRule> pruned) {
+    Iterator<CompiledRule> iterator = kept.iterator();
+    while (iterator.hasNext()) {
+      CompiledRule candidate = iterator.next();
+      if (rule.covers(candidate)) {
+        iterator.remove();
+        pruned.add(new PrunedRule(candidate.getPermission(), PrunedRule.Reason.SHADOWED, rule.getPermission()));
+      }
+    }
+  }
+}
@@ -0,0 +1,532 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp.service;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Immutable and versioned snapshot of the path write permissions of a repository. A rule set is compiled once and
+ * then shared by all concurrent pushes, until it is replaced by a new version.
+ */
+public final class RuleSet {
+
+  private static final int EXPLAIN_TIMED_RUNS = 3;
+
+  private final String version;
+  private final boolean enabled;
+  private final boolean inheritTemplates;
+  private final PathWritePermissions.OverloadPolicy overloadPolicy;
+  private final CompiledRules rules;
+  private final List<CompiledRules> layers;
+  private final String effectiveVersion;
+
+  private RuleSet(String version, boolean enabled, boolean inheritTemplates, PathWritePermissions.OverloadPolicy overloadPolicy, CompiledRules rules, List<CompiledRules> inherited) {
+    this.version = version;
+    this.enabled = enabled;
+    this.inheritTemplates = inheritTemplates;
+    this.overloadPolicy = overloadPolicy;
+    this.rules = rules;
+    if (inherited.isEmpty()) {
+      this.layers = Collections.singletonList(rules);
+      this.effectiveVersion = version;
+    } else {
+      List<CompiledRules> all = new ArrayList<>(inherited.size() + 1);
+      all.add(rules);
+      all.addAll(inherited);
+      this.layers = Collections.unmodifiableList(all);
+      this.effectiveVersion = createEffectiveVersion(version, inherited);
+    }
+  }
+
+  private static String createEffectiveVersion(String version, List<CompiledRules> inherited) {
+    Hasher hasher = Hashing.sha256().newHasher();
+    hasher.putString(version, StandardCharsets.UTF_8);
+    for (CompiledRules template : inherited) {
+      hasher.putString(template.getVersion(), StandardCharsets.UTF_8);
+    }
+    return hasher.hash().toString();
+  }
+
+  static RuleSet compile(PathWritePermissions permissions) {
+    return compile(permissions, PathWritePermissionsFingerprint.of(permissions));
+  }
+
+  /**
+   * Creates the rule set for the given configuration. The rules of a disabled configuration are never evaluated, so
+   * they are compiled only if they are requested, e.g. to find rules.
+   */
+  static RuleSet compile(PathWritePermissions permissions, String fingerprint) {
+    return new RuleSet(
+      fingerprint,
+      permissions.isEnabled(),
+      permissions.isInheritTemplates(),
+      permissions.getOverloadPolicy(),
+      permissions.isEnabled()
+        ? CompiledRules.compile(permissions.getPermissions())
+        : CompiledRules.of(permissions.getPermissions()),
+      Collections.emptyList()
+    );
+  }
+
+  /**
+   * Combines the own rules of this rule set with the given compiled templates. The templates are shared and not
+   * copied, so this is cheap enough to be done for every evaluation.
+   *
+   * @param templates the compiled templates which apply to the repository
+   */
+  RuleSet inherit(List<CompiledRules> templates) {
+    if (!inheritTemplates || templates.isEmpty()) {
+      return this;
+    }
+    return new RuleSet(version, enabled, true, overloadPolicy, rules, templates);
+  }
+
+  /**
+   * Creates a new rule set with the given changes applied. Only the added rules have to be compiled and only the
+   * rules of the users and groups affected by the changes are optimized again.
+   *
+   * @param enabled the new enabled flag or {@code null} to keep the current one
+   * @param toRemove rules which should be removed
+   * @param toAdd rules which should be added
+   */
+  RuleSet modify(Boolean enabled, Collection<PathWritePermission> toRemove, Collection<PathWritePermission> toAdd) {
+    return modify(enabled, null, null, toRemove, toAdd);
+  }
+
+  /**
+   * Creates a new rule set with the given changes applied. Settings which are {@code null} are kept.
+   *
+   * @param enabled the new enabled flag or {@code null} to keep the current one
+   * @param inheritTemplates the new inherit templates flag or {@code null} to keep the current one
+   * @param overloadPolicy the new overload policy or {@code null} to keep the current one
+   * @param toRemove rules which should be removed
+   * @param toAdd rules which should be added
+   */
+  RuleSet modify(Boolean enabled, Boolean inheritTemplates, PathWritePermissions.OverloadPolicy overloadPolicy, Collection<PathWritePermission> toRemove, Collection<PathWritePermission> toAdd) {
+    boolean modifiedEnabled = enabled == null ? this.enabled : enabled;
+    boolean modifiedInheritTemplates = inheritTemplates == null ? this.inheritTemplates : inheritTemplates;
+    PathWritePermissions.OverloadPolicy modifiedOverloadPolicy = overloadPolicy == null ? this.overloadPolicy : overloadPolicy;
+    CompiledRules modified = rules.modify(toRemove, toAdd, modifiedEnabled);
+    String modifiedVersion = PathWritePermissionsFingerprint.of(toPermissions(modifiedEnabled, modifiedInheritTemplates, modifiedOverloadPolicy, modified.getPermissions()));
+    return new RuleSet(modifiedVersion, modifiedEnabled, modifiedInheritTemplates, modifiedOverloadPolicy, modified, Collections.emptyList());
+  }
+
+  /**
+   * Returns the version of the repository configuration of this rule set. Inherited templates are not part of the
+   * version.
+   */
+  public String getVersion() {
+    return version;
+  }
+
+  /**
+   * Returns the version of the rules which are evaluated, including the inherited templates. Rule sets with the
+   * same effective version lead to the same verdicts.
+   */
+  public String getEffectiveVersion() {
+    return effectiveVersion;
+  }
+
+  /**
+   * Returns a canonical key for the principals, which are relevant for this rule set. Users and groups without any
+   * rule do not change a verdict, so different users with the same relevant principals share the same key.
+   */
+  String getPrincipalKey(String user, Collection<String> userGroups) {
+    StringBuilder key = new StringBuilder();
+    for (CompiledRules layer : layers) {
+      if (layer.hasRulesForUser(user)) {
+        key.append(user);
+        break;
+      }
+    }
+    TreeSet<String> relevantGroups = new TreeSet<>();
+    for (String group : userGroups) {
+      for (CompiledRules layer : layers) {
+        if (layer.hasRulesForGroup(group)) {
+          relevantGroups.add(group);
+          break;
+        }
+      }
+    }
+    for (String group : relevantGroups) {
+      key.append('\0').append(group);
+    }
+    return key.toString();
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public boolean isInheritTemplates() {
+    return inheritTemplates;
+  }
+
+  public PathWritePermissions.OverloadPolicy getOverloadPolicy() {
+    return overloadPolicy;
+  }
+
+  /**
+   * Returns a mutable copy of the configuration this rule set has been compiled from.
+   */
+  public PathWritePermissions getPermissions() {
+    return toPermissions(enabled, inheritTemplates, overloadPolicy, rules.getPermissions());
+  }
+
+  /**
+   * Returns a mutable copy of the settings of the configuration this rule set has been compiled from, without the
+   * rules.
+   */
+  public PathWritePermissions getSettings() {
+    return toPermissions(enabled, inheritTemplates, overloadPolicy, Collections.emptyList());
+  }
+
+  private static PathWritePermissions toPermissions(boolean enabled, boolean inheritTemplates, PathWritePermissions.OverloadPolicy overloadPolicy, List<PathWritePermission> rules) {
+    List<PathWritePermission> copies = new ArrayList<>(rules.size());
+    for (PathWritePermission permission : rules) {
+      copies.add(CompiledRule.copy(permission));
+    }
+    PathWritePermissions permissions = new PathWritePermissions();
+    permissions.setEnabled(enabled);
+    permissions.setInheritTemplates(inheritTemplates);
+    permissions.setOverloadPolicy(overloadPolicy);
+    permissions.setPermissions(copies);
+    return permissions;
+  }
+
+  /**
+   * Returns the names of all users or groups with rules, including the rules of inherited templates.
+   */
+  Set<String> getPrincipalNames(boolean group) {
+    Set<String> names = new TreeSet<>();
+    for (CompiledRules layer : layers) {
+      names.addAll(group ? layer.getGroupNames() : layer.getUserNames());
+    }
+    return names;
+  }
+
+  /**
+   * Returns the names of all users or groups, which have a rule of the given type matching the branch and the path.
+   * Only the index of the principals is inspected, so that users without rules do not have to be enumerated.
+   */
+  Set<String> getMatchingPrincipals(boolean group, PathWritePermission.Type type, String branch, String path) {
+    Set<String> names = new TreeSet<>();
+    for (CompiledRules layer : layers) {
+      layer.collectMatchingPrincipals(group, type, branch, path, names);
+    }
+    return names;
+  }
+
+  /**
+   * Returns all rules including the rules of inherited templates.
+   */
+  List<CompiledRule> getEffectiveRules() {
+    if (layers.size() == 1) {
+      return rules.getRules();
+    }
+    List<CompiledRule> result = new ArrayList<>();
+    for (CompiledRules layer : layers) {
+      result.addAll(layer.getRules());
+    }
+    return result;
+  }
+
+  /**
+   * Returns the number of own rules of the given type for users or groups.
+   */
+  int countRules(boolean group, PathWritePermission.Type type) {
+    int count = 0;
+    for (PathWritePermission rule : rules.getPermissions()) {
+      if (rule.isGroup() == group && rule.getType() == type) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Returns the number of rules of the inherited templates.
+   */
+  int countInheritedRules() {
+    int count = 0;
+    for (int i = 1; i < layers.size(); i++) {
+      count += layers.get(i).getPermissions().size();
+    }
+    return count;
+  }
+
+  /**
+   * Returns a rough estimate of the heap occupied by the own compiled rules and their index in bytes. Inherited
+   * templates are shared by all repositories and are not included.
+   */
+  long estimateIndexSize() {
+    return rules.estimateSize();
+  }
+
+  /**
+   * Returns the own rules which are not evaluated, because they cannot change any verdict, e.g. duplicates or rules
+   * shadowed by a broader rule of the same principal.
+   */
+  public List<PrunedRule> getPrunedRules() {
+    return rules.getPrunedRules();
+  }
+
+  /**
+   * Returns copies of all own rules matching the given filter in the order of the configuration. Rules for a given
+   * principal are looked up in the index, so that the other rules have not to be inspected.
+   *
+   * @param filter the filter to apply
+   */
+  public List<PathWritePermission> find(RuleFilter filter) {
+    List<CompiledRule> candidates = filter.getPrincipal() == null
+      ? rules.getRules()
+      : rules.getRules(filter.getPrincipal(), filter.isGroup());
+    List<PathWritePermission> result = new ArrayList<>();
+    for (CompiledRule rule : candidates) {
+      if (filter.matches(rule)) {
+        result.add(CompiledRule.copy(rule.getPermission()));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns {@code true} if it is certain, that the user is privileged for every path below the given directory.
+   * This is the case, if there is an ALLOW rule covering the whole directory and there is no DENY rule which might
+   * match any path below the directory.
+   */
+  public boolean isPrivilegedForEverythingBelow(String user, Collection<String> userGroups, String branch, String directory) {
+    if (!enabled) {
+      return true;
+    }
+    String prefix = toDirectoryPrefix(directory);
+    for (CompiledRule rule : getRules(user, userGroups, PathWritePermission.Type.DENY)) {
+      if (rule.coverageBelow(branch, prefix) != Coverage.NONE) {
+        return false;
+      }
+    }
+    for (CompiledRule rule : getRules(user, userGroups, PathWritePermission.Type.ALLOW)) {
+      if (rule.coverageBelow(branch, prefix) == Coverage.ALL) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns {@code false} if it is certain, that the user is not privileged for any path below the given directory.
+   * This is the case, if a DENY rule covers the whole directory or if no ALLOW rule matches a path below the
+   * directory.
+   */
+  public boolean isPrivilegedForAnythingBelow(String user, Collection<String> userGroups, String branch, String directory) {
+    if (!enabled) {
+      return true;
+    }
+    String prefix = toDirectoryPrefix(directory);
+    boolean partiallyDenied = false;
+    for (CompiledRule rule : getRules(user, userGroups, PathWritePermission.Type.DENY)) {
+      Coverage coverage = rule.coverageBelow(branch, prefix);
+      if (coverage == Coverage.ALL) {
+        return false;
+      }
+      partiallyDenied |= coverage == Coverage.SOME;
+    }
+    for (CompiledRule rule : getRules(user, userGroups, PathWritePermission.Type.ALLOW)) {
+      if (rule.coverageBelow(branch, prefix) != Coverage.NONE) {
+        GlobPattern path = rule.getPathPattern();
+        if (!partiallyDenied || !path.isLiteral() || isPrivileged(user, userGroups, branch, path.getLiteralPrefix())) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Groups the given branches by the rules of the user and his groups which apply to them. All branches of a group
+   * lead to the same verdicts for every path, so it is sufficient to evaluate one branch of each group.
+   */
+  List<List<String>> groupBranches(String user, Collection<String> userGroups, Collection<String> branches) {
+    if (branches.isEmpty()) {
+      return Collections.emptyList();
+    }
+    if (!enabled || branches.size() == 1) {
+      return Collections.singletonList(new ArrayList<>(branches));
+    }
+    List<CompiledRule> relevant = new ArrayList<>(getRules(user, userGroups, PathWritePermission.Type.DENY));
+    relevant.addAll(getRules(user, userGroups, PathWritePermission.Type.ALLOW));
+    Map<BitSet, List<String>> groups = new LinkedHashMap<>();
+    for (String branch : branches) {
+      BitSet view = new BitSet(relevant.size());
+      for (int i = 0; i < relevant.size(); i++) {
+        if (relevant.get(i).appliesToBranch(branch)) {
+          view.set(i);
+        }
+      }
+      groups.computeIfAbsent(view, key -> new ArrayList<>()).add(branch);
+    }
+    return new ArrayList<>(groups.values());
+  }
+
+  /**
+   * Returns the number of rules of the user and his groups, which are evaluated for every path.
+   */
+  int getRuleCount(String user, Collection<String> userGroups) {
+    if (!enabled) {
+      return 0;
+    }
+    return getRules(user, userGroups, PathWritePermission.Type.DENY).size()
+      + getRules(user, userGroups, PathWritePermission.Type.ALLOW).size();
+  }
+
+  /**
+   * Creates a snapshot of the rules of the user and his groups, which apply to the given branch. The snapshot leads
+   * to the same verdicts as this rule set for every path on the branch.
+   */
+  PathWritePermissionSnapshot createSnapshot(String user, Collection<String> userGroups, String branch) {
+    String snapshotVersion = Hashing.sha256().newHasher()
+      .putString(effectiveVersion, StandardCharsets.UTF_8)
+      .putChar('\0')
+      .putString(enabled ? getPrincipalKey(user, userGroups) : "", StandardCharsets.UTF_8)
+      .putChar('\0')
+      .putString(branch, StandardCharsets.UTF_8)
+      .hash()
+      .toString();
+    if (!enabled) {
+      return new PathWritePermissionSnapshot(snapshotVersion, false, branch, Collections.emptyList(), Collections.emptyList());
+    }
+    return new PathWritePermissionSnapshot(
+      snapshotVersion,
+      true,
+      branch,
+      toGlobs(getRules(user, userGroups, PathWritePermission.Type.ALLOW), branch),
+      toGlobs(getRules(user, userGroups, PathWritePermission.Type.DENY), branch)
+    );
+  }
+
+  private static List<PathWritePermissionSnapshot.Glob> toGlobs(List<CompiledRule> rules, String branch) {
+    Set<PathWritePermissionSnapshot.Glob> globs = new LinkedHashSet<>();
+    for (CompiledRule rule : rules) {
+      if (rule.appliesToBranch(branch)) {
+        // swapped rules match the branch pattern against the path
+        globs.add(rule.isSwapped()
+          ? new PathWritePermissionSnapshot.Glob(rule.getBranchPattern(), rule.isExcludeBranch())
+          : new PathWritePermissionSnapshot.Glob(rule.getPathPattern(), false));
+      }
+    }
+    return new ArrayList<>(globs);
+  }
+
+  private List<CompiledRule> getRules(String user, Collection<String> userGroups, PathWritePermission.Type type) {
+    if (layers.size() == 1) {
+      return rules.getRules(user, userGroups, type);
+    }
+    List<CompiledRule> result = new ArrayList<>();
+    for (CompiledRules layer : layers) {
+      result.addAll(layer.getRules(user, userGroups, type));
+    }
+    return result;
+  }
+
+  private static String toDirectoryPrefix(String directory) {
+    if (directory.isEmpty() || directory.endsWith("/")) {
+      return directory;
+    }
+    return directory + "/";
+  }
+
+  /**
+   * The user is privileged, if neither he nor one of his groups has a matching DENY rule and if he or one of his
+   * groups has a matching ALLOW rule. Everybody is privileged, if the rule set is disabled. Inherited templates
+   * are evaluated like own rules.
+   */
+  public boolean isPrivileged(String user, Collection<String> userGroups, String branch, String path) {
+    if (!enabled) {
+      return true;
+    }
+    return evaluate(user, userGroups, branch, path, null);
+  }
+
+  /**
+   * Explains the verdict of {@link #isPrivileged(String, Collection, String, String)}. The explained evaluation is
+   * done by the same compiled rules, which are used for pushes. The evaluation time is the average of a few
+   * evaluations without explanation, so that it is not distorted by the bookkeeping.
+   */
+  Explanation explain(String user, Collection<String> userGroups, String branch, String path) {
+    Set<String> relevantGroups = new TreeSet<>();
+    for (String group : userGroups) {
+      for (CompiledRules layer : layers) {
+        if (layer.hasRulesForGroup(group)) {
+          relevantGroups.add(group);
+          break;
+        }
+      }
+    }
+    Explanation explanation = new Explanation(user, relevantGroups, branch, path, enabled);
+    if (!enabled) {
+      explanation.setPrivileged(true);
+      return explanation;
+    }
+    explanation.setPrivileged(evaluate(user, relevantGroups, branch, path, explanation));
+    for (int i = 0; i < layers.size(); i++) {
+      CompiledRules layer = layers.get(i);
+      List<CompiledRule> candidates = new ArrayList<>(layer.getRules(user, false));
+      for (String group : relevantGroups) {
+        candidates.addAll(layer.getRules(group, true));
+      }
+      for (CompiledRule rule : candidates) {
+        if (rule.matches(branch, path)) {
+          explanation.addMatchingRule(new Explanation.MatchingRule(rule.getPermission(), i > 0, !layer.isEvaluated(rule)));
+        }
+      }
+    }
+
+    long start = System.nanoTime();
+    for (int i = 0; i < EXPLAIN_TIMED_RUNS; i++) {
+      evaluate(user, relevantGroups, branch, path, null);
+    }
+    explanation.setEvaluationNanos((System.nanoTime() - start) / EXPLAIN_TIMED_RUNS);
+    return explanation;
+  }
+
+  private boolean evaluate(String user, Collection<String> userGroups, String branch, String path, Explanation explanation) {
+    for (CompiledRules layer : layers) {
+      if (layer.isDenied(user, userGroups, branch, path, explanation)) {
+        return false;
+      }
+    }
+    for (CompiledRules layer : layers) {
+      if (layer.isAllowed(user, userGroups, branch, path, explanation)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
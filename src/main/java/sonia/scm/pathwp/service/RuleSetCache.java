@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp.service;
+
+import com.github.legman.Subscribe;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.Striped;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sonia.scm.EagerSingleton;
+import sonia.scm.HandlerEventType;
+import sonia.scm.plugin.Extension;
+import sonia.scm.repository.RepositoryEvent;
+
+import jakarta.inject.Singleton;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Supplier;
+
+/**
+ * Holds the currently published {@link RuleSet} of every repository. Readers get the published rule set without
+ * locking. If there is no rule set for a repository yet, it is loaded only once, no matter how many threads ask for
+ * it at the same time.
+ * <p>
+ * Rule sets are interned by the fingerprint of their configuration, so that all repositories with identical
+ * configurations share one compiled rule set.
+ * <p>
+ * Writers hold the write lock of the repository while they store the configuration and publish its rule set. The
+ * locks are kept here, because this cache is a singleton, so that all writers of a repository use the same lock.
+ */
+@Singleton
+@Extension
+@EagerSingleton
+public class RuleSetCache {
+
+  private static final Logger LOG = LoggerFactory.getLogger(RuleSetCache.class);
+
+  private final ConcurrentMap<String, CompletableFuture<RuleSet>> ruleSets = new ConcurrentHashMap<>();
+  private final Cache<String, RuleSet> interned = CacheBuilder.newBuilder().weakValues().build();
+  private final Striped<Lock> writeLocks = Striped.lock(64);
+
+  RuleSet get(String repositoryId, Supplier<RuleSet> loader) {
+    CompletableFuture<RuleSet> ruleSet = ruleSets.get(repositoryId);
+    if (ruleSet == null) {
+      CompletableFuture<RuleSet> loading = new CompletableFuture<>();
+      ruleSet = ruleSets.putIfAbsent(repositoryId, loading);
+      if (ruleSet == null) {
+        return load(repositoryId, loading, loader);
+      }
+    }
+    return join(ruleSet);
+  }
+
+  private RuleSet load(String repositoryId, CompletableFuture<RuleSet> loading, Supplier<RuleSet> loader) {
+    try {
+      RuleSet ruleSet = loader.get();
+      loading.complete(ruleSet);
+      return ruleSet;
+    } catch (RuntimeException | Error e) {
+      ruleSets.remove(repositoryId, loading);
+      loading.completeExceptionally(e);
+      throw e;
+    }
+  }
+
+  private RuleSet join(CompletableFuture<RuleSet> ruleSet) {
+    try {
+      return ruleSet.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Returns the compiled rule set for the given configuration. If there is already a rule set for an identical
+   * configuration, this one is returned and the configuration is not compiled again.
+   */
+  RuleSet intern(PathWritePermissions permissions) {
+    String fingerprint = PathWritePermissionsFingerprint.of(permissions);
+    RuleSet ruleSet = interned.getIfPresent(fingerprint);
+    if (ruleSet == null) {
+      ruleSet = intern(RuleSet.compile(permissions, fingerprint));
+      logPrunedRules(ruleSet, permissions.getPermissions().size());
+    }
+    return ruleSet;
+  }
+
+  /**
+   * Returns the interned rule set with the same version as the given one or interns the given rule set, if there
+   * is none yet.
+   */
+  RuleSet intern(RuleSet ruleSet) {
+    RuleSet existing = interned.asMap().putIfAbsent(ruleSet.getVersion(), ruleSet);
+    return existing != null ? existing : ruleSet;
+  }
+
+  private static void logPrunedRules(RuleSet ruleSet, int total) {
+    if (LOG.isDebugEnabled() && ruleSet.isEnabled() && !ruleSet.getPrunedRules().isEmpty()) {
+      LOG.debug("pruned {} of {} rules of rule set {}: {}", ruleSet.getPrunedRules().size(), total, ruleSet.getVersion(), ruleSet.getPrunedRules());
+    }
+  }
+
+  /**
+   * Returns the rule set of the repository, if it has been loaded successfully, without loading it. Returns
+   * {@code null} if the rule set has not been loaded yet, is still being loaded or could not be loaded.
+   */
+  RuleSet getIfLoaded(String repositoryId) {
+    CompletableFuture<RuleSet> ruleSet = ruleSets.get(repositoryId);
+    if (ruleSet == null || !ruleSet.isDone() || ruleSet.isCompletedExceptionally()) {
+      return null;
+    }
+    return ruleSet.join();
+  }
+
+  /**
+   * Returns the ids of the repositories, whose rule sets are published or being loaded.
+   */
+  Set<String> getRepositoryIds() {
+    return new HashSet<>(ruleSets.keySet());
+  }
+
+  long getInternedCount() {
+    return interned.size();
+  }
+
+  /**
+   * Returns the lock, which has to be held while the configuration of the repository is stored and its rule set is
+   * published, so that writes and publications for the same repository do not overtake each other.
+   */
+  Lock getWriteLock(String repositoryId) {
+    return writeLocks.get(repositoryId);
+  }
+
+  /**
+   * Replaces the rule set of the repository. Callers have to hold the write lock of the repository (see
+   * {@link #getWriteLock(String)}).
+   */
+  void publish(String repositoryId, RuleSet ruleSet) {
+    ruleSets.put(repositoryId, CompletableFuture.completedFuture(ruleSet));
+  }
+
+  void invalidate(String repositoryId) {
+    ruleSets.remove(repositoryId);
+  }
+
+  @Subscribe(async = false)
+  public void onEvent(RepositoryEvent event) {
+    if (event.getEventType() == HandlerEventType.DELETE || event.getEventType() == HandlerEventType.MODIFY) {
+      invalidate(event.getItem().getId());
+    }
+  }
+}
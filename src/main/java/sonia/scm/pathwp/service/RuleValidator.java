@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp.service;
+
+import com.google.common.base.Strings;
+import sonia.scm.ScmConstraintViolationException;
+import sonia.scm.util.GlobUtil;
+
+import java.util.Collection;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Validates rules before they are stored, so that invalid patterns are rejected with a bad request instead of
+ * failing or taking ages at push time. Patterns using only {@code *} and {@code ?} are matched in polynomial time
+ * (see {@link GlobPattern}). All other patterns are matched by the regular expression engine, which translates every
+ * star to {@code .*}, so the costs of matching grow with the power of their stars. Therefore, the number of stars in
+ * those patterns is limited much stricter than in the simple ones, and the nesting of alternatives is limited.
+ */
+final class RuleValidator {
+
+  static final String MAX_PATTERN_LENGTH_PROPERTY = "scm.pathwp.validation.maxPatternLength";
+  static final String MAX_WILDCARDS_PROPERTY = "scm.pathwp.validation.maxWildcards";
+  static final String MAX_REGEX_WILDCARDS_PROPERTY = "scm.pathwp.validation.maxRegexWildcards";
+  static final String MAX_NESTING_PROPERTY = "scm.pathwp.validation.maxNesting";
+
+  private static final int MAX_PATTERN_LENGTH = Integer.getInteger(MAX_PATTERN_LENGTH_PROPERTY, 1024);
+  private static final int MAX_WILDCARDS = Integer.getInteger(MAX_WILDCARDS_PROPERTY, 8);
+  private static final int MAX_REGEX_WILDCARDS = Integer.getInteger(MAX_REGEX_WILDCARDS_PROPERTY, 3);
+  private static final int MAX_NESTING = Integer.getInteger(MAX_NESTING_PROPERTY, 3);
+
+  private RuleValidator() {
+  }
+
+  /**
+   * Validates the given rules.
+   *
+   * @throws ScmConstraintViolationException if one of the rules is not valid
+   */
+  static void validate(Collection<PathWritePermission> permissions) {
+    int index = 0;
+    for (PathWritePermission permission : permissions) {
+      validate(permission, String.valueOf(index++));
+    }
+  }
+
+  private static void validate(PathWritePermission permission, String index) {
+    ScmConstraintViolationException.Builder.doThrow()
+      .violation("rule must not be null", "permissions", index)
+      .when(permission == null);
+    ScmConstraintViolationException.Builder.doThrow()
+      .violation("name of user or group is required", "permissions", index, "name")
+      .when(Strings.isNullOrEmpty(permission.getName()));
+    ScmConstraintViolationException.Builder.doThrow()
+      .violation("type is required", "permissions", index, "type")
+      .when(permission.getType() == null);
+    validatePattern(permission.getPath(), index, "path");
+    validatePattern(permission.getBranch(), index, "branch");
+  }
+
+  private static void validatePattern(String glob, String index, String field) {
+    ScmConstraintViolationException.Builder.doThrow()
+      .violation(field + " is required", "permissions", index, field)
+      .when(glob == null || glob.trim().isEmpty());
+    String trimmed = glob.trim();
+    ScmConstraintViolationException.Builder.doThrow()
+      .violation(field + " must not be longer than " + MAX_PATTERN_LENGTH + " characters", "permissions", index, field)
+      .when(trimmed.length() > MAX_PATTERN_LENGTH);
+
+    int wildcards = 0;
+    int nesting = 0;
+    int maxNesting = 0;
+    boolean escaping = false;
+    for (int i = 0; i < trimmed.length(); i++) {
+      char c = trimmed.charAt(i);
+      if (escaping) {
+        escaping = false;
+      } else if (c == '\\') {
+        escaping = true;
+      } else if (c == '*') {
+        wildcards++;
+      } else if (c == '{') {
+        maxNesting = Math.max(maxNesting, ++nesting);
+      } else if (c == '}' && nesting > 0) {
+        nesting--;
+      }
+    }
+    ScmConstraintViolationException.Builder.doThrow()
+      .violation(field + " must not contain more than " + MAX_WILDCARDS + " wildcards", "permissions", index, field)
+      .when(wildcards > MAX_WILDCARDS);
+    ScmConstraintViolationException.Builder.doThrow()
+      .violation(
+        field + " must not contain more than " + MAX_REGEX_WILDCARDS + " wildcards together with alternatives, character classes or escapes",
+        "permissions", index, field
+      )
+      .when(wildcards > MAX_REGEX_WILDCARDS && !GlobPattern.isWildcardOnly(trimmed));
+    ScmConstraintViolationException.Builder.doThrow()
+      .violation(field + " must not nest alternatives deeper than " + MAX_NESTING + " levels", "permissions", index, field)
+      .when(maxNesting > MAX_NESTING);
+
+    try {
+      Pattern.compile(GlobUtil.convertGlobToRegEx(trimmed));
+    } catch (PatternSyntaxException e) {
+      ScmConstraintViolationException.Builder.doThrow()
+        .violation(field + " is not a valid pattern: " + e.getDescription(), "permissions", index, field)
+        .when(true);
+    }
+  }
+}
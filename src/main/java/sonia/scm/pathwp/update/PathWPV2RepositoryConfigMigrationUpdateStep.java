@@ -32,7 +32,14 @@ import sonia.scm.version.Version;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static java.util.Optional.empty;
 import static java.util.Optional.of;
@@ -40,6 +47,11 @@ import static sonia.scm.pathwp.service.PathWritePermission.Type;
 import static sonia.scm.update.V1PropertyReader.REPOSITORY_PROPERTY_READER;
 import static sonia.scm.version.Version.parse;
 
+/**
+ * Migrates the v1 repository properties to v2 stores. The repositories are migrated in batches by multiple workers
+ * (system property {@value #WORKERS_PROPERTY}, defaults to the number of processors). Repositories which already
+ * have a v2 store are skipped, so that an interrupted migration continues where it stopped.
+ */
 @Extension
 public class PathWPV2RepositoryConfigMigrationUpdateStep implements UpdateStep {
 
@@ -53,19 +65,79 @@ public class PathWPV2RepositoryConfigMigrationUpdateStep implements UpdateStep {
 
   private static final String STORE_NAME = "pathWritePermission";
 
+  static final String WORKERS_PROPERTY = "scm.pathwp.migration.workers";
+  private static final int BATCH_SIZE = 100;
+
+  private final int workers;
+  private final int batchSize;
+
   @Inject
   public PathWPV2RepositoryConfigMigrationUpdateStep(V1PropertyDAO v1PropertyDAO, ConfigurationStoreFactory storeFactory) {
+    this(v1PropertyDAO, storeFactory, Integer.getInteger(WORKERS_PROPERTY, Runtime.getRuntime().availableProcessors()), BATCH_SIZE);
+  }
+
+  PathWPV2RepositoryConfigMigrationUpdateStep(V1PropertyDAO v1PropertyDAO, ConfigurationStoreFactory storeFactory, int workers, int batchSize) {
     this.storeFactory = storeFactory;
     this.v1PropertyDAO = v1PropertyDAO;
+    this.workers = Math.max(1, workers);
+    this.batchSize = Math.max(1, batchSize);
   }
 
   @Override
   public void doUpdate() {
+    List<Map.Entry<String, V1Properties>> entries = new ArrayList<>();
     v1PropertyDAO
       .getProperties(REPOSITORY_PROPERTY_READER)
       .havingAnyOf(PATHWP_ENABLED, PATHWP_PERMISSIONS)
-      .forEachEntry((key, properties) -> buildConfig(key, properties).ifPresent(configuration ->
-        createConfigStore(key).set(configuration)));
+      .forEachEntry((key, properties) -> entries.add(Map.entry(key, properties)));
+    if (entries.isEmpty()) {
+      return;
+    }
+
+    LOG.info("migrating pathwp configuration of {} repositories with {} workers", entries.size(), workers);
+    Progress progress = new Progress(entries.size());
+    ExecutorService executor = Executors.newFixedThreadPool(workers);
+    try {
+      List<Future<?>> batches = new ArrayList<>();
+      for (int from = 0; from < entries.size(); from += batchSize) {
+        List<Map.Entry<String, V1Properties>> batch = entries.subList(from, Math.min(from + batchSize, entries.size()));
+        batches.add(executor.submit(() -> migrate(batch, progress)));
+      }
+      awaitAll(batches);
+    } finally {
+      executor.shutdownNow();
+    }
+    progress.logSummary();
+  }
+
+  private void migrate(List<Map.Entry<String, V1Properties>> batch, Progress progress) {
+    int skipped = 0;
+    for (Map.Entry<String, V1Properties> entry : batch) {
+      ConfigurationStore<PathWritePermissions> store = createConfigStore(entry.getKey());
+      if (store.getOptional().isPresent()) {
+        LOG.debug("skipping repository {}, pathwp configuration has already been migrated", entry.getKey());
+        skipped++;
+      } else {
+        buildConfig(entry.getKey(), entry.getValue()).ifPresent(store::set);
+      }
+    }
+    progress.batchCompleted(batch.size(), skipped);
+  }
+
+  private void awaitAll(List<Future<?>> batches) {
+    try {
+      for (Future<?> batch : batches) {
+        batch.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("migration of pathwp configuration has been interrupted", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException("failed to migrate pathwp configuration", e.getCause());
+    }
   }
 
   private ConfigurationStore<PathWritePermissions> createConfigStore(String repositoryId) {
@@ -107,6 +179,38 @@ public class PathWPV2RepositoryConfigMigrationUpdateStep implements UpdateStep {
     return of(new PathWritePermission(path, "*", PathWritePermission.BranchScope.INCLUDE, name, group, Type.ALLOW));
   }
 
+  private static class Progress {
+
+    private final int total;
+    private final long start = System.nanoTime();
+    private final AtomicInteger processed = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+
+    Progress(int total) {
+      this.total = total;
+    }
+
+    void batchCompleted(int size, int skippedInBatch) {
+      int done = processed.addAndGet(size);
+      skipped.addAndGet(skippedInBatch);
+      double seconds = Math.max(elapsedSeconds(), 0.001);
+      double throughput = done / seconds;
+      long eta = Math.round((total - done) / throughput);
+      LOG.info("migrated pathwp configuration of {}/{} repositories ({} repositories/s, eta {}s)", done, total, Math.round(throughput), eta);
+    }
+
+    void logSummary() {
+      LOG.info(
+        "finished migration of pathwp configuration of {} repositories in {}s, {} repositories had already been migrated",
+        total, Math.round(elapsedSeconds()), skipped.get()
+      );
+    }
+
+    private double elapsedSeconds() {
+      return (System.nanoTime() - start) / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+  }
+
   @Override
   public Version getTargetVersion() {
     return parse("2.0.0");
@@ -17,9 +17,10 @@
 import React from "react";
 import { useTranslation } from "react-i18next";
 import { Repository } from "@scm-manager/ui-types";
-import { Configuration } from "@scm-manager/ui-components";
+import { ErrorNotification, Loading } from "@scm-manager/ui-components";
 import { Subtitle } from "@scm-manager/ui-core";
 import PathWPsForm from "./PathWPsForm";
+import { usePathWPs } from "./pathWPs";
 
 type Props = {
   repository: Repository;
@@ -29,24 +30,32 @@ type Props = {
 
 const PathWPsContainer: React.FC<Props> = ({ repository, link, indexLinks }) => {
   const { t } = useTranslation("plugins");
+  const { data: configuration, error, isLoading } = usePathWPs(link);
 
   const userAutoCompleteLink = indexLinks.autocomplete.find((link: any) => link.name === "users").href;
   const groupsAutoCompleteLink = indexLinks.autocomplete.find((link: any) => link.name === "groups").href;
 
+  const renderContent = () => {
+    if (error) {
+      return <ErrorNotification error={error} />;
+    }
+    if (isLoading || !configuration) {
+      return <Loading />;
+    }
+    return (
+      <PathWPsForm
+        configuration={configuration}
+        userAutocompleteLink={userAutoCompleteLink}
+        groupAutocompleteLink={groupsAutoCompleteLink}
+        repository={repository}
+      />
+    );
+  };
+
   return (
     <>
       <Subtitle subtitle={t("scm-pathwp-plugin.subtitle")} />
-      <Configuration
-        link={link}
-        render={(props) => (
-          <PathWPsForm
-            {...props}
-            userAutocompleteLink={userAutoCompleteLink}
-            groupAutocompleteLink={groupsAutoCompleteLink}
-            repository={repository}
-          />
-        )}
-      />
+      {renderContent()}
     </>
   );
 };
@@ -14,133 +14,113 @@
  * along with this program. If not, see https://www.gnu.org/licenses/.
  */
 
-import React from "react";
-import { WithTranslation, withTranslation } from "react-i18next";
-import { Checkbox, Subtitle } from "@scm-manager/ui-components";
+import React, { FC, useEffect, useState } from "react";
+import { useTranslation } from "react-i18next";
+import { Button, Checkbox, ErrorNotification, Notification, Select, Subtitle } from "@scm-manager/ui-components";
+import { Repository } from "@scm-manager/ui-types";
 import { PathWP, PathWPs } from "./types/PathWP";
 import PathWPTable from "./table/PathWPTable";
 import AddPermissionFormComponent from "./AddPermissionFormComponent";
-import { Repository } from "@scm-manager/ui-types";
+import { useModifyPathWPs } from "./pathWPs";
 
-type Props = WithTranslation & {
-  initialConfiguration: PathWPs;
-  readOnly: boolean;
-  onConfigurationChange: (p1: PathWPs, p2: boolean) => void;
+type Props = {
+  configuration: PathWPs;
   userAutocompleteLink: string;
   groupAutocompleteLink: string;
   repository: Repository;
 };
 
-type State = PathWPs & {};
-
-class PathWPsForm extends React.Component<Props, State> {
-  constructor(props: Props) {
-    super(props);
-    this.state = {
-      ...props.initialConfiguration
-    };
-  }
-
-  isValid() {
-    const { permissions } = this.state;
-    let valid = true;
-    permissions.map(pathWP => {
-      valid = valid && pathWP.name.trim() !== "" && pathWP.path.trim() !== "" && pathWP.type.trim() !== "";
-    });
-    return valid;
-  }
-
-  updatePathWPs(permissions) {
-    this.setState(
-      {
-        permissions
-      },
-      () => this.props.onConfigurationChange(this.state, this.isValid())
-    );
-  }
-
-  onDelete = deletedPathWP => {
-    const { permissions } = this.state;
-    const index = permissions.indexOf(deletedPathWP);
-    permissions.splice(index, 1);
-    this.updatePathWPs(permissions);
-  };
+const PathWPsForm: FC<Props> = ({ configuration, userAutocompleteLink, groupAutocompleteLink, repository }) => {
+  const [t] = useTranslation("plugins");
+  const [enabled, setEnabled] = useState(configuration.enabled);
+  const [inheritTemplates, setInheritTemplates] = useState(configuration.inheritTemplates);
+  const [overloadPolicy, setOverloadPolicy] = useState(configuration.overloadPolicy);
+  const { modify, isLoading, error, isSuccess } = useModifyPathWPs(configuration);
 
-  onChange = (changedPathWP, index) => {
-    const { permissions } = this.state;
-    permissions[index] = changedPathWP;
-    this.updatePathWPs(permissions);
-  };
+  useEffect(() => {
+    setEnabled(configuration.enabled);
+    setInheritTemplates(configuration.inheritTemplates);
+    setOverloadPolicy(configuration.overloadPolicy);
+  }, [configuration]);
 
-  userPathPermissionAdded = (permission: PathWP) => {
-    this.setState(
-      {
-        ...this.state,
-        permissions: [...this.state.permissions, permission]
-      },
-      () => {
-        this.props.onConfigurationChange(this.state, this.isValid());
-      }
-    );
-  };
+  const readOnly = !configuration._links.modify;
+  const withBranches = !!repository._links.pathWpConfigWithBranches;
+  const settingsChanged =
+    enabled !== configuration.enabled ||
+    inheritTemplates !== configuration.inheritTemplates ||
+    overloadPolicy !== configuration.overloadPolicy;
 
-  onChangeEnabled = isEnabled => {
-    this.setState(
-      {
-        enabled: isEnabled
-      },
-      () => {
-        this.props.onConfigurationChange(this.state, this.isValid());
-      }
-    );
-  };
+  const submitSettings = () => modify({ enabled, inheritTemplates, overloadPolicy });
+  const onDelete = (permission: PathWP) => modify({ remove: [permission] });
+  const onAdd = (permission: PathWP) => modify({ add: [permission] });
 
-  renderAddUserFormComponent = () => {
-    const { readOnly, repository } = this.props;
-    if (this.props.userAutocompleteLink) {
-      return (
-        <AddPermissionFormComponent
-          userAutocompleteLink={this.props.userAutocompleteLink}
-          groupAutocompleteLink={this.props.groupAutocompleteLink}
-          onAdd={this.userPathPermissionAdded}
-          readOnly={readOnly}
-          withBranches={!!repository._links.pathWpConfigWithBranches}
+  return (
+    <>
+      {error ? <ErrorNotification error={error} /> : null}
+      {isSuccess ? <Notification type="success">{t("scm-pathwp-plugin.submitSuccess")}</Notification> : null}
+      <Checkbox
+        checked={enabled}
+        onChange={setEnabled}
+        label={t("scm-pathwp-plugin.enable")}
+        helpText={
+          withBranches ? t("scm-pathwp-plugin.enableHelpTextWithBranches") : t("scm-pathwp-plugin.enableHelpText")
+        }
+        disabled={readOnly}
+      />
+      {enabled ? (
+        <>
+          <Checkbox
+            checked={inheritTemplates}
+            onChange={setInheritTemplates}
+            label={t("scm-pathwp-plugin.inheritTemplates")}
+            helpText={t("scm-pathwp-plugin.inheritTemplatesHelpText")}
+            disabled={readOnly}
+          />
+          <Select
+            label={t("scm-pathwp-plugin.overloadPolicy.label")}
+            helpText={t("scm-pathwp-plugin.overloadPolicy.helpText")}
+            options={[
+              { label: t("scm-pathwp-plugin.overloadPolicy.REJECT"), value: "REJECT" },
+              { label: t("scm-pathwp-plugin.overloadPolicy.COARSE"), value: "COARSE" }
+            ]}
+            value={overloadPolicy}
+            onChange={setOverloadPolicy}
+            disabled={readOnly}
+          />
+        </>
+      ) : null}
+      <div className="is-flex is-justify-content-flex-end">
+        <Button
+          label={t("scm-pathwp-plugin.submit")}
+          color="primary"
+          action={submitSettings}
+          loading={isLoading}
+          disabled={readOnly || !settingsChanged}
         />
-      );
-    } else return null;
-  };
-
-  render() {
-    const { enabled } = this.state;
-    const { t, repository } = this.props;
-
-    const withBranches = !!repository._links.pathWpConfigWithBranches;
-
-    return (
-      <>
-        <Checkbox
-          checked={enabled}
-          onChange={this.onChangeEnabled}
-          label={t("scm-pathwp-plugin.enable")}
-          helpText={
-            withBranches ? t("scm-pathwp-plugin.enableHelpTextWithBranches") : t("scm-pathwp-plugin.enableHelpText")
-          }
-        />
-        {enabled ? (
-          <>
-            <hr />
-            <Subtitle subtitle={t("scm-pathwp-plugin.editSubtitle")} />
-            <PathWPTable
-              permissions={this.state.permissions}
-              onDelete={this.onDelete}
+      </div>
+      {configuration.enabled ? (
+        <>
+          <hr />
+          <Subtitle subtitle={t("scm-pathwp-plugin.editSubtitle")} />
+          <PathWPTable
+            configuration={configuration}
+            onDelete={onDelete}
+            withBranches={withBranches}
+            readOnly={readOnly}
+          />
+          {userAutocompleteLink ? (
+            <AddPermissionFormComponent
+              userAutocompleteLink={userAutocompleteLink}
+              groupAutocompleteLink={groupAutocompleteLink}
+              onAdd={onAdd}
+              readOnly={readOnly || isLoading}
               withBranches={withBranches}
             />
-            {this.renderAddUserFormComponent()}
-          </>
-        ) : null}
-      </>
-    );
-  }
-}
+          ) : null}
+        </>
+      ) : null}
+    </>
+  );
+};
 
-export default withTranslation("plugins")(PathWPsForm);
+export default PathWPsForm;
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+import { useMutation, useQuery, useQueryClient } from "react-query";
+import queryString from "query-string";
+import { apiClient } from "@scm-manager/ui-api";
+import { Link } from "@scm-manager/ui-types";
+import { PathWPChanges, PathWPFilter, PathWPPage, PathWPs } from "./types/PathWP";
+
+const PAGE_SIZE = 50;
+
+/**
+ * Loads the settings of the configuration. The rules are loaded page by page with {@link usePathWPPage}.
+ */
+export const usePathWPs = (link: string) =>
+  useQuery<PathWPs, Error>(["pathwp", link], () =>
+    apiClient.get(link + "?withPermissions=false").then(response => response.json())
+  );
+
+/**
+ * Loads one page of the rules matching the filter. Filtering and paging is done by the server, so that large
+ * configurations do not have to be loaded at once.
+ */
+export const usePathWPPage = (configuration: PathWPs, filter: PathWPFilter, page: number) => {
+  const link = (configuration._links.permissions as Link).href;
+  const query = queryString.stringify({
+    principal: filter.principal || undefined,
+    group: filter.principal ? filter.group : undefined,
+    path: filter.path || undefined,
+    branch: filter.branch || undefined,
+    type: filter.type || undefined,
+    page,
+    pageSize: PAGE_SIZE
+  });
+  return useQuery<PathWPPage, Error>(
+    ["pathwp", link, query],
+    () => apiClient.get(link + "?" + query).then(response => response.json()),
+    { keepPreviousData: true }
+  );
+};
+
+/**
+ * Saves single changes of the rules or settings. Rules which are not changed are neither loaded nor sent.
+ */
+export const useModifyPathWPs = (configuration: PathWPs) => {
+  const queryClient = useQueryClient();
+  const { mutate, isLoading, error, isSuccess } = useMutation<unknown, Error, PathWPChanges>(
+    changes => apiClient.patch((configuration._links.modify as Link).href, changes),
+    {
+      onSuccess: () => queryClient.invalidateQueries("pathwp")
+    }
+  );
+  return {
+    modify: mutate,
+    isLoading,
+    error,
+    isSuccess
+  };
+};
@@ -24,6 +24,7 @@ type Props = {
   permission: PathWP;
   onDelete: (p: PathWP) => void;
   withBranches: boolean;
+  readOnly: boolean;
 };
 
 const VCenteredTd = styled.td`
@@ -31,7 +32,7 @@ const VCenteredTd = styled.td`
   vertical-align: middle !important;
 `;
 
-const PathWPRow: FC<Props> = ({ permission, onDelete, withBranches }) => {
+const PathWPRow: FC<Props> = ({ permission, onDelete, withBranches, readOnly }) => {
   const [t] = useTranslation("plugins");
   const [isOpen, setIsOpen] = useState(false);
 
@@ -62,16 +63,16 @@ const PathWPRow: FC<Props> = ({ permission, onDelete, withBranches }) => {
       <VCenteredTd className="is-darker">
         <Dialog
           trigger={
-            <IconButton title={t("scm-pathwp-plugin.table.delete")}>
+            <IconButton title={t("scm-pathwp-plugin.table.delete")} disabled={readOnly}>
               <Icon>trash</Icon>
             </IconButton>
           }
           title={t("scm-pathwp-plugin.confirmDeleteAlert.title")}
           footer={[
-            <Button onClick={confirmDelete}>
+            <Button key="submit" onClick={confirmDelete}>
               {t("scm-pathwp-plugin.confirmDeleteAlert.submit")}
             </Button>,
-            <Button variant="primary" autoFocus onClick={() => setIsOpen(false)}>
+            <Button key="cancel" variant="primary" autoFocus onClick={() => setIsOpen(false)}>
               {t("scm-pathwp-plugin.confirmDeleteAlert.cancel")}
             </Button>
           ]}
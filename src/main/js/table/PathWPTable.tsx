@@ -14,38 +14,91 @@
  * along with this program. If not, see https://www.gnu.org/licenses/.
  */
 
-import React from "react";
-import { WithTranslation, withTranslation } from "react-i18next";
-import { LabelWithHelpIcon, Notification } from "@scm-manager/ui-components";
-import { PathWP } from "../types/PathWP";
+import React, { FC, useEffect, useState } from "react";
+import { useTranslation } from "react-i18next";
+import {
+  Button,
+  ErrorNotification,
+  InputField,
+  LabelWithHelpIcon,
+  Loading,
+  Notification,
+  Select
+} from "@scm-manager/ui-components";
+import { PathWP, PathWPFilter, PathWPs } from "../types/PathWP";
+import { usePathWPPage } from "../pathWPs";
 import PathWPRow from "./PathWPRow";
 
-type Props = WithTranslation & {
-  permissions: PathWP[];
+type Props = {
+  configuration: PathWPs;
   onDelete: (p: PathWP) => void;
   withBranches: boolean;
+  readOnly: boolean;
 };
 
-class PathWPTable extends React.Component<Props> {
-  render() {
-    const { permissions, onDelete, withBranches, t } = this.props;
+const FILTER_DELAY = 300;
 
-    if (permissions && permissions[0]) {
-      const tableRows = permissions.map(pathWP => {
-        return (
-          <>
-            <PathWPRow
-              permission={pathWP}
-              onDelete={permission => {
-                onDelete(permission);
-              }}
-              withBranches={withBranches}
-            />
-          </>
-        );
-      });
+const emptyFilter: PathWPFilter = {
+  principal: "",
+  group: false,
+  path: "",
+  branch: "",
+  type: ""
+};
+
+const isFiltered = (filter: PathWPFilter) => !!(filter.principal || filter.path || filter.branch || filter.type);
+
+const ruleKey = (permission: PathWP) =>
+  [
+    permission.group ? "group" : "user",
+    permission.name,
+    permission.path,
+    permission.branchScope,
+    permission.branch,
+    permission.type
+  ].join("\0");
+
+const PathWPTable: FC<Props> = ({ configuration, onDelete, withBranches, readOnly }) => {
+  const [t] = useTranslation("plugins");
+  const [filter, setFilter] = useState<PathWPFilter>(emptyFilter);
+  const [appliedFilter, setAppliedFilter] = useState<PathWPFilter>(emptyFilter);
+  const [page, setPage] = useState(0);
+  const { data, error, isLoading } = usePathWPPage(configuration, appliedFilter, page);
 
+  useEffect(() => {
+    const timeout = setTimeout(() => {
+      setAppliedFilter(filter);
+      setPage(0);
+    }, FILTER_DELAY);
+    return () => clearTimeout(timeout);
+  }, [filter]);
+
+  useEffect(() => {
+    if (data && page > 0 && page >= data.pageTotal) {
+      setPage(Math.max(0, data.pageTotal - 1));
+    }
+  }, [data, page]);
+
+  const updateFilter = (changed: Partial<PathWPFilter>) => setFilter({ ...filter, ...changed });
+
+  const renderTable = () => {
+    if (error) {
+      return <ErrorNotification error={error} />;
+    }
+    if (isLoading || !data) {
+      return <Loading />;
+    }
+    if (data.total === 0) {
       return (
+        <Notification type="info">
+          {isFiltered(appliedFilter)
+            ? t("scm-pathwp-plugin.noMatchingPermissions")
+            : t("scm-pathwp-plugin.noPermissions")}
+        </Notification>
+      );
+    }
+    return (
+      <>
         <table className="card-table table is-hoverable is-fullwidth">
           <thead>
             <tr>
@@ -66,12 +119,90 @@ class PathWPTable extends React.Component<Props> {
               <th />
             </tr>
           </thead>
-          <tbody>{tableRows}</tbody>
+          <tbody>
+            {data.permissions.map(pathWP => (
+              <PathWPRow
+                key={ruleKey(pathWP)}
+                permission={pathWP}
+                onDelete={onDelete}
+                withBranches={withBranches}
+                readOnly={readOnly}
+              />
+            ))}
+          </tbody>
         </table>
-      );
-    }
-    return <Notification type="info">{t("scm-pathwp-plugin.noPermissions")}</Notification>;
-  }
-}
+        {data.pageTotal > 1 ? (
+          <div className="is-flex is-justify-content-space-between is-align-items-center">
+            <Button
+              label={t("scm-pathwp-plugin.table.previous")}
+              disabled={page === 0}
+              action={() => setPage(page - 1)}
+            />
+            <span>{t("scm-pathwp-plugin.table.page", { page: data.page + 1, pageTotal: data.pageTotal })}</span>
+            <Button
+              label={t("scm-pathwp-plugin.table.next")}
+              disabled={page + 1 >= data.pageTotal}
+              action={() => setPage(page + 1)}
+            />
+          </div>
+        ) : null}
+      </>
+    );
+  };
+
+  return (
+    <>
+      <div className="columns">
+        <div className="column">
+          <InputField
+            label={t("scm-pathwp-plugin.filter.principal")}
+            value={filter.principal}
+            onChange={(principal: string) => updateFilter({ principal })}
+          />
+        </div>
+        <div className="column is-narrow">
+          <Select
+            label={t("scm-pathwp-plugin.filter.principalType")}
+            value={filter.group ? "group" : "user"}
+            options={[
+              { label: t("scm-pathwp-plugin.table.user"), value: "user" },
+              { label: t("scm-pathwp-plugin.table.group"), value: "group" }
+            ]}
+            onChange={(principalType: string) => updateFilter({ group: principalType === "group" })}
+          />
+        </div>
+        <div className="column">
+          <InputField
+            label={t("scm-pathwp-plugin.filter.path")}
+            value={filter.path}
+            onChange={(path: string) => updateFilter({ path })}
+          />
+        </div>
+        {withBranches ? (
+          <div className="column">
+            <InputField
+              label={t("scm-pathwp-plugin.filter.branch")}
+              value={filter.branch}
+              onChange={(branch: string) => updateFilter({ branch })}
+            />
+          </div>
+        ) : null}
+        <div className="column">
+          <Select
+            label={t("scm-pathwp-plugin.filter.type")}
+            value={filter.type}
+            options={[
+              { label: t("scm-pathwp-plugin.filter.all"), value: "" },
+              { label: t("scm-pathwp-plugin.table.ALLOW"), value: "ALLOW" },
+              { label: t("scm-pathwp-plugin.table.DENY"), value: "DENY" }
+            ]}
+            onChange={(type: string) => updateFilter({ type })}
+          />
+        </div>
+      </div>
+      {renderTable()}
+    </>
+  );
+};
 
-export default withTranslation("plugins")(PathWPTable);
+export default PathWPTable;
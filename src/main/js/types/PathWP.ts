@@ -14,6 +14,8 @@
  * along with this program. If not, see https://www.gnu.org/licenses/.
  */
 
+import { HalRepresentation } from "@scm-manager/ui-types";
+
 export type PathWP = {
   path: string;
   branch: string;
@@ -23,7 +25,32 @@ export type PathWP = {
   type: string;
 };
 
-export type PathWPs = {
+export type PathWPs = HalRepresentation & {
   permissions: PathWP[];
   enabled: boolean;
+  inheritTemplates: boolean;
+  overloadPolicy: string;
+};
+
+export type PathWPPage = {
+  page: number;
+  pageTotal: number;
+  total: number;
+  permissions: PathWP[];
+};
+
+export type PathWPChanges = {
+  enabled?: boolean;
+  inheritTemplates?: boolean;
+  overloadPolicy?: string;
+  remove?: PathWP[];
+  add?: PathWP[];
+};
+
+export type PathWPFilter = {
+  principal: string;
+  group: boolean;
+  path: string;
+  branch: string;
+  type: string;
 };
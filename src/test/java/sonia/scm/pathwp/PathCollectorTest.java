@@ -0,0 +1,363 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.apache.shiro.subject.Subject;
+import org.apache.shiro.util.ThreadContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Answers;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.repository.Added;
+import sonia.scm.repository.Branch;
+import sonia.scm.repository.Branches;
+import sonia.scm.repository.BrowserResult;
+import sonia.scm.repository.Changeset;
+import sonia.scm.repository.FileObject;
+import sonia.scm.repository.Modifications;
+import sonia.scm.repository.Removed;
+import sonia.scm.repository.api.BrowseCommandBuilder;
+import sonia.scm.repository.api.Command;
+import sonia.scm.repository.api.DiffFile;
+import sonia.scm.repository.api.DiffResult;
+import sonia.scm.repository.api.RepositoryService;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+@ExtendWith(MockitoExtension.class)
+class PathCollectorTest {
+
+  @Mock(answer = Answers.RETURNS_DEEP_STUBS)
+  private RepositoryService repositoryService;
+
+  private final List<Set<String>> consumed = new ArrayList<>();
+
+  @BeforeEach
+  void prepareModifications() throws IOException {
+    lenient().when(repositoryService.getModificationsCommand().revision("1").getModifications())
+      .thenReturn(new Modifications("1", new Added("/src/a"), new Added("src/b")));
+    lenient().when(repositoryService.getModificationsCommand().revision("2").getModifications())
+      .thenReturn(new Modifications("2", new Removed("src/a"), new Added("docs/c")));
+  }
+
+  @Test
+  void shouldCollectPathsOfEveryChangeset() throws IOException {
+    PathCollector collector = new PathCollector(repositoryService);
+
+    collector.collect(changesets("1", "2"), emptyList(), new PushBudget(0, 0), consumed::add);
+
+    assertThat(consumed).containsExactly(Set.of("src/a", "src/b"), Set.of("docs/c"));
+    assertThat(collector.isComplete()).isTrue();
+  }
+
+  @Test
+  void shouldStopIfBudgetIsExceeded() throws IOException {
+    PathCollector collector = new PathCollector(repositoryService);
+
+    collector.collect(changesets("1", "2"), emptyList(), new PushBudget(0, 1), consumed::add);
+
+    assertThat(consumed).containsExactly(Set.of("src/a", "src/b"));
+    assertThat(collector.isComplete()).isFalse();
+  }
+
+  @Nested
+  class WithPrefetch {
+
+    @Mock
+    private Subject subject;
+
+    private ExecutorService executor;
+    private PathCollector collector;
+
+    @BeforeEach
+    void setUp() {
+      ThreadContext.bind(subject);
+      when(subject.associateWith(any(Runnable.class))).thenAnswer(invocation -> invocation.getArgument(0));
+      executor = Executors.newSingleThreadExecutor();
+      collector = new PathCollector(repositoryService, executor, 1, 0, 0);
+    }
+
+    @AfterEach
+    void tearDown() {
+      executor.shutdownNow();
+      ThreadContext.unbindSubject();
+    }
+
+    @Test
+    void shouldCollectPathsOfEveryChangeset() throws IOException {
+      collector.collect(changesets("1", "2"), emptyList(), new PushBudget(0, 0), consumed::add);
+
+      assertThat(consumed).containsExactly(Set.of("src/a", "src/b"), Set.of("docs/c"));
+      assertThat(collector.isComplete()).isTrue();
+    }
+
+    @Test
+    void shouldStopIfBudgetIsExceeded() throws IOException {
+      collector.collect(changesets("1", "2"), emptyList(), new PushBudget(0, 1), consumed::add);
+
+      assertThat(consumed).containsExactly(Set.of("src/a", "src/b"));
+      assertThat(collector.isComplete()).isFalse();
+    }
+
+    @Test
+    void shouldPassFailureOfPrefetch() throws IOException {
+      when(repositoryService.getModificationsCommand().revision("2").getModifications()).thenThrow(new IOException("broken"));
+
+      Iterable<Changeset> changesets = changesets("1", "2");
+      PushBudget budget = new PushBudget(0, 0);
+      assertThrows(IOException.class, () -> collector.collect(changesets, emptyList(), budget, consumed::add));
+    }
+
+    @Test
+    void shouldStopIfConsumerFails() {
+      Iterable<Changeset> changesets = changesets("1", "2");
+      PushBudget budget = new PushBudget(0, 0);
+      assertThrows(IllegalStateException.class, () -> collector.collect(changesets, emptyList(), budget, paths -> {
+        throw new IllegalStateException("denied");
+      }));
+    }
+
+    @Test
+    void shouldCloseServiceOnlyAfterPrefetchTerminated() throws IOException {
+      CountDownLatch fetching = new CountDownLatch(1);
+      AtomicBoolean fetched = new AtomicBoolean();
+      when(repositoryService.getModificationsCommand().revision("2").getModifications()).thenAnswer(invocation -> {
+        fetching.countDown();
+        // a slow fetch, which is still running when the verification fails
+        Uninterruptibles.sleepUninterruptibly(200, MILLISECONDS);
+        fetched.set(true);
+        return new Modifications("2", new Added("docs/c"));
+      });
+      AtomicBoolean fetchedBeforeClose = new AtomicBoolean();
+      doAnswer(invocation -> {
+        fetchedBeforeClose.set(fetched.get());
+        return null;
+      }).when(repositoryService).close();
+
+      Iterable<Changeset> changesets = changesets("1", "2");
+      PushBudget budget = new PushBudget(0, 0);
+      try (PathCollector closedCollector = collector) {
+        assertThrows(IllegalStateException.class, () -> closedCollector.collect(changesets, emptyList(), budget, paths -> {
+          Uninterruptibles.awaitUninterruptibly(fetching);
+          throw new IllegalStateException("denied");
+        }));
+      }
+
+      assertThat(fetchedBeforeClose).isTrue();
+    }
+
+    @Test
+    void shouldUseChangesetsAndServiceOnlyOnCallingThread() throws IOException {
+      Set<Thread> serviceThreads = ConcurrentHashMap.newKeySet();
+      Set<Thread> consumerThreads = ConcurrentHashMap.newKeySet();
+      when(repositoryService.getModificationsCommand().revision("1").getModifications()).thenAnswer(invocation -> {
+        serviceThreads.add(Thread.currentThread());
+        return new Modifications("1", new Added("src/a"), new Added("src/b"));
+      });
+      when(repositoryService.getModificationsCommand().revision("2").getModifications()).thenAnswer(invocation -> {
+        serviceThreads.add(Thread.currentThread());
+        return new Modifications("2", new Added("docs/c"));
+      });
+      Iterable<Changeset> changesets = changesets("1", "2");
+      Iterable<Changeset> recordingChangesets = () -> {
+        serviceThreads.add(Thread.currentThread());
+        return changesets.iterator();
+      };
+
+      collector.collect(recordingChangesets, emptyList(), new PushBudget(0, 0), paths -> {
+        consumerThreads.add(Thread.currentThread());
+        consumed.add(paths);
+      });
+
+      assertThat(serviceThreads).containsOnly(Thread.currentThread());
+      assertThat(consumerThreads).doesNotContain(Thread.currentThread());
+      assertThat(consumed).containsExactly(Set.of("src/a", "src/b"), Set.of("docs/c"));
+    }
+
+    @Test
+    void shouldCollectWithoutPrefetchIfNoThreadIsAvailable() throws IOException {
+      ExecutorService busy = mock(ExecutorService.class);
+      doThrow(new RejectedExecutionException("busy")).when(busy).execute(any());
+      PathCollector busyCollector = new PathCollector(repositoryService, busy, 1, 0, 0);
+
+      busyCollector.collect(changesets("1", "2"), emptyList(), new PushBudget(0, 0), consumed::add);
+
+      assertThat(consumed).containsExactly(Set.of("src/a", "src/b"), Set.of("docs/c"));
+      assertThat(busyCollector.isComplete()).isTrue();
+    }
+  }
+
+  @Nested
+  class WithDiff {
+
+    private PathCollector collector;
+
+    @BeforeEach
+    void setUp() throws IOException {
+      collector = new PathCollector(repositoryService, null, 0, 2, 0);
+      when(repositoryService.isSupported(Command.DIFF_RESULT)).thenReturn(true);
+      lenient().when(repositoryService.isSupported(Command.BRANCHES)).thenReturn(true);
+      lenient().when(repositoryService.getBranchesCommand().setDisableCache(true).getBranches())
+        .thenReturn(new Branches(Branch.normalBranch("main", "0")));
+    }
+
+    @Test
+    void shouldCollectLinearHistoryWithSingleDiff() throws IOException {
+      DiffResult diff = mockDiff(diffFile("/dev/null", "src/a"), diffFile("docs/old", "docs/new"));
+      when(repositoryService.getDiffResultCommand().setRevision("2").setAncestorChangeset("0").getDiffResult()).thenReturn(diff);
+
+      collector.collect(linearChangesets("0"), singletonList("feature"), new PushBudget(0, 0), consumed::add);
+
+      assertThat(consumed).containsExactly(Set.of("src/a", "docs/old", "docs/new"));
+      assertThat(collector.isComplete()).isTrue();
+      assertThat(collector.getChangesetCount()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldCollectEveryChangesetWithMultipleHeads() throws IOException {
+      Iterable<Changeset> changesets = changesets("1", "2");
+
+      collector.collect(changesets, singletonList("feature"), new PushBudget(0, 0), consumed::add);
+
+      assertThat(consumed).containsExactly(Set.of("src/a", "src/b"), Set.of("docs/c"));
+    }
+
+    @Test
+    void shouldCollectEveryChangesetOfExistingBranch() throws IOException {
+      collector.collect(linearChangesets("0"), singletonList("main"), new PushBudget(0, 0), consumed::add);
+
+      assertThat(consumed).containsExactly(Set.of("src/a", "src/b"), Set.of("docs/c"));
+    }
+
+    @Test
+    void shouldCollectEveryChangesetWithoutBranches() throws IOException {
+      collector.collect(linearChangesets("0"), emptyList(), new PushBudget(0, 0), consumed::add);
+
+      assertThat(consumed).containsExactly(Set.of("src/a", "src/b"), Set.of("docs/c"));
+    }
+
+    @Test
+    void shouldCollectFilesOfHeadWithoutExistingParent() throws IOException {
+      when(repositoryService.isSupported(Command.BROWSE)).thenReturn(true);
+      FileObject src = directory("src", file("src/a"));
+      FileObject root = directory("", file("README.md"), src);
+      BrowseCommandBuilder browseCommand = mock(BrowseCommandBuilder.class, withSettings().defaultAnswer(Answers.RETURNS_SELF));
+      when(repositoryService.getBrowseCommand()).thenReturn(browseCommand);
+      AtomicReference<String> browsedPath = new AtomicReference<>();
+      when(browseCommand.setPath(any())).thenAnswer(invocation -> {
+        browsedPath.set(invocation.getArgument(0));
+        return browseCommand;
+      });
+      when(browseCommand.getBrowserResult())
+        .thenAnswer(invocation -> new BrowserResult("2", browsedPath.get().isEmpty() ? root : src));
+
+      collector.collect(linearChangesets(null), singletonList("feature"), new PushBudget(0, 0), consumed::add);
+
+      assertThat(consumed).containsExactly(Set.of("README.md", "src/a"));
+      assertThat(collector.isComplete()).isTrue();
+      verify(browseCommand, times(2)).setRevision("2");
+    }
+
+    @Test
+    void shouldStopDiffIfBudgetIsExceeded() throws IOException {
+      DiffResult diff = mockDiff(diffFile("/dev/null", "src/a"), diffFile("/dev/null", "src/b"), diffFile("/dev/null", "src/c"));
+      when(repositoryService.getDiffResultCommand().setRevision("2").setAncestorChangeset("0").getDiffResult()).thenReturn(diff);
+
+      collector.collect(linearChangesets("0"), singletonList("feature"), new PushBudget(0, 1), consumed::add);
+
+      assertThat(consumed).containsExactly(Set.of("src/a", "src/b"));
+      assertThat(collector.isComplete()).isFalse();
+      assertThat(collector.getChangesetCount()).isZero();
+    }
+
+    private Iterable<Changeset> linearChangesets(String parent) {
+      Iterable<Changeset> changesets = changesets("1", "2");
+      Iterator<Changeset> iterator = changesets.iterator();
+      iterator.next().setParents(parent != null ? singletonList(parent) : emptyList());
+      iterator.next().setParents(singletonList("1"));
+      return changesets;
+    }
+
+    private FileObject directory(String path, FileObject... children) {
+      FileObject directory = file(path);
+      directory.setDirectory(true);
+      directory.setChildren(asList(children));
+      return directory;
+    }
+
+    private FileObject file(String path) {
+      FileObject file = new FileObject();
+      file.setPath(path);
+      return file;
+    }
+
+    private DiffResult mockDiff(DiffFile... files) {
+      DiffResult diff = mock(DiffResult.class);
+      when(diff.iterator()).thenReturn(asList(files).iterator());
+      return diff;
+    }
+
+    private DiffFile diffFile(String oldPath, String newPath) {
+      DiffFile file = mock(DiffFile.class);
+      when(file.getOldPath()).thenReturn(oldPath);
+      when(file.getNewPath()).thenReturn(newPath);
+      return file;
+    }
+  }
+
+  private static Iterable<Changeset> changesets(String... ids) {
+    List<Changeset> changesets = new ArrayList<>();
+    for (String id : ids) {
+      Changeset changeset = new Changeset();
+      changeset.setId(id);
+      changesets.add(changeset);
+    }
+    return changesets;
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PathStoreTest {
+
+  @Test
+  void shouldDetectDuplicatesInMemory() throws IOException {
+    try (PathStore store = new PathStore(0, null)) {
+      assertThat(store.add("src/a")).isTrue();
+      assertThat(store.add("src/a")).isFalse();
+      assertThat(store.size()).isEqualTo(1);
+      assertThat(store.getRunCount()).isZero();
+    }
+  }
+
+  @Test
+  void shouldDetectDuplicatesOnDisk(@TempDir Path directory) throws IOException {
+    try (PathStore store = new PathStore(2, directory)) {
+      assertThat(store.add("src/b")).isTrue();
+      assertThat(store.add("src/\u00e4")).isTrue();
+      assertThat(store.add("src/a")).isTrue();
+
+      assertThat(store.getRunCount()).isEqualTo(1);
+      assertThat(store.add("src/\u00e4")).isFalse();
+      assertThat(store.add("src/b")).isFalse();
+      assertThat(store.add("src/a")).isFalse();
+      assertThat(store.add("src/c")).isTrue();
+      assertThat(store.size()).isEqualTo(4);
+    }
+  }
+
+  @Test
+  void shouldMergeRuns(@TempDir Path directory) throws IOException {
+    try (PathStore store = new PathStore(1, directory)) {
+      for (int i = 0; i < 20; i++) {
+        store.add("path-" + i);
+      }
+
+      assertThat(store.getRunCount()).isLessThan(8);
+      for (int i = 0; i < 20; i++) {
+        assertThat(store.add("path-" + i)).isFalse();
+      }
+      assertThat(store.size()).isEqualTo(20);
+    }
+  }
+
+  @Test
+  void shouldWriteMorePathsThanInitialOffsets(@TempDir Path directory) throws IOException {
+    try (PathStore store = new PathStore(5000, directory)) {
+      for (int i = 0; i < 5000; i++) {
+        store.add("path-" + i);
+      }
+
+      assertThat(store.getRunCount()).isEqualTo(1);
+      assertThat(store.add("path-0")).isFalse();
+      assertThat(store.add("path-4999")).isFalse();
+      assertThat(store.add("path-5000")).isTrue();
+    }
+  }
+
+  @Test
+  void shouldDeleteTemporaryFilesOnClose(@TempDir Path directory) throws IOException {
+    PathStore store = new PathStore(1, directory);
+    store.add("src/a");
+    store.add("src/b");
+
+    store.close();
+
+    try (Stream<Path> files = Files.list(directory)) {
+      assertThat(files).isEmpty();
+    }
+  }
+}
@@ -0,0 +1,351 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp;
+
+import org.apache.shiro.subject.SimplePrincipalCollection;
+import org.apache.shiro.subject.Subject;
+import org.apache.shiro.util.ThreadContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import sonia.scm.group.GroupCollector;
+import sonia.scm.pathwp.audit.PathWritePermissionAuditLog;
+import sonia.scm.pathwp.service.DecisionCache;
+import sonia.scm.pathwp.service.PathWritePermission;
+import sonia.scm.pathwp.service.PathWritePermissionService;
+import sonia.scm.pathwp.service.PathWritePermissionStatistics;
+import sonia.scm.pathwp.service.PathWritePermissionTemplateService;
+import sonia.scm.pathwp.service.PathWritePermissions;
+import sonia.scm.pathwp.service.RuleSetCache;
+import sonia.scm.repository.Added;
+import sonia.scm.repository.Modifications;
+import sonia.scm.repository.PreReceiveRepositoryHookEvent;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryManager;
+import sonia.scm.repository.api.HookBranchProvider;
+import sonia.scm.repository.api.HookContext;
+import sonia.scm.repository.api.HookFeature;
+import sonia.scm.repository.api.HookModificationsProvider;
+import sonia.scm.store.ConfigurationStoreFactory;
+import sonia.scm.store.InMemoryConfigurationStoreFactory;
+import sonia.scm.user.User;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Drives {@link RepositoryHook#onEvent(PreReceiveRepositoryHookEvent)} from many threads like concurrent pushes of
+ * many developers, with in-memory stores, a slow group collector and synthetic modifications. The test is excluded
+ * from the regular build and has to be started with {@code gradle loadTest}. The load can be configured with the
+ * system properties {@code scm.pathwp.load.*}, e.g. {@code gradle loadTest -Dscm.pathwp.load.threads=400}.
+ */
+@Tag("load")
+class RepositoryHookLoadTest {
+
+  private static final int THREADS = Integer.getInteger("scm.pathwp.load.threads", 200);
+  private static final int PUSHES = Integer.getInteger("scm.pathwp.load.pushes", 50);
+  private static final int WARMUP_PUSHES = Integer.getInteger("scm.pathwp.load.warmup", 2000);
+  private static final int REPOSITORIES = Integer.getInteger("scm.pathwp.load.repositories", 20);
+  private static final int USERS = Integer.getInteger("scm.pathwp.load.users", 200);
+  private static final int MODULES = Integer.getInteger("scm.pathwp.load.modules", 50);
+  private static final int PATHS = Integer.getInteger("scm.pathwp.load.paths", 100);
+  private static final long GROUP_LATENCY_MICROS = Long.getLong("scm.pathwp.load.groupLatencyMicros", 500);
+  private static final long SEED = Long.getLong("scm.pathwp.load.seed", 42);
+
+  private static final List<String> BRANCHES = asList("main", "develop", "feature/load", "release/1.0");
+
+  private final List<Repository> repositories = new ArrayList<>();
+  private final List<Subject> subjects = new ArrayList<>();
+  private final Map<String, Set<String>> groups = new HashMap<>();
+  private final List<Push> pushes = new ArrayList<>();
+  private final AtomicLong groupLookups = new AtomicLong();
+
+  private RepositoryHook hook;
+
+  @BeforeEach
+  void createServer() {
+    ConfigurationStoreFactory storeFactory = new InMemoryConfigurationStoreFactory();
+    RepositoryManager repositoryManager = mock(RepositoryManager.class, withSettings().stubOnly());
+    GroupCollector groupCollector = mock(GroupCollector.class, withSettings().stubOnly());
+    when(groupCollector.collect(anyString())).thenAnswer(invocation -> {
+      groupLookups.incrementAndGet();
+      if (GROUP_LATENCY_MICROS > 0) {
+        TimeUnit.MICROSECONDS.sleep(GROUP_LATENCY_MICROS);
+      }
+      return groups.get(invocation.<String>getArgument(0));
+    });
+    PathWritePermissionAuditLog auditLog = mock(PathWritePermissionAuditLog.class, withSettings().stubOnly());
+    PathCollectorFactory pathCollectorFactory = mock(PathCollectorFactory.class, withSettings().stubOnly());
+    PathWritePermissionStatistics statistics = new PathWritePermissionStatistics();
+    PathWritePermissionService service = new PathWritePermissionService(
+      storeFactory,
+      repositoryManager,
+      groupCollector,
+      new RuleSetCache(),
+      new PathWritePermissionTemplateService(storeFactory),
+      new DecisionCache(),
+      statistics
+    );
+    hook = new RepositoryHook(service, pathCollectorFactory, auditLog, statistics);
+
+    for (int i = 0; i < USERS; i++) {
+      User user = new User("user-" + i);
+      subjects.add(createSubject(user));
+      groups.put(user.getName(), getGroups(i));
+    }
+
+    ThreadContext.bind(subjects.get(0));
+    for (int i = 0; i < REPOSITORIES; i++) {
+      Repository repository = new Repository("repo-" + i, "git", "load", "repo-" + i);
+      repositories.add(repository);
+      service.setPermissions(repository, createPermissions());
+    }
+
+    Random random = new Random(SEED);
+    for (int i = 0; i < 1000; i++) {
+      pushes.add(createPush(random));
+    }
+  }
+
+  @AfterEach
+  void unbindSubject() {
+    ThreadContext.unbindSubject();
+  }
+
+  private Subject createSubject(User user) {
+    Subject subject = mock(Subject.class, withSettings().stubOnly());
+    when(subject.getPrincipal()).thenReturn(user.getName());
+    when(subject.getPrincipals()).thenReturn(new SimplePrincipalCollection(asList(user.getName(), user), "load"));
+    return subject;
+  }
+
+  /**
+   * Every user is a developer and a member of a few teams, each team maintains some modules. Nobody may write the
+   * protected files, and contractors may not write to release branches.
+   */
+  private Set<String> getGroups(int user) {
+    Set<String> groups = new TreeSet<>();
+    groups.add("developers");
+    groups.add("team-" + (user % 10));
+    groups.add("team-" + ((user * 7) % 10));
+    if (user % 20 == 0) {
+      groups.add("maintainers");
+    }
+    if (user % 5 == 4) {
+      groups.add("contractors");
+    }
+    return groups;
+  }
+
+  private PathWritePermissions createPermissions() {
+    PathWritePermissions permissions = new PathWritePermissions();
+    permissions.setEnabled(true);
+    List<PathWritePermission> rules = permissions.getPermissions();
+    rules.add(new PathWritePermission("docs/*", "*", PathWritePermission.BranchScope.INCLUDE, "developers", true, PathWritePermission.Type.ALLOW));
+    for (int module = 0; module < MODULES; module++) {
+      rules.add(new PathWritePermission("module-" + module + "/*", "*", PathWritePermission.BranchScope.INCLUDE, "team-" + (module % 10), true, PathWritePermission.Type.ALLOW));
+      rules.add(new PathWritePermission("module-" + module + "/build.gradle", "main", PathWritePermission.BranchScope.EXCLUDE, "maintainers", true, PathWritePermission.Type.ALLOW));
+    }
+    for (int user = 0; user < USERS; user += 3) {
+      rules.add(new PathWritePermission("module-" + (user % MODULES) + "/*", "feature/*", PathWritePermission.BranchScope.INCLUDE, "user-" + user, false, PathWritePermission.Type.ALLOW));
+    }
+    rules.add(new PathWritePermission("*", "*", PathWritePermission.BranchScope.INCLUDE, "maintainers", true, PathWritePermission.Type.ALLOW));
+    // group DENY rules are evaluated with branch and path swapped
+    rules.add(new PathWritePermission("*", "protected/*", PathWritePermission.BranchScope.INCLUDE, "developers", true, PathWritePermission.Type.DENY));
+    rules.add(new PathWritePermission("release/*", "*", PathWritePermission.BranchScope.INCLUDE, "contractors", true, PathWritePermission.Type.DENY));
+    return permissions;
+  }
+
+  private Push createPush(Random random) {
+    int user = random.nextInt(USERS);
+    List<String> branches = new ArrayList<>(BRANCHES.subList(0, 1 + random.nextInt(BRANCHES.size())));
+    Collections.shuffle(branches, random);
+    branches = branches.subList(0, 1 + random.nextInt(branches.size()));
+
+    Added[] added = new Added[PATHS];
+    for (int i = 0; i < PATHS; i++) {
+      int kind = random.nextInt(200);
+      if (kind == 0) {
+        added[i] = new Added("protected/secret-" + random.nextInt(10) + ".txt");
+      } else if (kind < 20) {
+        added[i] = new Added("docs/page-" + random.nextInt(1000) + ".md");
+      } else {
+        int team = random.nextBoolean() ? user % 10 : (user * 7) % 10;
+        int module = team + 10 * random.nextInt(Math.max(1, MODULES / 10));
+        added[i] = new Added("module-" + module + "/src/main/java/File" + random.nextInt(500) + ".java");
+      }
+    }
+
+    Repository repository = repositories.get(random.nextInt(repositories.size()));
+    return new Push(subjects.get(user), createEvent(repository, branches, new Modifications("42", added)));
+  }
+
+  private PreReceiveRepositoryHookEvent createEvent(Repository repository, List<String> branches, Modifications modifications) {
+    HookBranchProvider branchProvider = mock(HookBranchProvider.class, withSettings().stubOnly());
+    when(branchProvider.getCreatedOrModified()).thenReturn(branches);
+    when(branchProvider.getDeletedOrClosed()).thenReturn(Collections.emptyList());
+    HookModificationsProvider modificationsProvider = mock(HookModificationsProvider.class, withSettings().stubOnly());
+    when(modificationsProvider.getModifications(anyString())).thenReturn(modifications);
+    HookContext context = mock(HookContext.class, withSettings().stubOnly());
+    when(context.isFeatureSupported(HookFeature.BRANCH_PROVIDER)).thenReturn(true);
+    when(context.isFeatureSupported(HookFeature.MODIFICATIONS_PROVIDER)).thenReturn(true);
+    when(context.getBranchProvider()).thenReturn(branchProvider);
+    when(context.getModificationsProvider()).thenReturn(modificationsProvider);
+    PreReceiveRepositoryHookEvent event = mock(PreReceiveRepositoryHookEvent.class, withSettings().stubOnly());
+    when(event.getContext()).thenReturn(context);
+    when(event.getRepository()).thenReturn(repository);
+    return event;
+  }
+
+  @Test
+  void shouldVerifyConcurrentPushes() throws Exception {
+    // the verdicts of sequential pushes are the reference for the concurrent ones
+    boolean[] denied = new boolean[pushes.size()];
+    for (int i = 0; i < Math.max(WARMUP_PUSHES, pushes.size()); i++) {
+      denied[i % pushes.size()] = push(pushes.get(i % pushes.size()));
+    }
+
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    boolean allocationSupported = threads instanceof com.sun.management.ThreadMXBean
+      && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported();
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<Result>> futures = new ArrayList<>(THREADS);
+    for (int t = 0; t < THREADS; t++) {
+      int offset = t * PUSHES;
+      futures.add(executor.submit(() -> {
+        start.await();
+        long allocatedBefore = allocationSupported ? getAllocatedBytes(threads) : 0;
+        Result result = new Result(PUSHES);
+        for (int i = 0; i < PUSHES; i++) {
+          int index = (offset + i) % pushes.size();
+          long begin = System.nanoTime();
+          boolean verdict = push(pushes.get(index));
+          result.latencies[i] = System.nanoTime() - begin;
+          if (verdict != denied[index]) {
+            result.wrongVerdicts++;
+          }
+        }
+        result.allocatedBytes = allocationSupported ? getAllocatedBytes(threads) - allocatedBefore : 0;
+        return result;
+      }));
+    }
+
+    long lookupsBefore = groupLookups.get();
+    long begin = System.nanoTime();
+    start.countDown();
+    long[] latencies = new long[THREADS * PUSHES];
+    long allocatedBytes = 0;
+    int wrongVerdicts = 0;
+    for (int t = 0; t < THREADS; t++) {
+      Result result = futures.get(t).get();
+      System.arraycopy(result.latencies, 0, latencies, t * PUSHES, PUSHES);
+      allocatedBytes += result.allocatedBytes;
+      wrongVerdicts += result.wrongVerdicts;
+    }
+    long elapsed = System.nanoTime() - begin;
+    executor.shutdown();
+
+    Arrays.sort(latencies);
+    double seconds = elapsed / 1_000_000_000.0;
+    System.out.printf(
+      "pathwp load test: %d threads, %d pushes, %d paths per push, %d repositories%n" +
+        "  throughput:  %.1f pushes/s%n" +
+        "  latency:     p50 %.2f ms, p99 %.2f ms, p999 %.2f ms, max %.2f ms%n" +
+        "  allocation:  %s%n" +
+        "  group lookups: %d%n",
+      THREADS, latencies.length, PATHS, REPOSITORIES,
+      latencies.length / seconds,
+      percentile(latencies, 0.5), percentile(latencies, 0.99), percentile(latencies, 0.999), latencies[latencies.length - 1] / 1_000_000.0,
+      allocationSupported
+        ? String.format("%.1f MB/s, %d KB/push", allocatedBytes / seconds / (1024 * 1024), allocatedBytes / latencies.length / 1024)
+        : "not supported by this JVM",
+      groupLookups.get() - lookupsBefore
+    );
+
+    assertThat(denied).contains(true, false);
+    assertThat(wrongVerdicts).isZero();
+  }
+
+  private boolean push(Push push) {
+    ThreadContext.bind(push.subject);
+    try {
+      hook.onEvent(push.event);
+      return false;
+    } catch (PathWritePermissionException e) {
+      return true;
+    } catch (Exception e) {
+      throw new IllegalStateException("push failed", e);
+    } finally {
+      ThreadContext.unbindSubject();
+    }
+  }
+
+  private static long getAllocatedBytes(ThreadMXBean threads) {
+    return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  private static double percentile(long[] sorted, double percentile) {
+    int index = Math.min(sorted.length - 1, (int) Math.ceil(percentile * sorted.length) - 1);
+    return sorted[Math.max(0, index)] / 1_000_000.0;
+  }
+
+  private static final class Push {
+
+    private final Subject subject;
+    private final PreReceiveRepositoryHookEvent event;
+
+    private Push(Subject subject, PreReceiveRepositoryHookEvent event) {
+      this.subject = subject;
+      this.event = event;
+    }
+  }
+
+  private static final class Result {
+
+    private final long[] latencies;
+    private long allocatedBytes;
+    private int wrongVerdicts;
+
+    private Result(int pushes) {
+      this.latencies = new long[pushes];
+    }
+  }
+}
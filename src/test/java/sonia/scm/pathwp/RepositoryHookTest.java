@@ -25,11 +25,16 @@ import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Answers;
-import org.mockito.InjectMocks;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import sonia.scm.FeatureNotSupportedException;
+import sonia.scm.pathwp.audit.AuditRecord;
+import sonia.scm.pathwp.audit.PathWritePermissionAuditLog;
 import sonia.scm.pathwp.service.PathWritePermissionService;
+import sonia.scm.pathwp.service.PathWritePermissionStatistics;
+import sonia.scm.pathwp.service.PathWritePermissions;
+import sonia.scm.pathwp.service.PathWritePrivileges;
 import sonia.scm.repository.Added;
 import sonia.scm.repository.Changeset;
 import sonia.scm.repository.Modifications;
@@ -40,10 +45,24 @@ import sonia.scm.repository.api.HookFeature;
 import sonia.scm.user.User;
 
 import java.io.IOException;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptySet;
 import static java.util.Collections.singleton;
 import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @ExtendWith({MockitoExtension.class})
@@ -53,8 +72,13 @@ class RepositoryHookTest {
   private PathWritePermissionService service;
   @Mock(answer = Answers.RETURNS_DEEP_STUBS)
   private PathCollectorFactory pathCollectorFactory;
+  @Mock
+  private PathWritePrivileges privileges;
+  @Mock
+  private PathWritePermissionAuditLog auditLog;
+  @Mock
+  private PathWritePermissionStatistics statistics;
 
-  @InjectMocks
   private RepositoryHook hook;
 
   @Mock(answer = Answers.RETURNS_DEEP_STUBS)
@@ -80,10 +104,21 @@ class RepositoryHookTest {
   void prepareBasicEvent() throws IOException {
     when(event.getRepository()).thenReturn(repository);
     when(service.isPluginEnabled(repository)).thenReturn(true);
-    when(event.getContext().isFeatureSupported(HookFeature.CHANGESET_PROVIDER)).thenReturn(true);
+    lenient().when(event.getContext().isFeatureSupported(HookFeature.CHANGESET_PROVIDER)).thenReturn(true);
     Set<Changeset> changesets = singleton(new Changeset());
-    when(event.getContext().getChangesetProvider().getChangesets()).thenReturn(changesets);
-    when(pathCollectorFactory.create(repository).collect(changesets)).thenReturn(singleton("path"));
+    lenient().when(event.getContext().getChangesetProvider().getChangesets()).thenReturn(changesets);
+    mockCollectedPaths(singleton("path"));
+    lenient().when(pathCollectorFactory.create(repository).isComplete()).thenReturn(true);
+    when(service.getPrivileges(user, repository)).thenReturn(privileges);
+    hook = new RepositoryHook(service, pathCollectorFactory, auditLog, statistics);
+  }
+
+  private void mockCollectedPaths(Set<String> paths) throws IOException {
+    lenient().doAnswer(invocation -> {
+      Consumer<Set<String>> consumer = invocation.getArgument(3);
+      consumer.accept(paths);
+      return null;
+    }).when(pathCollectorFactory.create(repository)).collect(any(), any(), any(PushBudget.class), any());
   }
 
   @Nested
@@ -93,17 +128,13 @@ class RepositoryHookTest {
     void prepareBranches() {
       when(event.getContext().isFeatureSupported(HookFeature.BRANCH_PROVIDER)).thenReturn(true);
       when(event.getContext().getBranchProvider().getCreatedOrModified()).thenReturn(singletonList("branch"));
+      lenient().when(privileges.groupBranches(singleton("branch"))).thenReturn(singletonList(singletonList("branch")));
     }
 
     @Test
     @SuppressWarnings("java:S2699") // we only have to make sure that there is no exception
     void shouldNotFailWithPermission() throws IOException {
-      when(service.isPrivileged(
-        user,
-        repository,
-        "branch",
-        "path"
-      )).thenReturn(true);
+      when(privileges.isPrivileged("branch", "path")).thenReturn(true);
 
       hook.onEvent(event);
 
@@ -112,16 +143,51 @@ class RepositoryHookTest {
 
     @Test
     void shouldFailWithoutPermission() {
-      when(service.isPrivileged(
-        user,
-        repository,
-        "branch",
-        "path"
-      )).thenReturn(false);
+      when(privileges.isPrivileged("branch", "path")).thenReturn(false);
 
       Assertions.assertThrows(PathWritePermissionException.class, () -> hook.onEvent(event));
     }
 
+    @Test
+    void shouldRecordPushInStatistics() throws IOException {
+      when(privileges.isPrivileged("branch", "path")).thenReturn(true);
+
+      hook.onEvent(event);
+
+      verify(statistics).recordPush(eq(repository), anyLong(), eq(false));
+    }
+
+    @Test
+    void shouldRecordDeniedPushInStatistics() {
+      when(privileges.isPrivileged("branch", "path")).thenReturn(false);
+
+      Assertions.assertThrows(PathWritePermissionException.class, () -> hook.onEvent(event));
+
+      verify(statistics).recordPush(eq(repository), anyLong(), eq(true));
+    }
+
+    @Test
+    void shouldPassUpdatedBranchesToCollector() throws IOException {
+      when(privileges.isPrivileged("branch", "path")).thenReturn(true);
+
+      hook.onEvent(event);
+
+      verify(pathCollectorFactory.create(repository)).collect(any(), eq(singletonList("branch")), any(PushBudget.class), any());
+    }
+
+    @Test
+    void shouldVerifyOnlyOneBranchOfEachGroup() throws IOException {
+      when(event.getContext().getBranchProvider().getCreatedOrModified()).thenReturn(asList("release/1", "release/2", "main"));
+      when(privileges.groupBranches(new HashSet<>(asList("release/1", "release/2", "main"))))
+        .thenReturn(asList(asList("release/1", "release/2"), singletonList("main")));
+      when(privileges.isPrivileged("release/1", "path")).thenReturn(true);
+      when(privileges.isPrivileged("main", "path")).thenReturn(true);
+
+      hook.onEvent(event);
+
+      verify(privileges, never()).isPrivileged("release/2", "path");
+    }
+
     @Nested
     class WithModificationsProvider {
 
@@ -136,12 +202,7 @@ class RepositoryHookTest {
       @Test
       @SuppressWarnings("java:S2699") // we only have to make sure that there is no exception
       void shouldNotFailWithPermission() throws IOException {
-        when(service.isPrivileged(
-          user,
-          repository,
-          "branch",
-          "modifiedPath"
-        )).thenReturn(true);
+        when(privileges.isPrivileged("branch", "modifiedPath")).thenReturn(true);
 
         hook.onEvent(event);
 
@@ -150,12 +211,7 @@ class RepositoryHookTest {
 
       @Test
       void shouldFailWithoutPermission() {
-        when(service.isPrivileged(
-          user,
-          repository,
-          "branch",
-          "modifiedPath"
-        )).thenReturn(false);
+        when(privileges.isPrivileged("branch", "modifiedPath")).thenReturn(false);
 
         Assertions.assertThrows(PathWritePermissionException.class, () -> hook.onEvent(event));
       }
@@ -174,12 +230,7 @@ class RepositoryHookTest {
     @Test
     @SuppressWarnings("java:S2699") // we only have to make sure that there is no exception
     void shouldNotFailWithPermission() throws IOException {
-      when(service.isPrivileged(
-        user,
-        repository,
-        "*",
-        "path"
-      )).thenReturn(true);
+      when(privileges.isPrivileged("*", "path")).thenReturn(true);
 
       hook.onEvent(event);
 
@@ -188,12 +239,107 @@ class RepositoryHookTest {
 
     @Test
     void shouldFailWithoutPermission() {
-      when(service.isPrivileged(
-        user,
-        repository,
-        "*",
-        "path"
-      )).thenReturn(false);
+      when(privileges.isPrivileged("*", "path")).thenReturn(false);
+
+      Assertions.assertThrows(PathWritePermissionException.class, () -> hook.onEvent(event));
+    }
+  }
+
+  @Nested
+  class WithAuditLog {
+
+    @BeforeEach
+    void enableAuditLog() {
+      when(event.getContext().isFeatureSupported(HookFeature.BRANCH_PROVIDER)).thenReturn(false);
+      when(auditLog.isEnabled()).thenReturn(true);
+    }
+
+    @Test
+    void shouldRecordDeniedPush() {
+      when(privileges.isPrivileged("*", "path")).thenReturn(false);
+
+      Assertions.assertThrows(PathWritePermissionException.class, () -> hook.onEvent(event));
+
+      ArgumentCaptor<AuditRecord> captor = ArgumentCaptor.forClass(AuditRecord.class);
+      verify(auditLog).record(captor.capture());
+      AuditRecord auditRecord = captor.getValue();
+      assertThat(auditRecord.getVerdict()).isEqualTo(AuditRecord.Verdict.DENIED);
+      assertThat(auditRecord.getUser()).isEqualTo("trillian");
+      assertThat(auditRecord.getDenied()).extracting("path").containsExactly("path");
+    }
+
+    @Test
+    void shouldNotRecordAllowedPushByDefault() throws IOException {
+      when(privileges.isPrivileged("*", "path")).thenReturn(true);
+
+      hook.onEvent(event);
+
+      verify(auditLog, never()).record(any());
+    }
+
+    @Test
+    void shouldRecordAllowedPushIfRequested() throws IOException {
+      when(auditLog.isAuditingAllowed()).thenReturn(true);
+      when(privileges.isPrivileged("*", "path")).thenReturn(true);
+
+      hook.onEvent(event);
+
+      ArgumentCaptor<AuditRecord> captor = ArgumentCaptor.forClass(AuditRecord.class);
+      verify(auditLog).record(captor.capture());
+      assertThat(captor.getValue().getVerdict()).isEqualTo(AuditRecord.Verdict.ALLOWED);
+      assertThat(captor.getValue().getAllowedCount()).isEqualTo(1);
+    }
+  }
+
+  @Nested
+  class WithExceededBudget {
+
+    @BeforeEach
+    void prepareBudget() throws IOException {
+      when(event.getContext().isFeatureSupported(HookFeature.BRANCH_PROVIDER)).thenReturn(false);
+      Set<String> paths = Stream.of("src/a", "src/b", "src/c").collect(Collectors.toCollection(LinkedHashSet::new));
+      mockCollectedPaths(paths);
+      hook = new RepositoryHook(service, pathCollectorFactory, auditLog, statistics, 0, 1);
+    }
+
+    @Test
+    void shouldRejectWithRejectPolicy() {
+      when(privileges.getOverloadPolicy()).thenReturn(PathWritePermissions.OverloadPolicy.REJECT);
+      when(privileges.isPrivileged("*", "src/a")).thenReturn(true);
+
+      PathWritePermissionException exception = Assertions.assertThrows(PathWritePermissionException.class, () -> hook.onEvent(event));
+
+      assertThat(exception.getMessage()).contains("budget");
+      verify(privileges, never()).isPrivileged("*", "src/b");
+    }
+
+    @Test
+    @SuppressWarnings("java:S2699") // we only have to make sure that there is no exception
+    void shouldVerifyDirectoriesWithCoarsePolicy() throws IOException {
+      when(privileges.getOverloadPolicy()).thenReturn(PathWritePermissions.OverloadPolicy.COARSE);
+      when(privileges.isPrivileged("*", "src/a")).thenReturn(true);
+      when(privileges.isPrivilegedForEverythingBelow("*", "src")).thenReturn(true);
+
+      hook.onEvent(event);
+
+      // nothing happens
+    }
+
+    @Test
+    void shouldFailForDirectoryWithoutPermissionWithCoarsePolicy() {
+      when(privileges.getOverloadPolicy()).thenReturn(PathWritePermissions.OverloadPolicy.COARSE);
+      when(privileges.isPrivileged("*", "src/a")).thenReturn(true);
+      when(privileges.isPrivilegedForEverythingBelow("*", "src")).thenReturn(false);
+
+      Assertions.assertThrows(PathWritePermissionException.class, () -> hook.onEvent(event));
+    }
+
+    @Test
+    void shouldRequirePermissionForEverythingIfCollectionIsIncomplete() throws IOException {
+      mockCollectedPaths(emptySet());
+      when(pathCollectorFactory.create(repository).isComplete()).thenReturn(false);
+      when(privileges.getOverloadPolicy()).thenReturn(PathWritePermissions.OverloadPolicy.COARSE);
+      when(privileges.isPrivilegedForEverythingBelow("*", "")).thenReturn(false);
 
       Assertions.assertThrows(PathWritePermissionException.class, () -> hook.onEvent(event));
     }
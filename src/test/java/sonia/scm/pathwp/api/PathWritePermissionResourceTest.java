@@ -23,19 +23,37 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.pathwp.service.Explanation;
 import sonia.scm.pathwp.service.PathWritePermission;
+import sonia.scm.pathwp.service.PathWritePermissionImpact;
+import sonia.scm.pathwp.service.PathWritePermissionImpactService;
 import sonia.scm.pathwp.service.PathWritePermissionService;
+import sonia.scm.pathwp.service.PathWritePermissionSnapshot;
+import sonia.scm.pathwp.service.PathWritePermissionWriterService;
+import sonia.scm.pathwp.service.PathWritePermissionWriters;
 import sonia.scm.pathwp.service.PathWritePermissions;
+import sonia.scm.pathwp.service.RuleSet;
 import sonia.scm.web.RestDispatcher;
 
 import jakarta.servlet.http.HttpServletResponse;
 import jakarta.ws.rs.core.MediaType;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -53,17 +71,34 @@ class PathWritePermissionResourceTest {
     "\"type\":\"ALLOW\"" +
     "}" +
     "]," +
+    "\"inheritTemplates\":false," +
+    "\"overloadPolicy\":\"REJECT\"," +
     "\"enabled\":true," +
     "\"_links\":{" +
     "\"self\":{" +
     "\"href\":\"/v2/plugins/pathwp/space/repo\"}," +
     "\"update\":{" +
+    "\"href\":\"/v2/plugins/pathwp/space/repo\"}," +
+    "\"permissions\":{" +
+    "\"href\":\"/v2/plugins/pathwp/space/repo/permissions\"}," +
+    "\"modify\":{" +
     "\"href\":\"/v2/plugins/pathwp/space/repo\"}" +
     "}" +
     "}";
 
+  public static final String CHANGES_JSON = "{\"enabled\":false," +
+    "\"remove\":[{\"path\":\"" + PATH + "\",\"branch\":\"main\",\"branchScope\":\"INCLUDE\",\"name\":\"user_1\",\"group\":false,\"type\":\"ALLOW\"}]," +
+    "\"add\":[{\"path\":\"src/*\",\"branch\":\"*\",\"branchScope\":\"INCLUDE\",\"name\":\"user_2\",\"group\":false,\"type\":\"DENY\"}]" +
+    "}";
+
   @Mock
   PathWritePermissionService service;
+  @Mock
+  RuleSet ruleSet;
+  @Mock
+  PathWritePermissionImpactService impactService;
+  @Mock
+  PathWritePermissionWriterService writerService;
 
   private final PathWritePermissionMapper mapper = new PathWritePermissionMapperImpl();
 
@@ -73,17 +108,14 @@ class PathWritePermissionResourceTest {
 
   @BeforeEach
   public void init() {
-    PathWritePermissionResource resource = new PathWritePermissionResource(service, mapper);
+    PathWritePermissionResource resource = new PathWritePermissionResource(service, impactService, writerService, mapper);
     dispatcher = new RestDispatcher();
     dispatcher.addSingletonResource(resource);
   }
 
   @Test
   void shouldGetPathWritePermissions() throws URISyntaxException, UnsupportedEncodingException {
-    PathWritePermissions permissions = new PathWritePermissions();
-    permissions.setEnabled(true);
-    permissions.getPermissions().add(new PathWritePermission(PATH, BRANCH, PathWritePermission.BranchScope.INCLUDE, "user_1", false, PathWritePermission.Type.ALLOW));
-    when(service.getPermissions("space", "repo")).thenReturn(permissions);
+    mockRuleSet();
 
     MockHttpRequest request = MockHttpRequest
       .get("/" + PathWritePermissionResource.PATH + "/space/repo")
@@ -96,6 +128,70 @@ class PathWritePermissionResourceTest {
       .isEqualTo(PERMISSIONS_JSON);
   }
 
+  @Test
+  void shouldGetSettingsWithoutPermissions() throws URISyntaxException, UnsupportedEncodingException {
+    mockRuleSet();
+    PathWritePermissions settings = new PathWritePermissions();
+    settings.setEnabled(true);
+    when(ruleSet.getSettings()).thenReturn(settings);
+
+    MockHttpRequest request = MockHttpRequest
+      .get("/" + PathWritePermissionResource.PATH + "/space/repo?withPermissions=false")
+      .accept(MediaType.APPLICATION_JSON);
+
+    dispatcher.invoke(request, response);
+    assertThat(response.getStatus())
+      .isEqualTo(HttpServletResponse.SC_OK);
+    assertThat(response.getContentAsString())
+      .startsWith("{\"permissions\":[],")
+      .contains("\"enabled\":true");
+    verify(ruleSet, never()).getPermissions();
+  }
+
+  @Test
+  void shouldReturnVersionAsETag() throws URISyntaxException {
+    mockRuleSet();
+
+    MockHttpRequest request = MockHttpRequest
+      .get("/" + PathWritePermissionResource.PATH + "/space/repo")
+      .accept(MediaType.APPLICATION_JSON);
+
+    dispatcher.invoke(request, response);
+    assertThat(response.getStatus())
+      .isEqualTo(HttpServletResponse.SC_OK);
+    assertThat(response.getOutputHeaders().getFirst("ETag"))
+      .hasToString("\"42\"");
+  }
+
+  @Test
+  void shouldReturnNotModifiedForMatchingETag() throws URISyntaxException {
+    mockRuleSet();
+
+    MockHttpRequest request = MockHttpRequest
+      .get("/" + PathWritePermissionResource.PATH + "/space/repo")
+      .header("If-None-Match", "\"42\"")
+      .accept(MediaType.APPLICATION_JSON);
+
+    dispatcher.invoke(request, response);
+    assertThat(response.getStatus())
+      .isEqualTo(HttpServletResponse.SC_NOT_MODIFIED);
+    assertThat(response.getOutput()).isEmpty();
+  }
+
+  @Test
+  void shouldReturnConfigurationForOutdatedETag() throws URISyntaxException {
+    mockRuleSet();
+
+    MockHttpRequest request = MockHttpRequest
+      .get("/" + PathWritePermissionResource.PATH + "/space/repo")
+      .header("If-None-Match", "\"outdated\"")
+      .accept(MediaType.APPLICATION_JSON);
+
+    dispatcher.invoke(request, response);
+    assertThat(response.getStatus())
+      .isEqualTo(HttpServletResponse.SC_OK);
+  }
+
   @Test
   void shouldPUTPathWritePermissions() throws URISyntaxException {
 
@@ -116,4 +212,340 @@ class PathWritePermissionResourceTest {
     }));
   }
 
+  @Test
+  void shouldPatchPathWritePermissions() throws URISyntaxException {
+    mockRuleSet();
+    RuleSet modified = mock(RuleSet.class);
+    when(modified.getVersion()).thenReturn("43");
+    when(service.modifyPermissions(eq("space"), eq("repo"), eq("42"), eq(false), isNull(), isNull(), argThat(toRemove -> {
+      assertThat(toRemove).extracting("path").containsExactly(PATH);
+      return true;
+    }), argThat(toAdd -> {
+      assertThat(toAdd).extracting("path", "name", "type").containsExactly(tuple("src/*", "user_2", PathWritePermission.Type.DENY));
+      return true;
+    }))).thenReturn(modified);
+
+    MockHttpRequest request = MockHttpRequest
+      .create("PATCH", "/" + PathWritePermissionResource.PATH + "/space/repo")
+      .header("If-Match", "\"42\"")
+      .contentType(MediaType.APPLICATION_JSON)
+      .content(CHANGES_JSON.getBytes());
+
+    dispatcher.invoke(request, response);
+    assertThat(response.getStatus())
+      .isEqualTo(HttpServletResponse.SC_NO_CONTENT);
+    assertThat(response.getOutputHeaders().getFirst("ETag"))
+      .hasToString("\"43\"");
+  }
+
+  @Test
+  void shouldPatchWithoutVersion() throws URISyntaxException {
+    mockRuleSet();
+    RuleSet modified = mock(RuleSet.class);
+    when(modified.getVersion()).thenReturn("43");
+    when(service.modifyPermissions(eq("space"), eq("repo"), isNull(), eq(false), isNull(), isNull(), any(), any())).thenReturn(modified);
+
+    MockHttpRequest request = MockHttpRequest
+      .create("PATCH", "/" + PathWritePermissionResource.PATH + "/space/repo")
+      .contentType(MediaType.APPLICATION_JSON)
+      .content(CHANGES_JSON.getBytes());
+
+    dispatcher.invoke(request, response);
+    assertThat(response.getStatus())
+      .isEqualTo(HttpServletResponse.SC_NO_CONTENT);
+  }
+
+  @Test
+  void shouldPatchSettings() throws URISyntaxException {
+    mockRuleSet();
+    RuleSet modified = mock(RuleSet.class);
+    when(modified.getVersion()).thenReturn("43");
+    when(service.modifyPermissions(eq("space"), eq("repo"), isNull(), isNull(), eq(true), eq(PathWritePermissions.OverloadPolicy.COARSE), eq(Collections.emptyList()), eq(Collections.emptyList()))).thenReturn(modified);
+
+    MockHttpRequest request = MockHttpRequest
+      .create("PATCH", "/" + PathWritePermissionResource.PATH + "/space/repo")
+      .contentType(MediaType.APPLICATION_JSON)
+      .content("{\"inheritTemplates\":true,\"overloadPolicy\":\"COARSE\"}".getBytes());
+
+    dispatcher.invoke(request, response);
+    assertThat(response.getStatus())
+      .isEqualTo(HttpServletResponse.SC_NO_CONTENT);
+  }
+
+  @Test
+  void shouldFailPatchForOutdatedVersion() throws URISyntaxException {
+    mockRuleSet();
+
+    MockHttpRequest request = MockHttpRequest
+      .create("PATCH", "/" + PathWritePermissionResource.PATH + "/space/repo")
+      .header("If-Match", "\"41\"")
+      .contentType(MediaType.APPLICATION_JSON)
+      .content(CHANGES_JSON.getBytes());
+
+    dispatcher.invoke(request, response);
+    assertThat(response.getStatus())
+      .isEqualTo(HttpServletResponse.SC_PRECONDITION_FAILED);
+    verify(service, never()).modifyPermissions(anyString(), anyString(), any(), any(), any(), any(), any(), any());
+  }
+
+  @Test
+  void shouldFailPatchWithoutChanges() throws URISyntaxException {
+    MockHttpRequest request = MockHttpRequest
+      .create("PATCH", "/" + PathWritePermissionResource.PATH + "/space/repo")
+      .contentType(MediaType.APPLICATION_JSON);
+
+    dispatcher.invoke(request, response);
+    assertThat(response.getStatus())
+      .isEqualTo(HttpServletResponse.SC_BAD_REQUEST);
+    verify(service, never()).modifyPermissions(anyString(), anyString(), any(), any(), any(), any(), any(), any());
+  }
+
+  @Test
+  void shouldFindPermissions() throws URISyntaxException, UnsupportedEncodingException {
+    mockRuleSet();
+    when(ruleSet.find(argThat(filter -> {
+      assertThat(filter.getPrincipal()).isEqualTo("developers");
+      assertThat(filter.isGroup()).isTrue();
+      assertThat(filter.getPathPrefix()).isEqualTo("src/");
+      assertThat(filter.getBranch()).isEqualTo("main");
+      assertThat(filter.getType()).isEqualTo(PathWritePermission.Type.ALLOW);
+      return true;
+    }))).thenReturn(createPermissions("src/c", "src/a", "src/b"));
+
+    MockHttpRequest request = MockHttpRequest
+      .get("/" + PathWritePermissionResource.PATH + "/space/repo/permissions?principal=developers&group=true&path=src/&branch=main&type=ALLOW&sortBy=path&pageSize=2&page=1")
+      .accept(MediaType.APPLICATION_JSON);
+
+    dispatcher.invoke(request, response);
+    assertThat(response.getStatus())
+      .isEqualTo(HttpServletResponse.SC_OK);
+    assertThat(response.getContentAsString())
+      .contains("\"page\":1")
+      .contains("\"pageTotal\":2")
+      .contains("\"total\":3")
+      .contains("\"path\":\"src/c\"")
+      .doesNotContain("\"path\":\"src/a\"")
+      .doesNotContain("\"path\":\"src/b\"");
+  }
+
+  @Test
+  void shouldFindPermissionsInConfigurationOrder() throws URISyntaxException, UnsupportedEncodingException {
+    mockRuleSet();
+    when(ruleSet.find(any())).thenReturn(createPermissions("src/c", "src/a", "src/b"));
+
+    MockHttpRequest request = MockHttpRequest
+      .get("/" + PathWritePermissionResource.PATH + "/space/repo/permissions?pageSize=2")
+      .accept(MediaType.APPLICATION_JSON);
+
+    dispatcher.invoke(request, response);
+    assertThat(response.getStatus())
+      .isEqualTo(HttpServletResponse.SC_OK);
+    assertThat(response.getContentAsString())
+      .contains("\"path\":\"src/c\"")
+      .contains("\"path\":\"src/a\"")
+      .doesNotContain("\"path\":\"src/b\"");
+  }
+
+  @Test
+  void shouldNotFindPermissionsForMatchingETag() throws URISyntaxException {
+    mockRuleSet();
+
+    MockHttpRequest request = MockHttpRequest
+      .get("/" + PathWritePermissionResource.PATH + "/space/repo/permissions")
+      .header("If-None-Match", "\"42\"")
+      .accept(MediaType.APPLICATION_JSON);
+
+    dispatcher.invoke(request, response);
+    assertThat(response.getStatus())
+      .isEqualTo(HttpServletResponse.SC_NOT_MODIFIED);
+    verify(ruleSet, never()).find(any());
+  }
+
+  @Test
+  void shouldExplainVerdict() throws URISyntaxException, UnsupportedEncodingException {
+    Explanation explanation = mock(Explanation.class);
+    Explanation.MatchingRule matchingRule = mock(Explanation.MatchingRule.class);
+    when(matchingRule.getRule()).thenReturn(createPermissions("src/*").get(0));
+    when(matchingRule.isInherited()).thenReturn(true);
+    when(explanation.getUser()).thenReturn("trillian");
+    when(explanation.getGroups()).thenReturn(Collections.singleton("developers"));
+    when(explanation.isPrivileged()).thenReturn(true);
+    when(explanation.getMatchingRules()).thenReturn(Collections.singletonList(matchingRule));
+    when(explanation.getCandidatesInspected()).thenReturn(3L);
+    when(service.explain("space", "repo", "trillian", "main", "src/Main.java")).thenReturn(explanation);
+
+    MockHttpRequest request = MockHttpRequest
+      .get("/" + PathWritePermissionResource.PATH + "/space/repo/explain?user=trillian&branch=main&path=src/Main.java")
+      .accept(MediaType.APPLICATION_JSON);
+
+    dispatcher.invoke(request, response);
+    assertThat(response.getStatus())
+      .isEqualTo(HttpServletResponse.SC_OK);
+    assertThat(response.getContentAsString())
+      .contains("\"privileged\":true")
+      .contains("\"groups\":[\"developers\"]")
+      .contains("\"rule\":{\"path\":\"src/*\"")
+      .contains("\"inherited\":true")
+      .contains("\"candidatesInspected\":3");
+  }
+
+  @Test
+  void shouldExplainWildcardBranchByDefault() throws URISyntaxException {
+    when(service.explain("space", "repo", "trillian", "*", "src/Main.java")).thenReturn(mock(Explanation.class));
+
+    MockHttpRequest request = MockHttpRequest
+      .get("/" + PathWritePermissionResource.PATH + "/space/repo/explain?user=trillian&path=src/Main.java")
+      .accept(MediaType.APPLICATION_JSON);
+
+    dispatcher.invoke(request, response);
+    assertThat(response.getStatus())
+      .isEqualTo(HttpServletResponse.SC_OK);
+  }
+
+  @Test
+  void shouldFailToExplainWithoutPath() throws URISyntaxException {
+    MockHttpRequest request = MockHttpRequest
+      .get("/" + PathWritePermissionResource.PATH + "/space/repo/explain?user=trillian")
+      .accept(MediaType.APPLICATION_JSON);
+
+    dispatcher.invoke(request, response);
+    assertThat(response.getStatus())
+      .isEqualTo(HttpServletResponse.SC_BAD_REQUEST);
+    verify(service, never()).explain(any(), any(), any(), any(), any());
+  }
+
+  @Test
+  void shouldFindWriters() throws URISyntaxException, UnsupportedEncodingException {
+    PathWritePermissionWriters writers = mock(PathWritePermissionWriters.class);
+    when(writers.isEnabled()).thenReturn(true);
+    when(writers.getUsers()).thenReturn(List.of("dent", "trillian"));
+    when(writers.getGroups()).thenReturn(List.of("developers"));
+    when(writers.getUnexpandedGroups()).thenReturn(List.of("ldap"));
+    when(writers.getDeniedUsers()).thenReturn(List.of("marvin"));
+    when(writerService.getWriters("space", "repo", "main", "src/Main.java")).thenReturn(writers);
+
+    MockHttpRequest request = MockHttpRequest
+      .get("/" + PathWritePermissionResource.PATH + "/space/repo/writers?branch=main&path=src/Main.java")
+      .accept(MediaType.APPLICATION_JSON);
+
+    dispatcher.invoke(request, response);
+    assertThat(response.getStatus())
+      .isEqualTo(HttpServletResponse.SC_OK);
+    assertThat(response.getContentAsString())
+      .contains("\"enabled\":true")
+      .contains("\"users\":[\"dent\",\"trillian\"]")
+      .contains("\"groups\":[\"developers\"]")
+      .contains("\"unexpandedGroups\":[\"ldap\"]")
+      .contains("\"deniedUsers\":[\"marvin\"]");
+  }
+
+  @Test
+  void shouldFailToFindWritersWithoutPath() throws URISyntaxException {
+    MockHttpRequest request = MockHttpRequest
+      .get("/" + PathWritePermissionResource.PATH + "/space/repo/writers?branch=main")
+      .accept(MediaType.APPLICATION_JSON);
+
+    dispatcher.invoke(request, response);
+    assertThat(response.getStatus())
+      .isEqualTo(HttpServletResponse.SC_BAD_REQUEST);
+    verify(writerService, never()).getWriters(any(), any(), any(), any());
+  }
+
+  @Test
+  void shouldGetSnapshot() throws URISyntaxException, UnsupportedEncodingException {
+    PathWritePermissionSnapshot snapshot = mockSnapshot();
+
+    MockHttpRequest request = MockHttpRequest
+      .get("/" + PathWritePermissionResource.PATH + "/space/repo/snapshot?branch=main")
+      .accept(MediaType.APPLICATION_JSON);
+
+    dispatcher.invoke(request, response);
+    assertThat(response.getStatus())
+      .isEqualTo(HttpServletResponse.SC_OK);
+    assertThat(response.getOutputHeaders().getFirst("ETag"))
+      .hasToString("\"1337\"");
+    assertThat(response.getContentAsString())
+      .contains("\"version\":\"1337\"")
+      .contains("\"allow\":[{\"pattern\":\"src/*\",\"exclude\":false}]")
+      .contains("\"deny\":[{\"pattern\":\"src/main/*\",\"exclude\":true}]");
+    verify(snapshot).getAllow();
+  }
+
+  @Test
+  void shouldNotGetSnapshotForMatchingETag() throws URISyntaxException {
+    PathWritePermissionSnapshot snapshot = mockSnapshot();
+
+    MockHttpRequest request = MockHttpRequest
+      .get("/" + PathWritePermissionResource.PATH + "/space/repo/snapshot?branch=main")
+      .header("If-None-Match", "\"1337\"")
+      .accept(MediaType.APPLICATION_JSON);
+
+    dispatcher.invoke(request, response);
+    assertThat(response.getStatus())
+      .isEqualTo(HttpServletResponse.SC_NOT_MODIFIED);
+    verify(snapshot, never()).getAllow();
+  }
+
+  @Test
+  void shouldPreviewImpact() throws IOException, URISyntaxException {
+    PathWritePermissionImpact impact = mock(PathWritePermissionImpact.class);
+    PathWritePermissionImpact.Branch branch = mock(PathWritePermissionImpact.Branch.class);
+    PathWritePermissionImpact.Principal principal = mock(PathWritePermissionImpact.Principal.class);
+    when(principal.getName()).thenReturn("developers");
+    when(principal.isGroup()).thenReturn(true);
+    when(principal.getBecomingReadOnly()).thenReturn(42L);
+    when(principal.getReadOnlySamples()).thenReturn(Collections.singletonList("src/Main.java"));
+    when(branch.getName()).thenReturn("main");
+    when(branch.getFiles()).thenReturn(100L);
+    when(branch.getPrincipals()).thenReturn(Collections.singletonList(principal));
+    when(impact.getBranches()).thenReturn(Collections.singletonList(branch));
+    when(impactService.preview(eq("space"), eq("repo"), argThat(permissions -> permissions.isEnabled() && permissions.getPermissions().size() == 1)))
+      .thenReturn(impact);
+
+    MockHttpRequest request = MockHttpRequest
+      .post("/" + PathWritePermissionResource.PATH + "/space/repo/preview")
+      .contentType(MediaType.APPLICATION_JSON)
+      .content(PERMISSIONS_JSON.getBytes())
+      .accept(MediaType.APPLICATION_JSON);
+
+    dispatcher.invoke(request, response);
+    assertThat(response.getStatus())
+      .isEqualTo(HttpServletResponse.SC_OK);
+    assertThat(response.getContentAsString())
+      .contains("\"name\":\"main\",\"files\":100")
+      .contains("\"name\":\"developers\",\"group\":true,\"becomingReadOnly\":42,\"becomingWritable\":0")
+      .contains("\"readOnlySamples\":[\"src/Main.java\"]");
+  }
+
+  private PathWritePermissionSnapshot mockSnapshot() {
+    PathWritePermissionSnapshot snapshot = mock(PathWritePermissionSnapshot.class);
+    PathWritePermissionSnapshot.Glob allow = mock(PathWritePermissionSnapshot.Glob.class);
+    lenient().when(allow.getPattern()).thenReturn("src/*");
+    PathWritePermissionSnapshot.Glob deny = mock(PathWritePermissionSnapshot.Glob.class);
+    lenient().when(deny.getPattern()).thenReturn("src/main/*");
+    lenient().when(deny.isExclude()).thenReturn(true);
+    when(snapshot.getVersion()).thenReturn("1337");
+    lenient().when(snapshot.isEnabled()).thenReturn(true);
+    lenient().when(snapshot.getAllow()).thenReturn(Collections.singletonList(allow));
+    lenient().when(snapshot.getDeny()).thenReturn(Collections.singletonList(deny));
+    when(service.getSnapshot("space", "repo", "main")).thenReturn(snapshot);
+    return snapshot;
+  }
+
+  private List<PathWritePermission> createPermissions(String... paths) {
+    List<PathWritePermission> permissions = new ArrayList<>();
+    for (String path : paths) {
+      permissions.add(new PathWritePermission(path, BRANCH, PathWritePermission.BranchScope.INCLUDE, "developers", true, PathWritePermission.Type.ALLOW));
+    }
+    return permissions;
+  }
+
+  private void mockRuleSet() {
+    PathWritePermissions permissions = new PathWritePermissions();
+    permissions.setEnabled(true);
+    permissions.getPermissions().add(new PathWritePermission(PATH, BRANCH, PathWritePermission.BranchScope.INCLUDE, "user_1", false, PathWritePermission.Type.ALLOW));
+    when(ruleSet.getVersion()).thenReturn("42");
+    lenient().when(ruleSet.getPermissions()).thenReturn(permissions);
+    when(service.getRuleSet("space", "repo")).thenReturn(ruleSet);
+  }
 }
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp.api;
+
+import org.jboss.resteasy.mock.MockHttpRequest;
+import org.jboss.resteasy.mock.MockHttpResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.pathwp.service.PathWritePermission;
+import sonia.scm.pathwp.service.PathWritePermissionTemplateService;
+import sonia.scm.web.RestDispatcher;
+
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.ws.rs.core.MediaType;
+import java.net.URISyntaxException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+class PathWritePermissionTemplateResourceTest {
+
+  public static final String TEMPLATE_JSON = "{\"permissions\":" +
+    "[{\"path\":\"src/*\"," +
+    "\"branch\":\"*\"," +
+    "\"branchScope\":\"INCLUDE\"," +
+    "\"name\":\"developers\"," +
+    "\"group\":true," +
+    "\"type\":\"ALLOW\"" +
+    "}" +
+    "]" +
+    "}";
+
+  @Mock
+  PathWritePermissionTemplateService service;
+
+  private final PathWritePermissionMapper mapper = new PathWritePermissionMapperImpl();
+
+  private RestDispatcher dispatcher;
+  private final MockHttpResponse response = new MockHttpResponse();
+
+  @BeforeEach
+  void init() {
+    PathWritePermissionTemplateResource resource = new PathWritePermissionTemplateResource(service, mapper);
+    dispatcher = new RestDispatcher();
+    dispatcher.addSingletonResource(resource);
+  }
+
+  @Test
+  void shouldPutGlobalTemplate() throws URISyntaxException {
+    MockHttpRequest request = MockHttpRequest
+      .put("/" + PathWritePermissionTemplateResource.PATH + "/global")
+      .contentType(MediaType.APPLICATION_JSON)
+      .content(TEMPLATE_JSON.getBytes());
+
+    dispatcher.invoke(request, response);
+    assertThat(response.getStatus())
+      .isEqualTo(HttpServletResponse.SC_NO_CONTENT);
+    verify(service).setTemplate(isNull(), argThat(permissions -> {
+      assertThat(permissions).extracting("path", "name", "group", "type")
+        .containsExactly(tuple("src/*", "developers", true, PathWritePermission.Type.ALLOW));
+      return true;
+    }));
+  }
+
+  @Test
+  void shouldPutNamespaceTemplate() throws URISyntaxException {
+    MockHttpRequest request = MockHttpRequest
+      .put("/" + PathWritePermissionTemplateResource.PATH + "/namespaces/hitchhiker")
+      .contentType(MediaType.APPLICATION_JSON)
+      .content(TEMPLATE_JSON.getBytes());
+
+    dispatcher.invoke(request, response);
+    assertThat(response.getStatus())
+      .isEqualTo(HttpServletResponse.SC_NO_CONTENT);
+    verify(service).setTemplate(eq("hitchhiker"), argThat(permissions -> permissions.size() == 1));
+  }
+
+  @Test
+  void shouldFailPutGlobalTemplateWithoutBody() throws URISyntaxException {
+    MockHttpRequest request = MockHttpRequest
+      .put("/" + PathWritePermissionTemplateResource.PATH + "/global")
+      .contentType(MediaType.APPLICATION_JSON);
+
+    dispatcher.invoke(request, response);
+    assertThat(response.getStatus())
+      .isEqualTo(HttpServletResponse.SC_BAD_REQUEST);
+    verify(service, never()).setTemplate(any(), any());
+  }
+
+  @Test
+  void shouldFailPutNamespaceTemplateWithoutBody() throws URISyntaxException {
+    MockHttpRequest request = MockHttpRequest
+      .put("/" + PathWritePermissionTemplateResource.PATH + "/namespaces/hitchhiker")
+      .contentType(MediaType.APPLICATION_JSON);
+
+    dispatcher.invoke(request, response);
+    assertThat(response.getStatus())
+      .isEqualTo(HttpServletResponse.SC_BAD_REQUEST);
+    verify(service, never()).setTemplate(any(), any());
+  }
+
+  @Test
+  void shouldFailPutTemplateWithoutPermissions() throws URISyntaxException {
+    MockHttpRequest request = MockHttpRequest
+      .put("/" + PathWritePermissionTemplateResource.PATH + "/global")
+      .contentType(MediaType.APPLICATION_JSON)
+      .content("{\"permissions\":null}".getBytes());
+
+    dispatcher.invoke(request, response);
+    assertThat(response.getStatus())
+      .isEqualTo(HttpServletResponse.SC_BAD_REQUEST);
+    verify(service, never()).setTemplate(any(), any());
+  }
+}
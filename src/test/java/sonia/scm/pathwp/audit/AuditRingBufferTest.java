@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp.audit;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AuditRingBufferTest {
+
+  @Test
+  void shouldRoundCapacityUpToPowerOfTwo() {
+    assertThat(new AuditRingBuffer<>(5).capacity()).isEqualTo(8);
+    assertThat(new AuditRingBuffer<>(8).capacity()).isEqualTo(8);
+  }
+
+  @Test
+  void shouldRejectItemsIfFull() {
+    AuditRingBuffer<String> buffer = new AuditRingBuffer<>(2);
+
+    assertThat(buffer.offer("a")).isTrue();
+    assertThat(buffer.offer("b")).isTrue();
+    assertThat(buffer.offer("c")).isFalse();
+
+    List<String> drained = new ArrayList<>();
+    assertThat(buffer.drain(drained::add, 10)).isEqualTo(2);
+    assertThat(drained).containsExactly("a", "b");
+    assertThat(buffer.offer("c")).isTrue();
+  }
+
+  @Test
+  void shouldDrainInBatches() {
+    AuditRingBuffer<Integer> buffer = new AuditRingBuffer<>(8);
+    for (int i = 0; i < 5; i++) {
+      buffer.offer(i);
+    }
+
+    List<Integer> drained = new ArrayList<>();
+    assertThat(buffer.drain(drained::add, 3)).isEqualTo(3);
+    assertThat(buffer.drain(drained::add, 3)).isEqualTo(2);
+    assertThat(drained).containsExactly(0, 1, 2, 3, 4);
+  }
+
+  @Test
+  void shouldPassEveryItemOfConcurrentProducersExactlyOnce() throws Exception {
+    AuditRingBuffer<Integer> buffer = new AuditRingBuffer<>(64);
+    int producers = 4;
+    int itemsPerProducer = 10_000;
+    ExecutorService executor = Executors.newFixedThreadPool(producers);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int p = 0; p < producers; p++) {
+        int offset = p * itemsPerProducer;
+        futures.add(executor.submit(() -> {
+          for (int i = 0; i < itemsPerProducer; i++) {
+            while (!buffer.offer(offset + i)) {
+              Thread.yield();
+            }
+          }
+        }));
+      }
+
+      Set<Integer> received = new HashSet<>();
+      List<Integer> duplicates = new ArrayList<>();
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+      while (received.size() + duplicates.size() < producers * itemsPerProducer && System.nanoTime() < deadline) {
+        buffer.drain(item -> {
+          if (!received.add(item)) {
+            duplicates.add(item);
+          }
+        }, 16);
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+
+      assertThat(duplicates).isEmpty();
+      assertThat(received).hasSize(producers * itemsPerProducer);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
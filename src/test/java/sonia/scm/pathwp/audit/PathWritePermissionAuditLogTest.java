@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp.audit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PathWritePermissionAuditLogTest {
+
+  @TempDir
+  Path directory;
+
+  @Test
+  void shouldWriteRecordsAsCompressedJsonLines() throws IOException {
+    PathWritePermissionAuditLog auditLog = new PathWritePermissionAuditLog(directory, true, false, 16, 1024 * 1024, 5);
+
+    auditLog.record(new AuditRecord("push", "hitchhiker/hog", "trillian").verdict(AuditRecord.Verdict.DENIED).denied("main", "src/secret.txt"));
+    auditLog.record(new AuditRecord("editor", "hitchhiker/hog", "dent").verdict(AuditRecord.Verdict.DENIED).denied("main", "docs/index.md"));
+    auditLog.close();
+
+    List<String> lines = readLines();
+    assertThat(lines).hasSize(2);
+    assertThat(lines.get(0)).contains("\"user\":\"trillian\"", "\"verdict\":\"DENIED\"", "src/secret.txt");
+    assertThat(lines.get(1)).contains("\"source\":\"editor\"", "docs/index.md");
+    assertThat(auditLog.getWrittenCount()).isEqualTo(2);
+    assertThat(auditLog.getDroppedCount()).isZero();
+  }
+
+  @Test
+  void shouldRotateFilesAndKeepOnlyNewest() throws IOException {
+    PathWritePermissionAuditLog auditLog = new PathWritePermissionAuditLog(directory, true, false, 1024, 1, 2);
+
+    for (int i = 0; i < 5; i++) {
+      auditLog.record(new AuditRecord("push", "hitchhiker/hog", "user-" + i).verdict(AuditRecord.Verdict.DENIED));
+    }
+    auditLog.close();
+
+    assertThat(listFiles()).hasSize(2);
+    assertThat(readLines()).hasSize(2).last().asString().contains("user-4");
+  }
+
+  @Test
+  void shouldFinishFileWhenContextIsDestroyed() throws IOException {
+    PathWritePermissionAuditLog auditLog = new PathWritePermissionAuditLog(directory, true, false, 16, 1024 * 1024, 5);
+    auditLog.record(new AuditRecord("push", "hitchhiker/hog", "trillian").verdict(AuditRecord.Verdict.DENIED));
+
+    new PathWritePermissionAuditLogShutdown(auditLog).contextDestroyed(null);
+
+    List<Path> files = listFiles();
+    assertThat(files).hasSize(1);
+    byte[] content;
+    try (GZIPInputStream input = new GZIPInputStream(Files.newInputStream(files.get(0)))) {
+      // fails with an EOFException, if the gzip trailer is missing
+      content = input.readAllBytes();
+    }
+    assertThat(new String(content, StandardCharsets.UTF_8)).contains("\"user\":\"trillian\"").endsWith("\n");
+    assertThat(auditLog.getWrittenCount()).isEqualTo(1);
+  }
+
+  @Test
+  void shouldIgnoreRecordsAfterClose() throws IOException {
+    PathWritePermissionAuditLog auditLog = new PathWritePermissionAuditLog(directory, true, false, 16, 1024 * 1024, 5);
+    auditLog.record(new AuditRecord("push", "hitchhiker/hog", "trillian").verdict(AuditRecord.Verdict.DENIED));
+    auditLog.close();
+
+    auditLog.record(new AuditRecord("push", "hitchhiker/hog", "dent").verdict(AuditRecord.Verdict.DENIED));
+    auditLog.close();
+
+    assertThat(readLines()).hasSize(1);
+  }
+
+  @Test
+  void shouldIgnoreRecordsIfDisabled() throws IOException {
+    PathWritePermissionAuditLog auditLog = new PathWritePermissionAuditLog(directory, false, true, 16, 1024, 5);
+
+    auditLog.record(new AuditRecord("push", "hitchhiker/hog", "trillian").verdict(AuditRecord.Verdict.DENIED));
+    auditLog.close();
+
+    assertThat(auditLog.isAuditingAllowed()).isFalse();
+    assertThat(listFiles()).isEmpty();
+  }
+
+  @Test
+  void shouldLimitRecordedPaths() {
+    AuditRecord auditRecord = new AuditRecord("push", "hitchhiker/hog", "trillian");
+    for (int i = 0; i < AuditRecord.MAX_PATHS + 10; i++) {
+      auditRecord.allowed("main", "src/" + i);
+    }
+
+    assertThat(auditRecord.getAllowed()).hasSize(AuditRecord.MAX_PATHS);
+    assertThat(auditRecord.getAllowedCount()).isEqualTo(AuditRecord.MAX_PATHS + 10L);
+  }
+
+  private List<Path> listFiles() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.sorted().collect(Collectors.toList());
+    }
+  }
+
+  private List<String> readLines() throws IOException {
+    List<String> lines = new ArrayList<>();
+    for (Path file : listFiles()) {
+      try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(Files.newInputStream(file)), StandardCharsets.UTF_8))) {
+        reader.lines().forEach(lines::add);
+      }
+    }
+    return lines;
+  }
+}
@@ -27,19 +27,22 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.pathwp.audit.PathWritePermissionAuditLog;
 import sonia.scm.pathwp.service.PathWritePermissionService;
+import sonia.scm.pathwp.service.PathWritePrivileges;
 import sonia.scm.repository.Repository;
 import sonia.scm.repository.RepositoryManager;
 import sonia.scm.user.User;
 
 import java.util.Collection;
+import java.util.stream.Collectors;
 
 import static java.util.Arrays.asList;
 import static java.util.Collections.singleton;
 import static java.util.Optional.of;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.argThat;
-import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -54,6 +57,8 @@ class PathWritePermissionChangeGuardTest {
   PathWritePermissionService service;
   @Mock
   RepositoryManager repositoryManager;
+  @Mock
+  PathWritePermissionAuditLog auditLog;
   @InjectMocks
   PathWritePermissionChangeGuard changeGuard;
 
@@ -71,8 +76,13 @@ class PathWritePermissionChangeGuardTest {
 
   @BeforeEach
   void mockService() {
-    lenient().doReturn(true).when(service).isPrivileged(eq(USER), eq(REPOSITORY), argThat(argument -> !argument.contains("invalid")), argThat(argument -> !argument.contains("invalid")));
-    lenient().doReturn(false).when(service).isPrivileged(eq(USER), eq(REPOSITORY), argThat(argument -> argument.contains("invalid")), argThat(argument -> argument.contains("invalid")));
+    PathWritePrivileges privileges = mock(PathWritePrivileges.class);
+    lenient().when(privileges.getDeniedPaths(any(), any())).thenAnswer(invocation -> {
+      Collection<String> paths = invocation.getArgument(1);
+      return paths.stream().filter(path -> path.contains("invalid")).collect(Collectors.toList());
+    });
+    lenient().when(privileges.isPrivilegedForAnythingBelow(any(), argThat(argument -> !argument.contains("invalid")))).thenReturn(true);
+    when(service.getPrivileges(USER, REPOSITORY)).thenReturn(privileges);
   }
 
   @Test
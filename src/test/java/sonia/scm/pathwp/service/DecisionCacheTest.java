@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DecisionCacheTest {
+
+  private final AtomicInteger evaluations = new AtomicInteger();
+
+  @Test
+  void shouldReuseVerdict() {
+    DecisionCache cache = new DecisionCache(10);
+
+    assertThat(cache.isPrivileged("1", "trillian", "main", "CHANGELOG.md", this::evaluate)).isTrue();
+    assertThat(cache.isPrivileged("1", "trillian", "main", "CHANGELOG.md", this::evaluate)).isTrue();
+
+    assertThat(evaluations).hasValue(1);
+    assertThat(cache.getStats().hitCount()).isEqualTo(1);
+  }
+
+  @Test
+  void shouldEvaluateAgainForNewVersion() {
+    DecisionCache cache = new DecisionCache(10);
+
+    cache.isPrivileged("1", "trillian", "main", "CHANGELOG.md", this::evaluate);
+    cache.isPrivileged("2", "trillian", "main", "CHANGELOG.md", this::evaluate);
+
+    assertThat(evaluations).hasValue(2);
+  }
+
+  @Test
+  void shouldDistinguishPrincipalsAndBranches() {
+    DecisionCache cache = new DecisionCache(10);
+
+    cache.isPrivileged("1", "trillian", "main", "CHANGELOG.md", this::evaluate);
+    cache.isPrivileged("1", "dent", "main", "CHANGELOG.md", this::evaluate);
+    cache.isPrivileged("1", "trillian", "develop", "CHANGELOG.md", this::evaluate);
+
+    assertThat(evaluations).hasValue(3);
+  }
+
+  @Test
+  void shouldEvictLeastRecentlyUsedVerdicts() {
+    DecisionCache cache = new DecisionCache(1);
+
+    cache.isPrivileged("1", "trillian", "main", "a", this::evaluate);
+    cache.isPrivileged("1", "trillian", "main", "b", this::evaluate);
+
+    assertThat(cache.size()).isEqualTo(1);
+    assertThat(cache.getStats().evictionCount()).isEqualTo(1);
+  }
+
+  @Test
+  void shouldAlwaysEvaluateIfDisabled() {
+    DecisionCache cache = new DecisionCache(0);
+
+    cache.isPrivileged("1", "trillian", "main", "CHANGELOG.md", this::evaluate);
+    cache.isPrivileged("1", "trillian", "main", "CHANGELOG.md", this::evaluate);
+
+    assertThat(evaluations).hasValue(2);
+  }
+
+  private boolean evaluate() {
+    evaluations.incrementAndGet();
+    return true;
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Answers;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.repository.BrowserResult;
+import sonia.scm.repository.FileObject;
+import sonia.scm.repository.api.BrowseCommandBuilder;
+import sonia.scm.repository.api.RepositoryService;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+@ExtendWith(MockitoExtension.class)
+class FileTreeWalkerTest {
+
+  @Mock
+  private RepositoryService repositoryService;
+
+  private final BrowseCommandBuilder browseCommand = mock(BrowseCommandBuilder.class, withSettings().defaultAnswer(Answers.RETURNS_SELF));
+  private final Map<String, List<FileObject>> directories = new HashMap<>();
+  private final List<String> visited = new ArrayList<>();
+
+  private String path;
+  private int offset;
+  private int limit;
+
+  @BeforeEach
+  void mockBrowseCommand() throws IOException {
+    directories.put("", asList(file("README.md"), directory("src"), directory("docs")));
+    directories.put("src", asList(file("src/a"), file("src/b"), file("src/c"), directory("src/main")));
+    directories.put("src/main", asList(file("src/main/d")));
+    directories.put("docs", new ArrayList<>());
+
+    when(repositoryService.getBrowseCommand()).thenReturn(browseCommand);
+    when(browseCommand.setPath(any())).thenAnswer(invocation -> {
+      path = invocation.getArgument(0);
+      return browseCommand;
+    });
+    when(browseCommand.setOffset(anyInt())).thenAnswer(invocation -> {
+      offset = invocation.getArgument(0);
+      return browseCommand;
+    });
+    when(browseCommand.setLimit(anyInt())).thenAnswer(invocation -> {
+      limit = invocation.getArgument(0);
+      return browseCommand;
+    });
+    when(browseCommand.getBrowserResult()).thenAnswer(invocation -> browse());
+  }
+
+  @Test
+  void shouldVisitEveryFileInPages() throws IOException {
+    boolean complete = new FileTreeWalker(repositoryService, 2).walk("42", visited::add);
+
+    assertThat(complete).isTrue();
+    assertThat(visited).containsExactlyInAnyOrder("README.md", "src/a", "src/b", "src/c", "src/main/d");
+    verify(browseCommand, times(2)).setPath("src");
+    verify(browseCommand, times(2)).setOffset(2);
+    verify(browseCommand, never()).setRecursive(true);
+  }
+
+  @Test
+  void shouldStopIfVisitorRejectsFile() throws IOException {
+    boolean complete = new FileTreeWalker(repositoryService, 2).walk("42", file -> {
+      visited.add(file);
+      return visited.size() < 2;
+    });
+
+    assertThat(complete).isFalse();
+    assertThat(visited).hasSize(2);
+  }
+
+  private BrowserResult browse() {
+    List<FileObject> children = directories.get(path);
+    FileObject directory = directory(path);
+    int end = Math.min(children.size(), offset + limit);
+    directory.setChildren(new ArrayList<>(children.subList(Math.min(offset, end), end)));
+    directory.setTruncated(end < children.size());
+    return new BrowserResult("42", directory);
+  }
+
+  private static FileObject directory(String path) {
+    FileObject directory = file(path);
+    directory.setDirectory(true);
+    return directory;
+  }
+
+  private static FileObject file(String path) {
+    FileObject file = new FileObject();
+    file.setName(path.substring(path.lastIndexOf('/') + 1));
+    file.setPath(path);
+    return file;
+  }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp.service;
+
+import org.apache.shiro.subject.Subject;
+import org.apache.shiro.util.ThreadContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Answers;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.ScmConstraintViolationException;
+import sonia.scm.group.Group;
+import sonia.scm.group.GroupCollector;
+import sonia.scm.group.GroupManager;
+import sonia.scm.repository.Branch;
+import sonia.scm.repository.Branches;
+import sonia.scm.repository.BrowserResult;
+import sonia.scm.repository.FileObject;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryManager;
+import sonia.scm.repository.RepositoryTestData;
+import sonia.scm.repository.api.BrowseCommandBuilder;
+import sonia.scm.repository.api.Command;
+import sonia.scm.repository.api.RepositoryService;
+import sonia.scm.repository.api.RepositoryServiceFactory;
+import sonia.scm.store.InMemoryConfigurationStoreFactory;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+@ExtendWith(MockitoExtension.class)
+class PathWritePermissionImpactServiceTest {
+
+  private static final Repository REPOSITORY = RepositoryTestData.createHeartOfGold();
+
+  static {
+    REPOSITORY.setId("id-1");
+  }
+
+  @Mock
+  private RepositoryManager repositoryManager;
+  @Mock
+  private GroupCollector groupCollector;
+  @Mock
+  private GroupManager groupManager;
+  @Mock
+  private RepositoryServiceFactory repositoryServiceFactory;
+  @Mock(answer = Answers.RETURNS_DEEP_STUBS)
+  private RepositoryService repositoryService;
+  @Mock
+  private Subject subject;
+
+  private final BrowseCommandBuilder browseCommand = mock(BrowseCommandBuilder.class, withSettings().defaultAnswer(Answers.RETURNS_SELF));
+  private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+  private PathWritePermissionService service;
+  private PathWritePermissionImpactService impactService;
+
+  @BeforeEach
+  void initService() throws IOException {
+    ThreadContext.bind(subject);
+    InMemoryConfigurationStoreFactory storeFactory = new InMemoryConfigurationStoreFactory();
+    service = new PathWritePermissionService(storeFactory, repositoryManager, groupCollector, new RuleSetCache(), new PathWritePermissionTemplateService(storeFactory), new DecisionCache(), new PathWritePermissionStatistics());
+    impactService = new PathWritePermissionImpactService(service, repositoryServiceFactory, groupCollector, groupManager, executor, 100);
+
+    when(repositoryManager.get(REPOSITORY.getNamespaceAndName())).thenReturn(REPOSITORY);
+    lenient().when(repositoryServiceFactory.create(REPOSITORY)).thenReturn(repositoryService);
+    lenient().when(repositoryService.isSupported(Command.BRANCHES)).thenReturn(true);
+    lenient().when(repositoryService.getBranchesCommand().getBranches())
+      .thenReturn(new Branches(Branch.normalBranch("main", "1"), Branch.normalBranch("develop", "2")));
+    lenient().when(repositoryService.getBrowseCommand()).thenReturn(browseCommand);
+    mockTree(directory("",
+      file("README.md"),
+      directory("src", file("src/Main.java"), directory("src/secret", file("src/secret/key.txt"))),
+      directory("docs", file("docs/index.md"))
+    ));
+
+    service.setPermissions(REPOSITORY, permissions(
+      new PathWritePermission("*", "*", PathWritePermission.BranchScope.INCLUDE, "trillian", false, PathWritePermission.Type.ALLOW)
+    ));
+  }
+
+  @AfterEach
+  void tearDown() {
+    executor.shutdownNow();
+    ThreadContext.unbindSubject();
+  }
+
+  @Test
+  void shouldReportFilesBecomingReadOnlyOnAffectedBranches() throws IOException {
+    PathWritePermissionImpact impact = impactService.preview(REPOSITORY.getNamespace(), REPOSITORY.getName(), permissions(
+      new PathWritePermission("*", "*", PathWritePermission.BranchScope.INCLUDE, "trillian", false, PathWritePermission.Type.ALLOW),
+      new PathWritePermission("src/secret/*", "main", PathWritePermission.BranchScope.INCLUDE, "trillian", false, PathWritePermission.Type.DENY)
+    ));
+
+    assertThat(impact.getBranches()).extracting("name", "files", "complete").containsExactly(tuple("main", 4L, true));
+    assertThat(impact.getBranches().get(0).getPrincipals())
+      .extracting("name", "group", "becomingReadOnly", "becomingWritable", "readOnlySamples")
+      .containsExactly(tuple("trillian", false, 1L, 0L, List.of("src/secret/key.txt")));
+    verify(browseCommand, atLeastOnce()).setRevision("main");
+    verify(browseCommand, never()).setRevision("develop");
+  }
+
+  @Test
+  void shouldReportGroupsForWhichFilesBecomeWritable() throws IOException {
+    PathWritePermissionImpact impact = impactService.preview(REPOSITORY.getNamespace(), REPOSITORY.getName(), permissions(
+      new PathWritePermission("*", "*", PathWritePermission.BranchScope.INCLUDE, "trillian", false, PathWritePermission.Type.ALLOW),
+      new PathWritePermission("docs/*", "*", PathWritePermission.BranchScope.INCLUDE, "developers", true, PathWritePermission.Type.ALLOW)
+    ));
+
+    assertThat(impact.getBranches()).extracting("name").containsExactly("main", "develop");
+    assertThat(impact.getBranches().get(1).getPrincipals())
+      .extracting("name", "group", "becomingReadOnly", "becomingWritable", "writableSamples")
+      .containsExactly(tuple("developers", true, 0L, 1L, List.of("docs/index.md")));
+  }
+
+  @Test
+  void shouldLimitEvaluatedFiles() throws IOException {
+    impactService = new PathWritePermissionImpactService(service, repositoryServiceFactory, groupCollector, groupManager, executor, 2);
+
+    PathWritePermissionImpact impact = impactService.preview(REPOSITORY.getNamespace(), REPOSITORY.getName(), permissions(
+      new PathWritePermission("*", "*", PathWritePermission.BranchScope.INCLUDE, "trillian", false, PathWritePermission.Type.ALLOW),
+      new PathWritePermission("src/secret/*", "main", PathWritePermission.BranchScope.INCLUDE, "trillian", false, PathWritePermission.Type.DENY)
+    ));
+
+    assertThat(impact.getBranches()).extracting("name", "files", "complete", "limit").containsExactly(tuple("main", 2L, false, 2L));
+    assertThat(impact.isComplete()).isFalse();
+    verify(browseCommand, never()).setRecursive(true);
+  }
+
+  @Test
+  void shouldEvaluateAllFilesWithoutLimit() throws IOException {
+    impactService = new PathWritePermissionImpactService(service, repositoryServiceFactory, groupCollector, groupManager, executor, 0);
+
+    PathWritePermissionImpact impact = impactService.preview(REPOSITORY.getNamespace(), REPOSITORY.getName(), permissions(
+      new PathWritePermission("*", "*", PathWritePermission.BranchScope.INCLUDE, "trillian", false, PathWritePermission.Type.ALLOW),
+      new PathWritePermission("src/secret/*", "main", PathWritePermission.BranchScope.INCLUDE, "trillian", false, PathWritePermission.Type.DENY)
+    ));
+
+    assertThat(impact.getBranches()).extracting("name", "files", "complete", "limit").containsExactly(tuple("main", 4L, true, 0L));
+    assertThat(impact.isComplete()).isTrue();
+  }
+
+  @Test
+  void shouldEvaluateUsersWithTheirGroups() throws IOException {
+    when(groupCollector.collect("trillian")).thenReturn(Set.of("developers"));
+
+    PathWritePermissionImpact impact = impactService.preview(REPOSITORY.getNamespace(), REPOSITORY.getName(), permissions(
+      new PathWritePermission("*", "*", PathWritePermission.BranchScope.INCLUDE, "developers", true, PathWritePermission.Type.ALLOW)
+    ));
+
+    // trillian keeps the permissions through the group, only the group itself is reported, because its members
+    // are not known
+    assertThat(impact.getBranches().get(0).getPrincipals())
+      .extracting("name", "group", "becomingReadOnly", "becomingWritable")
+      .containsExactly(tuple("developers", true, 0L, 4L));
+  }
+
+  @Test
+  void shouldReportMembersOfGroups() throws IOException {
+    when(groupManager.get("developers")).thenReturn(new Group("xml", "developers", "dent", "arthur"));
+    when(groupCollector.collect("dent")).thenReturn(Set.of("developers"));
+    when(groupCollector.collect("arthur")).thenReturn(Set.of("developers"));
+    when(groupCollector.collect("trillian")).thenReturn(Set.of());
+
+    PathWritePermissionImpact impact = impactService.preview(REPOSITORY.getNamespace(), REPOSITORY.getName(), permissions(
+      new PathWritePermission("*", "*", PathWritePermission.BranchScope.INCLUDE, "trillian", false, PathWritePermission.Type.ALLOW),
+      new PathWritePermission("docs/*", "*", PathWritePermission.BranchScope.INCLUDE, "developers", true, PathWritePermission.Type.ALLOW)
+    ));
+
+    assertThat(impact.getBranches().get(0).getPrincipals())
+      .extracting("name", "group", "becomingReadOnly", "becomingWritable", "writableSamples")
+      .containsExactly(
+        tuple("arthur", false, 0L, 1L, List.of("docs/index.md")),
+        tuple("dent", false, 0L, 1L, List.of("docs/index.md"))
+      );
+  }
+
+  @Test
+  void shouldRejectInvalidRules() {
+    PathWritePermissions permissions = permissions(
+      new PathWritePermission("src/[main", "*", PathWritePermission.BranchScope.INCLUDE, "trillian", false, PathWritePermission.Type.ALLOW)
+    );
+
+    assertThatThrownBy(() -> impactService.preview(REPOSITORY.getNamespace(), REPOSITORY.getName(), permissions))
+      .isInstanceOf(ScmConstraintViolationException.class);
+    verify(repositoryServiceFactory, never()).create(any(Repository.class));
+  }
+
+  @Test
+  void shouldNotBrowseForUnchangedConfiguration() throws IOException {
+    PathWritePermissionImpact impact = impactService.preview(REPOSITORY.getNamespace(), REPOSITORY.getName(), permissions(
+      new PathWritePermission("*", "*", PathWritePermission.BranchScope.INCLUDE, "trillian", false, PathWritePermission.Type.ALLOW)
+    ));
+
+    assertThat(impact.getBranches()).isEmpty();
+    verify(repositoryServiceFactory, never()).create(any(Repository.class));
+  }
+
+  private static PathWritePermissions permissions(PathWritePermission... rules) {
+    PathWritePermissions permissions = new PathWritePermissions();
+    permissions.setEnabled(true);
+    permissions.getPermissions().addAll(asList(rules));
+    return permissions;
+  }
+
+  private void mockTree(FileObject root) throws IOException {
+    Map<String, FileObject> directories = new HashMap<>();
+    collectDirectories(root, directories);
+    AtomicReference<String> path = new AtomicReference<>();
+    lenient().when(browseCommand.setPath(any())).thenAnswer(invocation -> {
+      path.set(invocation.getArgument(0));
+      return browseCommand;
+    });
+    lenient().when(browseCommand.getBrowserResult())
+      .thenAnswer(invocation -> new BrowserResult("1", directories.get(path.get())));
+  }
+
+  private static void collectDirectories(FileObject directory, Map<String, FileObject> directories) {
+    directories.put(directory.getPath(), directory);
+    for (FileObject child : directory.getChildren()) {
+      if (child.isDirectory()) {
+        collectDirectories(child, directories);
+      }
+    }
+  }
+
+  private static FileObject directory(String path, FileObject... children) {
+    FileObject directory = file(path);
+    directory.setDirectory(true);
+    directory.setChildren(asList(children));
+    return directory;
+  }
+
+  private static FileObject file(String path) {
+    FileObject file = new FileObject();
+    file.setName(path.substring(path.lastIndexOf('/') + 1));
+    file.setPath(path);
+    return file;
+  }
+}
@@ -19,6 +19,7 @@ package sonia.scm.pathwp.service;
 import com.github.sdorra.shiro.SubjectAware;
 import com.google.common.collect.ImmutableSet;
 import org.apache.shiro.authz.AuthorizationException;
+import org.apache.shiro.subject.SimplePrincipalCollection;
 import org.apache.shiro.subject.Subject;
 import org.apache.shiro.util.ThreadContext;
 import org.junit.jupiter.api.AfterEach;
@@ -28,19 +29,35 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.ConcurrentModificationException;
+import sonia.scm.ScmConstraintViolationException;
 import sonia.scm.group.GroupCollector;
 import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryManager;
 import sonia.scm.repository.RepositoryTestData;
 import sonia.scm.store.ConfigurationStore;
 import sonia.scm.store.ConfigurationStoreFactory;
 import sonia.scm.store.InMemoryConfigurationStoreFactory;
 import sonia.scm.user.User;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
 class PathWritePermissionServiceTest {
@@ -61,8 +78,12 @@ class PathWritePermissionServiceTest {
   private GroupCollector groupCollector;
   @Mock
   private Subject subject;
+  @Mock
+  private RepositoryManager repositoryManager;
 
   PathWritePermissionService service;
+  PathWritePermissionTemplateService templateService;
+  RuleSetCache ruleSetCache;
   public static final Repository REPOSITORY = RepositoryTestData.createHeartOfGold();
 
   static {
@@ -72,7 +93,9 @@ class PathWritePermissionServiceTest {
   @BeforeEach
   public void init() {
     storeFactory = new InMemoryConfigurationStoreFactory();
-    service = new PathWritePermissionService(storeFactory, null, groupCollector);
+    templateService = new PathWritePermissionTemplateService(storeFactory);
+    ruleSetCache = new RuleSetCache();
+    service = new PathWritePermissionService(storeFactory, repositoryManager, groupCollector, ruleSetCache, templateService, new DecisionCache(), new PathWritePermissionStatistics());
     store = storeFactory.withType(PathWritePermissions.class).withName("pathWritePermission").forRepository(REPOSITORY).build();
     lenient().when(groupCollector.collect(anyString())).thenReturn(ImmutableSet.of(GROUP_NAME));
 
@@ -134,6 +157,243 @@ class PathWritePermissionServiceTest {
       assertThat(privileged).isTrue();
     }
 
+    @Test
+    void shouldNotWriteStoreOnRead() {
+      service.isPrivileged(USER, REPOSITORY, BRANCH, PATH);
+
+      assertThat(store.get()).isNull();
+    }
+
+    @Test
+    void shouldShareRuleSetBetweenReads() {
+      RuleSet first = service.getRuleSet(REPOSITORY);
+      RuleSet second = service.getRuleSet(REPOSITORY);
+
+      assertThat(second).isSameAs(first);
+    }
+
+    @Test
+    void shouldPublishNewRuleSetOnWrite() {
+      RuleSet before = service.getRuleSet(REPOSITORY);
+
+      PathWritePermissions permissions = new PathWritePermissions();
+      permissions.getPermissions().add(createPathWritePermission());
+      permissions.setEnabled(true);
+      service.setPermissions(REPOSITORY, permissions);
+
+      RuleSet after = service.getRuleSet(REPOSITORY);
+      assertThat(after.getVersion()).isNotEqualTo(before.getVersion());
+      assertThat(after.isEnabled()).isTrue();
+    }
+
+    @Test
+    void shouldNotBeAffectedByModificationsAfterWrite() {
+      PathWritePermissions permissions = new PathWritePermissions();
+      permissions.getPermissions().add(createPathWritePermission());
+      permissions.setEnabled(true);
+      service.setPermissions(REPOSITORY, permissions);
+
+      permissions.getPermissions().clear();
+
+      assertThat(service.isPrivileged(USER, REPOSITORY, BRANCH, PATH)).isTrue();
+    }
+
+    @Test
+    void shouldRejectInvalidPatternsWithoutStoringThem() {
+      PathWritePermissions permissions = new PathWritePermissions();
+      permissions.getPermissions().add(new PathWritePermission("src/{main,test", BRANCH, PathWritePermission.BranchScope.INCLUDE, USERNAME, false, PathWritePermission.Type.ALLOW));
+      permissions.setEnabled(true);
+
+      assertThrows(ScmConstraintViolationException.class, () -> service.setPermissions(REPOSITORY, permissions));
+
+      assertThat(store.getOptional()).isEmpty();
+      assertThat(service.isPluginEnabled(REPOSITORY)).isFalse();
+    }
+
+    @Test
+    void shouldIgnoreInvalidPatternsOfStoredConfiguration() {
+      PathWritePermissions permissions = new PathWritePermissions();
+      permissions.getPermissions().add(new PathWritePermission("src/{main,test", BRANCH, PathWritePermission.BranchScope.INCLUDE, USERNAME, false, PathWritePermission.Type.ALLOW));
+      permissions.getPermissions().add(createPathWritePermission());
+      permissions.setEnabled(true);
+      store.set(permissions);
+
+      assertThat(service.isPluginEnabled(REPOSITORY)).isTrue();
+      assertThat(service.getRuleSet(REPOSITORY).getPermissions().getPermissions()).hasSize(2);
+      assertThat(service.isPrivileged(USER, REPOSITORY, BRANCH, "src/{main,test")).isFalse();
+      assertThat(service.isPrivileged(USER, REPOSITORY, BRANCH, PATH)).isTrue();
+    }
+
+    @Test
+    void shouldReadDisabledConfigurationWithInvalidPatterns() {
+      PathWritePermissions permissions = new PathWritePermissions();
+      permissions.getPermissions().add(new PathWritePermission("src/[", BRANCH, PathWritePermission.BranchScope.INCLUDE, USERNAME, false, PathWritePermission.Type.DENY));
+      store.set(permissions);
+
+      assertThat(service.isPluginEnabled(REPOSITORY)).isFalse();
+      assertThat(service.getRuleSet(REPOSITORY).getPermissions().getPermissions()).hasSize(1);
+      assertThat(service.isPrivileged(USER, REPOSITORY, BRANCH, "src/[")).isTrue();
+    }
+
+    @Test
+    void shouldPublishCompiledRuleSetOnWrite() {
+      PathWritePermissions permissions = new PathWritePermissions();
+      permissions.getPermissions().add(createPathWritePermission());
+      permissions.setEnabled(true);
+
+      service.setPermissions(REPOSITORY, permissions);
+
+      assertThat(ruleSetCache.get(REPOSITORY.getId(), () -> {
+        throw new AssertionError("rule set should have been published");
+      }).isEnabled()).isTrue();
+    }
+
+    @Test
+    void shouldRejectInvalidAddedRules() {
+      PathWritePermission added = new PathWritePermission("*/*/*/*/*/*/*/*/*", BRANCH, PathWritePermission.BranchScope.INCLUDE, GROUP_NAME, true, PathWritePermission.Type.ALLOW);
+      List<PathWritePermission> toAdd = singletonList(added);
+      List<PathWritePermission> toRemove = emptyList();
+
+      assertThrows(ScmConstraintViolationException.class, () -> service.modifyPermissions(REPOSITORY, null, true, null, null, toRemove, toAdd));
+
+      assertThat(store.getOptional()).isEmpty();
+    }
+
+    @Test
+    void shouldModifySingleRules() {
+      PathWritePermissions permissions = new PathWritePermissions();
+      permissions.getPermissions().add(createPathWritePermission());
+      permissions.setEnabled(true);
+      service.setPermissions(REPOSITORY, permissions);
+      PathWritePermission added = new PathWritePermission("*", BRANCH, PathWritePermission.BranchScope.INCLUDE, GROUP_NAME, true, PathWritePermission.Type.ALLOW);
+
+      RuleSet modified = service.modifyPermissions(REPOSITORY, null, null, null, null, singletonList(createPathWritePermission()), singletonList(added));
+
+      assertThat(modified.isEnabled()).isTrue();
+      assertThat(modified.getPermissions().getPermissions())
+        .extracting("path", "name", "group")
+        .containsExactly(tuple("*", GROUP_NAME, true));
+      assertThat(store.get().getPermissions()).hasSize(1);
+      assertThat(service.getRuleSet(REPOSITORY)).isSameAs(modified);
+    }
+
+    @Test
+    void shouldIgnoreAddedRulesWhichAlreadyExist() {
+      PathWritePermissions permissions = new PathWritePermissions();
+      permissions.getPermissions().add(createPathWritePermission());
+      service.setPermissions(REPOSITORY, permissions);
+
+      RuleSet modified = service.modifyPermissions(REPOSITORY, null, true, null, null, emptyList(), singletonList(createPathWritePermission()));
+
+      assertThat(modified.isEnabled()).isTrue();
+      assertThat(modified.getPermissions().getPermissions()).hasSize(1);
+    }
+
+    @Test
+    void shouldModifyMatchingVersion() {
+      String version = service.getRuleSet(REPOSITORY).getVersion();
+
+      RuleSet modified = service.modifyPermissions(REPOSITORY, version, true, null, null, emptyList(), singletonList(createPathWritePermission()));
+
+      assertThat(modified.getVersion()).isNotEqualTo(version);
+      assertThat(service.isPrivileged(USER, REPOSITORY, BRANCH, PATH)).isTrue();
+    }
+
+    @Test
+    void shouldFailToModifyOutdatedVersion() {
+      List<PathWritePermission> toAdd = singletonList(createPathWritePermission());
+      List<PathWritePermission> toRemove = emptyList();
+
+      assertThrows(ConcurrentModificationException.class, () -> service.modifyPermissions(REPOSITORY, "outdated", true, null, null, toRemove, toAdd));
+      assertThat(store.get()).isNull();
+    }
+
+    @Test
+    void shouldNotLoseConcurrentModificationsOfDifferentInstances() throws Exception {
+      PathWritePermissionService other = createServiceSharingCache();
+
+      runConcurrently(200, i -> {
+        PathWritePermissionService target = i % 2 == 0 ? service : other;
+        PathWritePermission added = new PathWritePermission("dir" + i + "/*", BRANCH, PathWritePermission.BranchScope.INCLUDE, USERNAME, false, PathWritePermission.Type.ALLOW);
+        target.modifyPermissions(REPOSITORY, null, true, null, null, emptyList(), singletonList(added));
+      });
+
+      assertThat(store.get().getPermissions()).hasSize(200);
+      assertThat(service.getRuleSet(REPOSITORY).getPermissions().getPermissions()).hasSize(200);
+    }
+
+    @Test
+    void shouldPublishStoredConfigurationForConcurrentWrites() throws Exception {
+      PathWritePermissionService other = createServiceSharingCache();
+
+      runConcurrently(200, i -> {
+        PathWritePermission rule = new PathWritePermission("dir" + i + "/*", BRANCH, PathWritePermission.BranchScope.INCLUDE, USERNAME, false, PathWritePermission.Type.ALLOW);
+        if (i % 2 == 0) {
+          PathWritePermissions permissions = new PathWritePermissions();
+          permissions.setEnabled(true);
+          permissions.getPermissions().add(rule);
+          service.setPermissions(REPOSITORY, permissions);
+        } else {
+          other.modifyPermissions(REPOSITORY, null, true, null, null, emptyList(), singletonList(rule));
+        }
+      });
+
+      assertThat(service.getRuleSet(REPOSITORY).getVersion()).isEqualTo(PathWritePermissionsFingerprint.of(store.get()));
+    }
+
+    @Test
+    void shouldReturnDeniedPathsOfBatch() {
+      PathWritePermissions permissions = new PathWritePermissions();
+      permissions.getPermissions().add(new PathWritePermission("dir1/*", BRANCH, PathWritePermission.BranchScope.INCLUDE, GROUP_NAME, true, PathWritePermission.Type.ALLOW));
+      permissions.setEnabled(true);
+      service.setPermissions(REPOSITORY, permissions);
+
+      PathWritePrivileges privileges = service.getPrivileges(USER, REPOSITORY);
+
+      assertThat(privileges.getDeniedPaths(BRANCH, asList(PATH, "dir2/file.txt", "dir1/other.txt"))).containsExactly("dir2/file.txt");
+      assertThat(privileges.isPrivilegedForEverythingBelow(BRANCH, "dir1")).isTrue();
+      assertThat(privileges.isPrivilegedForAnythingBelow(BRANCH, "dir2")).isFalse();
+    }
+
+    @Test
+    void shouldInheritRulesOfNamespaceTemplate() {
+      templateService.setTemplate(REPOSITORY.getNamespace(), singletonList(createPathWritePermission()));
+      PathWritePermissions permissions = new PathWritePermissions();
+      permissions.setEnabled(true);
+      permissions.setInheritTemplates(true);
+      service.setPermissions(REPOSITORY, permissions);
+
+      boolean privileged = service.isPrivileged(USER, REPOSITORY, BRANCH, PATH);
+
+      assertThat(privileged).isTrue();
+    }
+
+    @Test
+    void shouldNotInheritTemplatesIfNotConfigured() {
+      templateService.setTemplate(REPOSITORY.getNamespace(), singletonList(createPathWritePermission()));
+      PathWritePermissions permissions = new PathWritePermissions();
+      permissions.setEnabled(true);
+      service.setPermissions(REPOSITORY, permissions);
+
+      boolean privileged = service.isPrivileged(USER, REPOSITORY, BRANCH, PATH);
+
+      assertThat(privileged).isFalse();
+    }
+
+    @Test
+    void shouldDenyPermissionBecauseOfGlobalTemplate() {
+      templateService.setTemplate(null, singletonList(new PathWritePermission(PATH, BRANCH, PathWritePermission.BranchScope.INCLUDE, USER.getName(), false, PathWritePermission.Type.DENY)));
+      PathWritePermissions permissions = new PathWritePermissions();
+      permissions.getPermissions().add(createPathWritePermission());
+      permissions.setEnabled(true);
+      permissions.setInheritTemplates(true);
+      service.setPermissions(REPOSITORY, permissions);
+
+      boolean privileged = service.isPrivileged(USER, REPOSITORY, BRANCH, PATH);
+
+      assertThat(privileged).isFalse();
+    }
+
     @Test
     void shouldPrivilegeUserBecauseThePathIsAllowedToTheUser() {
       PathWritePermissions permissions = new PathWritePermissions();
@@ -280,6 +540,37 @@ class PathWritePermissionServiceTest {
 
       assertThat(privileged).isFalse();
     }
+    @Test
+    void shouldCreateSnapshotForCurrentUser() {
+      when(repositoryManager.get(REPOSITORY.getNamespaceAndName())).thenReturn(REPOSITORY);
+      when(subject.getPrincipals()).thenReturn(new SimplePrincipalCollection(asList("admin", USER), "test"));
+      PathWritePermissions permissions = new PathWritePermissions();
+      permissions.getPermissions().add(new PathWritePermission("dir1/*", BRANCH, PathWritePermission.BranchScope.INCLUDE, GROUP_NAME, true, PathWritePermission.Type.ALLOW));
+      permissions.getPermissions().add(new PathWritePermission("other/*", BRANCH, PathWritePermission.BranchScope.INCLUDE, "other", true, PathWritePermission.Type.ALLOW));
+      permissions.setEnabled(true);
+      service.setPermissions(REPOSITORY, permissions);
+
+      PathWritePermissionSnapshot snapshot = service.getSnapshot(REPOSITORY.getNamespace(), REPOSITORY.getName(), BRANCH);
+
+      assertThat(snapshot.getAllow()).extracting("pattern").containsExactly("dir1/*");
+      assertThat(snapshot.isPrivileged(PATH)).isTrue();
+    }
+
+    @Test
+    void shouldExplainWithGroupsOfExplainedUser() {
+      when(repositoryManager.get(REPOSITORY.getNamespaceAndName())).thenReturn(REPOSITORY);
+      when(groupCollector.collect("trillian")).thenReturn(ImmutableSet.of(GROUP_NAME, "other"));
+      PathWritePermissions permissions = new PathWritePermissions();
+      permissions.getPermissions().add(new PathWritePermission("dir1/*", BRANCH, PathWritePermission.BranchScope.INCLUDE, GROUP_NAME, true, PathWritePermission.Type.ALLOW));
+      permissions.setEnabled(true);
+      service.setPermissions(REPOSITORY, permissions);
+
+      Explanation explanation = service.explain(REPOSITORY.getNamespace(), REPOSITORY.getName(), "trillian", BRANCH, PATH);
+
+      assertThat(explanation.isPrivileged()).isTrue();
+      assertThat(explanation.getGroups()).containsExactly(GROUP_NAME);
+      assertThat(explanation.getMatchingRules()).extracting("rule.name").containsExactly(GROUP_NAME);
+    }
   }
 
   @Test
@@ -293,6 +584,37 @@ class PathWritePermissionServiceTest {
     assertThrows(AuthorizationException.class, () -> service.setPermissions(REPOSITORY, permissions));
   }
 
+  /**
+   * Creates a second service instance, as it would be injected into another class, which shares only the singletons
+   * with the first one.
+   */
+  private PathWritePermissionService createServiceSharingCache() {
+    return new PathWritePermissionService(storeFactory, repositoryManager, groupCollector, ruleSetCache, templateService, new DecisionCache(), new PathWritePermissionStatistics());
+  }
+
+  private void runConcurrently(int count, IntConsumer task) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < count; i++) {
+        int index = i;
+        futures.add(executor.submit(() -> {
+          ThreadContext.bind(subject);
+          try {
+            task.accept(index);
+          } finally {
+            ThreadContext.unbindSubject();
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get(30, SECONDS);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
   private PathWritePermission createPathWritePermission() {
     return new PathWritePermission(PATH, BRANCH, PathWritePermission.BranchScope.INCLUDE, USER.getName(), GROUP, TYPE);
   }
@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp.service;
+
+import org.apache.shiro.authz.AuthorizationException;
+import org.apache.shiro.subject.Subject;
+import org.apache.shiro.util.ThreadContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.group.GroupCollector;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryManager;
+import sonia.scm.repository.RepositoryTestData;
+import sonia.scm.store.InMemoryConfigurationStoreFactory;
+import sonia.scm.user.User;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class PathWritePermissionStatisticsServiceTest {
+
+  private static final Repository REPOSITORY = RepositoryTestData.createHeartOfGold();
+  private static final User USER = new User("trillian");
+  private static final Instant START = Instant.parse("2026-10-19T10:00:00Z");
+
+  static {
+    REPOSITORY.setId("id-1");
+  }
+
+  @Mock
+  private RepositoryManager repositoryManager;
+  @Mock
+  private GroupCollector groupCollector;
+  @Mock
+  private Subject subject;
+
+  private final MutableClock clock = new MutableClock(START);
+  private final PathWritePermissionStatistics statistics = new PathWritePermissionStatistics(clock, 4);
+
+  private final RuleSetCache ruleSetCache = new RuleSetCache();
+
+  private PathWritePermissionService service;
+  private PathWritePermissionStatisticsService statisticsService;
+
+  @BeforeEach
+  void initService() {
+    ThreadContext.bind(subject);
+    lenient().when(subject.getPrincipal()).thenReturn(USER.getName());
+    lenient().when(subject.isPermitted("repository:read:id-1")).thenReturn(true);
+    InMemoryConfigurationStoreFactory storeFactory = new InMemoryConfigurationStoreFactory();
+    DecisionCache decisionCache = new DecisionCache();
+    service = new PathWritePermissionService(storeFactory, repositoryManager, groupCollector, ruleSetCache, new PathWritePermissionTemplateService(storeFactory), decisionCache, statistics);
+    statisticsService = new PathWritePermissionStatisticsService(service, repositoryManager, ruleSetCache, decisionCache, statistics);
+    lenient().when(repositoryManager.get(REPOSITORY.getId())).thenReturn(REPOSITORY);
+  }
+
+  @AfterEach
+  void tearDown() {
+    ThreadContext.unbindSubject();
+  }
+
+  @Test
+  void shouldReportRuleCountsAndUsage() {
+    service.setPermissions(REPOSITORY, permissions(
+      new PathWritePermission("*", "*", PathWritePermission.BranchScope.INCLUDE, "trillian", false, PathWritePermission.Type.ALLOW),
+      new PathWritePermission("secret/*", "*", PathWritePermission.BranchScope.INCLUDE, "trillian", false, PathWritePermission.Type.DENY),
+      new PathWritePermission("docs/*", "*", PathWritePermission.BranchScope.INCLUDE, "developers", true, PathWritePermission.Type.ALLOW)
+    ));
+
+    PathWritePrivileges privileges = service.getPrivileges(USER, REPOSITORY);
+    privileges.isPrivileged("main", "src/Main.java");
+    privileges.isPrivileged("main", "src/Main.java");
+    privileges.isPrivileged("main", "secret/key");
+    privileges.isPrivileged("main", "secret/key");
+    statistics.recordPush(REPOSITORY, TimeUnit.MILLISECONDS.toNanos(10), false);
+    statistics.recordPush(REPOSITORY, TimeUnit.MILLISECONDS.toNanos(30), true);
+    clock.advance(Duration.ofSeconds(2));
+
+    PathWritePermissionStatisticsReport report = statisticsService.getReport();
+
+    assertThat(report.getRepositories()).hasSize(1);
+    PathWritePermissionStatisticsReport.RepositoryStatistics repository = report.getRepositories().get(0);
+    assertThat(repository.getNamespace()).isEqualTo(REPOSITORY.getNamespace());
+    assertThat(repository.getName()).isEqualTo(REPOSITORY.getName());
+    assertThat(repository.isRulesLoaded()).isTrue();
+    assertThat(repository.isEnabled()).isTrue();
+    assertThat(repository.getUserAllowRules()).isEqualTo(1);
+    assertThat(repository.getUserDenyRules()).isEqualTo(1);
+    assertThat(repository.getGroupAllowRules()).isEqualTo(1);
+    assertThat(repository.getGroupDenyRules()).isZero();
+    assertThat(repository.getIndexSize()).isPositive();
+
+    PathWritePermissionStatisticsReport.Usage usage = repository.getUsage();
+    assertThat(usage.getEvaluations()).isEqualTo(4);
+    assertThat(usage.getEvaluationsPerSecond()).isEqualTo(2.0);
+    assertThat(usage.getDenials()).isEqualTo(2);
+    assertThat(usage.getCacheHitRate()).isEqualTo(0.5);
+    assertThat(usage.getPushes()).isEqualTo(2);
+    assertThat(usage.getDeniedPushes()).isEqualTo(1);
+    assertThat(usage.getLatencyPercentile(50)).isEqualTo(TimeUnit.MILLISECONDS.toNanos(10));
+    assertThat(usage.getLatencyPercentile(100)).isEqualTo(TimeUnit.MILLISECONDS.toNanos(30));
+
+    PathWritePermissionStatisticsReport.Summary summary = report.getSummary();
+    assertThat(summary.getRepositories()).isEqualTo(1);
+    assertThat(summary.getRules()).isEqualTo(3);
+    assertThat(summary.getIndexSize()).isEqualTo(repository.getIndexSize());
+    assertThat(summary.getDecisionCacheHitRate()).isEqualTo(0.5);
+    assertThat(summary.getUsage().getEvaluations()).isEqualTo(4);
+    assertThat(summary.getUsage().getPushes()).isEqualTo(2);
+  }
+
+  @Test
+  void shouldKeepOnlyMostRecentLatencies() {
+    for (int i = 1; i <= 6; i++) {
+      statistics.recordPush(REPOSITORY, i, false);
+    }
+
+    PathWritePermissionStatisticsReport.Usage usage = statisticsService.getReport().getSummary().getUsage();
+
+    assertThat(usage.getPushes()).isEqualTo(6);
+    assertThat(usage.getLatencyPercentile(1)).isEqualTo(3);
+    assertThat(usage.getLatencyPercentile(100)).isEqualTo(6);
+  }
+
+  @Test
+  void shouldNotCreateCountersForDisabledRulesOrReport() {
+    PathWritePermissions disabled = permissions(
+      new PathWritePermission("*", "*", PathWritePermission.BranchScope.INCLUDE, "trillian", false, PathWritePermission.Type.ALLOW)
+    );
+    disabled.setEnabled(false);
+    service.setPermissions(REPOSITORY, disabled);
+
+    service.getPrivileges(USER, REPOSITORY).isPrivileged("main", "src/Main.java");
+    PathWritePermissionStatisticsReport report = statisticsService.getReport();
+
+    assertThat(statistics.getRepositories()).isEmpty();
+    assertThat(report.getRepositories()).hasSize(1);
+    assertThat(report.getRepositories().get(0).getUsage().getEvaluations()).isZero();
+    assertThat(report.getRepositories().get(0).getUsage().getLatencyPercentile(100)).isZero();
+  }
+
+  @Test
+  void shouldReportUsageOnlyWithoutLoadingRules() {
+    statistics.recordPush(REPOSITORY, 42, false);
+
+    PathWritePermissionStatisticsReport report = statisticsService.getReport();
+
+    assertThat(report.getRepositories()).hasSize(1);
+    PathWritePermissionStatisticsReport.RepositoryStatistics repository = report.getRepositories().get(0);
+    assertThat(repository.isRulesLoaded()).isFalse();
+    assertThat(repository.getUserAllowRules()).isZero();
+    assertThat(repository.getUsage().getPushes()).isEqualTo(1);
+    assertThat(ruleSetCache.getRepositoryIds()).isEmpty();
+  }
+
+  @Test
+  void shouldNotReportRulesWhichFailedToLoad() {
+    assertThrows(IllegalStateException.class, () -> ruleSetCache.get(REPOSITORY.getId(), () -> {
+      throw new IllegalStateException("broken rules");
+    }));
+    statistics.recordPush(REPOSITORY, 42, false);
+
+    PathWritePermissionStatisticsReport report = statisticsService.getReport();
+
+    assertThat(report.getRepositories()).extracting("rulesLoaded").containsExactly(false);
+  }
+
+  @Test
+  void shouldNotReportRepositoriesWithoutReadPermission() {
+    when(subject.isPermitted("repository:read:id-1")).thenReturn(false);
+    statistics.recordPush(REPOSITORY, 42, false);
+
+    PathWritePermissionStatisticsReport report = statisticsService.getReport();
+
+    assertThat(report.getRepositories()).isEmpty();
+    assertThat(report.getSummary().getRepositories()).isZero();
+  }
+
+  @Test
+  void shouldNotReportWithoutPermission() {
+    doThrow(AuthorizationException.class).when(subject).checkPermission("configuration:read:pathwpStatistics");
+
+    assertThrows(AuthorizationException.class, () -> statisticsService.getReport());
+  }
+
+  private static PathWritePermissions permissions(PathWritePermission... rules) {
+    PathWritePermissions permissions = new PathWritePermissions();
+    permissions.setEnabled(true);
+    permissions.getPermissions().addAll(asList(rules));
+    return permissions;
+  }
+
+  private static final class MutableClock extends Clock {
+
+    private Instant now;
+
+    private MutableClock(Instant now) {
+      this.now = now;
+    }
+
+    void advance(Duration duration) {
+      now = now.plus(duration);
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      return this;
+    }
+
+    @Override
+    public Instant instant() {
+      return now;
+    }
+  }
+}
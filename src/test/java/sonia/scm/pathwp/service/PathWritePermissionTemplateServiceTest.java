@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp.service;
+
+import org.apache.shiro.authz.AuthorizationException;
+import org.apache.shiro.subject.Subject;
+import org.apache.shiro.util.ThreadContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.store.ConfigurationStoreFactory;
+import sonia.scm.store.InMemoryConfigurationStoreFactory;
+
+import java.util.List;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.doThrow;
+
+@ExtendWith(MockitoExtension.class)
+class PathWritePermissionTemplateServiceTest {
+
+  private static final PathWritePermission PERMISSION = new PathWritePermission("src/*", "main", PathWritePermission.BranchScope.INCLUDE, "trillian", false, PathWritePermission.Type.ALLOW);
+
+  @Mock
+  private Subject subject;
+
+  private ConfigurationStoreFactory storeFactory;
+  private PathWritePermissionTemplateService service;
+
+  @BeforeEach
+  void init() {
+    storeFactory = new InMemoryConfigurationStoreFactory();
+    service = new PathWritePermissionTemplateService(storeFactory);
+    ThreadContext.bind(subject);
+  }
+
+  @AfterEach
+  void tearDown() {
+    ThreadContext.unbindSubject();
+  }
+
+  @Test
+  void shouldStoreTemplates() {
+    service.setTemplate(null, singletonList(PERMISSION));
+    service.setTemplate("hitchhiker", singletonList(PERMISSION));
+
+    PathWritePermissionTemplates stored = storeFactory.withType(PathWritePermissionTemplates.class).withName("pathWritePermissionTemplates").build().get();
+
+    assertThat(stored.getTemplates()).extracting("namespace").containsExactly(null, "hitchhiker");
+    assertThat(service.getTemplate("hitchhiker")).extracting("path").containsExactly("src/*");
+  }
+
+  @Test
+  void shouldRemoveEmptyTemplate() {
+    service.setTemplate("hitchhiker", singletonList(PERMISSION));
+    service.setTemplate("hitchhiker", emptyList());
+
+    assertThat(service.getTemplate("hitchhiker")).isEmpty();
+    assertThat(service.getTemplatesFor("hitchhiker")).isEmpty();
+  }
+
+  @Test
+  void shouldCombineNamespaceAndGlobalTemplate() {
+    service.setTemplate(null, singletonList(PERMISSION));
+    service.setTemplate("hitchhiker", singletonList(PERMISSION));
+
+    assertThat(service.getTemplatesFor("hitchhiker")).hasSize(2);
+    assertThat(service.getTemplatesFor("other")).hasSize(1);
+  }
+
+  @Test
+  void shouldShareCompiledTemplates() {
+    service.setTemplate("hitchhiker", singletonList(PERMISSION));
+
+    List<CompiledRules> first = service.getTemplatesFor("hitchhiker");
+    List<CompiledRules> second = service.getTemplatesFor("hitchhiker");
+
+    assertThat(second.get(0)).isSameAs(first.get(0));
+  }
+
+  @Test
+  void shouldLoadStoredTemplates() {
+    service.setTemplate("hitchhiker", singletonList(PERMISSION));
+
+    PathWritePermissionTemplateService restarted = new PathWritePermissionTemplateService(storeFactory);
+
+    assertThat(restarted.getTemplate("hitchhiker")).extracting("path").containsExactly("src/*");
+  }
+
+  @Test
+  void shouldFailWithoutPermission() {
+    doThrow(AuthorizationException.class).when(subject).checkPermission("configuration:write:pathwp");
+    List<PathWritePermission> permissions = singletonList(PERMISSION);
+
+    assertThrows(AuthorizationException.class, () -> service.setTemplate(null, permissions));
+  }
+}
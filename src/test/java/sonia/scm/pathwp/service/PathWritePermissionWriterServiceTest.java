@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp.service;
+
+import org.apache.shiro.subject.Subject;
+import org.apache.shiro.util.ThreadContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.group.Group;
+import sonia.scm.group.GroupCollector;
+import sonia.scm.group.GroupManager;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryManager;
+import sonia.scm.repository.RepositoryTestData;
+import sonia.scm.store.InMemoryConfigurationStoreFactory;
+
+import java.util.Map;
+import java.util.Set;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class PathWritePermissionWriterServiceTest {
+
+  private static final Repository REPOSITORY = RepositoryTestData.createHeartOfGold();
+
+  static {
+    REPOSITORY.setId("id-1");
+  }
+
+  private static final Map<String, Set<String>> GROUPS = Map.of(
+    "dent", Set.of("developers"),
+    "trillian", Set.of("developers", "interns"),
+    "marvin", Set.of("developers")
+  );
+
+  @Mock
+  private RepositoryManager repositoryManager;
+  @Mock
+  private GroupCollector groupCollector;
+  @Mock
+  private GroupManager groupManager;
+  @Mock
+  private Subject subject;
+
+  private PathWritePermissionService service;
+  private PathWritePermissionWriterService writerService;
+
+  @BeforeEach
+  void initService() {
+    ThreadContext.bind(subject);
+    InMemoryConfigurationStoreFactory storeFactory = new InMemoryConfigurationStoreFactory();
+    service = new PathWritePermissionService(storeFactory, repositoryManager, groupCollector, new RuleSetCache(), new PathWritePermissionTemplateService(storeFactory), new DecisionCache(), new PathWritePermissionStatistics());
+    writerService = new PathWritePermissionWriterService(service, groupCollector, groupManager);
+
+    when(repositoryManager.get(REPOSITORY.getNamespaceAndName())).thenReturn(REPOSITORY);
+    lenient().when(groupCollector.collect(anyString())).thenAnswer(ic -> GROUPS.getOrDefault(ic.<String>getArgument(0), Set.of()));
+    lenient().when(groupManager.get("developers")).thenReturn(new Group("xml", "developers", "dent", "trillian", "marvin"));
+    Group ldap = new Group("ldap", "ldap");
+    ldap.setExternal(true);
+    lenient().when(groupManager.get("ldap")).thenReturn(ldap);
+  }
+
+  @AfterEach
+  void tearDown() {
+    ThreadContext.unbindSubject();
+  }
+
+  @Test
+  void shouldFindUsersAndGroupsWhichMayWrite() {
+    service.setPermissions(REPOSITORY, permissions(true,
+      new PathWritePermission("src/*", "*", PathWritePermission.BranchScope.INCLUDE, "developers", true, PathWritePermission.Type.ALLOW),
+      new PathWritePermission("src/*", "*", PathWritePermission.BranchScope.INCLUDE, "ldap", true, PathWritePermission.Type.ALLOW),
+      new PathWritePermission("*", "*", PathWritePermission.BranchScope.INCLUDE, "zaphod", false, PathWritePermission.Type.ALLOW),
+      new PathWritePermission("docs/*", "*", PathWritePermission.BranchScope.INCLUDE, "arthur", false, PathWritePermission.Type.ALLOW),
+      new PathWritePermission("src/*", "*", PathWritePermission.BranchScope.INCLUDE, "marvin", false, PathWritePermission.Type.DENY),
+      new PathWritePermission("*", "*", PathWritePermission.BranchScope.INCLUDE, "interns", true, PathWritePermission.Type.DENY)
+    ));
+
+    PathWritePermissionWriters writers = writerService.getWriters(REPOSITORY.getNamespace(), REPOSITORY.getName(), "main", "src/Main.java");
+
+    assertThat(writers.isEnabled()).isTrue();
+    assertThat(writers.getUsers()).containsExactly("dent", "zaphod");
+    assertThat(writers.getGroups()).containsExactly("developers", "ldap");
+    assertThat(writers.getUnexpandedGroups()).containsExactly("ldap");
+    assertThat(writers.getDeniedUsers()).containsExactly("marvin");
+    assertThat(writers.getDeniedGroups()).containsExactly("interns");
+  }
+
+  @Test
+  void shouldNotListDeniedGroupsAsWriters() {
+    service.setPermissions(REPOSITORY, permissions(true,
+      new PathWritePermission("*", "*", PathWritePermission.BranchScope.INCLUDE, "developers", true, PathWritePermission.Type.ALLOW),
+      new PathWritePermission("*", "*", PathWritePermission.BranchScope.INCLUDE, "developers", true, PathWritePermission.Type.DENY)
+    ));
+
+    PathWritePermissionWriters writers = writerService.getWriters(REPOSITORY.getNamespace(), REPOSITORY.getName(), "main", "src/Main.java");
+
+    assertThat(writers.getUsers()).isEmpty();
+    assertThat(writers.getGroups()).isEmpty();
+    assertThat(writers.getDeniedGroups()).containsExactly("developers");
+    verify(groupManager, never()).get("developers");
+  }
+
+  @Test
+  void shouldReportEverybodyForDisabledConfiguration() {
+    service.setPermissions(REPOSITORY, permissions(false,
+      new PathWritePermission("*", "*", PathWritePermission.BranchScope.INCLUDE, "developers", true, PathWritePermission.Type.ALLOW)
+    ));
+
+    PathWritePermissionWriters writers = writerService.getWriters(REPOSITORY.getNamespace(), REPOSITORY.getName(), "main", "src/Main.java");
+
+    assertThat(writers.isEnabled()).isFalse();
+    assertThat(writers.getUsers()).isEmpty();
+    assertThat(writers.getGroups()).isEmpty();
+  }
+
+  private static PathWritePermissions permissions(boolean enabled, PathWritePermission... rules) {
+    PathWritePermissions permissions = new PathWritePermissions();
+    permissions.setEnabled(enabled);
+    permissions.getPermissions().addAll(asList(rules));
+    return permissions;
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp.service;
+
+import sonia.scm.util.GlobUtil;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The original stream based evaluation of path write permissions, which has been replaced by the compiled
+ * {@link RuleSet}. It is kept as reference for the verdicts of all optimized evaluators and must not be optimized
+ * itself. Note that group DENY rules are evaluated with branch and path swapped, exactly like the original did.
+ */
+final class ReferenceEvaluator {
+
+  private ReferenceEvaluator() {
+  }
+
+  static boolean isPrivileged(boolean enabled, List<PathWritePermission> permissions, String user, Collection<String> userGroups, String branch, String path) {
+    if (!enabled) {
+      return true;
+    }
+    boolean userDenied = hasUserPermission(user, branch, path, permissions, PathWritePermission.Type.DENY);
+    boolean anyUserGroupsDenied = hasAnyGroupPermission(userGroups, path, branch, permissions, PathWritePermission.Type.DENY);
+    if (userDenied || anyUserGroupsDenied) {
+      return false;
+    }
+    return hasUserPermission(user, branch, path, permissions, PathWritePermission.Type.ALLOW)
+      || hasAnyGroupPermission(userGroups, branch, path, permissions, PathWritePermission.Type.ALLOW);
+  }
+
+  private static boolean hasAnyGroupPermission(Collection<String> userGroups, String branch, String path, List<PathWritePermission> permissions, PathWritePermission.Type type) {
+    return permissions.stream()
+      .filter(pathWritePermission -> matchPath(path, pathWritePermission))
+      .filter(pathWritePermission -> matchBranch(branch, pathWritePermission))
+      .filter(PathWritePermission::isGroup)
+      .filter(pathWritePermission -> userGroups.contains(pathWritePermission.getName()))
+      .anyMatch(pathWritePermission -> pathWritePermission.getType().equals(type));
+  }
+
+  private static boolean hasUserPermission(String user, String branch, String path, List<PathWritePermission> permissions, PathWritePermission.Type type) {
+    return permissions.stream()
+      .filter(pathWritePermission -> matchPath(path, pathWritePermission))
+      .filter(pathWritePermission -> matchBranch(branch, pathWritePermission))
+      .filter(pathWritePermission -> !pathWritePermission.isGroup())
+      .filter(pathWritePermission -> user.equals(pathWritePermission.getName()))
+      .anyMatch(pathWritePermission -> pathWritePermission.getType().equals(type));
+  }
+
+  private static boolean matchBranch(String branch, PathWritePermission pathWritePermission) {
+    if (pathWritePermission.getBranchScope().equals(PathWritePermission.BranchScope.INCLUDE)) {
+      return GlobUtil.matches(pathWritePermission.getBranch(), branch);
+    }
+    return !GlobUtil.matches(pathWritePermission.getBranch(), branch);
+  }
+
+  private static boolean matchPath(String path, PathWritePermission pathWritePermission) {
+    return GlobUtil.matches(pathWritePermission.getPath(), path);
+  }
+}
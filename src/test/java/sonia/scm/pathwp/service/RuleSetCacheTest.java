@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RuleSetCacheTest {
+
+  private final RuleSetCache cache = new RuleSetCache();
+
+  @Test
+  void shouldLoadOnlyOnce() {
+    AtomicInteger loads = new AtomicInteger();
+
+    RuleSet first = cache.get("42", () -> {
+      loads.incrementAndGet();
+      return RuleSet.compile(new PathWritePermissions());
+    });
+    RuleSet second = cache.get("42", () -> {
+      loads.incrementAndGet();
+      return RuleSet.compile(new PathWritePermissions());
+    });
+
+    assertThat(second).isSameAs(first);
+    assertThat(loads).hasValue(1);
+  }
+
+  @Test
+  void shouldLoadOnlyOnceForConcurrentReaders() throws Exception {
+    AtomicInteger loads = new AtomicInteger();
+    CountDownLatch loaderStarted = new CountDownLatch(1);
+    CountDownLatch releaseLoader = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<RuleSet>> results = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        results.add(executor.submit(() -> cache.get("42", () -> {
+          loads.incrementAndGet();
+          loaderStarted.countDown();
+          await(releaseLoader);
+          return RuleSet.compile(new PathWritePermissions());
+        })));
+      }
+      assertThat(loaderStarted.await(5, TimeUnit.SECONDS)).isTrue();
+      releaseLoader.countDown();
+
+      RuleSet expected = results.get(0).get(5, TimeUnit.SECONDS);
+      for (Future<RuleSet> result : results) {
+        assertThat(result.get(5, TimeUnit.SECONDS)).isSameAs(expected);
+      }
+      assertThat(loads).hasValue(1);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void shouldReturnPublishedRuleSet() {
+    RuleSet published = RuleSet.compile(new PathWritePermissions());
+
+    cache.publish("42", published);
+
+    assertThat(cache.get("42", () -> RuleSet.compile(new PathWritePermissions()))).isSameAs(published);
+  }
+
+  @Test
+  void shouldLoadAgainAfterFailure() {
+    assertThrows(IllegalStateException.class, () -> cache.get("42", () -> {
+      throw new IllegalStateException("failed");
+    }));
+
+    RuleSet ruleSet = cache.get("42", () -> RuleSet.compile(new PathWritePermissions()));
+
+    assertThat(ruleSet).isNotNull();
+  }
+
+  @Test
+  void shouldLoadAgainAfterInvalidation() {
+    RuleSet first = cache.get("42", () -> RuleSet.compile(new PathWritePermissions()));
+
+    cache.invalidate("42");
+
+    assertThat(cache.get("42", () -> RuleSet.compile(new PathWritePermissions()))).isNotSameAs(first);
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Test
+  void shouldShareRuleSetsOfIdenticalConfigurations() {
+    RuleSet first = cache.intern(createPermissions("src/*"));
+    RuleSet second = cache.intern(createPermissions("src/*"));
+
+    assertThat(second).isSameAs(first);
+    assertThat(cache.getInternedCount()).isEqualTo(1);
+  }
+
+  @Test
+  void shouldNotShareRuleSetsOfDifferentConfigurations() {
+    RuleSet first = cache.intern(createPermissions("src/*"));
+    RuleSet second = cache.intern(createPermissions("docs/*"));
+
+    assertThat(second).isNotSameAs(first);
+    assertThat(second.getVersion()).isNotEqualTo(first.getVersion());
+  }
+
+  @Test
+  void shouldInternModifiedRuleSet() {
+    RuleSet compiled = cache.intern(createPermissions("src/*"));
+    RuleSet modified = RuleSet.compile(createPermissions("docs/*")).modify(
+      null,
+      createPermissions("docs/*").getPermissions(),
+      createPermissions("src/*").getPermissions()
+    );
+
+    assertThat(cache.intern(modified)).isSameAs(compiled);
+  }
+
+  private PathWritePermissions createPermissions(String path) {
+    PathWritePermissions permissions = new PathWritePermissions();
+    permissions.setEnabled(true);
+    permissions.getPermissions().add(new PathWritePermission(path, "main", PathWritePermission.BranchScope.INCLUDE, "trillian", false, PathWritePermission.Type.ALLOW));
+    return permissions;
+  }
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Function;
+
+import static java.util.Collections.singleton;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Compares the verdicts of the compiled and optimized evaluators with the {@link ReferenceEvaluator} for random rule
+ * sets, principals, branches and paths. A mismatch is minimized before it is reported, so that the reported case
+ * contains only the rules and principals, which are necessary to reproduce it. The number of cases and the seed can
+ * be set with the system properties {@code scm.pathwp.fuzz.iterations} and {@code scm.pathwp.fuzz.seed}.
+ */
+class RuleSetFuzzTest {
+
+  private static final int ITERATIONS = Integer.getInteger("scm.pathwp.fuzz.iterations", 2000);
+  private static final long SEED = Long.getLong("scm.pathwp.fuzz.seed", 4711);
+
+  private static final String[] USERS = {"trillian", "dent", "marvin"};
+  private static final String[] GROUPS = {"developers", "hitchhikers", "release/*"};
+  private static final String[] PATTERN_ATOMS = {
+    "src", "docs", "main", "release", "a", "b", "/", ".", "-", " ", "*", "*", "?", "{a,b}", "\\*", "\\?"
+  };
+  private static final String[] NAME_ATOMS = {"src", "docs", "main", "release", "a", "b", "/", ".", "-", "*", "?", "x.txt"};
+
+  @Test
+  void shouldKeepQuirkOfSwappedGroupDenyRules() {
+    List<PathWritePermission> rules = new ArrayList<>();
+    rules.add(new PathWritePermission("*", "*", PathWritePermission.BranchScope.INCLUDE, "developers", true, PathWritePermission.Type.ALLOW));
+    rules.add(new PathWritePermission("release/*", "src/*", PathWritePermission.BranchScope.INCLUDE, "developers", true, PathWritePermission.Type.DENY));
+
+    assertThat(ReferenceEvaluator.isPrivileged(true, rules, "dent", singleton("developers"), "release/1", "src/Main.java")).isFalse();
+    assertThat(ReferenceEvaluator.isPrivileged(true, rules, "dent", singleton("developers"), "main", "src/Main.java")).isTrue();
+  }
+
+  @Test
+  void shouldGiveSameVerdictsAsReference() {
+    Random random = new Random(SEED);
+    for (int i = 0; i < ITERATIONS; i++) {
+      Case generated = generate(random);
+      String mismatch = check(generated);
+      if (mismatch != null) {
+        Case minimized = minimize(generated);
+        fail("case " + i + " of seed " + SEED + ": " + check(minimized) + "\n" + minimized);
+      }
+    }
+  }
+
+  /**
+   * Returns a description of the first property violated by the given case or {@code null}, if the evaluators
+   * agree with the reference.
+   */
+  private static String check(Case c) {
+    boolean expected;
+    try {
+      expected = ReferenceEvaluator.isPrivileged(c.enabled, c.rules, c.user, c.groups, c.branch, c.path);
+    } catch (RuntimeException e) {
+      // the pattern is invalid for the reference, which may happen while shrinking
+      return null;
+    }
+    try {
+      return check(c, expected);
+    } catch (RuntimeException e) {
+      return "evaluation failed with " + e;
+    }
+  }
+
+  private static String check(Case c, boolean expected) {
+    RuleSet compiled = RuleSet.compile(c.toPermissions(c.rules, false));
+    if (compiled.isPrivileged(c.user, c.groups, c.branch, c.path) != expected) {
+      return "compiled rule set differs from reference, expected " + expected;
+    }
+
+    PathWritePrivileges privileges = new PathWritePrivileges(compiled, c.user, c.groups, new DecisionCache(), new PathWritePermissionStatistics().getTotal());
+    if (privileges.isPrivileged(c.branch, c.path) != expected || privileges.isPrivileged(c.branch, c.path) != expected) {
+      return "cached privileges differ from reference, expected " + expected;
+    }
+
+    if (compiled.explain(c.user, c.groups, c.branch, c.path).isPrivileged() != expected) {
+      return "explanation differs from reference, expected " + expected;
+    }
+
+    if (compiled.createSnapshot(c.user, c.groups, c.branch).isPrivileged(c.path) != expected) {
+      return "snapshot differs from reference, expected " + expected;
+    }
+
+    int half = c.rules.size() / 2;
+    RuleSet modified = RuleSet.compile(c.toPermissions(c.rules.subList(0, half), false))
+      .modify(c.enabled, Collections.emptyList(), c.rules.subList(half, c.rules.size()));
+    if (modified.isPrivileged(c.user, c.groups, c.branch, c.path) != expected) {
+      return "modified rule set differs from reference, expected " + expected;
+    }
+
+    RuleSet inherited = RuleSet.compile(c.toPermissions(c.rules.subList(0, c.ownRules), true))
+      .inherit(Collections.singletonList(CompiledRules.compile(c.rules.subList(c.ownRules, c.rules.size()))));
+    if (inherited.isPrivileged(c.user, c.groups, c.branch, c.path) != expected) {
+      return "rule set with inherited templates differs from reference, expected " + expected;
+    }
+
+    for (String directory : c.getDirectories()) {
+      if (!expected && compiled.isPrivilegedForEverythingBelow(c.user, c.groups, c.branch, directory)) {
+        return "privileged for everything below '" + directory + "', but reference denies path";
+      }
+      if (expected && !compiled.isPrivilegedForAnythingBelow(c.user, c.groups, c.branch, directory)) {
+        return "not privileged for anything below '" + directory + "', but reference allows path";
+      }
+    }
+
+    boolean expectedForOtherBranch = ReferenceEvaluator.isPrivileged(c.enabled, c.rules, c.user, c.groups, c.otherBranch, c.path);
+    List<List<String>> branchGroups = compiled.groupBranches(c.user, c.groups, new TreeSet<>(List.of(c.branch, c.otherBranch)));
+    if (branchGroups.size() == 1 && expected != expectedForOtherBranch) {
+      return "branches '" + c.branch + "' and '" + c.otherBranch + "' are grouped, but reference has different verdicts";
+    }
+    return null;
+  }
+
+  /**
+   * Shrinks the failing case step by step, as long as it keeps failing.
+   */
+  private static Case minimize(Case failing) {
+    Case current = failing;
+    boolean shrunk = true;
+    while (shrunk) {
+      shrunk = false;
+      for (Case candidate : current.shrink()) {
+        if (check(candidate) != null) {
+          current = candidate;
+          shrunk = true;
+          break;
+        }
+      }
+    }
+    return current;
+  }
+
+  private static Case generate(Random random) {
+    List<PathWritePermission> rules = new ArrayList<>();
+    int ruleCount = random.nextInt(8);
+    for (int i = 0; i < ruleCount; i++) {
+      boolean group = random.nextBoolean();
+      rules.add(new PathWritePermission(
+        pattern(random),
+        pattern(random),
+        random.nextInt(4) == 0 ? PathWritePermission.BranchScope.EXCLUDE : PathWritePermission.BranchScope.INCLUDE,
+        group ? GROUPS[random.nextInt(GROUPS.length)] : USERS[random.nextInt(USERS.length)],
+        group,
+        random.nextInt(3) == 0 ? PathWritePermission.Type.DENY : PathWritePermission.Type.ALLOW
+      ));
+    }
+    Set<String> groups = new TreeSet<>();
+    for (String group : GROUPS) {
+      if (random.nextBoolean()) {
+        groups.add(group);
+      }
+    }
+    return new Case(
+      random.nextInt(20) != 0,
+      rules,
+      random.nextInt(ruleCount + 1),
+      USERS[random.nextInt(USERS.length)],
+      groups,
+      name(random),
+      name(random),
+      name(random)
+    );
+  }
+
+  private static String pattern(Random random) {
+    return join(random, PATTERN_ATOMS, 1 + random.nextInt(4));
+  }
+
+  /**
+   * Creates a branch name or a path. Branch names never contain line terminators, so neither do the names created
+   * here.
+   */
+  private static String name(Random random) {
+    return join(random, NAME_ATOMS, random.nextInt(5));
+  }
+
+  private static String join(Random random, String[] atoms, int count) {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < count; i++) {
+      builder.append(atoms[random.nextInt(atoms.length)]);
+    }
+    return builder.toString();
+  }
+
+  private static final class Case {
+
+    private final boolean enabled;
+    private final List<PathWritePermission> rules;
+    private final int ownRules;
+    private final String user;
+    private final Set<String> groups;
+    private final String branch;
+    private final String otherBranch;
+    private final String path;
+
+    @SuppressWarnings("java:S107") // a case consists of all these parts
+    private Case(boolean enabled, List<PathWritePermission> rules, int ownRules, String user, Set<String> groups, String branch, String otherBranch, String path) {
+      this.enabled = enabled;
+      this.rules = rules;
+      this.ownRules = ownRules;
+      this.user = user;
+      this.groups = groups;
+      this.branch = branch;
+      this.otherBranch = otherBranch;
+      this.path = path;
+    }
+
+    private PathWritePermissions toPermissions(List<PathWritePermission> permissions, boolean inheritTemplates) {
+      PathWritePermissions result = new PathWritePermissions();
+      result.setEnabled(enabled);
+      result.setInheritTemplates(inheritTemplates);
+      result.setPermissions(new ArrayList<>(permissions));
+      return result;
+    }
+
+    /**
+     * Returns the directories containing the path, from the root to the direct parent. A path ending with a slash
+     * is not below the directory with the same name.
+     */
+    private List<String> getDirectories() {
+      List<String> directories = new ArrayList<>();
+      if (path.isEmpty()) {
+        return directories;
+      }
+      directories.add("");
+      for (int i = path.indexOf('/'); i >= 0 && i + 1 < path.length(); i = path.indexOf('/', i + 1)) {
+        directories.add(path.substring(0, i + 1));
+      }
+      return directories;
+    }
+
+    /**
+     * Returns all cases, which are one step simpler than this one.
+     */
+    private List<Case> shrink() {
+      List<Case> candidates = new ArrayList<>();
+      for (int i = 0; i < rules.size(); i++) {
+        List<PathWritePermission> fewer = new ArrayList<>(rules);
+        fewer.remove(i);
+        candidates.add(new Case(enabled, fewer, i < ownRules ? ownRules - 1 : ownRules, user, groups, branch, otherBranch, path));
+      }
+      for (String group : groups) {
+        Set<String> fewer = new TreeSet<>(groups);
+        fewer.remove(group);
+        candidates.add(new Case(enabled, rules, ownRules, user, fewer, branch, otherBranch, path));
+      }
+      if (ownRules > 0) {
+        candidates.add(new Case(enabled, rules, 0, user, groups, branch, otherBranch, path));
+      }
+      for (int i = 0; i < rules.size(); i++) {
+        int index = i;
+        shrinkString(rules.get(i).getPath(), candidates, shorter -> withRule(index, shorter, rules.get(index).getBranch()));
+        shrinkString(rules.get(i).getBranch(), candidates, shorter -> withRule(index, rules.get(index).getPath(), shorter));
+      }
+      shrinkString(branch, candidates, shorter -> new Case(enabled, rules, ownRules, user, groups, shorter, otherBranch, path));
+      shrinkString(otherBranch, candidates, shorter -> new Case(enabled, rules, ownRules, user, groups, branch, shorter, path));
+      shrinkString(path, candidates, shorter -> new Case(enabled, rules, ownRules, user, groups, branch, otherBranch, shorter));
+      return candidates;
+    }
+
+    private Case withRule(int index, String rulePath, String ruleBranch) {
+      PathWritePermission rule = rules.get(index);
+      List<PathWritePermission> modified = new ArrayList<>(rules);
+      modified.set(index, new PathWritePermission(rulePath, ruleBranch, rule.getBranchScope(), rule.getName(), rule.isGroup(), rule.getType()));
+      return new Case(enabled, modified, ownRules, user, groups, branch, otherBranch, path);
+    }
+
+    private static void shrinkString(String value, List<Case> candidates, Function<String, Case> factory) {
+      for (int i = 0; i < value.length(); i++) {
+        candidates.add(factory.apply(value.substring(0, i) + value.substring(i + 1)));
+      }
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder builder = new StringBuilder();
+      builder.append("enabled: ").append(enabled).append('\n');
+      for (int i = 0; i < rules.size(); i++) {
+        PathWritePermission rule = rules.get(i);
+        builder.append(i < ownRules ? "rule: " : "template rule: ")
+          .append(rule.getType()).append(' ')
+          .append(rule.isGroup() ? "@" : "").append(rule.getName())
+          .append(" path '").append(rule.getPath())
+          .append("' branch ").append(rule.getBranchScope()).append(" '").append(rule.getBranch()).append("'\n");
+      }
+      builder.append("user: ").append(user).append(", groups: ").append(groups).append('\n');
+      builder.append("branch: '").append(branch).append("', other branch: '").append(otherBranch).append("', path: '").append(path).append('\'');
+      return builder.toString();
+    }
+  }
+}
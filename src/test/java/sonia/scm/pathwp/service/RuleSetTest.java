@@ -0,0 +1,418 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp.service;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static sonia.scm.pathwp.service.PathWritePermission.BranchScope.EXCLUDE;
+import static sonia.scm.pathwp.service.PathWritePermission.BranchScope.INCLUDE;
+import static sonia.scm.pathwp.service.PathWritePermission.Type.ALLOW;
+import static sonia.scm.pathwp.service.PathWritePermission.Type.DENY;
+
+class RuleSetTest {
+
+  private final RuleSet ruleSet = RuleSet.compile(createPermissions(
+    new PathWritePermission("src/*", "main", INCLUDE, "trillian", false, ALLOW),
+    new PathWritePermission("docs/*", "main", EXCLUDE, "trillian", false, ALLOW),
+    new PathWritePermission("src/secret.txt", "*", INCLUDE, "trillian", false, DENY),
+    new PathWritePermission("*", "*", INCLUDE, "developers", true, ALLOW)
+  ));
+
+  @Nested
+  class Find {
+
+    @Test
+    void shouldFindAllInConfigurationOrder() {
+      List<PathWritePermission> permissions = ruleSet.find(new RuleFilter());
+
+      assertThat(permissions).extracting("path").containsExactly("src/*", "docs/*", "src/secret.txt", "*");
+    }
+
+    @Test
+    void shouldFindByPrincipal() {
+      RuleFilter filter = new RuleFilter();
+      filter.setPrincipal("developers");
+      filter.setGroup(true);
+
+      assertThat(ruleSet.find(filter)).extracting("path").containsExactly("*");
+    }
+
+    @Test
+    void shouldNotMixUsersAndGroups() {
+      RuleFilter filter = new RuleFilter();
+      filter.setPrincipal("developers");
+
+      assertThat(ruleSet.find(filter)).isEmpty();
+    }
+
+    @Test
+    void shouldFindByPathPrefixAndType() {
+      RuleFilter filter = new RuleFilter();
+      filter.setPathPrefix("src/");
+      filter.setType(DENY);
+
+      assertThat(ruleSet.find(filter)).extracting("path").containsExactly("src/secret.txt");
+    }
+
+    @Test
+    void shouldFindByBranch() {
+      RuleFilter filter = new RuleFilter();
+      filter.setBranch("develop");
+
+      assertThat(ruleSet.find(filter)).extracting("path").containsExactly("docs/*", "src/secret.txt", "*");
+    }
+
+    @Test
+    void shouldReturnCopies() {
+      ruleSet.find(new RuleFilter()).get(0).setPath("changed");
+
+      assertThat(ruleSet.find(new RuleFilter())).extracting("path").contains("src/*");
+    }
+  }
+
+  @Nested
+  class Modify {
+
+    @Test
+    void shouldRemoveAndAddRules() {
+      RuleSet modified = ruleSet.modify(
+        null,
+        singletonList(new PathWritePermission("src/secret.txt", "*", INCLUDE, "trillian", false, DENY)),
+        singletonList(new PathWritePermission("README.md", "*", INCLUDE, "trillian", false, ALLOW))
+      );
+
+      assertThat(modified.getPermissions().getPermissions()).extracting("path").containsExactly("src/*", "docs/*", "*", "README.md");
+      assertThat(modified.isEnabled()).isTrue();
+      assertThat(modified.getVersion()).isNotEqualTo(ruleSet.getVersion());
+      assertThat(modified.isPrivileged("trillian", emptyList(), "main", "src/secret.txt")).isTrue();
+      assertThat(ruleSet.isPrivileged("trillian", emptyList(), "main", "src/secret.txt")).isFalse();
+    }
+
+    @Test
+    void shouldOnlyOptimizeRulesOfChangedPrincipals() {
+      RuleSet optimized = RuleSet.compile(createPermissions(
+        new PathWritePermission("src/*", "main", INCLUDE, "trillian", false, ALLOW),
+        new PathWritePermission("src/main/*", "main", INCLUDE, "trillian", false, ALLOW),
+        new PathWritePermission("docs/*", "main", INCLUDE, "dent", false, ALLOW)
+      ));
+
+      RuleSet modified = optimized.modify(
+        null,
+        singletonList(new PathWritePermission("docs/*", "main", INCLUDE, "dent", false, ALLOW)),
+        asList(
+          new PathWritePermission("*", "main", INCLUDE, "dent", false, ALLOW),
+          new PathWritePermission("docs/*", "main", INCLUDE, "dent", false, ALLOW)
+        )
+      );
+
+      assertThat(modified.getPrunedRules()).extracting("rule.path").containsExactlyInAnyOrder("src/main/*", "docs/*");
+      assertThat(modified.isPrivileged("dent", emptyList(), "main", "src/Main.java")).isTrue();
+      assertThat(modified.isPrivileged("trillian", emptyList(), "main", "docs/README.md")).isFalse();
+    }
+
+    @Test
+    void shouldModifySettings() {
+      RuleSet modified = ruleSet.modify(null, true, PathWritePermissions.OverloadPolicy.COARSE, emptyList(), emptyList());
+
+      assertThat(modified.isEnabled()).isTrue();
+      assertThat(modified.isInheritTemplates()).isTrue();
+      assertThat(modified.getOverloadPolicy()).isEqualTo(PathWritePermissions.OverloadPolicy.COARSE);
+      assertThat(modified.getSettings().getPermissions()).isEmpty();
+      assertThat(modified.getPermissions().getPermissions()).hasSize(4);
+      assertThat(modified.getVersion()).isEqualTo(RuleSet.compile(modified.getPermissions()).getVersion());
+    }
+
+    @Test
+    void shouldHaveSameVersionAsCompiledRuleSet() {
+      RuleSet modified = ruleSet.modify(false, emptyList(), emptyList());
+
+      PathWritePermissions permissions = ruleSet.getPermissions();
+      permissions.setEnabled(false);
+      assertThat(modified.getVersion()).isEqualTo(RuleSet.compile(permissions).getVersion());
+    }
+  }
+
+  @Nested
+  class Subtree {
+
+    @Test
+    void shouldBePrivilegedForEverythingBelowCoveredDirectory() {
+      assertThat(ruleSet.isPrivilegedForEverythingBelow("trillian", emptyList(), "develop", "docs")).isTrue();
+      assertThat(ruleSet.isPrivilegedForEverythingBelow("dent", singleton("developers"), "main", "src")).isTrue();
+    }
+
+    @Test
+    void shouldNotBePrivilegedForEverythingBelowWithPartialDeny() {
+      assertThat(ruleSet.isPrivilegedForEverythingBelow("trillian", emptyList(), "main", "src")).isFalse();
+      assertThat(ruleSet.isPrivilegedForAnythingBelow("trillian", emptyList(), "main", "src")).isTrue();
+    }
+
+    @Test
+    void shouldNotBePrivilegedForAnythingBelowUncoveredDirectory() {
+      assertThat(ruleSet.isPrivilegedForAnythingBelow("trillian", emptyList(), "main", "docs")).isFalse();
+      assertThat(ruleSet.isPrivilegedForAnythingBelow("dent", emptyList(), "main", "src")).isFalse();
+    }
+
+    @Test
+    void shouldAcceptTrailingSlash() {
+      assertThat(ruleSet.isPrivilegedForEverythingBelow("trillian", emptyList(), "develop", "docs/")).isTrue();
+    }
+  }
+
+  @Nested
+  class Optimize {
+
+    @Test
+    void shouldPruneDuplicates() {
+      RuleSet optimized = RuleSet.compile(createPermissions(
+        new PathWritePermission("src/*", "main", INCLUDE, "trillian", false, ALLOW),
+        new PathWritePermission("src/*", "main", INCLUDE, "trillian", false, ALLOW)
+      ));
+
+      assertThat(optimized.getPrunedRules()).extracting("reason").containsExactly(PrunedRule.Reason.SHADOWED);
+      assertThat(optimized.getPermissions().getPermissions()).hasSize(2);
+    }
+
+    @Test
+    void shouldPruneRulesShadowedByBroaderRule() {
+      RuleSet optimized = RuleSet.compile(createPermissions(
+        new PathWritePermission("src/main/*", "main", INCLUDE, "trillian", false, ALLOW),
+        new PathWritePermission("src/*", "main", INCLUDE, "trillian", false, ALLOW),
+        new PathWritePermission("src/secret.txt", "*", INCLUDE, "trillian", false, DENY),
+        new PathWritePermission("src/*", "*", INCLUDE, "trillian", false, DENY)
+      ));
+
+      assertThat(optimized.getPrunedRules()).extracting("rule.path").containsExactlyInAnyOrder("src/main/*", "src/secret.txt");
+      assertThat(optimized.getPrunedRules()).extracting("shadowedBy.path").containsOnly("src/*");
+      assertThat(optimized.isPrivileged("trillian", emptyList(), "main", "src/main/Main.java")).isFalse();
+    }
+
+    @Test
+    void shouldPruneRulesExcludingAllBranches() {
+      RuleSet optimized = RuleSet.compile(createPermissions(
+        new PathWritePermission("src/*", "*", EXCLUDE, "trillian", false, ALLOW)
+      ));
+
+      assertThat(optimized.getPrunedRules()).extracting("reason").containsExactly(PrunedRule.Reason.NEVER_MATCHES);
+      assertThat(optimized.isPrivileged("trillian", emptyList(), "main", "src/Main.java")).isFalse();
+    }
+
+    @Test
+    void shouldPruneRulesWithInvalidPatterns() {
+      RuleSet optimized = RuleSet.compile(createPermissions(
+        new PathWritePermission("src/[", "main", INCLUDE, "trillian", false, ALLOW),
+        new PathWritePermission("src/*", "{main", INCLUDE, "trillian", false, ALLOW)
+      ));
+
+      assertThat(optimized.getPrunedRules()).extracting("reason").containsOnly(PrunedRule.Reason.NEVER_MATCHES).hasSize(2);
+      assertThat(optimized.isPrivileged("trillian", emptyList(), "main", "src/[")).isFalse();
+      assertThat(optimized.getPermissions().getPermissions()).extracting("path").containsExactly("src/[", "src/*");
+    }
+
+    @Test
+    void shouldNotPruneRulesOfOtherBranchesOrPrincipals() {
+      RuleSet optimized = RuleSet.compile(createPermissions(
+        new PathWritePermission("src/*", "main", INCLUDE, "trillian", false, ALLOW),
+        new PathWritePermission("src/main/*", "develop", INCLUDE, "trillian", false, ALLOW),
+        new PathWritePermission("src/main/*", "main", INCLUDE, "dent", false, ALLOW),
+        new PathWritePermission("src/main/*", "main", INCLUDE, "trillian", false, DENY)
+      ));
+
+      assertThat(optimized.getPrunedRules()).isEmpty();
+    }
+  }
+
+  @Nested
+  class GroupBranches {
+
+    @Test
+    void shouldGroupBranchesWithSameRules() {
+      List<List<String>> groups = ruleSet.groupBranches("trillian", emptyList(), asList("main", "develop", "feature/x", "release/1"));
+
+      assertThat(groups).containsExactly(singletonList("main"), asList("develop", "feature/x", "release/1"));
+    }
+
+    @Test
+    void shouldGroupAllBranchesWithoutRules() {
+      List<List<String>> groups = ruleSet.groupBranches("dent", emptyList(), asList("main", "develop"));
+
+      assertThat(groups).containsExactly(asList("main", "develop"));
+    }
+
+    @Test
+    void shouldRespectSwappedGroupDenyRules() {
+      RuleSet swapped = RuleSet.compile(createPermissions(
+        new PathWritePermission("release/*", "*", INCLUDE, "developers", true, DENY),
+        new PathWritePermission("*", "*", INCLUDE, "developers", true, ALLOW)
+      ));
+
+      List<List<String>> groups = swapped.groupBranches("dent", singleton("developers"), asList("main", "release/1", "release/2", "develop"));
+
+      assertThat(groups).containsExactly(asList("main", "develop"), asList("release/1", "release/2"));
+      assertThat(swapped.isPrivileged("dent", singleton("developers"), "release/1", "src/Main.java"))
+        .isEqualTo(swapped.isPrivileged("dent", singleton("developers"), "release/2", "src/Main.java"));
+    }
+  }
+
+  @Nested
+  class Explain {
+
+    @Test
+    void shouldExplainDeniedPath() {
+      Explanation explanation = ruleSet.explain("trillian", asList("developers", "hitchhikers"), "main", "src/secret.txt");
+
+      assertThat(explanation.isPrivileged()).isFalse();
+      assertThat(explanation.getGroups()).containsExactly("developers");
+      assertThat(explanation.getMatchingRules())
+        .extracting("rule.path", "rule.type", "inherited", "pruned")
+        .containsExactly(
+          tuple("src/*", ALLOW, false, false),
+          tuple("src/secret.txt", DENY, false, false),
+          tuple("*", ALLOW, false, false)
+        );
+      assertThat(explanation.getCandidatesInspected()).isEqualTo(1);
+      assertThat(explanation.getGlobMatches()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldExplainAllowedPath() {
+      Explanation explanation = ruleSet.explain("trillian", emptyList(), "main", "src/Main.java");
+
+      assertThat(explanation.isPrivileged()).isTrue();
+      assertThat(explanation.getMatchingRules()).extracting("rule.path").containsExactly("src/*");
+      assertThat(explanation.getCandidatesInspected()).isEqualTo(2);
+      assertThat(explanation.getEvaluationNanos()).isNotNegative();
+    }
+
+    @Test
+    void shouldMarkPrunedRules() {
+      RuleSet optimized = RuleSet.compile(createPermissions(
+        new PathWritePermission("src/main/*", "main", INCLUDE, "trillian", false, ALLOW),
+        new PathWritePermission("src/*", "main", INCLUDE, "trillian", false, ALLOW)
+      ));
+
+      Explanation explanation = optimized.explain("trillian", emptyList(), "main", "src/main/Main.java");
+
+      assertThat(explanation.getMatchingRules())
+        .extracting("rule.path", "pruned")
+        .containsExactly(tuple("src/main/*", true), tuple("src/*", false));
+    }
+
+    @Test
+    void shouldExplainDisabledRuleSet() {
+      PathWritePermissions permissions = createPermissions();
+      permissions.setEnabled(false);
+
+      Explanation explanation = RuleSet.compile(permissions).explain("trillian", emptyList(), "main", "src/secret.txt");
+
+      assertThat(explanation.isEnabled()).isFalse();
+      assertThat(explanation.isPrivileged()).isTrue();
+      assertThat(explanation.getMatchingRules()).isEmpty();
+    }
+  }
+
+  @Nested
+  class Snapshot {
+
+    @Test
+    void shouldContainOnlyRulesOfPrincipalsForBranch() {
+      PathWritePermissionSnapshot snapshot = ruleSet.createSnapshot("trillian", asList("developers", "hitchhikers"), "develop");
+
+      assertThat(snapshot.getAllow()).extracting("pattern", "exclude").containsExactly(tuple("docs/*", false), tuple("*", false));
+      assertThat(snapshot.getDeny()).extracting("pattern", "exclude").containsExactly(tuple("src/secret.txt", false));
+      assertThat(snapshot.isPrivileged("docs/index.md")).isTrue();
+      assertThat(snapshot.isPrivileged("src/secret.txt")).isFalse();
+    }
+
+    @Test
+    void shouldSwapGroupDenyRules() {
+      RuleSet swapped = RuleSet.compile(createPermissions(
+        new PathWritePermission("release/*", "src/*", EXCLUDE, "developers", true, DENY),
+        new PathWritePermission("*", "*", INCLUDE, "developers", true, ALLOW)
+      ));
+
+      PathWritePermissionSnapshot release = swapped.createSnapshot("dent", singleton("developers"), "release/1");
+      PathWritePermissionSnapshot main = swapped.createSnapshot("dent", singleton("developers"), "main");
+
+      assertThat(release.getDeny()).extracting("pattern", "exclude").containsExactly(tuple("src/*", true));
+      assertThat(release.isPrivileged("docs/index.md")).isFalse();
+      assertThat(release.isPrivileged("src/Main.java")).isTrue();
+      assertThat(main.getDeny()).isEmpty();
+    }
+
+    @Test
+    void shouldChangeVersionWithBranchAndPrincipals() {
+      String version = ruleSet.createSnapshot("trillian", emptyList(), "main").getVersion();
+
+      assertThat(ruleSet.createSnapshot("trillian", singleton("hitchhikers"), "main").getVersion()).isEqualTo(version);
+      assertThat(ruleSet.createSnapshot("trillian", singleton("developers"), "main").getVersion()).isNotEqualTo(version);
+      assertThat(ruleSet.createSnapshot("trillian", emptyList(), "develop").getVersion()).isNotEqualTo(version);
+    }
+
+    @Test
+    void shouldAllowEverythingIfDisabled() {
+      PathWritePermissions permissions = createPermissions(
+        new PathWritePermission("src/*", "*", INCLUDE, "trillian", false, DENY)
+      );
+      permissions.setEnabled(false);
+
+      PathWritePermissionSnapshot snapshot = RuleSet.compile(permissions).createSnapshot("trillian", emptyList(), "main");
+
+      assertThat(snapshot.isEnabled()).isFalse();
+      assertThat(snapshot.getDeny()).isEmpty();
+      assertThat(snapshot.isPrivileged("src/Main.java")).isTrue();
+    }
+  }
+
+  @Test
+  void shouldCreateSamePrincipalKeyForIrrelevantPrincipals() {
+    String dent = ruleSet.getPrincipalKey("dent", asList("developers", "hitchhikers"));
+    String marvin = ruleSet.getPrincipalKey("marvin", singleton("developers"));
+    String trillian = ruleSet.getPrincipalKey("trillian", singleton("developers"));
+
+    assertThat(dent).isEqualTo(marvin);
+    assertThat(trillian).isNotEqualTo(dent);
+  }
+
+  @Test
+  void shouldEvaluateRules() {
+    assertThat(ruleSet.isPrivileged("trillian", emptyList(), "main", "src/Main.java")).isTrue();
+    assertThat(ruleSet.isPrivileged("trillian", emptyList(), "develop", "src/Main.java")).isFalse();
+    assertThat(ruleSet.isPrivileged("trillian", emptyList(), "develop", "docs/index.md")).isTrue();
+    assertThat(ruleSet.isPrivileged("trillian", singleton("developers"), "main", "src/secret.txt")).isFalse();
+    assertThat(ruleSet.isPrivileged("dent", singleton("developers"), "main", "src/secret.txt")).isTrue();
+    assertThat(ruleSet.isPrivileged("dent", emptyList(), "main", "src/Main.java")).isFalse();
+  }
+
+  private static PathWritePermissions createPermissions(PathWritePermission... permissions) {
+    PathWritePermissions result = new PathWritePermissions();
+    result.setEnabled(true);
+    for (PathWritePermission permission : permissions) {
+      result.getPermissions().add(permission);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package sonia.scm.pathwp.service;
+
+import org.junit.jupiter.api.Test;
+import sonia.scm.ScmConstraintViolationException;
+
+import java.time.Duration;
+import java.util.List;
+
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+class RuleValidatorTest {
+
+  @Test
+  void shouldAcceptCommonPatterns() {
+    List<PathWritePermission> rules = List.of(
+      rule("*", "*"),
+      rule("src/main/java/**/*.java", "feature/*"),
+      rule("{docs,src}/{*.md,*.txt}", "{main,develop}"),
+      rule("file\\*with\\*escaped\\*stars\\*and\\*more\\*of\\*them\\*and\\*more", "main")
+    );
+
+    assertThatCode(() -> RuleValidator.validate(rules)).doesNotThrowAnyException();
+  }
+
+  @Test
+  void shouldRejectMissingPath() {
+    assertRejected(rule(" ", "main"), "path is required");
+  }
+
+  @Test
+  void shouldRejectMissingName() {
+    List<PathWritePermission> rules = singletonList(new PathWritePermission("*", "*", PathWritePermission.BranchScope.INCLUDE, "", false, PathWritePermission.Type.ALLOW));
+
+    assertThatThrownBy(() -> RuleValidator.validate(rules))
+      .isInstanceOf(ScmConstraintViolationException.class);
+  }
+
+  @Test
+  void shouldRejectMissingType() {
+    List<PathWritePermission> rules = singletonList(new PathWritePermission("*", "*", PathWritePermission.BranchScope.INCLUDE, "trillian", false, null));
+
+    assertThatThrownBy(() -> RuleValidator.validate(rules))
+      .isInstanceOf(ScmConstraintViolationException.class);
+  }
+
+  @Test
+  void shouldRejectMalformedPatterns() {
+    assertRejected(rule("src/[main", "main"), "path is not a valid pattern");
+    assertRejected(rule("src/*", "{main,develop"), "branch is not a valid pattern");
+  }
+
+  @Test
+  void shouldRejectPatternsWithTooManyWildcards() {
+    assertRejected(rule("*a*a*a*a*a*a*a*a*a", "main"), "path must not contain more than");
+  }
+
+  @Test
+  void shouldRejectPatternsWithTooManyWildcardsForRegularExpressions() {
+    assertRejected(rule("{a,b}*a*a*a*b", "main"), "path must not contain more than 3 wildcards together with");
+    assertRejected(rule("src/*", "[a-z]*a*a*a*b"), "branch must not contain more than 3 wildcards together with");
+  }
+
+  @Test
+  void shouldMatchAcceptedPatternsWithManyWildcardsInTime() {
+    PathWritePermission rule = rule("*a*a*a*a*a*a*a*b", "main");
+    assertThatCode(() -> RuleValidator.validate(singletonList(rule))).doesNotThrowAnyException();
+
+    GlobPattern pattern = GlobPattern.compile(rule.getPath());
+    String path = "a".repeat(1000);
+
+    assertTimeoutPreemptively(Duration.ofSeconds(1), () -> assertThat(pattern.matches(path)).isFalse());
+  }
+
+  @Test
+  void shouldRejectDeeplyNestedAlternatives() {
+    assertRejected(rule("{a,{b,{c,{d,e}}}}", "main"), "path must not nest alternatives");
+  }
+
+  @Test
+  void shouldRejectTooLongPatterns() {
+    assertRejected(rule("a".repeat(1025), "main"), "path must not be longer than");
+  }
+
+  private static void assertRejected(PathWritePermission rule, String message) {
+    List<PathWritePermission> rules = singletonList(rule);
+    assertThatThrownBy(() -> RuleValidator.validate(rules))
+      .isInstanceOfSatisfying(ScmConstraintViolationException.class, e -> assertThat(e.getViolations())
+        .anySatisfy(violation -> assertThat(violation.getMessage()).startsWith(message)));
+  }
+
+  private static PathWritePermission rule(String path, String branch) {
+    return new PathWritePermission(path, branch, PathWritePermission.BranchScope.INCLUDE, "trillian", false, PathWritePermission.Type.ALLOW);
+  }
+}
@@ -111,6 +111,43 @@ public class PathWPV2RepositoryConfigMigrationUpdateStepTest {
     assertThat(getConfigStore().get().getPermissions()).isEmpty();
   }
 
+  @Test
+  public void shouldMigrateRepositoriesInBatches() {
+    updateStep = new PathWPV2RepositoryConfigMigrationUpdateStep(testUtil.getPropertyDAO(), storeFactory, 1, 2);
+    testUtil.mockRepositoryProperties(
+      new V1PropertyDaoTestUtil.PropertiesForRepository("repo1", ImmutableMap.of("pathwp.permissions", "[/a/,Tony]")),
+      new V1PropertyDaoTestUtil.PropertiesForRepository("repo2", ImmutableMap.of("pathwp.permissions", "[/b/,Tony]")),
+      new V1PropertyDaoTestUtil.PropertiesForRepository("repo3", ImmutableMap.of("pathwp.permissions", "[/c/,Tony]"))
+    );
+
+    updateStep.doUpdate();
+
+    assertThat(getConfigStore("repo1").get().getPermissions().get(0).getPath()).isEqualTo("/a/");
+    assertThat(getConfigStore("repo2").get().getPermissions().get(0).getPath()).isEqualTo("/b/");
+    assertThat(getConfigStore("repo3").get().getPermissions().get(0).getPath()).isEqualTo("/c/");
+  }
+
+  @Test
+  public void shouldSkipRepositoriesWhichHaveAlreadyBeenMigrated() {
+    PathWritePermissions migrated = new PathWritePermissions();
+    migrated.setEnabled(true);
+    getConfigStore().set(migrated);
+    ImmutableMap<String, String> mockedValues =
+      ImmutableMap.of(
+        "pathwp.permissions", "[/test/path/,Tony]"
+      );
+    testUtil.mockRepositoryProperties(new V1PropertyDaoTestUtil.PropertiesForRepository(REPO_NAME, mockedValues));
+
+    updateStep.doUpdate();
+
+    assertThat(getConfigStore().get().isEnabled()).isTrue();
+    assertThat(getConfigStore().get().getPermissions()).isEmpty();
+  }
+
+  private ConfigurationStore<PathWritePermissions> getConfigStore(String repositoryId) {
+    return storeFactory.withType(PathWritePermissions.class).withName(STORE_NAME).forRepository(repositoryId).build();
+  }
+
   private ConfigurationStore<PathWritePermissions> getConfigStore() {
     return storeFactory.withType(PathWritePermissions.class).withName(STORE_NAME).forRepository(REPO_NAME).build();
   }